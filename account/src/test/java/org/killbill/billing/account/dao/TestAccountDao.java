@@ -20,6 +20,7 @@ package org.killbill.billing.account.dao;
 
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.joda.time.DateTimeZone;
@@ -137,6 +138,19 @@ public class TestAccountDao extends AccountTestSuiteWithEmbeddedDB {
         Assert.assertEquals(auditLogsForAccount1ViaAccountRecordId2.getAuditLogsForAccount().size(), 2);
         Assert.assertEquals(auditLogsForAccount1ViaAccountRecordId2.getAuditLogsForAccount().get(0).getChangeType(), ChangeType.INSERT);
         Assert.assertEquals(auditLogsForAccount1ViaAccountRecordId2.getAuditLogsForAccount().get(1).getChangeType(), ChangeType.UPDATE);
+
+        // Verify audits for both accounts at once
+        final Map<UUID, DefaultAccountAuditLogs> auditLogsForAccounts = auditDao.getAuditLogsForAccounts(ImmutableList.<UUID>of(account1.getId(), account2.getId()), AuditLevel.FULL, internalCallContext);
+        Assert.assertEquals(auditLogsForAccounts.size(), 2);
+        Assert.assertEquals(auditLogsForAccounts.get(account1.getId()).getAuditLogsForAccount(), auditLogsForAccount1ViaAccountRecordId2.getAuditLogsForAccount());
+        Assert.assertEquals(auditLogsForAccounts.get(account2.getId()).getAuditLogsForAccount(), auditLogsForAccount2ViaAccountRecordId.getAuditLogsForAccount());
+
+        // Unknown accounts get an empty entry
+        final UUID unknownAccountId = UUID.randomUUID();
+        final Map<UUID, DefaultAccountAuditLogs> auditLogsForUnknownAccounts = auditDao.getAuditLogsForAccounts(ImmutableList.<UUID>of(account1.getId(), unknownAccountId), AuditLevel.FULL, internalCallContext);
+        Assert.assertEquals(auditLogsForUnknownAccounts.size(), 2);
+        Assert.assertEquals(auditLogsForUnknownAccounts.get(unknownAccountId).getAuditLogsForAccount().size(), 0);
+        Assert.assertEquals(auditDao.getAuditLogsForAccounts(ImmutableList.<UUID>of(unknownAccountId), AuditLevel.FULL, internalCallContext).get(unknownAccountId).getAuditLogsForAccount().size(), 0);
     }
 
     // Simple test to ensure long phone numbers can be stored
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.invoice.api;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+// Materialized account balance and CBA (see InvoiceInternalApi#getAccountBalanceSummaries)
+public class AccountBalanceSummary {
+
+    private final UUID accountId;
+    private final BigDecimal balance;
+    private final BigDecimal cba;
+
+    public AccountBalanceSummary(final UUID accountId, final BigDecimal balance, final BigDecimal cba) {
+        this.accountId = accountId;
+        this.balance = balance;
+        this.cba = cba;
+    }
+
+    public UUID getAccountId() {
+        return accountId;
+    }
+
+    public BigDecimal getBalance() {
+        return balance;
+    }
+
+    public BigDecimal getCBA() {
+        return cba;
+    }
+}
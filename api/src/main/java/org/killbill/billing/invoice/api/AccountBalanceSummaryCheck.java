@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.invoice.api;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+// Materialized account balance and CBA, compared to the ones rebuilt from the invoice rows (see InvoiceInternalApi#rebuildAccountBalanceSummary)
+public class AccountBalanceSummaryCheck {
+
+    private final UUID accountId;
+    private final BigDecimal existingBalance;
+    private final BigDecimal existingCBA;
+    private final BigDecimal rebuiltBalance;
+    private final BigDecimal rebuiltCBA;
+    private final boolean saved;
+
+    public AccountBalanceSummaryCheck(final UUID accountId,
+                                      @Nullable final BigDecimal existingBalance,
+                                      @Nullable final BigDecimal existingCBA,
+                                      final BigDecimal rebuiltBalance,
+                                      final BigDecimal rebuiltCBA,
+                                      final boolean saved) {
+        this.accountId = accountId;
+        this.existingBalance = existingBalance;
+        this.existingCBA = existingCBA;
+        this.rebuiltBalance = rebuiltBalance;
+        this.rebuiltCBA = rebuiltCBA;
+        this.saved = saved;
+    }
+
+    public UUID getAccountId() {
+        return accountId;
+    }
+
+    // Null if the summary wasn't computed yet
+    @Nullable
+    public BigDecimal getExistingBalance() {
+        return existingBalance;
+    }
+
+    @Nullable
+    public BigDecimal getExistingCBA() {
+        return existingCBA;
+    }
+
+    public BigDecimal getRebuiltBalance() {
+        return rebuiltBalance;
+    }
+
+    public BigDecimal getRebuiltCBA() {
+        return rebuiltCBA;
+    }
+
+    // False for a dry-run, or if the summary cannot be materialized (child accounts)
+    public boolean isSaved() {
+        return saved;
+    }
+
+    // A summary which hasn't been computed yet cannot be corrupted
+    public boolean isConsistent() {
+        return existingBalance == null ||
+               (existingBalance.compareTo(rebuiltBalance) == 0 && existingCBA.compareTo(rebuiltCBA) == 0);
+    }
+
+    @Override
+    public String toString() {
+        return "AccountBalanceSummaryCheck{" +
+               "accountId=" + accountId +
+               ", existingBalance=" + existingBalance +
+               ", existingCBA=" + existingCBA +
+               ", rebuiltBalance=" + rebuiltBalance +
+               ", rebuiltCBA=" + rebuiltCBA +
+               ", saved=" + saved +
+               '}';
+    }
+}
@@ -37,6 +37,25 @@ public interface InvoiceInternalApi {
 
     public BigDecimal getAccountBalance(UUID accountId, InternalTenantContext context);
 
+    /**
+     * Retrieve the balance and CBA of several accounts at once
+     *
+     * @param accountIds the account ids, e.g. the accounts of a page
+     * @param context    the tenant context
+     * @return mapping account id -> balance and CBA
+     */
+    public Map<UUID, AccountBalanceSummary> getAccountBalanceSummaries(Collection<UUID> accountIds, InternalTenantContext context);
+
+    /**
+     * Rebuild the materialized account balance and CBA from the invoice rows.
+     *
+     * @param accountId account id
+     * @param dryRun    if true, only compare the materialized summary with the invoice rows
+     * @param context   the callcontext
+     * @return the previous summary along with the rebuilt one
+     */
+    public AccountBalanceSummaryCheck rebuildAccountBalanceSummary(UUID accountId, boolean dryRun, InternalCallContext context);
+
     public void recordPaymentAttemptInit(UUID invoiceId, BigDecimal amountOutstanding, Currency currency, Currency processedCurrency, UUID paymentId, String transactionExternalKey, DateTime paymentDate, InternalCallContext context) throws InvoiceApiException;
 
     public void recordPaymentAttemptCompletion(UUID invoiceId, BigDecimal amountOutstanding, Currency currency, Currency processedCurrency, UUID paymentId, String transactionExternalKey, DateTime paymentDate, boolean success, InternalCallContext context) throws InvoiceApiException;
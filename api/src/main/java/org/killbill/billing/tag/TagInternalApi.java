@@ -16,7 +16,10 @@
 
 package org.killbill.billing.tag;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import org.killbill.billing.ObjectType;
@@ -43,6 +46,27 @@ public interface TagInternalApi {
 
     public List<Tag> getTagsForAccountType(ObjectType objectType, boolean includedDeleted, InternalTenantContext internalTenantContext);
 
+    /**
+     * Return the (non deleted) tags of a given object type, for several accounts at once
+     *
+     * @param accountRecordIds the account record ids
+     * @param objectType       the object type
+     * @param context          tenant callcontext
+     * @return tags for these accounts, keyed by account record id
+     */
+    public Map<Long, List<Tag>> getTagsForAccountsType(Collection<Long> accountRecordIds, ObjectType objectType, InternalTenantContext context);
+
+    /**
+     * Return the accounts having at least one (non deleted) tag of a given definition on an object of a given type
+     *
+     * @param accountRecordIds the account record ids
+     * @param objectType       the object type
+     * @param tagDefinitionId  the tag definition id
+     * @param context          tenant callcontext
+     * @return the subset of these account record ids having such a tag
+     */
+    public Set<Long> getAccountRecordIdsWithTag(Collection<Long> accountRecordIds, ObjectType objectType, UUID tagDefinitionId, InternalTenantContext context);
+
     public void addTag(final UUID objectId, final ObjectType objectType, UUID tagDefinitionId, InternalCallContext context) throws TagApiException;
 
     public void removeTag(final UUID objectId, final ObjectType objectType, final UUID tagDefinitionId, InternalCallContext context) throws TagApiException;
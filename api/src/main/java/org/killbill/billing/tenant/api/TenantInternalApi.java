@@ -20,11 +20,15 @@ package org.killbill.billing.tenant.api;
 import java.util.List;
 import java.util.Locale;
 
+import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.tenant.api.TenantKV.TenantKey;
 
 public interface TenantInternalApi {
 
+    // Tenant KV key of the (signed) catalog snapshot, only written by the catalog module: the user key-value APIs reject it
+    public static final String CATALOG_SNAPSHOT_KEY = "SNAPSHOT_CATALOG";
+
     public interface CacheInvalidationCallback {
 
         /**
@@ -57,5 +61,7 @@ public interface TenantInternalApi {
 
     public List<String> getTenantValuesForKey(final String key, final InternalTenantContext tenantContext);
 
+    public void updateTenantKeyValue(final String key, final String value, final InternalCallContext context);
+
     public Tenant getTenantByApiKey(final String key) throws TenantApiException;
 }
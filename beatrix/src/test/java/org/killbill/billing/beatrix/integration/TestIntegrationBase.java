@@ -985,6 +985,26 @@ public class TestIntegrationBase extends BeatrixTestSuiteWithEmbeddedDB {
             return defaultInvoiceConfig.getMaxGlobalLockRetries();
         }
 
+        @Override
+        public boolean isIncrementalItemTreeEnabled() {
+            return defaultInvoiceConfig.isIncrementalItemTreeEnabled();
+        }
+
+        @Override
+        public boolean isParallelItemGenerationEnabled() {
+            return defaultInvoiceConfig.isParallelItemGenerationEnabled();
+        }
+
+        @Override
+        public boolean isParallelItemGenerationEnabled(final InternalTenantContext tenantContext) {
+            return defaultInvoiceConfig.isParallelItemGenerationEnabled(tenantContext);
+        }
+
+        @Override
+        public int getParallelItemGenerationThreads() {
+            return defaultInvoiceConfig.getParallelItemGenerationThreads();
+        }
+
         @Override
         public boolean isEmailNotificationsEnabled() {
             return defaultInvoiceConfig.isEmailNotificationsEnabled();
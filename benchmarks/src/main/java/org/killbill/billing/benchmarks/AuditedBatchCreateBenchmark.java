@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.benchmarks;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.DBTestingHelper;
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.callcontext.MutableInternalCallContext;
+import org.killbill.billing.platform.test.config.TestKillbillConfigSource;
+import org.killbill.billing.util.cache.CacheControllerDispatcher;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.customfield.dao.CustomFieldModelDao;
+import org.killbill.billing.util.customfield.dao.CustomFieldSqlDao;
+import org.killbill.billing.util.dao.NonEntityDao;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionWrapper;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionalJdbiWrapper;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoWrapperFactory;
+import org.killbill.billing.util.glue.TestUtilModuleWithEmbeddedDB;
+import org.killbill.clock.Clock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.jdbi.v2.IDBI;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Stage;
+
+/**
+ * Audited creation of custom fields against the embedded database (H2 by default, see DBTestingHelper), one create
+ * call per entity versus a single {@link CustomFieldSqlDao#create(Iterable, org.killbill.billing.callcontext.InternalCallContext)}
+ * batch. Each single create issues the insert, the re-hydration, the history insert and the audit insert, while the
+ * batch issues a constant number of statements.
+ * <p/>
+ * Tables are truncated after each iteration so that the numbers don't drift as the history tables grow.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AuditedBatchCreateBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int nbEntities;
+
+    @Param({"false", "true"})
+    public boolean batch;
+
+    private Clock clock;
+    private MutableInternalCallContext internalCallContext;
+    private EntitySqlDaoTransactionalJdbiWrapper transactionalSqlDao;
+
+    @Setup
+    public void setUp() throws Exception {
+        DBTestingHelper.get().start();
+
+        final Injector injector = Guice.createInjector(Stage.PRODUCTION, new TestUtilModuleWithEmbeddedDB(new TestKillbillConfigSource(DBTestingHelper.class)));
+        clock = injector.getInstance(Clock.class);
+        internalCallContext = injector.getInstance(MutableInternalCallContext.class);
+        transactionalSqlDao = new EntitySqlDaoTransactionalJdbiWrapper(injector.getInstance(IDBI.class),
+                                                                       clock,
+                                                                       injector.getInstance(CacheControllerDispatcher.class),
+                                                                       injector.getInstance(NonEntityDao.class),
+                                                                       injector.getInstance(InternalCallContextFactory.class));
+    }
+
+    @TearDown(Level.Iteration)
+    public void cleanupTables() throws Exception {
+        DBTestingHelper.get().getInstance().cleanupAllTables();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        DBTestingHelper.get().getInstance().stop();
+    }
+
+    @Benchmark
+    public List<CustomFieldModelDao> create() {
+        final UUID objectId = UUID.randomUUID();
+        final List<CustomFieldModelDao> customFields = new LinkedList<CustomFieldModelDao>();
+        for (int i = 0; i < nbEntities; i++) {
+            customFields.add(new CustomFieldModelDao(clock.getUTCNow(), "field-" + i, "value-" + i, objectId, ObjectType.ACCOUNT));
+        }
+
+        transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Void>() {
+            @Override
+            public Void inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                final CustomFieldSqlDao customFieldSqlDao = entitySqlDaoWrapperFactory.become(CustomFieldSqlDao.class);
+                if (batch) {
+                    customFieldSqlDao.create(customFields, internalCallContext);
+                } else {
+                    for (final CustomFieldModelDao customField : customFields) {
+                        customFieldSqlDao.create(customField, internalCallContext);
+                    }
+                }
+                return null;
+            }
+        });
+        return customFields;
+    }
+}
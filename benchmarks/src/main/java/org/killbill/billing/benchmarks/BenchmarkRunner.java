@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which reports the allocation rate (gc.alloc.rate.norm is the number
+ * of bytes allocated per operation) next to the throughput.
+ * <p/>
+ * To build and run (the module is only part of the benchmarks profile):
+ * <pre>
+ * mvn -Pbenchmarks -pl benchmarks -am install -DskipTests
+ * java -jar benchmarks/target/benchmarks.jar [JMH options, e.g. ItemTreeBenchmark -p nbSubscriptions=1000]
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+    // Same synthetic data across runs
+    public static final long SEED = 42L;
+
+    public static void main(final String[] args) throws CommandLineOptionException, RunnerException {
+        final Options options = new OptionsBuilder().parent(new CommandLineOptions(args))
+                                                    .addProfiler(GCProfiler.class)
+                                                    // The generators log all proposed items at INFO
+                                                    .jvmArgsAppend("-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+                                                    .build();
+        new Runner(options).run();
+    }
+}
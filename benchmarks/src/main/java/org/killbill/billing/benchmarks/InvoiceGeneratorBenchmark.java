@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.LocalDate;
+import org.killbill.billing.account.api.ImmutableAccountData;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.invoice.api.Invoice;
+import org.killbill.billing.invoice.api.InvoiceApiException;
+import org.killbill.billing.invoice.generator.DefaultInvoiceGenerator;
+import org.killbill.billing.invoice.generator.FixedAndRecurringInvoiceItemGenerator;
+import org.killbill.billing.invoice.generator.InvoiceGeneratorExecutor;
+import org.killbill.billing.invoice.generator.InvoiceWithMetadata;
+import org.killbill.billing.invoice.generator.UsageInvoiceItemGenerator;
+import org.killbill.billing.invoice.usage.RawUsageOptimizer;
+import org.killbill.billing.junction.BillingEventSet;
+import org.killbill.billing.usage.InternalUserApi;
+import org.killbill.billing.usage.RawUsage;
+import org.killbill.billing.util.config.definition.InvoiceConfig;
+import org.killbill.clock.Clock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Invoice generation for an account with fixed and recurring items, against its existing invoices.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InvoiceGeneratorBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int nbSubscriptions;
+
+    @Param({"12", "36"})
+    public int nbMonths;
+
+    @Param({"false", "true"})
+    public boolean parallelItemGeneration;
+
+    private InvoiceGeneratorExecutor invoiceGeneratorExecutor;
+    private DefaultInvoiceGenerator generator;
+    private ImmutableAccountData account;
+    private BillingEventSet events;
+    private List<Invoice> existingInvoices;
+    private LocalDate targetDate;
+    private InternalCallContext internalCallContext;
+
+    @Setup
+    public void setUp() {
+        final SyntheticDataGenerator dataGenerator = new SyntheticDataGenerator(nbSubscriptions, nbMonths, BenchmarkRunner.SEED);
+        final InvoiceConfig invoiceConfig = SyntheticDataGenerator.createInvoiceConfig(parallelItemGeneration);
+        final Clock clock = dataGenerator.createClock();
+
+        invoiceGeneratorExecutor = new InvoiceGeneratorExecutor(invoiceConfig);
+        invoiceGeneratorExecutor.initialize();
+
+        // The incremental item tree is disabled by default, the dao is never used
+        final FixedAndRecurringInvoiceItemGenerator fixedAndRecurringInvoiceItemGenerator = new FixedAndRecurringInvoiceItemGenerator(invoiceConfig, null, invoiceGeneratorExecutor, clock);
+        final UsageInvoiceItemGenerator usageInvoiceItemGenerator = new UsageInvoiceItemGenerator(new RawUsageOptimizer(invoiceConfig, new InternalUserApi() {
+            @Override
+            public List<RawUsage> getRawUsageForAccount(final LocalDate stateDate, final LocalDate endDate, final InternalTenantContext tenantContext) {
+                return ImmutableList.<RawUsage>of();
+            }
+        }), invoiceGeneratorExecutor);
+        generator = new DefaultInvoiceGenerator(clock, invoiceConfig, fixedAndRecurringInvoiceItemGenerator, usageInvoiceItemGenerator);
+
+        account = dataGenerator.createAccount();
+        events = dataGenerator.createBillingEvents();
+        existingInvoices = dataGenerator.createExistingInvoices();
+        targetDate = dataGenerator.getTargetDate();
+        internalCallContext = dataGenerator.createInternalCallContext();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        invoiceGeneratorExecutor.stop();
+    }
+
+    @Benchmark
+    public InvoiceWithMetadata generateInvoice() throws InvoiceApiException {
+        return generator.generateInvoice(account, events, existingInvoices, targetDate, SyntheticDataGenerator.CURRENCY, internalCallContext);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.invoice.api.Invoice;
+import org.killbill.billing.invoice.api.InvoiceItem;
+import org.killbill.billing.invoice.tree.AccountItemTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Item tree in isolation: {@link AccountItemTree} dispatches the existing (including repaired and adjusted) and proposed items
+ * to one {@link org.killbill.billing.invoice.tree.SubscriptionItemTree} per subscription.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ItemTreeBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int nbSubscriptions;
+
+    @Param({"12", "36"})
+    public int nbMonths;
+
+    private UUID accountId;
+    private UUID targetInvoiceId;
+    private List<InvoiceItem> existingItems;
+    private List<InvoiceItem> proposedItems;
+
+    @Setup
+    public void setUp() {
+        final SyntheticDataGenerator dataGenerator = new SyntheticDataGenerator(nbSubscriptions, nbMonths, BenchmarkRunner.SEED);
+        accountId = dataGenerator.getAccountId();
+        targetInvoiceId = UUID.randomUUID();
+
+        existingItems = new ArrayList<InvoiceItem>();
+        for (final Invoice invoice : dataGenerator.createExistingInvoices()) {
+            existingItems.addAll(invoice.getInvoiceItems());
+        }
+        proposedItems = dataGenerator.createProposedItems(targetInvoiceId);
+    }
+
+    @Benchmark
+    public AccountItemTree build() {
+        final AccountItemTree accountItemTree = createTreeWithExistingItems();
+        accountItemTree.build();
+        return accountItemTree;
+    }
+
+    @Benchmark
+    public List<InvoiceItem> mergeProposedItems() {
+        final AccountItemTree accountItemTree = createTreeWithExistingItems();
+        accountItemTree.mergeWithProposedItems(proposedItems);
+        return accountItemTree.getResultingItemList();
+    }
+
+    private AccountItemTree createTreeWithExistingItems() {
+        final AccountItemTree accountItemTree = new AccountItemTree(accountId, targetInvoiceId);
+        for (final InvoiceItem existingItem : existingItems) {
+            accountItemTree.addExistingItem(existingItem);
+        }
+        return accountItemTree;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.benchmarks;
+
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.killbill.billing.payment.core.PaymentExecutors;
+import org.killbill.billing.payment.dispatcher.PluginDispatcher;
+import org.killbill.billing.payment.dispatcher.PluginDispatcher.PluginDispatcherReturnType;
+import org.killbill.billing.util.config.definition.PaymentConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skife.config.ConfigurationObjectFactory;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Load test of the {@link PluginDispatcher}: many concurrent callers (e.g. during a bill run) dispatching plugin calls
+ * that block on a simulated gateway round trip, with the fixed plugin thread pool versus on demand plugin threads.
+ * <p/>
+ * The throughput of the fixed pool is capped at org.killbill.payment.plugin.threads.nb / latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(400)
+public class PluginDispatcherBenchmark {
+
+    private static final String PLUGIN_NAME = "benchmark-gateway";
+
+    @Param({"false", "true"})
+    public boolean threadsOnDemand;
+
+    @Param({"100"})
+    public int pluginThreadNb;
+
+    // 0 for no limit
+    @Param({"0", "200"})
+    public int concurrencyLimit;
+
+    @Param({"20"})
+    public long gatewayLatencyMs;
+
+    private PaymentExecutors paymentExecutors;
+    private PluginDispatcher<Long> pluginDispatcher;
+    private Callable<PluginDispatcherReturnType<Long>> gatewayCall;
+
+    @Setup
+    public void setUp() {
+        final Properties properties = new Properties();
+        properties.setProperty("org.killbill.payment.plugin.threads.nb", String.valueOf(pluginThreadNb));
+        properties.setProperty("org.killbill.payment.plugin.threads.onDemand", String.valueOf(threadsOnDemand));
+        properties.setProperty("org.killbill.payment.plugin.concurrency.limit", String.valueOf(concurrencyLimit));
+        final PaymentConfig paymentConfig = new ConfigurationObjectFactory(properties).build(PaymentConfig.class);
+
+        paymentExecutors = new PaymentExecutors(paymentConfig, new MetricRegistry());
+        paymentExecutors.initialize();
+        pluginDispatcher = new PluginDispatcher<Long>(TimeUnit.MILLISECONDS.toSeconds(paymentConfig.getPaymentPluginTimeout().getMillis()), paymentExecutors);
+
+        gatewayCall = new Callable<PluginDispatcherReturnType<Long>>() {
+            @Override
+            public PluginDispatcherReturnType<Long> call() throws Exception {
+                Thread.sleep(gatewayLatencyMs);
+                return PluginDispatcher.createPluginDispatcherReturnType(gatewayLatencyMs);
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        paymentExecutors.stop();
+    }
+
+    @Benchmark
+    public Long dispatch() throws InterruptedException, ExecutionException, TimeoutException {
+        return pluginDispatcher.dispatchWithTimeout(PLUGIN_NAME, gatewayCall);
+    }
+}
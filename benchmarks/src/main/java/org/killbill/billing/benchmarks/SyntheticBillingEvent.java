@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.joda.time.DateTime;
+import org.killbill.billing.catalog.api.BillingPeriod;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PlanPhase;
+import org.killbill.billing.catalog.api.Usage;
+import org.killbill.billing.junction.BillingEvent;
+import org.killbill.billing.subscription.api.SubscriptionBase;
+import org.killbill.billing.subscription.api.SubscriptionBaseTransitionType;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Plain (i.e. not mocked, so that it doesn't skew the measurements) billing event.
+ */
+public class SyntheticBillingEvent implements BillingEvent {
+
+    private final SubscriptionBase subscription;
+    private final DateTime effectiveDate;
+    private final Plan plan;
+    private final PlanPhase planPhase;
+    private final BigDecimal fixedPrice;
+    private final BigDecimal recurringPrice;
+    private final Currency currency;
+    private final BillingPeriod billingPeriod;
+    private final int billCycleDayLocal;
+    private final SubscriptionBaseTransitionType transitionType;
+    private final Long totalOrdering;
+    private final List<Usage> usages;
+
+    public SyntheticBillingEvent(final SubscriptionBase subscription,
+                                 final DateTime effectiveDate,
+                                 final Plan plan,
+                                 final PlanPhase planPhase,
+                                 @Nullable final BigDecimal fixedPrice,
+                                 @Nullable final BigDecimal recurringPrice,
+                                 final Currency currency,
+                                 final BillingPeriod billingPeriod,
+                                 final int billCycleDayLocal,
+                                 final SubscriptionBaseTransitionType transitionType,
+                                 final long totalOrdering,
+                                 @Nullable final List<Usage> usages) {
+        this.subscription = subscription;
+        this.effectiveDate = effectiveDate;
+        this.plan = plan;
+        this.planPhase = planPhase;
+        this.fixedPrice = fixedPrice;
+        this.recurringPrice = recurringPrice;
+        this.currency = currency;
+        this.billingPeriod = billingPeriod;
+        this.billCycleDayLocal = billCycleDayLocal;
+        this.transitionType = transitionType;
+        this.totalOrdering = totalOrdering;
+        this.usages = usages == null ? ImmutableList.<Usage>of() : usages;
+    }
+
+    @Override
+    public int getBillCycleDayLocal() {
+        return billCycleDayLocal;
+    }
+
+    @Override
+    public SubscriptionBase getSubscription() {
+        return subscription;
+    }
+
+    @Override
+    public DateTime getEffectiveDate() {
+        return effectiveDate;
+    }
+
+    @Override
+    public PlanPhase getPlanPhase() {
+        return planPhase;
+    }
+
+    @Override
+    public Plan getPlan() {
+        return plan;
+    }
+
+    @Override
+    public BillingPeriod getBillingPeriod() {
+        return billingPeriod;
+    }
+
+    @Override
+    public String getDescription() {
+        return transitionType.toString();
+    }
+
+    @Override
+    public BigDecimal getFixedPrice() {
+        return fixedPrice;
+    }
+
+    @Override
+    public BigDecimal getRecurringPrice(final DateTime effectiveDate) {
+        return recurringPrice;
+    }
+
+    @Override
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    @Override
+    public SubscriptionBaseTransitionType getTransitionType() {
+        return transitionType;
+    }
+
+    @Override
+    public Long getTotalOrdering() {
+        return totalOrdering;
+    }
+
+    @Override
+    public List<Usage> getUsages() {
+        return usages;
+    }
+
+    @Override
+    public int compareTo(final BillingEvent e1) {
+        if (!getSubscription().getId().equals(e1.getSubscription().getId())) {
+            return getSubscription().getId().compareTo(e1.getSubscription().getId());
+        } else if (!getEffectiveDate().equals(e1.getEffectiveDate())) {
+            return getEffectiveDate().compareTo(e1.getEffectiveDate());
+        } else {
+            return getTotalOrdering().compareTo(e1.getTotalOrdering());
+        }
+    }
+}
@@ -0,0 +1,438 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.killbill.billing.account.api.DefaultImmutableAccountData;
+import org.killbill.billing.account.api.ImmutableAccountData;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.catalog.DefaultInternationalPrice;
+import org.killbill.billing.catalog.DefaultPlanPhase;
+import org.killbill.billing.catalog.DefaultPrice;
+import org.killbill.billing.catalog.DefaultTier;
+import org.killbill.billing.catalog.DefaultTieredBlock;
+import org.killbill.billing.catalog.DefaultUnit;
+import org.killbill.billing.catalog.DefaultUsage;
+import org.killbill.billing.catalog.MockPlan;
+import org.killbill.billing.catalog.MockPlanPhase;
+import org.killbill.billing.catalog.MockProduct;
+import org.killbill.billing.catalog.api.BillingMode;
+import org.killbill.billing.catalog.api.BillingPeriod;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PlanPhase;
+import org.killbill.billing.catalog.api.Usage;
+import org.killbill.billing.catalog.api.UsageType;
+import org.killbill.billing.invoice.api.Invoice;
+import org.killbill.billing.invoice.api.InvoiceItem;
+import org.killbill.billing.invoice.model.DefaultInvoice;
+import org.killbill.billing.invoice.model.FixedPriceInvoiceItem;
+import org.killbill.billing.invoice.model.ItemAdjInvoiceItem;
+import org.killbill.billing.invoice.model.RecurringInvoiceItem;
+import org.killbill.billing.invoice.model.RepairAdjInvoiceItem;
+import org.killbill.billing.junction.BillingEvent;
+import org.killbill.billing.junction.BillingEventSet;
+import org.killbill.billing.subscription.api.SubscriptionBase;
+import org.killbill.billing.subscription.api.SubscriptionBaseTransitionType;
+import org.killbill.billing.usage.RawUsage;
+import org.killbill.billing.usage.api.svcs.DefaultRawUsage;
+import org.killbill.billing.util.callcontext.CallOrigin;
+import org.killbill.billing.util.callcontext.UserType;
+import org.killbill.billing.util.config.definition.InvoiceConfig;
+import org.killbill.clock.Clock;
+import org.skife.config.ConfigurationObjectFactory;
+import org.skife.config.SimplePropertyConfigSource;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Generates a synthetic account: its billing events, the invoices already generated for it and raw usage.
+ * <p/>
+ * Each subscription starts with a 30 days trial (fixed price) followed by a monthly evergreen phase, and has been invoiced every month
+ * of the history. Every {@link #CHANGE_PLAN_EVERY}th subscription is upgraded half way through the history, the upgrade
+ * having been invoiced one period late (i.e. the original item is repaired), and every {@link #ITEM_ADJUSTMENT_EVERY}th
+ * subscription has its first recurring item adjusted.
+ * <p/>
+ * The data only depends on the parameters and the seed, so that runs are comparable.
+ */
+public class SyntheticDataGenerator {
+
+    public static final Currency CURRENCY = Currency.USD;
+    public static final String USAGE_NAME = "benchmark-usage";
+    public static final String[] USAGE_UNITS = {"api-calls", "storage-gb"};
+
+    private static final LocalDate HISTORY_START_DATE = new LocalDate(2015, 1, 1);
+    private static final int TRIAL_DAYS = 30;
+    private static final int CHANGE_PLAN_EVERY = 10;
+    private static final int ITEM_ADJUSTMENT_EVERY = 7;
+
+    private static final BigDecimal TRIAL_PRICE = new BigDecimal("1.00");
+    private static final BigDecimal STANDARD_PRICE = new BigDecimal("10.00");
+    private static final BigDecimal PREMIUM_PRICE = new BigDecimal("25.00");
+    private static final BigDecimal ITEM_ADJUSTMENT_AMOUNT = new BigDecimal("-2.00");
+
+    private final int nbMonths;
+    private final Random random;
+    private final UUID accountId;
+    private final MockPlan standardPlan;
+    private final MockPlan premiumPlan;
+    private final MockPlan usagePlan;
+    private final List<SyntheticSubscription> subscriptions;
+
+    private long totalOrdering;
+
+    public SyntheticDataGenerator(final int nbSubscriptions, final int nbMonths, final long seed) {
+        this.nbMonths = nbMonths;
+        this.random = new Random(seed);
+        this.accountId = nextUUID();
+        this.standardPlan = new MockPlan("benchmark-standard-monthly",
+                                         new MockProduct(),
+                                         new DefaultPlanPhase[]{MockPlanPhase.createTrial(TRIAL_DAYS)},
+                                         MockPlanPhase.createUSDMonthlyEvergreen(STANDARD_PRICE.toString(), null),
+                                         -1);
+        this.premiumPlan = new MockPlan("benchmark-premium-monthly",
+                                        new MockProduct(),
+                                        new DefaultPlanPhase[]{},
+                                        MockPlanPhase.createUSDMonthlyEvergreen(PREMIUM_PRICE.toString(), null),
+                                        -1);
+        this.usagePlan = new MockPlan("benchmark-usage-monthly",
+                                      new MockProduct(),
+                                      new DefaultPlanPhase[]{},
+                                      MockPlanPhase.createUSDMonthlyEvergreen(null, null),
+                                      -1);
+
+        this.subscriptions = new ArrayList<SyntheticSubscription>(nbSubscriptions);
+        for (int i = 0; i < nbSubscriptions; i++) {
+            // Spread the billing cycle days, but stay away from the end of the month to avoid pro-rations
+            final LocalDate evergreenStartDate = HISTORY_START_DATE.plusDays(i % 28);
+            final Integer changePlanMonth = (i % CHANGE_PLAN_EVERY == CHANGE_PLAN_EVERY - 1 && nbMonths >= 2) ? nbMonths / 2 : null;
+            subscriptions.add(new SyntheticSubscription(createSubscription(nextUUID(), nextUUID()), evergreenStartDate, changePlanMonth, i % ITEM_ADJUSTMENT_EVERY == ITEM_ADJUSTMENT_EVERY - 1));
+        }
+    }
+
+    public UUID getAccountId() {
+        return accountId;
+    }
+
+    public LocalDate getTargetDate() {
+        // Past all billing cycle days of the month following the history: one new period to invoice for each subscription
+        return HISTORY_START_DATE.plusMonths(nbMonths).plusDays(27);
+    }
+
+    public ImmutableAccountData createAccount() {
+        return new DefaultImmutableAccountData(accountId, accountId.toString(), CURRENCY, DateTimeZone.UTC, DateTimeZone.UTC, getReferenceTime());
+    }
+
+    public InternalCallContext createInternalCallContext() {
+        final DateTime now = getTargetDate().toDateTimeAtStartOfDay(DateTimeZone.UTC);
+        return new InternalCallContext(1L, 1L, DateTimeZone.UTC, getReferenceTime(), nextUUID(), "benchmarks", CallOrigin.INTERNAL, UserType.TEST, null, null, now, now);
+    }
+
+    public Clock createClock() {
+        final DateTime now = getTargetDate().toDateTimeAtStartOfDay(DateTimeZone.UTC);
+        return new Clock() {
+            @Override
+            public DateTime getNow(final DateTimeZone tz) {
+                return now.toDateTime(tz);
+            }
+
+            @Override
+            public DateTime getUTCNow() {
+                return now;
+            }
+
+            @Override
+            public LocalDate getUTCToday() {
+                return now.toLocalDate();
+            }
+
+            @Override
+            public LocalDate getToday(final DateTimeZone tz) {
+                return now.toDateTime(tz).toLocalDate();
+            }
+        };
+    }
+
+    public static InvoiceConfig createInvoiceConfig() {
+        return createInvoiceConfig(false);
+    }
+
+    public static InvoiceConfig createInvoiceConfig(final boolean parallelItemGenerationEnabled) {
+        final Properties properties = new Properties();
+        properties.setProperty("org.killbill.invoice.parallelItemGenerationEnabled", String.valueOf(parallelItemGenerationEnabled));
+        // Some generated accounts are much larger than what the safety bounds allow
+        properties.setProperty("org.killbill.invoice.sanitySafetyBoundEnabled", "false");
+        properties.setProperty("org.killbill.invoice.maxDailyNumberOfItemsSafetyBound", "-1");
+        return new ConfigurationObjectFactory(new SimplePropertyConfigSource(properties)).build(InvoiceConfig.class);
+    }
+
+    public BillingEventSet createBillingEvents() {
+        final BillingEventSet events = new SyntheticBillingEventSet();
+        for (final SyntheticSubscription subscription : subscriptions) {
+            final PlanPhase trialPhase = standardPlan.getInitialPhases()[0];
+            events.add(createBillingEvent(subscription, subscription.getTrialStartDate(), standardPlan, trialPhase, TRIAL_PRICE, null, BillingPeriod.NO_BILLING_PERIOD, SubscriptionBaseTransitionType.CREATE, null));
+            events.add(createBillingEvent(subscription, subscription.getEvergreenStartDate(), standardPlan, standardPlan.getFinalPhase(), null, STANDARD_PRICE, BillingPeriod.MONTHLY, SubscriptionBaseTransitionType.PHASE, null));
+            if (subscription.getChangePlanMonth() != null) {
+                events.add(createBillingEvent(subscription, subscription.getPeriodStartDate(subscription.getChangePlanMonth()), premiumPlan, premiumPlan.getFinalPhase(), null, PREMIUM_PRICE, BillingPeriod.MONTHLY, SubscriptionBaseTransitionType.CHANGE, null));
+            }
+        }
+        return events;
+    }
+
+    /**
+     * @return one invoice per month of history
+     */
+    public List<Invoice> createExistingInvoices() {
+        final List<Invoice> invoices = new ArrayList<Invoice>(nbMonths);
+        for (int month = 0; month < nbMonths; month++) {
+            final LocalDate invoiceDate = HISTORY_START_DATE.plusMonths(month);
+            final DefaultInvoice invoice = new DefaultInvoice(accountId, invoiceDate, invoiceDate.plusDays(27), CURRENCY);
+            for (final SyntheticSubscription subscription : subscriptions) {
+                final InvoiceItem recurringItem;
+                if (month == 0) {
+                    invoice.addInvoiceItem(createFixedItem(invoice.getId(), subscription));
+                    recurringItem = createRecurringItem(invoice.getId(), subscription, 0, standardPlan);
+                    invoice.addInvoiceItem(recurringItem);
+                    if (subscription.hasItemAdjustment()) {
+                        invoice.addInvoiceItem(new ItemAdjInvoiceItem(recurringItem, subscription.getPeriodStartDate(0).plusDays(5), ITEM_ADJUSTMENT_AMOUNT, CURRENCY));
+                    }
+                    continue;
+                }
+
+                final Integer changePlanMonth = subscription.getChangePlanMonth();
+                if (changePlanMonth != null && month == changePlanMonth + 1) {
+                    // The change was only known after the period had been invoiced for the old plan
+                    final InvoiceItem repairedItem = findRecurringItem(invoices.get(changePlanMonth), subscription);
+                    invoice.addInvoiceItem(new RepairAdjInvoiceItem(invoice.getId(), accountId, repairedItem.getStartDate(), repairedItem.getEndDate(), repairedItem.getAmount().negate(), CURRENCY, repairedItem.getId()));
+                    invoice.addInvoiceItem(createRecurringItem(invoice.getId(), subscription, changePlanMonth, premiumPlan));
+                }
+                recurringItem = createRecurringItem(invoice.getId(), subscription, month, changePlanMonth != null && month > changePlanMonth ? premiumPlan : standardPlan);
+                invoice.addInvoiceItem(recurringItem);
+            }
+            invoices.add(invoice);
+        }
+        return invoices;
+    }
+
+    /**
+     * @return the fixed and recurring items the generator is expected to propose at the target date
+     */
+    public List<InvoiceItem> createProposedItems(final UUID invoiceId) {
+        final List<InvoiceItem> proposedItems = new ArrayList<InvoiceItem>();
+        for (final SyntheticSubscription subscription : subscriptions) {
+            proposedItems.add(createFixedItem(invoiceId, subscription));
+            for (int month = 0; month <= nbMonths; month++) {
+                final Integer changePlanMonth = subscription.getChangePlanMonth();
+                proposedItems.add(createRecurringItem(invoiceId, subscription, month, changePlanMonth != null && month >= changePlanMonth ? premiumPlan : standardPlan));
+            }
+        }
+        return proposedItems;
+    }
+
+    /**
+     * @return a consumable in arrear usage section, with three tiers of decreasing prices for each unit
+     */
+    public DefaultUsage createTieredUsage() {
+        final double[] maxBlocksPerTier = {100, 1000, 1000000};
+        final String[] pricesPerTier = {"1.00", "0.50", "0.10"};
+
+        final DefaultTier[] tiers = new DefaultTier[maxBlocksPerTier.length];
+        for (int i = 0; i < tiers.length; i++) {
+            final DefaultTieredBlock[] blocks = new DefaultTieredBlock[USAGE_UNITS.length];
+            for (int j = 0; j < USAGE_UNITS.length; j++) {
+                blocks[j] = new DefaultTieredBlock();
+                blocks[j].setUnit(new DefaultUnit().setName(USAGE_UNITS[j]));
+                blocks[j].setSize(10.0);
+                blocks[j].setPrice(new DefaultInternationalPrice().setPrices(new DefaultPrice[]{new DefaultPrice().setCurrency(CURRENCY).setValue(new BigDecimal(pricesPerTier[i]))}));
+                blocks[j].setMax(maxBlocksPerTier[i]);
+            }
+            tiers[i] = new DefaultTier().setBlocks(blocks);
+        }
+
+        return new DefaultUsage().setName(USAGE_NAME)
+                                 .setBillingMode(BillingMode.IN_ARREAR)
+                                 .setUsageType(UsageType.CONSUMABLE)
+                                 .setBillingPeriod(BillingPeriod.MONTHLY)
+                                 .setTiers(tiers);
+    }
+
+    /**
+     * @return the billing event starting the usage section, for the first subscription
+     */
+    public BillingEvent createUsageBillingEvent(final Usage usage) {
+        final SyntheticSubscription subscription = subscriptions.get(0);
+        return createBillingEvent(subscription, subscription.getEvergreenStartDate(), usagePlan, usagePlan.getFinalPhase(), null, null, BillingPeriod.MONTHLY, SubscriptionBaseTransitionType.CREATE, ImmutableList.<Usage>of(usage));
+    }
+
+    public LocalDate getUsageStartDate() {
+        return subscriptions.get(0).getEvergreenStartDate();
+    }
+
+    /**
+     * @return the raw usage (sorted by date) of the first subscription, from the start of its usage section up to the target date
+     */
+    public List<RawUsage> createRawUsage(final int nbRecordsPerMonth) {
+        final SyntheticSubscription subscription = subscriptions.get(0);
+        final List<RawUsage> rawUsage = new ArrayList<RawUsage>(nbRecordsPerMonth * (nbMonths + 1));
+        for (int month = 0; month <= nbMonths; month++) {
+            final LocalDate periodStartDate = subscription.getPeriodStartDate(month);
+            final int nbDays = Days.daysBetween(periodStartDate, subscription.getPeriodStartDate(month + 1)).getDays();
+            for (int i = 0; i < nbRecordsPerMonth; i++) {
+                final LocalDate recordDate = periodStartDate.plusDays(i * nbDays / nbRecordsPerMonth);
+                if (recordDate.isAfter(getTargetDate())) {
+                    return rawUsage;
+                }
+                rawUsage.add(new DefaultRawUsage(subscription.getId(), recordDate, USAGE_UNITS[i % USAGE_UNITS.length], (long) (1 + random.nextInt(100))));
+            }
+        }
+        return rawUsage;
+    }
+
+    private BillingEvent createBillingEvent(final SyntheticSubscription subscription, final LocalDate effectiveDate, final Plan plan, final PlanPhase planPhase,
+                                            final BigDecimal fixedPrice, final BigDecimal recurringPrice, final BillingPeriod billingPeriod,
+                                            final SubscriptionBaseTransitionType transitionType, final List<Usage> usages) {
+        return new SyntheticBillingEvent(subscription.getSubscription(),
+                                         effectiveDate.toDateTimeAtStartOfDay(DateTimeZone.UTC),
+                                         plan,
+                                         planPhase,
+                                         fixedPrice,
+                                         recurringPrice,
+                                         CURRENCY,
+                                         billingPeriod,
+                                         subscription.getBillCycleDayLocal(),
+                                         transitionType,
+                                         totalOrdering++,
+                                         usages);
+    }
+
+    private InvoiceItem createFixedItem(final UUID invoiceId, final SyntheticSubscription subscription) {
+        final PlanPhase trialPhase = standardPlan.getInitialPhases()[0];
+        return new FixedPriceInvoiceItem(invoiceId, accountId, subscription.getBundleId(), subscription.getId(), standardPlan.getName(), trialPhase.getName(),
+                                         subscription.getTrialStartDate(), TRIAL_PRICE, CURRENCY);
+    }
+
+    private InvoiceItem createRecurringItem(final UUID invoiceId, final SyntheticSubscription subscription, final int month, final MockPlan plan) {
+        final BigDecimal price = plan == premiumPlan ? PREMIUM_PRICE : STANDARD_PRICE;
+        return new RecurringInvoiceItem(invoiceId, accountId, subscription.getBundleId(), subscription.getId(), plan.getName(), plan.getFinalPhase().getName(),
+                                        subscription.getPeriodStartDate(month), subscription.getPeriodStartDate(month + 1), price, price, CURRENCY);
+    }
+
+    private InvoiceItem findRecurringItem(final Invoice invoice, final SyntheticSubscription subscription) {
+        for (final InvoiceItem invoiceItem : invoice.getInvoiceItems(RecurringInvoiceItem.class)) {
+            if (subscription.getId().equals(invoiceItem.getSubscriptionId())) {
+                return invoiceItem;
+            }
+        }
+        throw new IllegalStateException("No recurring item for subscription " + subscription.getId() + " on invoice " + invoice.getId());
+    }
+
+    private DateTime getReferenceTime() {
+        return HISTORY_START_DATE.minusDays(TRIAL_DAYS).toDateTimeAtStartOfDay(DateTimeZone.UTC);
+    }
+
+    private UUID nextUUID() {
+        return new UUID(random.nextLong(), random.nextLong());
+    }
+
+    // Only the identifiers are used during invoice generation
+    private static SubscriptionBase createSubscription(final UUID id, final UUID bundleId) {
+        return (SubscriptionBase) Proxy.newProxyInstance(SubscriptionBase.class.getClassLoader(),
+                                                         new Class[]{SubscriptionBase.class},
+                                                         new InvocationHandler() {
+                                                             @Override
+                                                             public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                                                                 if ("getId".equals(method.getName())) {
+                                                                     return id;
+                                                                 } else if ("getBundleId".equals(method.getName())) {
+                                                                     return bundleId;
+                                                                 } else if ("hashCode".equals(method.getName())) {
+                                                                     return id.hashCode();
+                                                                 } else if ("equals".equals(method.getName())) {
+                                                                     return proxy == args[0];
+                                                                 } else if ("toString".equals(method.getName())) {
+                                                                     return "SyntheticSubscription{id=" + id + "}";
+                                                                 }
+                                                                 throw new UnsupportedOperationException(method.getName());
+                                                             }
+                                                         });
+    }
+
+    private static final class SyntheticSubscription {
+
+        private final SubscriptionBase subscription;
+        private final LocalDate evergreenStartDate;
+        private final Integer changePlanMonth;
+        private final boolean hasItemAdjustment;
+
+        private SyntheticSubscription(final SubscriptionBase subscription, final LocalDate evergreenStartDate, final Integer changePlanMonth, final boolean hasItemAdjustment) {
+            this.subscription = subscription;
+            this.evergreenStartDate = evergreenStartDate;
+            this.changePlanMonth = changePlanMonth;
+            this.hasItemAdjustment = hasItemAdjustment;
+        }
+
+        public SubscriptionBase getSubscription() {
+            return subscription;
+        }
+
+        public UUID getId() {
+            return subscription.getId();
+        }
+
+        public UUID getBundleId() {
+            return subscription.getBundleId();
+        }
+
+        public LocalDate getTrialStartDate() {
+            return evergreenStartDate.minusDays(TRIAL_DAYS);
+        }
+
+        public LocalDate getEvergreenStartDate() {
+            return evergreenStartDate;
+        }
+
+        public LocalDate getPeriodStartDate(final int month) {
+            return evergreenStartDate.plusMonths(month);
+        }
+
+        public int getBillCycleDayLocal() {
+            return evergreenStartDate.getDayOfMonth();
+        }
+
+        public Integer getChangePlanMonth() {
+            return changePlanMonth;
+        }
+
+        public boolean hasItemAdjustment() {
+            return hasItemAdjustment;
+        }
+    }
+}
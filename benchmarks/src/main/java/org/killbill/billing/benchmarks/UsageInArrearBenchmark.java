@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.LocalDate;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.catalog.api.CatalogApiException;
+import org.killbill.billing.catalog.api.Usage;
+import org.killbill.billing.invoice.api.InvoiceItem;
+import org.killbill.billing.invoice.usage.ContiguousIntervalUsageInArrear;
+import org.killbill.billing.invoice.usage.ContiguousIntervalUsageInArrear.UsageInArrearItemsAndNextNotificationDate;
+import org.killbill.billing.junction.BillingEvent;
+import org.killbill.billing.usage.RawUsage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tiered consumable usage in arrear for one subscription: all periods but the last one have already been billed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UsageInArrearBenchmark {
+
+    @Param({"12", "36"})
+    public int nbMonths;
+
+    @Param({"100", "1000", "10000"})
+    public int nbUsageRecordsPerMonth;
+
+    private Usage usage;
+    private BillingEvent billingEvent;
+    private UUID accountId;
+    private UUID invoiceId;
+    private List<RawUsage> rawUsage;
+    private LocalDate targetDate;
+    private LocalDate rawUsageStartDate;
+    private InternalCallContext internalCallContext;
+    private List<InvoiceItem> existingUsageItems;
+
+    @Setup
+    public void setUp() throws CatalogApiException {
+        final SyntheticDataGenerator dataGenerator = new SyntheticDataGenerator(1, nbMonths, BenchmarkRunner.SEED);
+        usage = dataGenerator.createTieredUsage();
+        billingEvent = dataGenerator.createUsageBillingEvent(usage);
+        accountId = dataGenerator.getAccountId();
+        invoiceId = UUID.randomUUID();
+        rawUsage = dataGenerator.createRawUsage(nbUsageRecordsPerMonth);
+        targetDate = dataGenerator.getTargetDate();
+        rawUsageStartDate = dataGenerator.getUsageStartDate();
+        internalCallContext = dataGenerator.createInternalCallContext();
+
+        // Bill everything once, and keep all periods but the last one as already invoiced
+        final List<InvoiceItem> allUsageItems = computeMissingItems(ImmutableList.<InvoiceItem>of()).getInvoiceItems();
+        LocalDate lastPeriodEndDate = null;
+        for (final InvoiceItem item : allUsageItems) {
+            lastPeriodEndDate = (lastPeriodEndDate == null || item.getEndDate().isAfter(lastPeriodEndDate)) ? item.getEndDate() : lastPeriodEndDate;
+        }
+        existingUsageItems = new ArrayList<InvoiceItem>();
+        for (final InvoiceItem item : allUsageItems) {
+            if (item.getAmount().compareTo(BigDecimal.ZERO) > 0 && item.getEndDate().isBefore(lastPeriodEndDate)) {
+                existingUsageItems.add(item);
+            }
+        }
+    }
+
+    @Benchmark
+    public UsageInArrearItemsAndNextNotificationDate computeMissingItemsAndNextNotificationDate() throws CatalogApiException {
+        return computeMissingItems(existingUsageItems);
+    }
+
+    private UsageInArrearItemsAndNextNotificationDate computeMissingItems(final List<InvoiceItem> existingUsage) throws CatalogApiException {
+        final ContiguousIntervalUsageInArrear intervalUsageInArrear = new ContiguousIntervalUsageInArrear(usage, accountId, invoiceId, rawUsage, targetDate, rawUsageStartDate, internalCallContext);
+        intervalUsageInArrear.addBillingEvent(billingEvent);
+        return intervalUsageInArrear.build(false).computeMissingItemsAndNextNotificationDate(existingUsage);
+    }
+}
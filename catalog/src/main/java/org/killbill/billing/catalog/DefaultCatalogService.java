@@ -83,6 +83,10 @@ public class DefaultCatalogService implements KillbillService, CatalogService {
     @LifecycleHandlerType(LifecycleLevel.INIT_SERVICE)
     public synchronized void initialize() throws ServiceException {
         tenantInternalApi.initializeCacheInvalidationCallback(TenantKey.CATALOG, cacheInvalidationCallback);
+        // Catalog plugins can notify all nodes of a new catalog by updating their per-tenant configuration
+        if (config.getPluginCatalogCacheTtl().getMillis() > 0) {
+            tenantInternalApi.initializeCacheInvalidationCallback(TenantKey.PLUGIN_CONFIG_, cacheInvalidationCallback);
+        }
     }
 
     @Override
@@ -62,6 +62,7 @@ import org.killbill.billing.catalog.api.PriceListSet;
 import org.killbill.billing.catalog.api.Product;
 import org.killbill.billing.catalog.api.StaticCatalog;
 import org.killbill.billing.catalog.api.Unit;
+import org.killbill.billing.catalog.override.DefaultPriceOverride;
 import org.killbill.billing.util.cache.ExternalizableInput;
 import org.killbill.billing.util.cache.ExternalizableOutput;
 import org.killbill.billing.util.cache.MapperHolder;
@@ -88,6 +89,8 @@ public class VersionedCatalog extends ValidatingConfig<VersionedCatalog> impleme
     @XmlElement(required = true)
     private BillingMode recurringBillingMode;
 
+    private transient volatile VersionedCatalogPlanIndex planIndex;
+
     // Required for JAXB deserialization
     public VersionedCatalog() {
         this.clock = null;
@@ -106,30 +109,27 @@ public class VersionedCatalog extends ValidatingConfig<VersionedCatalog> impleme
         return versions.get(indexOfVersionForDate(date.toDate()));
     }
 
-    private List<StandaloneCatalog> versionsBeforeDate(final Date date) throws CatalogApiException {
-        final List<StandaloneCatalog> result = new ArrayList<StandaloneCatalog>();
-        final int index = indexOfVersionForDate(date);
-        for (int i = 0; i <= index; i++) {
-            result.add(versions.get(i));
-        }
-        return result;
-    }
-
     private int indexOfVersionForDate(final Date date) throws CatalogApiException {
-        for (int i = versions.size() - 1; i >= 0; i--) {
-            final StandaloneCatalog c = versions.get(i);
-            if (c.getEffectiveDate().getTime() <= date.getTime()) {
-                return i;
-            }
-        }
         // If the only version we have are after the input date, we return the first version
         // This is not strictly correct from an api point of view, but there is no real good use case
         // where the system would ask for the catalog for a date prior any catalog was uploaded and
         // yet time manipulation could end of inn that state -- see https://github.com/killbill/killbill/issues/760
-        if (versions.size() > 0) {
-            return 0;
+        final int index = getPlanIndex().indexOfVersionForDate(date);
+        if (index < 0) {
+            throw new CatalogApiException(ErrorCode.CAT_NO_CATALOG_FOR_GIVEN_DATE, date.toString());
         }
-        throw new CatalogApiException(ErrorCode.CAT_NO_CATALOG_FOR_GIVEN_DATE, date.toString());
+        return index;
+    }
+
+    // The versions are populated either through add (which resets the index) or directly by JAXB / Jackson,
+    // so the index is built lazily on first access
+    private VersionedCatalogPlanIndex getPlanIndex() {
+        VersionedCatalogPlanIndex result = planIndex;
+        if (result == null || result.size() != versions.size()) {
+            result = new VersionedCatalogPlanIndex(versions);
+            planIndex = result;
+        }
+        return result;
     }
 
     private class PlanRequestWrapper {
@@ -156,19 +156,75 @@ public class VersionedCatalog extends ValidatingConfig<VersionedCatalog> impleme
         public PlanSpecifier getSpec() {
             return spec;
         }
+
+        // Only lookups by plan name skip the versions where the plan doesn't exist (retired plan),
+        // other lookups fail on the first version which cannot resolve them
+        public boolean isLookupByPlanName() {
+            return spec.getPlanName() != null;
+        }
+
+        // Ascending indices of the versions resolving the request, or null if the index cannot answer it
+        // (custom plan names created through price overrides, incomplete specifiers)
+        @Nullable
+        public int[] findCandidateVersions(final VersionedCatalogPlanIndex index) {
+            if (spec.getPlanName() != null) {
+                final int[] result = index.getVersionsForPlanName(spec.getPlanName());
+                if (result.length == 0 && DefaultPriceOverride.CUSTOM_PLAN_NAME_PATTERN.matcher(spec.getPlanName()).matches()) {
+                    return null;
+                }
+                return result;
+            }
+            if (spec.getProductName() == null || spec.getBillingPeriod() == null) {
+                return null;
+            }
+            final String priceListName = spec.getPriceListName() == null ? PriceListSet.DEFAULT_PRICELIST_NAME : spec.getPriceListName();
+            return index.getVersionsForPlan(spec.getProductName(), spec.getBillingPeriod(), priceListName);
+        }
     }
 
     private CatalogPlanEntry findCatalogPlanEntry(final PlanRequestWrapper wrapper,
                                                   final DateTime requestedDate,
                                                   final DateTime subscriptionStartDate)
             throws CatalogApiException {
-        final List<StandaloneCatalog> catalogs = versionsBeforeDate(requestedDate.toDate());
-        if (catalogs.isEmpty()) {
+        final VersionedCatalogPlanIndex index = getPlanIndex();
+        final int versionIndex = index.indexOfVersionForDate(requestedDate.toDate());
+        if (versionIndex < 0) {
             throw new CatalogApiException(ErrorCode.CAT_NO_CATALOG_FOR_GIVEN_DATE, requestedDate.toDate().toString());
         }
 
-        for (int i = catalogs.size() - 1; i >= 0; i--) { // Working backwards to find the latest applicable plan
-            final StandaloneCatalog c = catalogs.get(i);
+        final int[] candidates = wrapper.findCandidateVersions(index);
+        if (candidates == null) {
+            return findCatalogPlanEntryByScanningVersions(wrapper, versionIndex, requestedDate, subscriptionStartDate);
+        }
+
+        int expectedVersionIndex = versionIndex;
+        for (int i = VersionedCatalogPlanIndex.lastIndexAtOrBefore(candidates, versionIndex); i >= 0; i--) { // Working backwards to find the latest applicable plan
+            if (!wrapper.isLookupByPlanName() && candidates[i] != expectedVersionIndex) {
+                // The index doesn't resolve the request in that version: let the catalog surface the error
+                return findCatalogPlanEntryByScanningVersions(wrapper, expectedVersionIndex, requestedDate, subscriptionStartDate);
+            }
+
+            final StandaloneCatalog c = versions.get(candidates[i]);
+            final CatalogPlanEntry entry = toCatalogPlanEntryIfApplicable(c, wrapper.findPlan(c), requestedDate, subscriptionStartDate);
+            if (entry != null) {
+                return entry;
+            }
+            expectedVersionIndex = candidates[i] - 1;
+        }
+
+        if (!wrapper.isLookupByPlanName() && expectedVersionIndex >= 0) {
+            return findCatalogPlanEntryByScanningVersions(wrapper, expectedVersionIndex, requestedDate, subscriptionStartDate);
+        }
+        throw planNotFound(wrapper.getSpec());
+    }
+
+    private CatalogPlanEntry findCatalogPlanEntryByScanningVersions(final PlanRequestWrapper wrapper,
+                                                                    final int versionIndex,
+                                                                    final DateTime requestedDate,
+                                                                    final DateTime subscriptionStartDate)
+            throws CatalogApiException {
+        for (int i = versionIndex; i >= 0; i--) { // Working backwards to find the latest applicable plan
+            final StandaloneCatalog c = versions.get(i);
             final Plan plan;
             try {
                 plan = wrapper.findPlan(c);
@@ -181,25 +237,39 @@ public class VersionedCatalog extends ValidatingConfig<VersionedCatalog> impleme
                 }
             }
 
-            final DateTime catalogEffectiveDate = CatalogDateHelper.toUTCDateTime(c.getEffectiveDate());
-            if (!subscriptionStartDate.isBefore(catalogEffectiveDate)) { // Its a new subscription this plan always applies
-                return new CatalogPlanEntry(c, plan);
-            } else { //Its an existing subscription
-                if (plan.getEffectiveDateForExistingSubscriptions() != null) { //if it is null any change to this does not apply to existing subscriptions
-                    final DateTime existingSubscriptionDate = CatalogDateHelper.toUTCDateTime(plan.getEffectiveDateForExistingSubscriptions());
-                    if (requestedDate.isAfter(existingSubscriptionDate)) { // this plan is now applicable to existing subs
-                        return new CatalogPlanEntry(c, plan);
-                    }
+            final CatalogPlanEntry entry = toCatalogPlanEntryIfApplicable(c, plan, requestedDate, subscriptionStartDate);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        throw planNotFound(wrapper.getSpec());
+    }
+
+    @Nullable
+    private CatalogPlanEntry toCatalogPlanEntryIfApplicable(final StandaloneCatalog c,
+                                                            final Plan plan,
+                                                            final DateTime requestedDate,
+                                                            final DateTime subscriptionStartDate) {
+        final DateTime catalogEffectiveDate = CatalogDateHelper.toUTCDateTime(c.getEffectiveDate());
+        if (!subscriptionStartDate.isBefore(catalogEffectiveDate)) { // Its a new subscription this plan always applies
+            return new CatalogPlanEntry(c, plan);
+        } else { //Its an existing subscription
+            if (plan.getEffectiveDateForExistingSubscriptions() != null) { //if it is null any change to this does not apply to existing subscriptions
+                final DateTime existingSubscriptionDate = CatalogDateHelper.toUTCDateTime(plan.getEffectiveDateForExistingSubscriptions());
+                if (requestedDate.isAfter(existingSubscriptionDate)) { // this plan is now applicable to existing subs
+                    return new CatalogPlanEntry(c, plan);
                 }
             }
         }
+        return null;
+    }
 
-        final PlanSpecifier spec = wrapper.getSpec();
-        throw new CatalogApiException(ErrorCode.CAT_PLAN_NOT_FOUND,
-                                      spec.getPlanName() != null ? spec.getPlanName() : "undefined",
-                                      spec.getProductName() != null ? spec.getProductName() : "undefined",
-                                      spec.getBillingPeriod() != null ? spec.getBillingPeriod() : "undefined",
-                                      spec.getPriceListName() != null ? spec.getPriceListName() : "undefined");
+    private static CatalogApiException planNotFound(final PlanSpecifier spec) {
+        return new CatalogApiException(ErrorCode.CAT_PLAN_NOT_FOUND,
+                                       spec.getPlanName() != null ? spec.getPlanName() : "undefined",
+                                       spec.getProductName() != null ? spec.getProductName() : "undefined",
+                                       spec.getBillingPeriod() != null ? spec.getBillingPeriod() : "undefined",
+                                       spec.getPriceListName() != null ? spec.getPriceListName() : "undefined");
     }
 
     private static class CatalogPlanEntry {
@@ -253,6 +323,7 @@ public class VersionedCatalog extends ValidatingConfig<VersionedCatalog> impleme
                 return c1.getEffectiveDate().compareTo(c2.getEffectiveDate());
             }
         });
+        planIndex = null;
     }
 
     public Iterator<StandaloneCatalog> iterator() {
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.catalog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.killbill.billing.catalog.api.BillingPeriod;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PriceList;
+
+//
+// Immutable view of the plans available across the versions of a VersionedCatalog: for a given plan name
+// or (product, billing period, price list) it returns the (ascending) indices of the versions which resolve it,
+// so that the plan lookups don't have to try each version in turn.
+//
+class VersionedCatalogPlanIndex {
+
+    private static final int[] NO_VERSIONS = new int[0];
+
+    private final int nbVersions;
+    private final long[] effectiveDates;
+    private final Map<String, int[]> versionsByPlanName;
+    private final Map<PlanKey, int[]> versionsByPlanKey;
+
+    VersionedCatalogPlanIndex(final List<StandaloneCatalog> versions) {
+        this.nbVersions = versions.size();
+        this.effectiveDates = new long[nbVersions];
+
+        final Map<String, List<Integer>> plansByName = new HashMap<String, List<Integer>>();
+        final Map<PlanKey, List<Integer>> plansByKey = new HashMap<PlanKey, List<Integer>>();
+        for (int i = 0; i < nbVersions; i++) {
+            final StandaloneCatalog version = versions.get(i);
+            effectiveDates[i] = version.getEffectiveDate().getTime();
+
+            if (version.getCurrentPlans() != null) {
+                for (final Plan plan : version.getCurrentPlans()) {
+                    addVersion(plansByName, plan.getName(), i);
+                }
+            }
+            if (version.getPriceLists() != null) {
+                for (final PlanKey key : resolvablePlanKeys(version.getPriceLists())) {
+                    addVersion(plansByKey, key, i);
+                }
+            }
+        }
+        this.versionsByPlanName = toImmutableIndex(plansByName);
+        this.versionsByPlanKey = toImmutableIndex(plansByKey);
+    }
+
+    int size() {
+        return nbVersions;
+    }
+
+    // Same semantics as the original linear scan: index of the latest version effective at that date,
+    // the first version if they are all in the future, and -1 if there is no version
+    int indexOfVersionForDate(final Date date) {
+        if (nbVersions == 0) {
+            return -1;
+        }
+        final int index = lastIndexAtOrBefore(effectiveDates, date.getTime());
+        return index >= 0 ? index : 0;
+    }
+
+    // Ascending indices of the versions containing a plan with that name (the returned array must not be modified)
+    int[] getVersionsForPlanName(final String planName) {
+        final int[] result = versionsByPlanName.get(planName);
+        return result != null ? result : NO_VERSIONS;
+    }
+
+    // Ascending indices of the versions in which DefaultPriceListSet#getPlanFrom resolves exactly one plan
+    int[] getVersionsForPlan(final String productName, final BillingPeriod billingPeriod, final String priceListName) {
+        final int[] result = versionsByPlanKey.get(new PlanKey(productName, billingPeriod, priceListName));
+        return result != null ? result : NO_VERSIONS;
+    }
+
+    // Position of the last element of the sorted array which is lower or equal to the value, -1 if there is none
+    static int lastIndexAtOrBefore(final int[] sortedValues, final int value) {
+        int low = 0;
+        int high = sortedValues.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (sortedValues[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    private static int lastIndexAtOrBefore(final long[] sortedValues, final long value) {
+        int low = 0;
+        int high = sortedValues.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (sortedValues[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    // Mirrors DefaultPriceListSet#getPlanFrom: a price list without any plan for the (product, billing period)
+    // falls back to the default price list, and multiple matching plans don't resolve
+    private static Set<PlanKey> resolvablePlanKeys(final DefaultPriceListSet priceListSet) {
+        final Set<PlanKey> result = new HashSet<PlanKey>();
+        final Map<PlanKey, Integer> defaultCounts = countPlans(priceListSet.getDefaultPricelist(), null);
+        for (final PriceList priceList : priceListSet.getAllPriceLists()) {
+            final Map<PlanKey, Integer> counts = countPlans(priceList, priceList.getName());
+            for (final Map.Entry<PlanKey, Integer> entry : counts.entrySet()) {
+                if (entry.getValue() == 1) {
+                    result.add(entry.getKey());
+                }
+            }
+            for (final Map.Entry<PlanKey, Integer> entry : defaultCounts.entrySet()) {
+                final PlanKey key = new PlanKey(entry.getKey().productName, entry.getKey().billingPeriod, priceList.getName());
+                if (entry.getValue() == 1 && !counts.containsKey(key)) {
+                    result.add(key);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Map<PlanKey, Integer> countPlans(@Nullable final PriceList priceList, @Nullable final String priceListName) {
+        final Map<PlanKey, Integer> result = new HashMap<PlanKey, Integer>();
+        if (priceList == null || priceList.getPlans() == null) {
+            return result;
+        }
+        for (final Plan plan : priceList.getPlans()) {
+            if (plan.getProduct() == null || plan.getRecurringBillingPeriod() == null) {
+                continue;
+            }
+            final PlanKey key = new PlanKey(plan.getProduct().getName(), plan.getRecurringBillingPeriod(), priceListName);
+            final Integer count = result.get(key);
+            result.put(key, count == null ? 1 : count + 1);
+        }
+        return result;
+    }
+
+    private static <K> void addVersion(final Map<K, List<Integer>> index, final K key, final int versionIndex) {
+        List<Integer> versionIndices = index.get(key);
+        if (versionIndices == null) {
+            versionIndices = new ArrayList<Integer>();
+            index.put(key, versionIndices);
+        }
+        // Versions are visited in order, so the list stays sorted
+        if (versionIndices.isEmpty() || versionIndices.get(versionIndices.size() - 1) != versionIndex) {
+            versionIndices.add(versionIndex);
+        }
+    }
+
+    private static <K> Map<K, int[]> toImmutableIndex(final Map<K, List<Integer>> index) {
+        final Map<K, int[]> result = new HashMap<K, int[]>(index.size());
+        for (final Map.Entry<K, List<Integer>> entry : index.entrySet()) {
+            final int[] versionIndices = new int[entry.getValue().size()];
+            for (int i = 0; i < versionIndices.length; i++) {
+                versionIndices[i] = entry.getValue().get(i);
+            }
+            result.put(entry.getKey(), versionIndices);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static final class PlanKey {
+
+        private final String productName;
+        private final BillingPeriod billingPeriod;
+        private final String priceListName;
+
+        private PlanKey(final String productName, final BillingPeriod billingPeriod, @Nullable final String priceListName) {
+            this.productName = productName;
+            this.billingPeriod = billingPeriod;
+            this.priceListName = priceListName;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final PlanKey planKey = (PlanKey) o;
+            return productName.equals(planKey.productName) &&
+                   billingPeriod == planKey.billingPeriod &&
+                   (priceListName != null ? priceListName.equals(planKey.priceListName) : planKey.priceListName == null);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new Object[]{productName, billingPeriod, priceListName});
+        }
+    }
+}
@@ -29,4 +29,6 @@ public interface CatalogCache {
 
     public void clearCatalog(InternalTenantContext tenantContext);
 
+    public void clearPluginCatalog(InternalTenantContext tenantContext);
+
 }
@@ -38,7 +38,12 @@ public class CatalogCacheInvalidationCallback implements CacheInvalidationCallba
 
     @Override
     public void invalidateCache(TenantKey key, final Object cookie, final InternalTenantContext tenantContext) {
-        log.info("Invalidate catalog cache for tenantRecordId='{}'", tenantContext.getTenantRecordId());
-        catalogCache.clearCatalog(tenantContext);
+        if (key == TenantKey.PLUGIN_CONFIG_) {
+            log.info("Invalidate plugin catalog cache for tenantRecordId='{}', plugin='{}'", tenantContext.getTenantRecordId(), cookie);
+            catalogCache.clearPluginCatalog(tenantContext);
+        } else {
+            log.info("Invalidate catalog cache for tenantRecordId='{}'", tenantContext.getTenantRecordId());
+            catalogCache.clearCatalog(tenantContext);
+        }
     }
 }
@@ -17,12 +17,17 @@
 
 package org.killbill.billing.catalog.caching;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 import org.killbill.billing.ErrorCode;
 import org.killbill.billing.ObjectType;
+import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.catalog.StandaloneCatalog;
 import org.killbill.billing.catalog.StandaloneCatalogWithPriceOverride;
@@ -30,23 +35,30 @@ import org.killbill.billing.catalog.VersionedCatalog;
 import org.killbill.billing.catalog.api.Catalog;
 import org.killbill.billing.catalog.api.CatalogApiException;
 import org.killbill.billing.catalog.io.VersionedCatalogLoader;
+import org.killbill.billing.catalog.io.VersionedCatalogSnapshot;
 import org.killbill.billing.catalog.override.PriceOverride;
 import org.killbill.billing.catalog.plugin.VersionedCatalogMapper;
 import org.killbill.billing.catalog.plugin.api.CatalogPluginApi;
 import org.killbill.billing.catalog.plugin.api.VersionedPluginCatalog;
 import org.killbill.billing.osgi.api.OSGIServiceRegistration;
 import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.tenant.api.TenantInternalApi;
 import org.killbill.billing.util.cache.Cachable.CacheType;
 import org.killbill.billing.util.cache.CacheController;
 import org.killbill.billing.util.cache.CacheControllerDispatcher;
 import org.killbill.billing.util.cache.CacheLoaderArgument;
 import org.killbill.billing.util.cache.TenantCatalogCacheLoader.LoaderCallback;
+import org.killbill.billing.util.callcontext.CallOrigin;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.callcontext.TenantContext;
+import org.killbill.billing.util.callcontext.UserType;
+import org.killbill.billing.util.config.definition.CatalogConfig;
+import org.killbill.clock.Clock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 
 public class EhCacheCatalogCache implements CatalogCache {
@@ -61,6 +73,11 @@ public class EhCacheCatalogCache implements CatalogCache {
     private final VersionedCatalogMapper versionedCatalogMapper;
     private final PriceOverride priceOverride;
     private final InternalCallContextFactory internalCallContextFactory;
+    private final TenantInternalApi tenantInternalApi;
+    private final CatalogConfig catalogConfig;
+    private final Clock clock;
+    // Per-tenant result of the last catalog plugins lookup (only used when org.killbill.catalog.plugin.cache.ttl is set)
+    private final ConcurrentMap<Long, PluginCatalogEntry> pluginCatalogs = new ConcurrentHashMap<Long, PluginCatalogEntry>();
 
     private VersionedCatalog defaultCatalog;
 
@@ -70,13 +87,22 @@ public class EhCacheCatalogCache implements CatalogCache {
                                final CacheControllerDispatcher cacheControllerDispatcher,
                                final VersionedCatalogLoader loader,
                                final PriceOverride priceOverride,
-                               final InternalCallContextFactory internalCallContextFactory) {
+                               final InternalCallContextFactory internalCallContextFactory,
+                               final TenantInternalApi tenantInternalApi,
+                               final CatalogConfig catalogConfig,
+                               final Clock clock) {
         this.pluginRegistry = pluginRegistry;
         this.versionedCatalogMapper = versionedCatalogMapper;
         this.cacheController = cacheControllerDispatcher.getCacheController(CacheType.TENANT_CATALOG);
         this.loader = loader;
         this.priceOverride = priceOverride;
         this.internalCallContextFactory = internalCallContextFactory;
+        this.tenantInternalApi = tenantInternalApi;
+        this.catalogConfig = catalogConfig;
+        this.clock = clock;
+        if (catalogConfig.isCatalogSnapshotEnabled() && Strings.isNullOrEmpty(catalogConfig.getCatalogSnapshotSecret())) {
+            logger.warn("Catalog snapshots are disabled: org.killbill.catalog.cache.snapshot.secret isn't set");
+        }
         this.cacheLoaderArgumentWithTemplateFiltering = initializeCacheLoaderArgument(true);
         this.cacheLoaderArgument = initializeCacheLoaderArgument(false);
         setDefaultCatalog();
@@ -91,8 +117,6 @@ public class EhCacheCatalogCache implements CatalogCache {
 
     @Override
     public VersionedCatalog getCatalog(final boolean useDefaultCatalog, final boolean filterTemplateCatalog, final InternalTenantContext tenantContext) throws CatalogApiException {
-
-        // STEPH TODO what are the possibilities for caching here ?
         final VersionedCatalog pluginVersionedCatalog = getCatalogFromPlugins(tenantContext);
         if (pluginVersionedCatalog != null) {
             return pluginVersionedCatalog;
@@ -127,9 +151,39 @@ public class EhCacheCatalogCache implements CatalogCache {
         if (!InternalCallContextFactory.INTERNAL_TENANT_RECORD_ID.equals(tenantContext.getTenantRecordId())) {
             cacheController.remove(tenantContext.getTenantRecordId());
         }
+        clearPluginCatalog(tenantContext);
+    }
+
+    @Override
+    public void clearPluginCatalog(final InternalTenantContext tenantContext) {
+        pluginCatalogs.remove(tenantContext.getTenantRecordId());
     }
 
+    //
+    // Catalog plugins are asked on each call by default. When org.killbill.catalog.plugin.cache.ttl is set, the outcome of the lookup
+    // (including the absence of plugin catalog for that tenant) is reused until the ttl expires; past that point, the plugins are asked again
+    // and the catalog is mapped again (the plugin api doesn't expose any version for it, so we can't tell whether it changed). Plugins can also
+    // force a refresh on all nodes by updating their per-tenant configuration (see DefaultCatalogService#initialize).
+    //
     private VersionedCatalog getCatalogFromPlugins(final InternalTenantContext internalTenantContext) throws CatalogApiException {
+        final long ttlMillis = catalogConfig.getPluginCatalogCacheTtl().getMillis();
+        if (ttlMillis <= 0) {
+            return fetchCatalogFromPlugins(internalTenantContext);
+        }
+
+        final Long tenantRecordId = internalTenantContext.getTenantRecordId();
+        final long now = clock.getUTCNow().getMillis();
+        final PluginCatalogEntry cachedEntry = pluginCatalogs.get(tenantRecordId);
+        if (cachedEntry != null && now - cachedEntry.getFetchedTime() < ttlMillis) {
+            return cachedEntry.getCatalog();
+        }
+
+        final VersionedCatalog result = fetchCatalogFromPlugins(internalTenantContext);
+        pluginCatalogs.put(tenantRecordId, new PluginCatalogEntry(now, result));
+        return result;
+    }
+
+    private VersionedCatalog fetchCatalogFromPlugins(final InternalTenantContext internalTenantContext) throws CatalogApiException {
         final TenantContext tenantContext = internalCallContextFactory.createTenantContext(internalTenantContext);
         for (final String service : pluginRegistry.getAllServices()) {
             final CatalogPluginApi plugin = pluginRegistry.getServiceForName(service);
@@ -143,6 +197,25 @@ public class EhCacheCatalogCache implements CatalogCache {
         return null;
     }
 
+    private static final class PluginCatalogEntry {
+
+        private final long fetchedTime;
+        private final VersionedCatalog catalog;
+
+        private PluginCatalogEntry(final long fetchedTime, @Nullable final VersionedCatalog catalog) {
+            this.fetchedTime = fetchedTime;
+            this.catalog = catalog;
+        }
+
+        public long getFetchedTime() {
+            return fetchedTime;
+        }
+
+        public VersionedCatalog getCatalog() {
+            return catalog;
+        }
+    }
+
     //
     // Build the LoaderCallback that is required to build the catalog from the xml from a module that knows
     // nothing about catalog.
@@ -152,6 +225,10 @@ public class EhCacheCatalogCache implements CatalogCache {
         final LoaderCallback loaderCallback = new LoaderCallback() {
             @Override
             public Catalog loadCatalog(final List<String> catalogXMLs, final Long tenantRecordId) throws CatalogApiException {
+                final String snapshotSecret = catalogConfig.getCatalogSnapshotSecret();
+                if (catalogConfig.isCatalogSnapshotEnabled() && !Strings.isNullOrEmpty(snapshotSecret)) {
+                    return loadCatalogUsingSnapshot(catalogXMLs, filterTemplateCatalog, snapshotSecret, tenantRecordId);
+                }
                 return loader.load(catalogXMLs, filterTemplateCatalog, tenantRecordId);
             }
         };
@@ -162,6 +239,38 @@ public class EhCacheCatalogCache implements CatalogCache {
         return new CacheLoaderArgument(irrelevant, args, notUsed);
     }
 
+    //
+    // The snapshot contains all the versions (template catalogs included), filtering is applied when building the VersionedCatalog,
+    // which is validated as usual: only the xml parsing is saved.
+    // If it is missing, stale or not signed with our secret, we go through the xml versions and store a new snapshot for the next time.
+    //
+    private VersionedCatalog loadCatalogUsingSnapshot(final List<String> catalogXMLs, final boolean filterTemplateCatalog, final String snapshotSecret, final Long tenantRecordId) throws CatalogApiException {
+        final InternalTenantContext internalTenantContext = internalCallContextFactory.createInternalTenantContext(tenantRecordId, null);
+        final String digest = VersionedCatalogSnapshot.digest(catalogXMLs);
+
+        final List<String> snapshots = tenantInternalApi.getTenantValuesForKey(VersionedCatalogSnapshot.TENANT_KEY, internalTenantContext);
+        if (!snapshots.isEmpty()) {
+            final List<StandaloneCatalog> versions = VersionedCatalogSnapshot.deserialize(snapshots.get(snapshots.size() - 1), digest, snapshotSecret);
+            if (versions != null) {
+                logger.info("Loading catalog from snapshot for tenantRecordId='{}'", tenantRecordId);
+                return loader.load(versions, filterTemplateCatalog, tenantRecordId);
+            }
+        }
+
+        final List<StandaloneCatalog> versions = loader.loadVersions(catalogXMLs, tenantRecordId);
+        final VersionedCatalog result = loader.load(versions, filterTemplateCatalog, tenantRecordId);
+        try {
+            final InternalCallContext internalCallContext = internalCallContextFactory.createInternalCallContext(tenantRecordId, null, "CatalogSnapshot", CallOrigin.INTERNAL, UserType.SYSTEM, null);
+            tenantInternalApi.updateTenantKeyValue(VersionedCatalogSnapshot.TENANT_KEY, VersionedCatalogSnapshot.serialize(versions, digest, snapshotSecret), internalCallContext);
+        } catch (final IOException e) {
+            logger.warn("Failed to store catalog snapshot for tenantRecordId='{}'", tenantRecordId, e);
+        } catch (final RuntimeException e) {
+            // The snapshot is only an optimization, the xml versions remain the source of truth
+            logger.warn("Failed to store catalog snapshot for tenantRecordId='{}'", tenantRecordId, e);
+        }
+        return result;
+    }
+
     @VisibleForTesting
     void setDefaultCatalog() {
         try {
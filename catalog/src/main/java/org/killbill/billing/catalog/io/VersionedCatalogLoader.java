@@ -57,6 +57,7 @@ public class VersionedCatalogLoader implements CatalogLoader {
 
     private static final Object PROTOCOL_FOR_FILE = "file";
     private static final String XML_EXTENSION = ".xml";
+    private static final String TENANT_CATALOG_URI = "/tenantCatalog";
 
     private final Clock clock;
     private final PriceOverride priceOverride;
@@ -116,19 +117,18 @@ public class VersionedCatalogLoader implements CatalogLoader {
     }
 
     public VersionedCatalog load(final Iterable<String> catalogXMLs, final boolean filterTemplateCatalog, final Long tenantRecordId) throws CatalogApiException {
-        final VersionedCatalog result = new VersionedCatalog(clock);
-        final URI uri;
+        return load(loadVersions(catalogXMLs, tenantRecordId), filterTemplateCatalog, tenantRecordId);
+    }
+
+    // Parse (and validate) each catalog version, template catalogs included
+    public List<StandaloneCatalog> loadVersions(final Iterable<String> catalogXMLs, final Long tenantRecordId) throws CatalogApiException {
+        final List<StandaloneCatalog> result = new ArrayList<StandaloneCatalog>();
         try {
-            uri = new URI("/tenantCatalog");
+            final URI uri = new URI(TENANT_CATALOG_URI);
             for (final String cur : catalogXMLs) {
                 final InputStream curCatalogStream = new ByteArrayInputStream(cur.getBytes());
-                final StandaloneCatalog catalog = XMLLoader.getObjectFromStream(uri, curCatalogStream, StandaloneCatalog.class);
-                if (!filterTemplateCatalog || !catalog.isTemplateCatalog()) {
-                    result.add(new StandaloneCatalogWithPriceOverride(catalog, priceOverride, tenantRecordId, internalCallContextFactory));
-                }
+                result.add(XMLLoader.getObjectFromStream(uri, curCatalogStream, StandaloneCatalog.class));
             }
-            // Perform initialization and validation for VersionedCatalog
-            XMLLoader.initializeAndValidate(uri, result);
             return result;
         } catch (final ValidationException e) {
             logger.warn("Failed to load catalog for tenantRecordId='{}'",  tenantRecordId, e);
@@ -154,6 +154,28 @@ public class VersionedCatalogLoader implements CatalogLoader {
         }
     }
 
+    // Build the VersionedCatalog from already parsed versions (xml or snapshot)
+    public VersionedCatalog load(final List<StandaloneCatalog> versions, final boolean filterTemplateCatalog, final Long tenantRecordId) throws CatalogApiException {
+        final VersionedCatalog result = new VersionedCatalog(clock);
+        try {
+            final URI uri = new URI(TENANT_CATALOG_URI);
+            for (final StandaloneCatalog catalog : versions) {
+                if (!filterTemplateCatalog || !catalog.isTemplateCatalog()) {
+                    result.add(new StandaloneCatalogWithPriceOverride(catalog, priceOverride, tenantRecordId, internalCallContextFactory));
+                }
+            }
+            // Perform initialization and validation for VersionedCatalog
+            XMLLoader.initializeAndValidate(uri, result);
+            return result;
+        } catch (final ValidationException e) {
+            logger.warn("Failed to load catalog for tenantRecordId='{}'",  tenantRecordId, e);
+            throw new CatalogApiException(e, ErrorCode.CAT_INVALID_FOR_TENANT, tenantRecordId);
+        } catch (final URISyntaxException e) {
+            logger.warn("Failed to load catalog for tenantRecordId='{}'",  tenantRecordId, e);
+            throw new IllegalStateException(e);
+        }
+    }
+
     protected List<URI> findXmlReferences(final String directoryContents, final URL url) throws URISyntaxException {
         if (url.getProtocol().equals(PROTOCOL_FOR_FILE)) {
             return findXmlFileReferences(directoryContents, url);
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.catalog.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.killbill.billing.catalog.StandaloneCatalog;
+import org.killbill.billing.tenant.api.TenantInternalApi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+
+//
+// Binary form of the (parsed, initialized and validated) versions of a tenant catalog, stored next to the xml versions
+// in the tenant KV store so that the catalog can be rebuilt without going through JAXB and the validation again.
+//
+// The snapshot records a digest of the xml versions it was built from: a snapshot which doesn't match the current
+// xml versions (new upload), or which cannot be read anymore (format or catalog classes changed), is simply ignored.
+//
+// The snapshot is signed (HMAC-SHA256) with a secret shared by all the nodes, and the signature is verified before anything
+// is deserialized: a snapshot which wasn't written by Kill Bill itself is ignored.
+//
+public class VersionedCatalogSnapshot {
+
+    // Not prefixed by a TenantKey on purpose: the snapshot is derived data, storing it must not trigger a catalog invalidation broadcast
+    public static final String TENANT_KEY = TenantInternalApi.CATALOG_SNAPSHOT_KEY;
+
+    private static final Logger logger = LoggerFactory.getLogger(VersionedCatalogSnapshot.class);
+
+    private static final int FORMAT_VERSION = 2;
+
+    private static final String SIGNATURE_ALGORITHM = "HmacSHA256";
+    private static final int SIGNATURE_LENGTH = 32;
+
+    // Defense in depth (the signature already guarantees the origin of the snapshot): only the classes making up a catalog can be deserialized
+    private static final String CATALOG_PACKAGE_PREFIX = "org.killbill.billing.catalog.";
+    private static final Set<String> ALLOWED_CLASSES = ImmutableSet.<String>of("java.lang.Boolean",
+                                                                              "java.lang.Double",
+                                                                              "java.lang.Enum",
+                                                                              "java.lang.Integer",
+                                                                              "java.lang.Long",
+                                                                              "java.lang.Number",
+                                                                              "java.lang.String",
+                                                                              "java.math.BigDecimal",
+                                                                              "java.math.BigInteger",
+                                                                              "java.net.URI",
+                                                                              "java.util.ArrayList",
+                                                                              "java.util.Date",
+                                                                              "java.util.TreeMap",
+                                                                              "com.google.common.collect.NaturalOrdering",
+                                                                              "com.google.common.collect.Ordering");
+
+    private VersionedCatalogSnapshot() {}
+
+    public static String digest(final Iterable<String> catalogXMLs) {
+        final Hasher hasher = Hashing.sha256().newHasher();
+        for (final String cur : catalogXMLs) {
+            hasher.putInt(cur.length());
+            hasher.putString(cur, Charsets.UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+
+    public static String serialize(final List<StandaloneCatalog> versions, final String digest, final String secret) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(bytes));
+        try {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(digest);
+            out.writeObject(new ArrayList<StandaloneCatalog>(versions));
+        } finally {
+            out.close();
+        }
+        return sign(bytes.toByteArray(), secret);
+    }
+
+    // Returns null if the snapshot is stale, isn't signed with that secret or cannot be read
+    @Nullable
+    public static List<StandaloneCatalog> deserialize(final String snapshot, final String digest, final String secret) {
+        try {
+            final byte[] signedPayload = BaseEncoding.base64().decode(snapshot);
+            if (signedPayload.length < SIGNATURE_LENGTH) {
+                logger.warn("Ignoring unreadable catalog snapshot");
+                return null;
+            }
+            final byte[] signature = Arrays.copyOfRange(signedPayload, 0, SIGNATURE_LENGTH);
+            final byte[] payload = Arrays.copyOfRange(signedPayload, SIGNATURE_LENGTH, signedPayload.length);
+            if (!MessageDigest.isEqual(signature, computeSignature(payload, secret))) {
+                logger.warn("Ignoring catalog snapshot with an invalid signature");
+                return null;
+            }
+
+            final ObjectInputStream in = new CatalogObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(payload)));
+            try {
+                if (in.readInt() != FORMAT_VERSION || !digest.equals(in.readUTF())) {
+                    return null;
+                }
+                final List<StandaloneCatalog> result = new ArrayList<StandaloneCatalog>();
+                for (final Object cur : (List<?>) in.readObject()) {
+                    result.add((StandaloneCatalog) cur);
+                }
+                return result;
+            } finally {
+                in.close();
+            }
+        } catch (final IOException e) {
+            logger.warn("Ignoring unreadable catalog snapshot", e);
+            return null;
+        } catch (final ClassNotFoundException e) {
+            logger.warn("Ignoring unreadable catalog snapshot", e);
+            return null;
+        } catch (final ClassCastException e) {
+            logger.warn("Ignoring unreadable catalog snapshot", e);
+            return null;
+        } catch (final IllegalArgumentException e) {
+            // Not valid base64
+            logger.warn("Ignoring unreadable catalog snapshot", e);
+            return null;
+        }
+    }
+
+    @VisibleForTesting
+    static String sign(final byte[] payload, final String secret) {
+        final byte[] signature = computeSignature(payload, secret);
+        final byte[] signedPayload = new byte[signature.length + payload.length];
+        System.arraycopy(signature, 0, signedPayload, 0, signature.length);
+        System.arraycopy(payload, 0, signedPayload, signature.length, payload.length);
+        return BaseEncoding.base64().encode(signedPayload);
+    }
+
+    private static byte[] computeSignature(final byte[] payload, final String secret) {
+        try {
+            final Mac mac = Mac.getInstance(SIGNATURE_ALGORITHM);
+            mac.init(new SecretKeySpec(secret.getBytes(Charsets.UTF_8), SIGNATURE_ALGORITHM));
+            return mac.doFinal(payload);
+        } catch (final GeneralSecurityException e) {
+            // HmacSHA256 is available on every JVM
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class CatalogObjectInputStream extends ObjectInputStream {
+
+        private CatalogObjectInputStream(final InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            String className = desc.getName();
+            // Arrays: [Lorg.killbill.billing.catalog.DefaultPlan; or primitive arrays
+            while (className.startsWith("[")) {
+                className = className.substring(1);
+            }
+            if (className.startsWith("L") && className.endsWith(";")) {
+                className = className.substring(1, className.length() - 1);
+            }
+            if (className.length() > 1 && !className.startsWith(CATALOG_PACKAGE_PREFIX) && !ALLOWED_CLASSES.contains(className)) {
+                throw new InvalidClassException(desc.getName(), "Unexpected class in catalog snapshot");
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
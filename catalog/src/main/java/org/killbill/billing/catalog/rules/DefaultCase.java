@@ -17,6 +17,7 @@
 package org.killbill.billing.catalog.rules;
 
 
+import java.io.Serializable;
 import java.net.URI;
 
 import org.killbill.billing.catalog.CatalogSafetyInitializer;
@@ -34,7 +35,7 @@ import org.killbill.billing.catalog.api.StaticCatalog;
 import org.killbill.xmlloader.ValidatingConfig;
 import org.killbill.xmlloader.ValidationErrors;
 
-public abstract class DefaultCase<T> extends ValidatingConfig<StandaloneCatalog> {
+public abstract class DefaultCase<T> extends ValidatingConfig<StandaloneCatalog> implements Serializable {
 
     protected abstract T getResult();
 
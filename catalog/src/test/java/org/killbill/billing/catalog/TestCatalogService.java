@@ -21,6 +21,7 @@ package org.killbill.billing.catalog;
 import org.killbill.billing.catalog.api.CatalogApiException;
 import org.killbill.billing.platform.api.KillbillService.ServiceException;
 import org.killbill.billing.util.config.definition.CatalogConfig;
+import org.skife.config.TimeSpan;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -34,6 +35,20 @@ public class TestCatalogService extends CatalogTestSuiteNoDB {
                 return "versionedCatalog";
             }
 
+            @Override
+            public boolean isCatalogSnapshotEnabled() {
+                return false;
+            }
+
+            @Override
+            public String getCatalogSnapshotSecret() {
+                return null;
+            }
+
+            @Override
+            public TimeSpan getPluginCatalogCacheTtl() {
+                return new TimeSpan("0s");
+            }
         }, tenantInternalApi, catalogCache, cacheInvalidationCallback);
         service.loadCatalog();
         Assert.assertNotNull(service.getFullCatalog(true, true, internalCallContext));
@@ -48,6 +63,20 @@ public class TestCatalogService extends CatalogTestSuiteNoDB {
                 return "WeaponsHire.xml";
             }
 
+            @Override
+            public boolean isCatalogSnapshotEnabled() {
+                return false;
+            }
+
+            @Override
+            public String getCatalogSnapshotSecret() {
+                return null;
+            }
+
+            @Override
+            public TimeSpan getPluginCatalogCacheTtl() {
+                return new TimeSpan("0s");
+            }
         },  tenantInternalApi, catalogCache, cacheInvalidationCallback);
         service.loadCatalog();
         Assert.assertNotNull(service.getFullCatalog(true, true, internalCallContext));
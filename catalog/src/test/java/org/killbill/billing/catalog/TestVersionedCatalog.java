@@ -22,9 +22,12 @@ import java.math.BigDecimal;
 
 import org.joda.time.DateTime;
 import org.killbill.billing.ErrorCode;
+import org.killbill.billing.catalog.api.BillingPeriod;
 import org.killbill.billing.catalog.api.CatalogApiException;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PlanSpecifier;
+import org.killbill.billing.catalog.api.PriceListSet;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
@@ -111,4 +114,60 @@ public class TestVersionedCatalog extends CatalogTestSuiteNoDB {
         }
 
     }
+
+    @Test(groups = "fast")
+    public void testFindRetiredPlanWithDates() throws CatalogApiException {
+        final DateTime dt1 = new DateTime("2011-01-01T00:01:00+00:00");
+        final DateTime dt2 = new DateTime("2011-02-02T00:01:00+00:00");
+        final DateTime dt3 = new DateTime("2011-03-03T00:01:00+00:00");
+
+        // Plan was removed in version 3 but is still resolved from version 2 for subscriptions using it
+        final Plan retiredPlan = vc.findPlan("shotgun-quarterly", dt3, dt2);
+        Assert.assertEquals(retiredPlan.getName(), "shotgun-quarterly");
+        Assert.assertEquals(vc.findPriceListForPlan("shotgun-quarterly", dt3, dt2).getName(), PriceListSet.DEFAULT_PRICELIST_NAME);
+
+        try {
+            // Plan did not exist yet in version 1
+            vc.findPlan("shotgun-quarterly", dt1, dt1);
+            Assert.fail("Plan does not exist in version 1");
+        } catch (final CatalogApiException e) {
+            Assert.assertEquals(e.getCode(), ErrorCode.CAT_PLAN_NOT_FOUND.getCode());
+        }
+
+        try {
+            vc.findPlan("unknown-plan", dt3, dt1);
+            Assert.fail("Plan does not exist");
+        } catch (final CatalogApiException e) {
+            Assert.assertEquals(e.getCode(), ErrorCode.CAT_PLAN_NOT_FOUND.getCode());
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testCreateOrFindPlanWithDates() throws CatalogApiException {
+        final DateTime dt1 = new DateTime("2011-01-01T00:01:00+00:00");
+        final DateTime dt214 = new DateTime("2011-02-14T00:01:00+00:00");
+        final DateTime dt3 = new DateTime("2011-03-03T00:01:00+00:00");
+
+        final PlanSpecifier pistolMonthly = new PlanSpecifier("Pistol", BillingPeriod.MONTHLY, PriceListSet.DEFAULT_PRICELIST_NAME);
+        Assert.assertEquals(vc.createOrFindPlan(pistolMonthly, null, dt3, dt3), vc.findPlan("pistol-monthly", dt3, dt3));
+        Assert.assertEquals(vc.createOrFindPlan(pistolMonthly, null, dt3, dt1), vc.findPlan("pistol-monthly", dt3, dt1));
+        Assert.assertEquals(vc.createOrFindPlan(pistolMonthly, null, dt214, dt1), vc.findPlan("pistol-monthly", dt214, dt1));
+        // Default price list is used when none is specified
+        Assert.assertEquals(vc.createOrFindPlan(new PlanSpecifier("Pistol", BillingPeriod.MONTHLY, null), null, dt3, dt1), vc.findPlan("pistol-monthly", dt3, dt1));
+
+        try {
+            // Lookups by product don't go back to older versions when the latest one doesn't resolve them
+            vc.createOrFindPlan(new PlanSpecifier("Shotgun", BillingPeriod.QUARTERLY, PriceListSet.DEFAULT_PRICELIST_NAME), null, dt3, dt1);
+            Assert.fail("Plan has been removed");
+        } catch (final CatalogApiException e) {
+            Assert.assertEquals(e.getCode(), ErrorCode.CAT_PLAN_NOT_FOUND.getCode());
+        }
+
+        try {
+            vc.createOrFindPlan(new PlanSpecifier("Bazooka", BillingPeriod.MONTHLY, PriceListSet.DEFAULT_PRICELIST_NAME), null, dt3, dt1);
+            Assert.fail("Product does not exist");
+        } catch (final CatalogApiException e) {
+            Assert.assertEquals(e.getCode(), ErrorCode.CAT_NO_SUCH_PRODUCT.getCode());
+        }
+    }
 }
@@ -35,15 +35,25 @@ import org.killbill.billing.catalog.StandaloneCatalogWithPriceOverride;
 import org.killbill.billing.catalog.VersionedCatalog;
 import org.killbill.billing.catalog.api.CatalogApiException;
 import org.killbill.billing.catalog.api.Product;
+import org.killbill.billing.catalog.plugin.VersionedCatalogMapper;
+import org.killbill.billing.catalog.plugin.api.CatalogPluginApi;
+import org.killbill.billing.catalog.plugin.api.VersionedPluginCatalog;
+import org.killbill.billing.osgi.api.OSGIServiceRegistration;
+import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.callcontext.TenantContext;
+import org.killbill.billing.util.config.definition.CatalogConfig;
 import org.killbill.xmlloader.UriAccessor;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.skife.config.TimeSpan;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.CharStreams;
 import com.google.common.io.Resources;
 
@@ -181,4 +191,67 @@ public class TestEhCacheCatalogCache extends CatalogTestSuiteNoDB {
         // Verify the lookup with the other tenant
         Assert.assertEquals(catalogCache.getCatalog(true, true, otherMultiTenantContext), otherResult);
     }
+
+    //
+    // Verify catalogs returned by plugins are reused within the ttl, and fetched and mapped again once it expires
+    //
+    @Test(groups = "fast")
+    public void testPluginCatalogCaching() throws CatalogApiException {
+        final VersionedPluginCatalog pluginCatalog = Mockito.mock(VersionedPluginCatalog.class);
+        Mockito.when(pluginCatalog.getCatalogName()).thenReturn("PluginCatalog");
+
+        final CatalogPluginApi plugin = Mockito.mock(CatalogPluginApi.class);
+        Mockito.when(plugin.getVersionedPluginCatalog(Mockito.<Iterable<PluginProperty>>any(), Mockito.<TenantContext>any())).thenReturn(pluginCatalog);
+        @SuppressWarnings("unchecked")
+        final OSGIServiceRegistration<CatalogPluginApi> pluginRegistry = Mockito.mock(OSGIServiceRegistration.class);
+        Mockito.when(pluginRegistry.getAllServices()).thenReturn(ImmutableSet.<String>of("catalog-plugin"));
+        Mockito.when(pluginRegistry.getServiceForName("catalog-plugin")).thenReturn(plugin);
+
+        final VersionedCatalogMapper versionedCatalogMapper = Mockito.mock(VersionedCatalogMapper.class);
+        Mockito.when(versionedCatalogMapper.toVersionedCatalog(Mockito.<VersionedPluginCatalog>any(), Mockito.<InternalTenantContext>any())).thenAnswer(new Answer<VersionedCatalog>() {
+            @Override
+            public VersionedCatalog answer(final InvocationOnMock invocation) throws Throwable {
+                return new VersionedCatalog(clock);
+            }
+        });
+        final CatalogConfig catalogConfig = Mockito.mock(CatalogConfig.class);
+        Mockito.when(catalogConfig.getPluginCatalogCacheTtl()).thenReturn(new TimeSpan("1h"));
+
+        final EhCacheCatalogCache pluginCatalogCache = new EhCacheCatalogCache(pluginRegistry,
+                                                                               versionedCatalogMapper,
+                                                                               cacheControllerDispatcher,
+                                                                               loader,
+                                                                               priceOverride,
+                                                                               Mockito.mock(InternalCallContextFactory.class),
+                                                                               tenantInternalApi,
+                                                                               catalogConfig,
+                                                                               clock);
+
+        // Within the ttl, the plugin isn't asked again
+        final VersionedCatalog result = pluginCatalogCache.getCatalog(true, true, multiTenantContext);
+        Assert.assertSame(pluginCatalogCache.getCatalog(true, true, multiTenantContext), result);
+        Mockito.verify(plugin, Mockito.times(1)).getVersionedPluginCatalog(Mockito.<Iterable<PluginProperty>>any(), Mockito.<TenantContext>any());
+
+        // Other tenants have their own entry
+        Assert.assertNotSame(pluginCatalogCache.getCatalog(true, true, otherMultiTenantContext), result);
+        Mockito.verify(plugin, Mockito.times(2)).getVersionedPluginCatalog(Mockito.<Iterable<PluginProperty>>any(), Mockito.<TenantContext>any());
+
+        // Past the ttl, the plugin is asked again and its catalog mapped again (its content may have changed, even with the same effective dates)
+        clock.addDeltaFromReality(2 * 60 * 60 * 1000L);
+        final VersionedCatalog refreshedResult = pluginCatalogCache.getCatalog(true, true, multiTenantContext);
+        Assert.assertNotSame(refreshedResult, result);
+        Assert.assertSame(pluginCatalogCache.getCatalog(true, true, multiTenantContext), refreshedResult);
+        Mockito.verify(plugin, Mockito.times(3)).getVersionedPluginCatalog(Mockito.<Iterable<PluginProperty>>any(), Mockito.<TenantContext>any());
+        Mockito.verify(versionedCatalogMapper, Mockito.times(3)).toVersionedCatalog(Mockito.<VersionedPluginCatalog>any(), Mockito.<InternalTenantContext>any());
+
+        // Once invalidated, the catalog gets picked up right away
+        pluginCatalogCache.clearPluginCatalog(multiTenantContext);
+        final VersionedCatalog newResult = pluginCatalogCache.getCatalog(true, true, multiTenantContext);
+        Assert.assertNotSame(newResult, refreshedResult);
+        Assert.assertSame(pluginCatalogCache.getCatalog(true, true, multiTenantContext), newResult);
+        Mockito.verify(plugin, Mockito.times(4)).getVersionedPluginCatalog(Mockito.<Iterable<PluginProperty>>any(), Mockito.<TenantContext>any());
+        Mockito.verify(versionedCatalogMapper, Mockito.times(4)).toVersionedCatalog(Mockito.<VersionedPluginCatalog>any(), Mockito.<InternalTenantContext>any());
+
+        clock.resetDeltaFromReality();
+    }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.catalog.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.joda.time.DateTime;
+import org.killbill.billing.catalog.CatalogTestSuiteNoDB;
+import org.killbill.billing.catalog.StandaloneCatalog;
+import org.killbill.billing.catalog.VersionedCatalog;
+import org.killbill.billing.catalog.api.BillingPeriod;
+import org.killbill.billing.catalog.api.Plan;
+import org.killbill.billing.catalog.api.PlanSpecifier;
+import org.killbill.billing.catalog.api.PriceListSet;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Resources;
+
+public class TestVersionedCatalogSnapshot extends CatalogTestSuiteNoDB {
+
+    private static final String SECRET = "snapshot-secret";
+
+    @Test(groups = "fast")
+    public void testSnapshotRoundTrip() throws Exception {
+        final List<String> catalogXMLs = ImmutableList.<String>of(getXML("versionedCatalog/WeaponsHireSmall-1.xml"),
+                                                                  getXML("versionedCatalog/WeaponsHireSmall-2.xml"),
+                                                                  getXML("versionedCatalog/WeaponsHireSmall-3.xml"));
+        final String digest = VersionedCatalogSnapshot.digest(catalogXMLs);
+
+        final List<StandaloneCatalog> versions = loader.loadVersions(catalogXMLs, 12L);
+        final String snapshot = VersionedCatalogSnapshot.serialize(versions, digest, SECRET);
+
+        final List<StandaloneCatalog> snapshotVersions = VersionedCatalogSnapshot.deserialize(snapshot, digest, SECRET);
+        Assert.assertNotNull(snapshotVersions);
+        Assert.assertEquals(snapshotVersions.size(), versions.size());
+
+        final VersionedCatalog fromXML = loader.load(catalogXMLs, false, 12L);
+        final VersionedCatalog fromSnapshot = loader.load(snapshotVersions, false, 12L);
+        Assert.assertEquals(fromSnapshot.getCatalogName(), fromXML.getCatalogName());
+        Assert.assertEquals(fromSnapshot.getVersions().size(), fromXML.getVersions().size());
+
+        final DateTime dt1 = new DateTime("2011-01-01T00:01:00+00:00");
+        final DateTime dt3 = new DateTime("2011-03-03T00:01:00+00:00");
+        final Plan planFromSnapshot = fromSnapshot.findPlan("pistol-monthly", dt3, dt1);
+        Assert.assertEquals(planFromSnapshot, fromXML.findPlan("pistol-monthly", dt3, dt1));
+        // References between catalog objects are preserved
+        Assert.assertSame(planFromSnapshot.getFinalPhase().getRecurring().getRecurringPrice(), planFromSnapshot.getAllPhases()[1].getRecurring().getRecurringPrice());
+        Assert.assertSame(fromSnapshot.findPlan("pistol-monthly", dt3).getProduct(), fromSnapshot.findProduct("Pistol", dt3));
+        Assert.assertEquals(fromSnapshot.createOrFindPlan(new PlanSpecifier("Pistol", BillingPeriod.MONTHLY, PriceListSet.DEFAULT_PRICELIST_NAME), null, dt3, dt1), planFromSnapshot);
+    }
+
+    @Test(groups = "fast")
+    public void testSnapshotWithUsagesAndRules() throws Exception {
+        final List<String> catalogXMLs = ImmutableList.<String>of(getXML("SpyCarAdvanced.xml"));
+        final String digest = VersionedCatalogSnapshot.digest(catalogXMLs);
+
+        final List<StandaloneCatalog> snapshotVersions = VersionedCatalogSnapshot.deserialize(VersionedCatalogSnapshot.serialize(loader.loadVersions(catalogXMLs, 12L), digest, SECRET), digest, SECRET);
+        Assert.assertNotNull(snapshotVersions);
+
+        final VersionedCatalog fromXML = loader.load(catalogXMLs, false, 12L);
+        final VersionedCatalog fromSnapshot = loader.load(snapshotVersions, false, 12L);
+        final DateTime now = clock.getUTCNow();
+        Assert.assertEquals(fromSnapshot.getProducts(now).size(), fromXML.getProducts(now).size());
+        Assert.assertEquals(fromSnapshot.getPlans(now).size(), fromXML.getPlans(now).size());
+        for (final Plan plan : fromXML.getPlans(now)) {
+            Assert.assertEquals(fromSnapshot.findPlan(plan.getName(), now), plan);
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testStaleOrInvalidSnapshot() throws Exception {
+        final List<String> catalogXMLs = ImmutableList.<String>of(getXML("versionedCatalog/WeaponsHireSmall-1.xml"));
+        final String digest = VersionedCatalogSnapshot.digest(catalogXMLs);
+        final String snapshot = VersionedCatalogSnapshot.serialize(loader.loadVersions(catalogXMLs, 12L), digest, SECRET);
+
+        // New catalog version uploaded since the snapshot was taken
+        final String newDigest = VersionedCatalogSnapshot.digest(ImmutableList.<String>of(getXML("versionedCatalog/WeaponsHireSmall-1.xml"),
+                                                                                           getXML("versionedCatalog/WeaponsHireSmall-2.xml")));
+        Assert.assertNotEquals(newDigest, digest);
+        Assert.assertNull(VersionedCatalogSnapshot.deserialize(snapshot, newDigest, SECRET));
+
+        // Garbage
+        Assert.assertNull(VersionedCatalogSnapshot.deserialize("not a snapshot", digest, SECRET));
+        Assert.assertNull(VersionedCatalogSnapshot.deserialize(BaseEncoding.base64().encode("not a snapshot".getBytes(Charsets.UTF_8)), digest, SECRET));
+        Assert.assertNull(VersionedCatalogSnapshot.deserialize(VersionedCatalogSnapshot.sign("not a snapshot".getBytes(Charsets.UTF_8), SECRET), digest, SECRET));
+    }
+
+    @Test(groups = "fast")
+    public void testSnapshotWithInvalidSignature() throws Exception {
+        final List<String> catalogXMLs = ImmutableList.<String>of(getXML("versionedCatalog/WeaponsHireSmall-1.xml"));
+        final String digest = VersionedCatalogSnapshot.digest(catalogXMLs);
+        final String snapshot = VersionedCatalogSnapshot.serialize(loader.loadVersions(catalogXMLs, 12L), digest, SECRET);
+        Assert.assertNotNull(VersionedCatalogSnapshot.deserialize(snapshot, digest, SECRET));
+
+        // Signed with another secret (e.g. written through the tenant KV APIs)
+        Assert.assertNull(VersionedCatalogSnapshot.deserialize(snapshot, digest, "another-secret"));
+
+        // Tampered payload
+        final byte[] tampered = BaseEncoding.base64().decode(snapshot);
+        tampered[tampered.length - 1] ^= 1;
+        Assert.assertNull(VersionedCatalogSnapshot.deserialize(BaseEncoding.base64().encode(tampered), digest, SECRET));
+    }
+
+    @Test(groups = "fast")
+    public void testSnapshotWithUnexpectedClass() throws Exception {
+        final String digest = VersionedCatalogSnapshot.digest(ImmutableList.<String>of("dummy"));
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(bytes));
+        out.writeInt(2);
+        out.writeUTF(digest);
+        out.writeObject(new java.util.HashSet<String>(ImmutableList.<String>of("foo")));
+        out.close();
+
+        // Even if properly signed
+        Assert.assertNull(VersionedCatalogSnapshot.deserialize(VersionedCatalogSnapshot.sign(bytes.toByteArray(), SECRET), digest, SECRET));
+    }
+
+    private String getXML(final String resource) throws IOException {
+        return Resources.toString(Resources.getResource(resource), Charsets.UTF_8);
+    }
+}
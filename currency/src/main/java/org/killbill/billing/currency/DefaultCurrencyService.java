@@ -16,10 +16,21 @@
 
 package org.killbill.billing.currency;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import javax.inject.Inject;
+
+import org.killbill.billing.currency.api.CurrencyConversionException;
 import org.killbill.billing.currency.api.CurrencyService;
+import org.killbill.billing.currency.api.DefaultCurrencyConversionApi;
+import org.killbill.billing.platform.api.LifecycleHandlerType;
+import org.killbill.billing.platform.api.LifecycleHandlerType.LifecycleLevel;
+import org.killbill.billing.util.config.definition.CurrencyConfig;
+import org.killbill.commons.concurrent.Executors;
+import org.skife.config.TimeSpan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class DefaultCurrencyService implements CurrencyService {
 
@@ -27,8 +38,63 @@ public class DefaultCurrencyService implements CurrencyService {
 
     public static final String SERVICE_NAME = "currency-service";
 
+    private static final int TERMINATION_TIMEOUT_SEC = 5;
+
+    private final CurrencyConfig config;
+    private final DefaultCurrencyConversionApi currencyConversionApi;
+
+    private ScheduledExecutorService prefetchExecutor;
+
+    @Inject
+    public DefaultCurrencyService(final CurrencyConfig config, final DefaultCurrencyConversionApi currencyConversionApi) {
+        this.config = config;
+        this.currencyConversionApi = currencyConversionApi;
+    }
+
     @Override
     public String getName() {
         return SERVICE_NAME;
     }
+
+    @LifecycleHandlerType(LifecycleLevel.START_SERVICE)
+    public void start() {
+        final TimeSpan prefetchRate = config.getCurrentRatesPrefetchRate();
+        if (prefetchRate.getMillis() <= 0) {
+            return;
+        }
+
+        // The first run is delayed to give the currency plugin a chance to register
+        prefetchExecutor = Executors.newSingleThreadScheduledExecutor("CurrencyRatesPrefetcher");
+        prefetchExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    currencyConversionApi.refreshCurrentCurrencyConversions();
+                } catch (final CurrencyConversionException e) {
+                    log.warn("Failed to pre-fetch the current currency conversion rates", e);
+                } catch (final RuntimeException e) {
+                    // Don't cancel the next runs
+                    log.warn("Failed to pre-fetch the current currency conversion rates", e);
+                }
+            }
+        }, prefetchRate.getPeriod(), prefetchRate.getPeriod(), prefetchRate.getUnit());
+    }
+
+    @LifecycleHandlerType(LifecycleLevel.STOP_SERVICE)
+    public void stop() {
+        if (prefetchExecutor == null) {
+            return;
+        }
+        try {
+            prefetchExecutor.shutdown();
+            if (!prefetchExecutor.awaitTermination(TERMINATION_TIMEOUT_SEC, TimeUnit.SECONDS)) {
+                log.warn("CurrencyRatesPrefetcher failed to complete termination within {}sec", TERMINATION_TIMEOUT_SEC);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("CurrencyRatesPrefetcher stop sequence got interrupted");
+        } finally {
+            prefetchExecutor = null;
+        }
+    }
 }
@@ -18,10 +18,9 @@ package org.killbill.billing.currency.api;
 
 import java.util.Set;
 
-import org.joda.time.DateTime;
-
 import org.killbill.billing.catalog.api.Currency;
 
+// Instances are cached (see DefaultCurrencyConversionApi) and shared across threads
 public class DefaultCurrencyConversion implements CurrencyConversion {
 
     private final Currency baseCurrency;
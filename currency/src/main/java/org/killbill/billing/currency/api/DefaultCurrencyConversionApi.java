@@ -17,27 +17,43 @@
 package org.killbill.billing.currency.api;
 
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 import org.joda.time.DateTime;
-
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
 import org.killbill.billing.ErrorCode;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.currency.plugin.api.CurrencyPluginApi;
 import org.killbill.billing.osgi.api.OSGIServiceRegistration;
+import org.killbill.billing.util.cache.Cachable.CacheType;
+import org.killbill.billing.util.cache.CacheController;
+import org.killbill.billing.util.cache.CacheControllerDispatcher;
+import org.killbill.billing.util.cache.CacheLoaderArgument;
+import org.killbill.billing.util.cache.CurrencyConversionCacheLoader.LoaderCallback;
 import org.killbill.billing.util.config.definition.CurrencyConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
 
 public class DefaultCurrencyConversionApi implements CurrencyConversionApi {
 
+    private static final Logger log = LoggerFactory.getLogger(DefaultCurrencyConversionApi.class);
+
     private final CurrencyConfig config;
     private final OSGIServiceRegistration<CurrencyPluginApi> registry;
+    // Rates are cached for the cache TTL (see ehcache.xml): note that the currency plugin api isn't tenant aware
+    private final CacheController<String, Object> currencyConversionCache;
 
     @Inject
-    public DefaultCurrencyConversionApi(final CurrencyConfig config, final OSGIServiceRegistration<CurrencyPluginApi> registry) {
+    public DefaultCurrencyConversionApi(final CurrencyConfig config, final OSGIServiceRegistration<CurrencyPluginApi> registry, final CacheControllerDispatcher cacheControllerDispatcher) {
         this.config = config;
         this.registry = registry;
-
+        this.currencyConversionCache = cacheControllerDispatcher.getCacheController(CacheType.CURRENCY_CONVERSION);
     }
 
     private CurrencyPluginApi getPluginApi() throws CurrencyConversionException {
@@ -56,18 +72,76 @@ public class DefaultCurrencyConversionApi implements CurrencyConversionApi {
 
     @Override
     public CurrencyConversion getCurrentCurrencyConversion(final Currency baseCurrency) throws CurrencyConversionException {
-        final Set<Rate> allRates = getPluginApi().getCurrentRates(baseCurrency);
-        return getCurrencyConversionInternal(baseCurrency, allRates);
+        return getCurrencyConversionInternal(baseCurrency, null, true);
     }
 
     @Override
     public CurrencyConversion getCurrencyConversion(final Currency baseCurrency, final DateTime dateConversion) throws CurrencyConversionException {
-        final Set<Rate> allRates = getPluginApi().getRates(baseCurrency, dateConversion);
-        return getCurrencyConversionInternal(baseCurrency, allRates);
+        return getCurrencyConversionInternal(baseCurrency, dateConversion, false);
     }
 
-    private CurrencyConversion getCurrencyConversionInternal(final Currency baseCurrency, final Set<Rate> allRates) {
-        final CurrencyConversion result = new DefaultCurrencyConversion(baseCurrency, allRates);
-        return result;
+    //
+    // Re-load the current rates of all base currencies from the provider (see DefaultCurrencyService). Entries are swapped in place,
+    // so that readers keep getting the previous rates (instead of waiting on the provider) while they are being fetched. If the provider
+    // doesn't return anything, the previous rates are kept until they expire.
+    //
+    public void refreshCurrentCurrencyConversions() throws CurrencyConversionException {
+        final CurrencyPluginApi pluginApi = getPluginApi();
+        for (final Currency baseCurrency : pluginApi.getBaseCurrencies()) {
+            final Set<Rate> allRates = pluginApi.getCurrentRates(baseCurrency);
+            if (allRates == null || allRates.isEmpty()) {
+                continue;
+            }
+
+            final String cacheKey = getCacheKey(baseCurrency, null, true);
+            final DefaultCurrencyConversion currencyConversion = new DefaultCurrencyConversion(baseCurrency, allRates);
+            if (!currencyConversionCache.replace(cacheKey, currencyConversion)) {
+                currencyConversionCache.putIfAbsent(cacheKey, currencyConversion);
+            }
+        }
+        log.debug("Refreshed current currency conversion rates");
+    }
+
+    private DefaultCurrencyConversion getCurrencyConversionInternal(final Currency baseCurrency, @Nullable final DateTime dateConversion, final boolean currentRates) throws CurrencyConversionException {
+        final CurrencyPluginApi pluginApi = getPluginApi();
+        // Empty results (e.g. the provider doesn't have the rates yet) are returned to the caller but not cached
+        final AtomicReference<DefaultCurrencyConversion> uncachedCurrencyConversion = new AtomicReference<DefaultCurrencyConversion>();
+        final LoaderCallback loaderCallback = new LoaderCallback() {
+            @Override
+            public Object loadCurrencyConversion(final String key) {
+                final Set<Rate> allRates = currentRates ? pluginApi.getCurrentRates(baseCurrency) : pluginApi.getRates(baseCurrency, dateConversion);
+                final DefaultCurrencyConversion currencyConversion = new DefaultCurrencyConversion(baseCurrency, allRates);
+                if (allRates == null || allRates.isEmpty()) {
+                    uncachedCurrencyConversion.set(currencyConversion);
+                    return null;
+                }
+                return currencyConversion;
+            }
+        };
+        final CacheLoaderArgument cacheLoaderArgument = new CacheLoaderArgument(null, new Object[]{loaderCallback}, null);
+        final DefaultCurrencyConversion currencyConversion = (DefaultCurrencyConversion) currencyConversionCache.get(getCacheKey(baseCurrency, dateConversion, currentRates), cacheLoaderArgument);
+        return currencyConversion != null ? currencyConversion : uncachedCurrencyConversion.get();
+    }
+
+    // Historical rates are keyed by conversion instant, unless the provider only publishes daily rates (see CurrencyConfig): all the conversion
+    // dates of a given (UTC) day then share the same entry
+    private String getCacheKey(final Currency baseCurrency, @Nullable final DateTime dateConversion, final boolean currentRates) {
+        return getCacheKey(baseCurrency, dateConversion, currentRates, config.isHistoricalRatesCachedPerDay());
+    }
+
+    @VisibleForTesting
+    static String getCacheKey(final Currency baseCurrency, @Nullable final DateTime dateConversion, final boolean currentRates, final boolean historicalRatesCachedPerDay) {
+        if (currentRates) {
+            return baseCurrency.toString();
+        }
+        final Object dateKey;
+        if (dateConversion == null) {
+            dateKey = null;
+        } else if (historicalRatesCachedPerDay) {
+            dateKey = new LocalDate(dateConversion, DateTimeZone.UTC);
+        } else {
+            dateKey = dateConversion.getMillis();
+        }
+        return baseCurrency.toString() + CacheControllerDispatcher.CACHE_KEY_SEPARATOR + dateKey;
     }
 }
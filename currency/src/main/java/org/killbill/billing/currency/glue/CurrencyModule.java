@@ -45,6 +45,7 @@ public class CurrencyModule extends KillBillModule {
 
         bind(new TypeLiteral<OSGIServiceRegistration<CurrencyPluginApi>>() {}).toProvider(DefaultCurrencyProviderPluginRegistryProvider.class).asEagerSingleton();
 
+        bind(DefaultCurrencyConversionApi.class).asEagerSingleton();
         bind(CurrencyConversionApi.class).to(DefaultCurrencyConversionApi.class).asEagerSingleton();
         bind(CurrencyService.class).to(DefaultCurrencyService.class).asEagerSingleton();
     }
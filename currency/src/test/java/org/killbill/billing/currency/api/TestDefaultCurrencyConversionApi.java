@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.currency.api;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.currency.plugin.api.CurrencyPluginApi;
+import org.killbill.billing.osgi.api.OSGIServiceRegistration;
+import org.killbill.billing.util.cache.Cachable.CacheType;
+import org.killbill.billing.util.cache.CacheController;
+import org.killbill.billing.util.cache.CacheControllerDispatcher;
+import org.killbill.billing.util.cache.CacheLoaderArgument;
+import org.killbill.billing.util.cache.CurrencyConversionCacheLoader;
+import org.killbill.billing.util.config.definition.CurrencyConfig;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+public class TestDefaultCurrencyConversionApi {
+
+    private static final String PROVIDER = "currency-provider";
+
+    private CurrencyPluginApi currencyPluginApi;
+    private CurrencyConfig config;
+    private InMemoryCacheController cacheController;
+    private DefaultCurrencyConversionApi currencyConversionApi;
+
+    @BeforeMethod(groups = "fast")
+    public void beforeMethod() throws Exception {
+        currencyPluginApi = Mockito.mock(CurrencyPluginApi.class);
+        Mockito.when(currencyPluginApi.getBaseCurrencies()).thenReturn(ImmutableSet.<Currency>of(Currency.USD));
+
+        @SuppressWarnings("unchecked")
+        final OSGIServiceRegistration<CurrencyPluginApi> registry = Mockito.mock(OSGIServiceRegistration.class);
+        Mockito.when(registry.getServiceForName(PROVIDER)).thenReturn(currencyPluginApi);
+        config = Mockito.mock(CurrencyConfig.class);
+        Mockito.when(config.getDefaultCurrencyProvider()).thenReturn(PROVIDER);
+
+        cacheController = new InMemoryCacheController();
+        final Map<CacheType, CacheController<Object, Object>> caches = new HashMap<CacheType, CacheController<Object, Object>>();
+        caches.put(CacheType.CURRENCY_CONVERSION, cacheController);
+        currencyConversionApi = new DefaultCurrencyConversionApi(config, registry, new CacheControllerDispatcher(caches));
+    }
+
+    @Test(groups = "fast")
+    public void testHistoricalRatesAreKeyedByInstant() throws Exception {
+        final DateTime morning = new DateTime(2017, 3, 4, 8, 12, 0, DateTimeZone.UTC);
+        final DateTime evening = new DateTime(2017, 3, 4, 21, 47, 0, DateTimeZone.UTC);
+        Assert.assertEquals(DefaultCurrencyConversionApi.getCacheKey(Currency.USD, morning, false, false), "USD::" + morning.getMillis());
+        // The key doesn't depend on the time zone
+        Assert.assertEquals(DefaultCurrencyConversionApi.getCacheKey(Currency.USD, morning.withZone(DateTimeZone.forOffsetHours(-8)), false, false), "USD::" + morning.getMillis());
+        Assert.assertEquals(DefaultCurrencyConversionApi.getCacheKey(Currency.USD, null, true, false), "USD");
+
+        Mockito.when(currencyPluginApi.getRates(Mockito.eq(Currency.USD), Mockito.<DateTime>any())).thenReturn(ImmutableSet.<Rate>of(createRate(Currency.EUR, "0.9")));
+        final CurrencyConversion morningConversion = currencyConversionApi.getCurrencyConversion(Currency.USD, morning);
+        Assert.assertSame(currencyConversionApi.getCurrencyConversion(Currency.USD, morning), morningConversion);
+        Mockito.verify(currencyPluginApi, Mockito.times(1)).getRates(Currency.USD, morning);
+
+        // Each conversion date gets the rates of its own instant
+        Assert.assertNotSame(currencyConversionApi.getCurrencyConversion(Currency.USD, evening), morningConversion);
+        Mockito.verify(currencyPluginApi, Mockito.times(1)).getRates(Currency.USD, evening);
+    }
+
+    @Test(groups = "fast")
+    public void testHistoricalRatesAreKeyedByDay() throws Exception {
+        Mockito.when(config.isHistoricalRatesCachedPerDay()).thenReturn(true);
+
+        final DateTime morning = new DateTime(2017, 3, 4, 8, 12, 0, DateTimeZone.UTC);
+        final DateTime evening = new DateTime(2017, 3, 4, 21, 47, 0, DateTimeZone.UTC);
+        final DateTime nextDay = new DateTime(2017, 3, 5, 0, 1, 0, DateTimeZone.UTC);
+        Assert.assertEquals(DefaultCurrencyConversionApi.getCacheKey(Currency.USD, morning, false, true), "USD::2017-03-04");
+        Assert.assertEquals(DefaultCurrencyConversionApi.getCacheKey(Currency.USD, evening, false, true), "USD::2017-03-04");
+        // The day is the UTC one
+        Assert.assertEquals(DefaultCurrencyConversionApi.getCacheKey(Currency.USD, new DateTime(2017, 3, 4, 20, 0, 0, DateTimeZone.forOffsetHours(-8)), false, true), "USD::2017-03-05");
+        Assert.assertEquals(DefaultCurrencyConversionApi.getCacheKey(Currency.USD, null, true, true), "USD");
+
+        Mockito.when(currencyPluginApi.getRates(Mockito.eq(Currency.USD), Mockito.<DateTime>any())).thenReturn(ImmutableSet.<Rate>of(createRate(Currency.EUR, "0.9")));
+        final CurrencyConversion morningConversion = currencyConversionApi.getCurrencyConversion(Currency.USD, morning);
+        Assert.assertSame(currencyConversionApi.getCurrencyConversion(Currency.USD, evening), morningConversion);
+        Mockito.verify(currencyPluginApi, Mockito.times(1)).getRates(Mockito.eq(Currency.USD), Mockito.<DateTime>any());
+
+        Assert.assertNotSame(currencyConversionApi.getCurrencyConversion(Currency.USD, nextDay), morningConversion);
+        Mockito.verify(currencyPluginApi, Mockito.times(2)).getRates(Mockito.eq(Currency.USD), Mockito.<DateTime>any());
+    }
+
+    @Test(groups = "fast")
+    public void testEmptyRatesAreNotCached() throws Exception {
+        Mockito.when(currencyPluginApi.getCurrentRates(Currency.USD)).thenReturn(ImmutableSet.<Rate>of());
+        Assert.assertTrue(currencyConversionApi.getCurrentCurrencyConversion(Currency.USD).getRates().isEmpty());
+        Assert.assertEquals(cacheController.size(), 0);
+
+        // The provider is asked again next time
+        Mockito.when(currencyPluginApi.getCurrentRates(Currency.USD)).thenReturn(ImmutableSet.<Rate>of(createRate(Currency.EUR, "0.9")));
+        Assert.assertEquals(currencyConversionApi.getCurrentCurrencyConversion(Currency.USD).getRates().size(), 1);
+        Assert.assertEquals(cacheController.size(), 1);
+        Mockito.verify(currencyPluginApi, Mockito.times(2)).getCurrentRates(Currency.USD);
+    }
+
+    @Test(groups = "fast")
+    public void testPrefetch() throws Exception {
+        Mockito.when(currencyPluginApi.getCurrentRates(Currency.USD)).thenReturn(ImmutableSet.<Rate>of(createRate(Currency.EUR, "0.9")));
+
+        // Nothing in the cache yet: the rates are added
+        currencyConversionApi.refreshCurrentCurrencyConversions();
+        final CurrencyConversion conversion = currencyConversionApi.getCurrentCurrencyConversion(Currency.USD);
+        Assert.assertEquals(conversion.getRates().iterator().next().getValue(), new BigDecimal("0.9"));
+        Mockito.verify(currencyPluginApi, Mockito.times(1)).getCurrentRates(Currency.USD);
+
+        // The entry is swapped in place (it is never removed)
+        Mockito.when(currencyPluginApi.getCurrentRates(Currency.USD)).thenReturn(ImmutableSet.<Rate>of(createRate(Currency.EUR, "0.95")));
+        currencyConversionApi.refreshCurrentCurrencyConversions();
+        Assert.assertEquals(cacheController.nbRemovals, 0);
+        final CurrencyConversion refreshedConversion = currencyConversionApi.getCurrentCurrencyConversion(Currency.USD);
+        Assert.assertNotSame(refreshedConversion, conversion);
+        Assert.assertEquals(refreshedConversion.getRates().iterator().next().getValue(), new BigDecimal("0.95"));
+        Mockito.verify(currencyPluginApi, Mockito.times(2)).getCurrentRates(Currency.USD);
+
+        // An empty answer from the provider doesn't replace the current rates
+        Mockito.when(currencyPluginApi.getCurrentRates(Currency.USD)).thenReturn(ImmutableSet.<Rate>of());
+        currencyConversionApi.refreshCurrentCurrencyConversions();
+        Assert.assertSame(currencyConversionApi.getCurrentCurrencyConversion(Currency.USD), refreshedConversion);
+    }
+
+    private Rate createRate(final Currency currency, final String value) {
+        final Rate rate = Mockito.mock(Rate.class);
+        Mockito.when(rate.getCurrency()).thenReturn(currency);
+        Mockito.when(rate.getValue()).thenReturn(new BigDecimal(value));
+        return rate;
+    }
+
+    // Same semantics as EhCacheBasedCacheController, without expiry
+    private static final class InMemoryCacheController implements CacheController<Object, Object> {
+
+        private final CurrencyConversionCacheLoader cacheLoader = new CurrencyConversionCacheLoader();
+        private final ConcurrentMap<Object, Object> cache = new ConcurrentHashMap<Object, Object>();
+
+        private int nbRemovals = 0;
+
+        @Override
+        public List<Object> getKeys() {
+            return ImmutableList.copyOf(cache.keySet());
+        }
+
+        @Override
+        public boolean isKeyInCache(final Object key) {
+            return cache.containsKey(key);
+        }
+
+        @Override
+        public Object get(final Object key, final CacheLoaderArgument cacheLoaderArgument) {
+            final Object value = cache.get(key);
+            if (value != null) {
+                return value;
+            }
+            final Object computedValue = cacheLoader.compute((String) key, cacheLoaderArgument);
+            if (computedValue != null) {
+                cache.putIfAbsent(key, computedValue);
+            }
+            return computedValue;
+        }
+
+        @Override
+        public Map<Object, Object> getAll(final Set<Object> keys) {
+            final Map<Object, Object> result = new HashMap<Object, Object>();
+            for (final Object key : keys) {
+                if (cache.containsKey(key)) {
+                    result.put(key, cache.get(key));
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public boolean remove(final Object key) {
+            nbRemovals++;
+            return cache.remove(key) != null;
+        }
+
+        @Override
+        public void remove(final Function<Object, Boolean> keyMatcher) {
+            for (final Object key : getKeys()) {
+                if (keyMatcher.apply(key) == Boolean.TRUE) {
+                    remove(key);
+                }
+            }
+        }
+
+        @Override
+        public void putIfAbsent(final Object key, final Object value) {
+            cache.putIfAbsent(key, value);
+        }
+
+        @Override
+        public boolean replace(final Object key, final Object value) {
+            return cache.replace(key, value) != null;
+        }
+
+        @Override
+        public int size() {
+            return cache.size();
+        }
+
+        @Override
+        public void removeAll() {
+            cache.clear();
+        }
+
+        @Override
+        public CacheType getCacheType() {
+            return CacheType.CURRENCY_CONVERSION;
+        }
+    }
+}
@@ -31,6 +31,7 @@ import org.killbill.billing.entitlement.api.Blockable;
 import org.killbill.billing.entitlement.api.BlockingApiException;
 import org.killbill.billing.entitlement.api.BlockingState;
 import org.killbill.billing.entitlement.api.BlockingStateType;
+import org.killbill.billing.entitlement.dao.AccountBlockingStates;
 import org.killbill.billing.entitlement.dao.BlockingStateDao;
 import org.killbill.billing.subscription.api.SubscriptionBase;
 import org.killbill.billing.subscription.api.SubscriptionBaseInternalApi;
@@ -139,77 +140,85 @@ public class DefaultBlockingChecker implements BlockingChecker {
         final SubscriptionBase subscription;
         try {
             subscription = subscriptionApi.getSubscriptionFromId(subscriptionId, context);
-            return getBlockedStateSubscription(subscription, upToDate, context);
+            return getBlockedStateSubscription(subscription, upToDate, getAccountBlockingStates(context), context);
         } catch (final SubscriptionBaseApiException e) {
             throw new BlockingApiException(e, ErrorCode.fromCode(e.getCode()));
         }
     }
 
-    private DefaultBlockingAggregator getBlockedStateSubscription(final SubscriptionBase subscription, final DateTime upToDate, final InternalTenantContext context) throws BlockingApiException {
+    private DefaultBlockingAggregator getBlockedStateSubscription(final SubscriptionBase subscription, final DateTime upToDate, @Nullable final AccountBlockingStates accountBlockingStates, final InternalTenantContext context) throws BlockingApiException {
         final DefaultBlockingAggregator result = new DefaultBlockingAggregator();
         if (subscription != null) {
-            final DefaultBlockingAggregator subscriptionState = getBlockedStateForId(subscription.getId(), BlockingStateType.SUBSCRIPTION, upToDate, context);
+            final DefaultBlockingAggregator subscriptionState = getBlockedStateForId(subscription.getId(), BlockingStateType.SUBSCRIPTION, upToDate, accountBlockingStates, context);
             if (subscriptionState != null) {
                 result.or(subscriptionState);
             }
             if (subscription.getBundleId() != null) {
                 // Recursive call to also fetch account state
-                result.or(getBlockedStateBundleId(subscription.getBundleId(), upToDate, context));
+                result.or(getBlockedStateBundleId(subscription.getBundleId(), upToDate, accountBlockingStates, context));
             }
         }
         return result;
     }
 
-    private DefaultBlockingAggregator getBlockedStateBundleId(final UUID bundleId, final DateTime upToDate, final InternalTenantContext context) throws BlockingApiException {
+    private DefaultBlockingAggregator getBlockedStateBundleId(final UUID bundleId, final DateTime upToDate, @Nullable final AccountBlockingStates accountBlockingStates, final InternalTenantContext context) throws BlockingApiException {
 
         final SubscriptionBaseBundle bundle;
         try {
             bundle = subscriptionApi.getBundleFromId(bundleId, context);
-            return getBlockedStateBundle(bundle, upToDate, context);
+            return getBlockedStateBundle(bundle, upToDate, accountBlockingStates, context);
         } catch (final SubscriptionBaseApiException e) {
             throw new BlockingApiException(e, ErrorCode.fromCode(e.getCode()));
         }
     }
 
-    private DefaultBlockingAggregator getBlockedStateBundle(final SubscriptionBaseBundle bundle, final DateTime upToDate, final InternalTenantContext context) {
-        final DefaultBlockingAggregator result = getBlockedStateAccountId(bundle.getAccountId(), upToDate, context);
-        final DefaultBlockingAggregator bundleState = getBlockedStateForId(bundle.getId(), BlockingStateType.SUBSCRIPTION_BUNDLE, upToDate, context);
+    private DefaultBlockingAggregator getBlockedStateBundle(final SubscriptionBaseBundle bundle, final DateTime upToDate, @Nullable final AccountBlockingStates accountBlockingStates, final InternalTenantContext context) {
+        final DefaultBlockingAggregator result = getBlockedStateAccountId(bundle.getAccountId(), upToDate, accountBlockingStates, context);
+        final DefaultBlockingAggregator bundleState = getBlockedStateForId(bundle.getId(), BlockingStateType.SUBSCRIPTION_BUNDLE, upToDate, accountBlockingStates, context);
         if (bundleState != null) {
             result.or(bundleState);
         }
         return result;
     }
 
-    private DefaultBlockingAggregator getBlockedStateAccount(final Account account, final DateTime upToDate, final InternalTenantContext context) {
+    private DefaultBlockingAggregator getBlockedStateAccount(final Account account, final DateTime upToDate, @Nullable final AccountBlockingStates accountBlockingStates, final InternalTenantContext context) {
         if (account != null) {
-            return getBlockedStateForId(account.getId(), BlockingStateType.ACCOUNT, upToDate, context);
+            return getBlockedStateForId(account.getId(), BlockingStateType.ACCOUNT, upToDate, accountBlockingStates, context);
         }
         return new DefaultBlockingAggregator();
     }
 
-    private DefaultBlockingAggregator getBlockedStateAccountId(final UUID accountId, final DateTime upToDate, final InternalTenantContext context) {
-        return getBlockedStateForId(accountId, BlockingStateType.ACCOUNT, upToDate, context);
+    private DefaultBlockingAggregator getBlockedStateAccountId(final UUID accountId, final DateTime upToDate, @Nullable final AccountBlockingStates accountBlockingStates, final InternalTenantContext context) {
+        return getBlockedStateForId(accountId, BlockingStateType.ACCOUNT, upToDate, accountBlockingStates, context);
     }
 
-    private DefaultBlockingAggregator getBlockedStateForId(@Nullable final UUID blockableId, final BlockingStateType blockingStateType, final DateTime upToDate, final InternalTenantContext context) {
+    private DefaultBlockingAggregator getBlockedStateForId(@Nullable final UUID blockableId, final BlockingStateType blockingStateType, final DateTime upToDate,
+                                                           @Nullable final AccountBlockingStates accountBlockingStates, final InternalTenantContext context) {
         // Last states across services
         final List<BlockingState> blockableState;
-        if (blockableId != null) {
-            blockableState = dao.getBlockingState(blockableId, blockingStateType, upToDate, context);
-        } else {
+        if (blockableId == null) {
             blockableState = ImmutableList.<BlockingState>of();
+        } else if (accountBlockingStates != null) {
+            blockableState = accountBlockingStates.getBlockingState(blockableId, blockingStateType, upToDate);
+        } else {
+            blockableState = dao.getBlockingState(blockableId, blockingStateType, upToDate, context);
         }
         return statelessBlockingChecker.getBlockedState(blockableState);
     }
 
+    // All the blocking states of the account at once, rather than one query per blockable object (null if the context isn't account specific)
+    private AccountBlockingStates getAccountBlockingStates(final InternalTenantContext context) {
+        return context.getAccountRecordId() != null ? dao.getAccountBlockingStates(context) : null;
+    }
+
     @Override
     public BlockingAggregator getBlockedStatus(final UUID blockableId, final BlockingStateType type, final DateTime upToDate, final InternalTenantContext context) throws BlockingApiException {
         if (type == BlockingStateType.SUBSCRIPTION) {
             return getBlockedStateSubscriptionId(blockableId, upToDate, context);
         } else if (type == BlockingStateType.SUBSCRIPTION_BUNDLE) {
-            return getBlockedStateBundleId(blockableId, upToDate, context);
+            return getBlockedStateBundleId(blockableId, upToDate, getAccountBlockingStates(context), context);
         } else { // BlockingStateType.ACCOUNT {
-            return getBlockedStateAccountId(blockableId, upToDate, context);
+            return getBlockedStateAccountId(blockableId, upToDate, getAccountBlockingStates(context), context);
         }
     }
 
@@ -220,33 +229,33 @@ public class DefaultBlockingChecker implements BlockingChecker {
 
     @Override
     public void checkBlockedChange(final Blockable blockable, final DateTime upToDate, final InternalTenantContext context) throws BlockingApiException {
-        if (blockable instanceof SubscriptionBase && getBlockedStateSubscription((SubscriptionBase) blockable, upToDate, context).isBlockChange()) {
+        if (blockable instanceof SubscriptionBase && getBlockedStateSubscription((SubscriptionBase) blockable, upToDate, getAccountBlockingStates(context), context).isBlockChange()) {
             throw new BlockingApiException(ErrorCode.BLOCK_BLOCKED_ACTION, ACTION_CHANGE, TYPE_SUBSCRIPTION, blockable.getId().toString());
-        } else if (blockable instanceof SubscriptionBaseBundle && getBlockedStateBundle((SubscriptionBaseBundle) blockable, upToDate, context).isBlockChange()) {
+        } else if (blockable instanceof SubscriptionBaseBundle && getBlockedStateBundle((SubscriptionBaseBundle) blockable, upToDate, getAccountBlockingStates(context), context).isBlockChange()) {
             throw new BlockingApiException(ErrorCode.BLOCK_BLOCKED_ACTION, ACTION_CHANGE, TYPE_BUNDLE, blockable.getId().toString());
-        } else if (blockable instanceof Account && getBlockedStateAccount((Account) blockable, upToDate, context).isBlockChange()) {
+        } else if (blockable instanceof Account && getBlockedStateAccount((Account) blockable, upToDate, getAccountBlockingStates(context), context).isBlockChange()) {
             throw new BlockingApiException(ErrorCode.BLOCK_BLOCKED_ACTION, ACTION_CHANGE, TYPE_ACCOUNT, blockable.getId().toString());
         }
     }
 
     @Override
     public void checkBlockedEntitlement(final Blockable blockable, final DateTime upToDate, final InternalTenantContext context) throws BlockingApiException {
-        if (blockable instanceof SubscriptionBase && getBlockedStateSubscription((SubscriptionBase) blockable, upToDate, context).isBlockEntitlement()) {
+        if (blockable instanceof SubscriptionBase && getBlockedStateSubscription((SubscriptionBase) blockable, upToDate, getAccountBlockingStates(context), context).isBlockEntitlement()) {
             throw new BlockingApiException(ErrorCode.BLOCK_BLOCKED_ACTION, ACTION_ENTITLEMENT, TYPE_SUBSCRIPTION, blockable.getId().toString());
-        } else if (blockable instanceof SubscriptionBaseBundle && getBlockedStateBundle((SubscriptionBaseBundle) blockable, upToDate, context).isBlockEntitlement()) {
+        } else if (blockable instanceof SubscriptionBaseBundle && getBlockedStateBundle((SubscriptionBaseBundle) blockable, upToDate, getAccountBlockingStates(context), context).isBlockEntitlement()) {
             throw new BlockingApiException(ErrorCode.BLOCK_BLOCKED_ACTION, ACTION_ENTITLEMENT, TYPE_BUNDLE, blockable.getId().toString());
-        } else if (blockable instanceof Account && getBlockedStateAccount((Account) blockable, upToDate, context).isBlockEntitlement()) {
+        } else if (blockable instanceof Account && getBlockedStateAccount((Account) blockable, upToDate, getAccountBlockingStates(context), context).isBlockEntitlement()) {
             throw new BlockingApiException(ErrorCode.BLOCK_BLOCKED_ACTION, ACTION_ENTITLEMENT, TYPE_ACCOUNT, blockable.getId().toString());
         }
     }
 
     @Override
     public void checkBlockedBilling(final Blockable blockable, final DateTime upToDate, final InternalTenantContext context) throws BlockingApiException {
-        if (blockable instanceof SubscriptionBase && getBlockedStateSubscription((SubscriptionBase) blockable, upToDate, context).isBlockBilling()) {
+        if (blockable instanceof SubscriptionBase && getBlockedStateSubscription((SubscriptionBase) blockable, upToDate, getAccountBlockingStates(context), context).isBlockBilling()) {
             throw new BlockingApiException(ErrorCode.BLOCK_BLOCKED_ACTION, ACTION_BILLING, TYPE_SUBSCRIPTION, blockable.getId().toString());
-        } else if (blockable instanceof SubscriptionBaseBundle && getBlockedStateBundle((SubscriptionBaseBundle) blockable, upToDate, context).isBlockBilling()) {
+        } else if (blockable instanceof SubscriptionBaseBundle && getBlockedStateBundle((SubscriptionBaseBundle) blockable, upToDate, getAccountBlockingStates(context), context).isBlockBilling()) {
             throw new BlockingApiException(ErrorCode.BLOCK_BLOCKED_ACTION, ACTION_BILLING, TYPE_BUNDLE, blockable.getId().toString());
-        } else if (blockable instanceof Account && getBlockedStateAccount((Account) blockable, upToDate, context).isBlockBilling()) {
+        } else if (blockable instanceof Account && getBlockedStateAccount((Account) blockable, upToDate, getAccountBlockingStates(context), context).isBlockBilling()) {
             throw new BlockingApiException(ErrorCode.BLOCK_BLOCKED_ACTION, ACTION_BILLING, TYPE_ACCOUNT, blockable.getId().toString());
         }
     }
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.entitlement.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.joda.time.DateTime;
+import org.killbill.billing.entitlement.api.BlockingState;
+import org.killbill.billing.entitlement.api.BlockingStateType;
+import org.killbill.billing.junction.DefaultBlockingState;
+
+import com.google.common.collect.ImmutableList;
+
+//
+// Snapshot of all the (active) blocking states of an account, indexed by blockable id and service and ordered by effective date,
+// so that looking up the state of a blockable at a given date doesn't require any query.
+//
+// Lookups follow the semantics of BlockingStateSqlDao#getBlockingState: for each service, the last inserted state
+// effective on or before the date, filtered on the blockable type.
+//
+public class AccountBlockingStates {
+
+    // Value of BlockingStateSqlDao#getAccountBlockingStatesStamp when the states were loaded
+    private final String stamp;
+    private final Map<UUID, Map<String, BlockingStatesForService>> blockingStates = new HashMap<UUID, Map<String, BlockingStatesForService>>();
+
+    // Blocking states are expected in insertion order when they don't have a distinct total ordering (i.e. not coming from disk)
+    public AccountBlockingStates(@Nullable final String stamp, final Iterable<BlockingState> allBlockingStates) {
+        this.stamp = stamp;
+
+        final Map<UUID, Map<String, List<BlockingState>>> blockingStatesPerBlockableAndService = new HashMap<UUID, Map<String, List<BlockingState>>>();
+        for (final BlockingState blockingState : allBlockingStates) {
+            Map<String, List<BlockingState>> blockingStatesPerService = blockingStatesPerBlockableAndService.get(blockingState.getBlockedId());
+            if (blockingStatesPerService == null) {
+                blockingStatesPerService = new LinkedHashMap<String, List<BlockingState>>();
+                blockingStatesPerBlockableAndService.put(blockingState.getBlockedId(), blockingStatesPerService);
+            }
+
+            List<BlockingState> blockingStatesForService = blockingStatesPerService.get(blockingState.getService());
+            if (blockingStatesForService == null) {
+                blockingStatesForService = new ArrayList<BlockingState>();
+                blockingStatesPerService.put(blockingState.getService(), blockingStatesForService);
+            }
+            blockingStatesForService.add(blockingState);
+        }
+
+        for (final Map.Entry<UUID, Map<String, List<BlockingState>>> entry : blockingStatesPerBlockableAndService.entrySet()) {
+            final Map<String, BlockingStatesForService> blockingStatesPerService = new LinkedHashMap<String, BlockingStatesForService>();
+            for (final Map.Entry<String, List<BlockingState>> serviceEntry : entry.getValue().entrySet()) {
+                blockingStatesPerService.put(serviceEntry.getKey(), new BlockingStatesForService(serviceEntry.getValue()));
+            }
+            blockingStates.put(entry.getKey(), blockingStatesPerService);
+        }
+    }
+
+    public String getStamp() {
+        return stamp;
+    }
+
+    // Current state across all the services, as of upToDate
+    public List<BlockingState> getBlockingState(@Nullable final UUID blockableId, final BlockingStateType blockingStateType, @Nullable final DateTime upToDate) {
+        final Map<String, BlockingStatesForService> blockingStatesPerService = blockableId == null ? null : blockingStates.get(blockableId);
+        if (blockingStatesPerService == null) {
+            return ImmutableList.<BlockingState>of();
+        }
+
+        final List<BlockingState> result = new LinkedList<BlockingState>();
+        for (final BlockingStatesForService blockingStatesForService : blockingStatesPerService.values()) {
+            final BlockingState blockingState = blockingStatesForService.getLastBlockingState(upToDate);
+            if (blockingState != null && blockingState.getType() == blockingStateType) {
+                result.add(blockingState);
+            }
+        }
+        return result;
+    }
+
+    private static final class BlockingStatesForService {
+
+        // Sorted effective dates
+        private final DateTime[] effectiveDates;
+        // Last inserted state amongst the ones effective on or before effectiveDates[i]
+        private final BlockingState[] lastBlockingStates;
+
+        private BlockingStatesForService(final List<BlockingState> blockingStatesInInsertionOrder) {
+            final int size = blockingStatesInInsertionOrder.size();
+
+            final Integer[] positions = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                positions[i] = i;
+            }
+            // Stable sort, ties are kept in insertion order
+            Arrays.sort(positions, new Comparator<Integer>() {
+                @Override
+                public int compare(final Integer o1, final Integer o2) {
+                    return blockingStatesInInsertionOrder.get(o1).getEffectiveDate().compareTo(blockingStatesInInsertionOrder.get(o2).getEffectiveDate());
+                }
+            });
+
+            this.effectiveDates = new DateTime[size];
+            this.lastBlockingStates = new BlockingState[size];
+            Integer lastPosition = null;
+            for (int i = 0; i < size; i++) {
+                final Integer position = positions[i];
+                if (lastPosition == null || isInsertedAfter(blockingStatesInInsertionOrder, position, lastPosition)) {
+                    lastPosition = position;
+                }
+                effectiveDates[i] = blockingStatesInInsertionOrder.get(position).getEffectiveDate();
+                lastBlockingStates[i] = blockingStatesInInsertionOrder.get(lastPosition);
+            }
+        }
+
+        private BlockingState getLastBlockingState(@Nullable final DateTime upToDate) {
+            if (upToDate == null) {
+                return lastBlockingStates[lastBlockingStates.length - 1];
+            }
+
+            // Find the last state effective on or before upToDate
+            int low = 0;
+            int high = effectiveDates.length - 1;
+            int found = -1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                if (effectiveDates[mid].compareTo(upToDate) <= 0) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found == -1 ? null : lastBlockingStates[found];
+        }
+
+        private static boolean isInsertedAfter(final List<BlockingState> blockingStatesInInsertionOrder, final int position, final int otherPosition) {
+            final Long totalOrdering = getTotalOrdering(blockingStatesInInsertionOrder.get(position));
+            final Long otherTotalOrdering = getTotalOrdering(blockingStatesInInsertionOrder.get(otherPosition));
+            // States not coming from disk have no (or a 0) total ordering
+            if (totalOrdering != null && otherTotalOrdering != null && !totalOrdering.equals(otherTotalOrdering)) {
+                return totalOrdering.compareTo(otherTotalOrdering) > 0;
+            }
+            return position > otherPosition;
+        }
+
+        private static Long getTotalOrdering(final BlockingState blockingState) {
+            return blockingState instanceof DefaultBlockingState ? ((DefaultBlockingState) blockingState).getTotalOrdering() : null;
+        }
+    }
+}
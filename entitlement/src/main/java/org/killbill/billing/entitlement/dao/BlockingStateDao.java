@@ -63,6 +63,15 @@ public interface BlockingStateDao extends EntityDao<BlockingStateModelDao, Block
      */
     public List<BlockingState> getBlockingAllForAccountRecordId(InternalTenantContext context);
 
+    /**
+     * Return a snapshot of all the blocking states of the account (for a given callcontext account_record_id),
+     * to look up the current state of any blockable object of the account at any date without further query
+     *
+     * @param context call context
+     * @return blocking states snapshot for that account
+     */
+    public AccountBlockingStates getAccountBlockingStates(InternalTenantContext context);
+
     /**
      * Set new blocking states
      *
@@ -44,9 +44,11 @@ import org.killbill.billing.entitlement.api.EntitlementApiException;
 import org.killbill.billing.entitlement.block.BlockingChecker.BlockingAggregator;
 import org.killbill.billing.entitlement.block.StatelessBlockingChecker;
 import org.killbill.billing.entitlement.engine.core.BlockingTransitionNotificationKey;
+import org.killbill.billing.util.cache.AccountBlockingStatesCacheLoader;
 import org.killbill.billing.util.cache.Cachable.CacheType;
 import org.killbill.billing.util.cache.CacheController;
 import org.killbill.billing.util.cache.CacheControllerDispatcher;
+import org.killbill.billing.util.cache.CacheLoaderArgument;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.dao.NonEntityDao;
 import org.killbill.billing.util.entity.dao.EntityDaoBase;
@@ -108,6 +110,7 @@ public class DefaultBlockingStateDao extends EntityDaoBase<BlockingStateModelDao
     private final NotificationQueueService notificationQueueService;
     private final PersistentBus eventBus;
     private final CacheController<String, UUID> objectIdCacheController;
+    private final CacheController<Long, Object> accountBlockingStatesCacheController;
     private final NonEntityDao nonEntityDao;
 
     private final StatelessBlockingChecker statelessBlockingChecker = new StatelessBlockingChecker();
@@ -119,6 +122,7 @@ public class DefaultBlockingStateDao extends EntityDaoBase<BlockingStateModelDao
         this.notificationQueueService = notificationQueueService;
         this.eventBus = eventBus;
         this.objectIdCacheController = cacheControllerDispatcher.getCacheController(CacheType.OBJECT_ID);
+        this.accountBlockingStatesCacheController = cacheControllerDispatcher.getCacheController(CacheType.ACCOUNT_BLOCKING_STATES);
         this.nonEntityDao = nonEntityDao;
     }
 
@@ -181,6 +185,51 @@ public class DefaultBlockingStateDao extends EntityDaoBase<BlockingStateModelDao
         });
     }
 
+    //
+    // The snapshot is cached per account and checked against a cheap stamp query on each call: since future states are part of
+    // the snapshot, it only needs to be reloaded when a state is inserted or unactivated, by this node or any other one.
+    // The stamp is read before the states are loaded, so a concurrent write can only cause an extra reload.
+    //
+    @Override
+    public AccountBlockingStates getAccountBlockingStates(final InternalTenantContext context) {
+        if (context.getAccountRecordId() == null) {
+            return new AccountBlockingStates(null, getBlockingAllForAccountRecordId(context));
+        }
+
+        final String stamp = transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<String>() {
+            @Override
+            public String inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                return entitySqlDaoWrapperFactory.become(BlockingStateSqlDao.class).getAccountBlockingStatesStamp(context);
+            }
+        });
+        if (stamp == null) {
+            // Shouldn't happen (see getAccountBlockingStatesStamp), but never cache a snapshot which couldn't be checked
+            return new AccountBlockingStates(null, getBlockingAllForAccountRecordId(context));
+        }
+
+        final CacheLoaderArgument cacheLoaderArgument = createAccountBlockingStatesCacheLoaderArgument(stamp, context);
+
+        AccountBlockingStates accountBlockingStates = (AccountBlockingStates) accountBlockingStatesCacheController.get(context.getAccountRecordId(), cacheLoaderArgument);
+        if (!stamp.equals(accountBlockingStates.getStamp())) {
+            accountBlockingStatesCacheController.remove(context.getAccountRecordId());
+            accountBlockingStates = (AccountBlockingStates) accountBlockingStatesCacheController.get(context.getAccountRecordId(), cacheLoaderArgument);
+        }
+        return accountBlockingStates;
+    }
+
+    private CacheLoaderArgument createAccountBlockingStatesCacheLoaderArgument(final String stamp, final InternalTenantContext context) {
+        final AccountBlockingStatesCacheLoader.LoaderCallback loaderCallback = new AccountBlockingStatesCacheLoader.LoaderCallback() {
+            @Override
+            public Object loadAccountBlockingStates(final InternalTenantContext context) {
+                return new AccountBlockingStates(stamp, getBlockingAllForAccountRecordId(context));
+            }
+        };
+        final Object[] args = new Object[1];
+        args[0] = loaderCallback;
+        final ObjectType irrelevant = null;
+        return new CacheLoaderArgument(irrelevant, args, context);
+    }
+
     @Override
     public void setBlockingStatesAndPostBlockingTransitionEvent(final Map<BlockingState, Optional<UUID>> states, final InternalCallContext context) {
         transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Void>() {
@@ -235,6 +235,12 @@ public class ProxyBlockingStateDao implements BlockingStateDao {
         return addBlockingStatesNotOnDisk(statesOnDisk, context);
     }
 
+    @Override
+    public AccountBlockingStates getAccountBlockingStates(final InternalTenantContext context) {
+        // Same semantics as getBlockingState (states on disk only)
+        return delegate.getAccountBlockingStates(context);
+    }
+
     @Override
     public void setBlockingStatesAndPostBlockingTransitionEvent(final Map<BlockingState, Optional<UUID>> states, final InternalCallContext context) {
         delegate.setBlockingStatesAndPostBlockingTransitionEvent(states, context);
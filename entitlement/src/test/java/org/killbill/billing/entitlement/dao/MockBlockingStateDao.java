@@ -84,6 +84,11 @@ public class MockBlockingStateDao extends MockEntityDaoBase<BlockingStateModelDa
         return MoreObjects.firstNonNull(blockingStatesPerAccountRecordId.get(context.getAccountRecordId()), ImmutableList.<BlockingState>of());
     }
 
+    @Override
+    public AccountBlockingStates getAccountBlockingStates(final InternalTenantContext context) {
+        return new AccountBlockingStates(null, getBlockingAllForAccountRecordId(context));
+    }
+
     @Override
     public synchronized void setBlockingStatesAndPostBlockingTransitionEvent(final Map<BlockingState, Optional<UUID>> states, final InternalCallContext context) {
         for (final BlockingState state : states.keySet()) {
@@ -79,6 +79,55 @@ public class TestDefaultBlockingStateDao extends EntitlementTestSuiteWithEmbedde
         Assert.assertEquals(blockingStateDao.getBlockingAllForAccountRecordId(internalCallContext).size(), 2);
     }
 
+    @Test(groups = "slow", description = "Verify the account snapshot matches the point queries and is reloaded on changes")
+    public void testAccountBlockingStates() throws Exception {
+        final UUID blockableId = UUID.randomUUID();
+        final BlockingStateType type = BlockingStateType.ACCOUNT;
+        final String serviceA = "service-A";
+        final String serviceB = "service-B";
+
+        final DateTime date1 = new DateTime(2013, 2, 6, 10, 11, 12, DateTimeZone.UTC);
+        final DateTime date2 = new DateTime(2013, 5, 6, 10, 11, 12, DateTimeZone.UTC);
+        final DateTime date3 = new DateTime(2013, 12, 6, 10, 11, 12, DateTimeZone.UTC);
+        final List<DateTime> checkDates = ImmutableList.<DateTime>of(date1.minusDays(1), date1, date2.minusSeconds(1), date2, date3.minusDays(1), date3, date3.plusYears(1));
+
+        final AccountBlockingStates emptyAccountBlockingStates = blockingStateDao.getAccountBlockingStates(internalCallContext);
+        Assert.assertTrue(emptyAccountBlockingStates.getBlockingState(blockableId, type, date3).isEmpty());
+
+        final BlockingState blockingState1 = new DefaultBlockingState(blockableId, type, "state-1", serviceA, true, false, false, date2);
+        final BlockingState blockingState2 = new DefaultBlockingState(blockableId, type, "state-1", serviceB, false, true, false, date2);
+        final BlockingState blockingState3 = new DefaultBlockingState(blockableId, type, "state-2", serviceA, false, false, false, date3);
+        // Inserted last but effective first: the point query goes by record_id
+        final BlockingState blockingState4 = new DefaultBlockingState(blockableId, type, "state-3", serviceB, false, false, true, date1);
+        for (final BlockingState blockingState : ImmutableList.<BlockingState>of(blockingState1, blockingState2, blockingState3, blockingState4)) {
+            blockingStateDao.setBlockingStatesAndPostBlockingTransitionEvent(ImmutableMap.<BlockingState, Optional<UUID>>of(blockingState, Optional.<UUID>absent()), internalCallContext);
+
+            final AccountBlockingStates accountBlockingStates = blockingStateDao.getAccountBlockingStates(internalCallContext);
+            Assert.assertNotSame(accountBlockingStates, emptyAccountBlockingStates);
+            // Nothing changed, the snapshot is re-used
+            Assert.assertSame(blockingStateDao.getAccountBlockingStates(internalCallContext), accountBlockingStates);
+
+            for (final DateTime checkDate : checkDates) {
+                final List<BlockingState> expected = blockingStateDao.getBlockingState(blockableId, type, checkDate, internalCallContext);
+                final List<BlockingState> actual = accountBlockingStates.getBlockingState(blockableId, type, checkDate);
+                Assert.assertEquals(actual.size(), expected.size());
+                Assert.assertTrue(actual.containsAll(expected));
+                Assert.assertTrue(accountBlockingStates.getBlockingState(blockableId, BlockingStateType.SUBSCRIPTION, checkDate).isEmpty());
+            }
+        }
+    }
+
+    @Test(groups = "slow", description = "Verify the snapshot of an account without any blocking state is cached (run with -Pmysql to cover MySQL's concat semantics)")
+    public void testAccountBlockingStatesWithoutAnyState() throws Exception {
+        Assert.assertEquals(blockingStateDao.getBlockingAllForAccountRecordId(internalCallContext).size(), 0);
+
+        final AccountBlockingStates accountBlockingStates = blockingStateDao.getAccountBlockingStates(internalCallContext);
+        Assert.assertNotNull(accountBlockingStates.getStamp());
+        Assert.assertTrue(accountBlockingStates.getBlockingState(UUID.randomUUID(), BlockingStateType.ACCOUNT, clock.getUTCNow()).isEmpty());
+        // Nothing changed, the snapshot is re-used
+        Assert.assertSame(blockingStateDao.getAccountBlockingStates(internalCallContext), accountBlockingStates);
+    }
+
     // See https://github.com/killbill/killbill/issues/111
     @Test(groups = "slow", description = "Verify we don't insert duplicate blocking states")
     public void testSetBlockingState() throws Exception {
@@ -68,6 +68,7 @@ import org.killbill.billing.invoice.api.user.DefaultNullInvoiceEvent;
 import org.killbill.billing.invoice.calculator.InvoiceCalculatorUtils;
 import org.killbill.billing.invoice.dao.InvoiceDao;
 import org.killbill.billing.invoice.dao.InvoiceItemModelDao;
+import org.killbill.billing.invoice.dao.InvoiceItemTreeSnapshotModelDao;
 import org.killbill.billing.invoice.dao.InvoiceModelDao;
 import org.killbill.billing.invoice.dao.InvoiceModelDaoHelper;
 import org.killbill.billing.invoice.dao.InvoiceParentChildModelDao;
@@ -401,7 +402,7 @@ public class InvoiceDispatcher {
                     final BusInternalEvent event = new DefaultNullInvoiceEvent(accountId, clock.getUTCToday(),
                                                                                context.getAccountRecordId(), context.getTenantRecordId(), context.getUserToken());
 
-                    commitInvoiceAndSetFutureNotifications(account, null, futureAccountNotifications, context);
+                    commitInvoiceAndSetFutureNotifications(account, null, futureAccountNotifications, invoiceWithMetadata.getItemTreeSnapshots(), context);
                     postEvent(event);
                 }
                 return null;
@@ -448,7 +449,7 @@ public class InvoiceDispatcher {
                 invoiceModelDao.addInvoiceItems(invoiceItemModelDaos);
 
                 // Commit invoice on disk
-                final boolean isThereAnyItemsLeft = commitInvoiceAndSetFutureNotifications(account, invoiceModelDao, futureAccountNotifications, context);
+                final boolean isThereAnyItemsLeft = commitInvoiceAndSetFutureNotifications(account, invoiceModelDao, futureAccountNotifications, invoiceWithMetadata.getItemTreeSnapshots(), context);
 
                 final boolean isRealInvoiceWithNonEmptyItems = isThereAnyItemsLeft ? isRealInvoiceWithItems : false;
 
@@ -551,6 +552,7 @@ public class InvoiceDispatcher {
     private boolean commitInvoiceAndSetFutureNotifications(final ImmutableAccountData account,
                                                            @Nullable final InvoiceModelDao invoiceModelDao,
                                                            final FutureAccountNotifications futureAccountNotifications,
+                                                           final List<InvoiceItemTreeSnapshotModelDao> itemTreeSnapshots,
                                                            final InternalCallContext context) throws SubscriptionBaseApiException, InvoiceApiException {
         final boolean isThereAnyItemsLeft = invoiceModelDao != null && !invoiceModelDao.getInvoiceItems().isEmpty();
         if (isThereAnyItemsLeft) {
@@ -558,6 +560,8 @@ public class InvoiceDispatcher {
         } else {
             invoiceDao.setFutureAccountNotificationsForEmptyInvoice(account.getId(), futureAccountNotifications, context);
         }
+        // Only once the items the snapshots are based on have been committed
+        invoiceDao.saveItemTreeSnapshots(itemTreeSnapshots, context);
         return isThereAnyItemsLeft;
     }
 
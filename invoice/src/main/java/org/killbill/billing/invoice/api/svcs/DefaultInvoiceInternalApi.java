@@ -32,6 +32,8 @@ import org.killbill.billing.ErrorCode;
 import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.invoice.api.AccountBalanceSummary;
+import org.killbill.billing.invoice.api.AccountBalanceSummaryCheck;
 import org.killbill.billing.invoice.api.Invoice;
 import org.killbill.billing.invoice.api.InvoiceApiException;
 import org.killbill.billing.invoice.api.InvoiceApiHelper;
@@ -41,6 +43,7 @@ import org.killbill.billing.invoice.api.InvoicePayment;
 import org.killbill.billing.invoice.api.InvoicePaymentType;
 import org.killbill.billing.invoice.api.InvoiceStatus;
 import org.killbill.billing.invoice.api.WithAccountLock;
+import org.killbill.billing.invoice.dao.InvoiceAccountBalanceModelDao;
 import org.killbill.billing.invoice.dao.InvoiceDao;
 import org.killbill.billing.invoice.dao.InvoiceModelDao;
 import org.killbill.billing.invoice.dao.InvoicePaymentModelDao;
@@ -55,7 +58,9 @@ import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 
 public class DefaultInvoiceInternalApi implements InvoiceInternalApi {
 
@@ -94,6 +99,21 @@ public class DefaultInvoiceInternalApi implements InvoiceInternalApi {
         return dao.getAccountBalance(accountId, context);
     }
 
+    @Override
+    public Map<UUID, AccountBalanceSummary> getAccountBalanceSummaries(final Collection<UUID> accountIds, final InternalTenantContext context) {
+        return ImmutableMap.<UUID, AccountBalanceSummary>copyOf(Maps.transformValues(dao.getAccountBalances(accountIds, context), new Function<InvoiceAccountBalanceModelDao, AccountBalanceSummary>() {
+            @Override
+            public AccountBalanceSummary apply(final InvoiceAccountBalanceModelDao input) {
+                return new AccountBalanceSummary(input.getAccountId(), input.getBalance(), input.getCba());
+            }
+        }));
+    }
+
+    @Override
+    public AccountBalanceSummaryCheck rebuildAccountBalanceSummary(final UUID accountId, final boolean dryRun, final InternalCallContext context) {
+        return dao.rebuildAccountBalanceSummary(accountId, dryRun, context);
+    }
+
     @Override
     public void recordPaymentAttemptInit(final UUID invoiceId, final BigDecimal amount, final Currency currency, final Currency processedCurrency, final UUID paymentId, final String transactionExternalKey, final DateTime paymentDate, final InternalCallContext context) throws InvoiceApiException {
         final InvoicePayment invoicePayment = new DefaultInvoicePayment(InvoicePaymentType.ATTEMPT, paymentId, invoiceId, paymentDate, amount, currency, processedCurrency, transactionExternalKey, false);
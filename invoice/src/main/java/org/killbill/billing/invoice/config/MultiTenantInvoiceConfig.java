@@ -118,6 +118,30 @@ public class MultiTenantInvoiceConfig extends MultiTenantConfigBase implements I
         return staticConfig.getMaxGlobalLockRetries();
     }
 
+    @Override
+    public boolean isIncrementalItemTreeEnabled() {
+        return staticConfig.isIncrementalItemTreeEnabled();
+    }
+
+    @Override
+    public boolean isParallelItemGenerationEnabled() {
+        return staticConfig.isParallelItemGenerationEnabled();
+    }
+
+    @Override
+    public boolean isParallelItemGenerationEnabled(final InternalTenantContext tenantContext) {
+        final String result = getStringTenantConfig("isParallelItemGenerationEnabled", tenantContext);
+        if (result != null) {
+            return Boolean.parseBoolean(result);
+        }
+        return isParallelItemGenerationEnabled();
+    }
+
+    @Override
+    public int getParallelItemGenerationThreads() {
+        return staticConfig.getParallelItemGenerationThreads();
+    }
+
     @Override
     public boolean isInvoicingSystemEnabled() {
         return staticConfig.isInvoicingSystemEnabled();
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.invoice.dao;
+
+import java.math.BigDecimal;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.invoice.api.InvoiceItemType;
+import org.killbill.billing.invoice.api.InvoicePaymentType;
+import org.killbill.billing.invoice.api.InvoiceStatus;
+import org.killbill.billing.util.cache.Cachable.CacheType;
+import org.killbill.billing.util.cache.CacheController;
+import org.killbill.billing.util.cache.CacheControllerDispatcher;
+import org.killbill.billing.util.dao.NonEntityDao;
+import org.killbill.billing.util.dao.SqlExceptionHelper;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoWrapperFactory;
+import org.killbill.clock.Clock;
+import org.killbill.commons.jdbi.mapper.LowerToCamelBeanMapperFactory;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.IDBI;
+import org.skife.jdbi.v2.TransactionCallback;
+import org.skife.jdbi.v2.TransactionStatus;
+import org.skife.jdbi.v2.exceptions.DBIException;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Materialized account balance and CBA.
+ * <p/>
+ * The summary is computed once from the invoice rows (on the first read), and then kept up-to-date by the invoice writes:
+ * each write transaction first locks the summary row (see lockFromTransaction), and adds the balance and CBA deltas of the rows it inserts or updates.
+ * A summary is only saved if no write happened since its version was read, otherwise the next read computes it again.
+ * Rows written outside of DefaultInvoiceDao are not accounted for: the summary must be rebuilt (see InvoiceDao#rebuildAccountBalanceSummary, exposed through
+ * the admin API, which can also verify it without saving it).
+ * <p/>
+ * The summary ignores WRITTEN_OFF tags (which are set outside of the invoice transactions) and parent invoices: the balance of accounts with written off
+ * invoices is still computed from the invoices, and the summary of child accounts is never computed.
+ */
+public class AccountBalanceDao {
+
+    private static final String CREATE_ACCOUNT_BALANCE_SAVEPOINT = "create_account_balance";
+
+    // See InvoiceCalculatorUtils#computeRawInvoiceBalance: CREDIT_ADJ items are counted once, either as an invoice adjustment or as the CBA snowflake
+    private static final Collection<InvoiceItemType> RAW_BALANCE_ITEM_TYPES = ImmutableSet.<InvoiceItemType>of(InvoiceItemType.TAX,
+                                                                                                             InvoiceItemType.EXTERNAL_CHARGE,
+                                                                                                             InvoiceItemType.FIXED,
+                                                                                                             InvoiceItemType.USAGE,
+                                                                                                             InvoiceItemType.RECURRING,
+                                                                                                             InvoiceItemType.CREDIT_ADJ,
+                                                                                                             InvoiceItemType.ITEM_ADJ,
+                                                                                                             InvoiceItemType.REPAIR_ADJ,
+                                                                                                             InvoiceItemType.PARENT_SUMMARY,
+                                                                                                             InvoiceItemType.CBA_ADJ);
+    private static final Collection<InvoicePaymentType> RAW_BALANCE_PAYMENT_TYPES = ImmutableSet.<InvoicePaymentType>of(InvoicePaymentType.ATTEMPT,
+                                                                                                                       InvoicePaymentType.REFUND,
+                                                                                                                       InvoicePaymentType.CHARGED_BACK);
+
+    private final IDBI dbi;
+    private final Clock clock;
+    private final NonEntityDao nonEntityDao;
+    private final CacheController<String, UUID> objectIdCacheController;
+
+    @Inject
+    public AccountBalanceDao(final IDBI dbi, final Clock clock, final NonEntityDao nonEntityDao, final CacheControllerDispatcher cacheControllerDispatcher) {
+        this.dbi = dbi;
+        this.clock = clock;
+        this.nonEntityDao = nonEntityDao;
+        this.objectIdCacheController = cacheControllerDispatcher.getCacheController(CacheType.OBJECT_ID);
+        ((DBI) dbi).registerMapper(new LowerToCamelBeanMapperFactory(InvoiceAccountBalanceModelDao.class));
+    }
+
+    // Must be retrieved before any of the data used to compute the balance
+    public InvoiceAccountBalanceModelDao getOrCreateAccountBalance(final UUID accountId, final InternalTenantContext context) {
+        final InvoiceAccountBalanceModelDao existingAccountBalance = getAccountBalance(context);
+        if (existingAccountBalance != null) {
+            return existingAccountBalance;
+        }
+
+        create(ImmutableList.<InvoiceAccountBalanceModelDao>of(new InvoiceAccountBalanceModelDao(accountId, clock.getUTCNow(), context.getAccountRecordId(), context.getTenantRecordId())));
+        return getAccountBalance(context);
+    }
+
+    // Same as above, for several accounts of the same tenant
+    public Map<Long, InvoiceAccountBalanceModelDao> getOrCreateAccountBalances(final Map<UUID, Long> accountRecordIds, final InternalTenantContext context) {
+        final Map<Long, InvoiceAccountBalanceModelDao> accountBalances = getAccountBalances(accountRecordIds.values(), context);
+
+        final List<InvoiceAccountBalanceModelDao> missingAccountBalances = new ArrayList<InvoiceAccountBalanceModelDao>();
+        for (final UUID accountId : accountRecordIds.keySet()) {
+            final Long accountRecordId = accountRecordIds.get(accountId);
+            if (accountBalances.get(accountRecordId) == null) {
+                missingAccountBalances.add(new InvoiceAccountBalanceModelDao(accountId, clock.getUTCNow(), accountRecordId, context.getTenantRecordId()));
+            }
+        }
+        if (missingAccountBalances.isEmpty()) {
+            return accountBalances;
+        }
+
+        if (!create(missingAccountBalances)) {
+            // Some were created concurrently (the whole batch was rolled back)
+            for (final InvoiceAccountBalanceModelDao missingAccountBalance : missingAccountBalances) {
+                create(ImmutableList.<InvoiceAccountBalanceModelDao>of(missingAccountBalance));
+            }
+        }
+
+        return getAccountBalances(accountRecordIds.values(), context);
+    }
+
+    @Nullable
+    public InvoiceAccountBalanceModelDao getAccountBalance(final InternalTenantContext context) {
+        return dbi.inTransaction(new TransactionCallback<InvoiceAccountBalanceModelDao>() {
+            @Override
+            public InvoiceAccountBalanceModelDao inTransaction(final Handle handle, final TransactionStatus status) throws Exception {
+                return handle.attach(InvoiceAccountBalanceSqlDao.class).getByAccountRecordId(context);
+            }
+        });
+    }
+
+    // Must be the first statement of the write transaction: the row lock serializes the writes of the account, and a concurrent save of a computed summary
+    public void lockFromTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalCallContext context) {
+        if (context.getAccountRecordId() == null) {
+            return;
+        }
+
+        final Handle handle = entitySqlDaoWrapperFactory.getHandle();
+        final InvoiceAccountBalanceSqlDao invoiceAccountBalanceSqlDao = handle.attach(InvoiceAccountBalanceSqlDao.class);
+        if (invoiceAccountBalanceSqlDao.incrementVersion(context) > 0) {
+            return;
+        }
+
+        // First write for that account: the insert is rolled back to a savepoint if a concurrent transaction created the summary (required by PostgreSQL)
+        final UUID accountId = nonEntityDao.retrieveIdFromObjectInTransaction(context.getAccountRecordId(), ObjectType.ACCOUNT, objectIdCacheController, handle);
+        handle.checkpoint(CREATE_ACCOUNT_BALANCE_SAVEPOINT);
+        try {
+            invoiceAccountBalanceSqlDao.create(ImmutableList.<InvoiceAccountBalanceModelDao>of(new InvoiceAccountBalanceModelDao(accountId, context.getCreatedDate(), context.getAccountRecordId(), context.getTenantRecordId())));
+            handle.release(CREATE_ACCOUNT_BALANCE_SAVEPOINT);
+        } catch (final DBIException e) {
+            if (!SqlExceptionHelper.isDuplicateKey(e)) {
+                throw e;
+            }
+            handle.rollback(CREATE_ACCOUNT_BALANCE_SAVEPOINT);
+        }
+        invoiceAccountBalanceSqlDao.incrementVersion(context);
+    }
+
+    // The summary row is locked by the current transaction (see lockFromTransaction), so the CBA includes all the writes before it. Null if not computed.
+    @Nullable
+    public BigDecimal getAccountCBAFromTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalTenantContext context) {
+        final InvoiceAccountBalanceModelDao accountBalance = entitySqlDaoWrapperFactory.getHandle().attach(InvoiceAccountBalanceSqlDao.class).getByAccountRecordId(context);
+        return accountBalance == null || !accountBalance.isComputed() ? null : accountBalance.getCba();
+    }
+
+    // The invoices are retrieved in the transaction (the items may belong to invoices created by the same transaction)
+    public void addInvoiceItemsFromTransaction(final Iterable<InvoiceItemModelDao> invoiceItems, final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalCallContext context) {
+        final InvoiceSqlDao invoiceSqlDao = entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class);
+        final Map<UUID, InvoiceModelDao> invoices = new HashMap<UUID, InvoiceModelDao>();
+
+        final BalanceDelta delta = new BalanceDelta();
+        for (final InvoiceItemModelDao invoiceItem : invoiceItems) {
+            if (!invoices.containsKey(invoiceItem.getInvoiceId())) {
+                invoices.put(invoiceItem.getInvoiceId(), invoiceSqlDao.getById(invoiceItem.getInvoiceId().toString(), context));
+            }
+            // Items of unknown invoices are not part of the balance
+            final InvoiceModelDao invoice = invoices.get(invoiceItem.getInvoiceId());
+            if (invoice != null) {
+                delta.addInvoiceItem(invoice, invoiceItem.getType(), invoiceItem.getAmount());
+            }
+        }
+        applyFromTransaction(delta, entitySqlDaoWrapperFactory, context);
+    }
+
+    public void addInvoiceItemFromTransaction(final InvoiceModelDao invoice, final InvoiceItemModelDao invoiceItem, final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalCallContext context) {
+        final BalanceDelta delta = new BalanceDelta();
+        delta.addInvoiceItem(invoice, invoiceItem.getType(), invoiceItem.getAmount());
+        applyFromTransaction(delta, entitySqlDaoWrapperFactory, context);
+    }
+
+    public void updateInvoiceItemAmountFromTransaction(final InvoiceItemModelDao previousInvoiceItem, final BigDecimal newAmount, final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalCallContext context) {
+        final InvoiceModelDao invoice = entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class).getById(previousInvoiceItem.getInvoiceId().toString(), context);
+
+        final BalanceDelta delta = new BalanceDelta();
+        delta.addInvoiceItem(invoice, previousInvoiceItem.getType(), newAmount.subtract(previousInvoiceItem.getAmount()));
+        applyFromTransaction(delta, entitySqlDaoWrapperFactory, context);
+    }
+
+    // Attempts are created as unsuccessful first, and then updated: the previous state of the row must be passed, if any
+    public void updateInvoicePaymentFromTransaction(@Nullable final InvoicePaymentModelDao previousInvoicePayment, final InvoicePaymentModelDao invoicePayment,
+                                                    final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalCallContext context) {
+        final InvoiceModelDao invoice = entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class).getById(invoicePayment.getInvoiceId().toString(), context);
+
+        final BalanceDelta delta = new BalanceDelta();
+        if (previousInvoicePayment != null) {
+            delta.removeInvoicePayment(invoice, previousInvoicePayment);
+        }
+        delta.addInvoicePayment(invoice, invoicePayment);
+        applyFromTransaction(delta, entitySqlDaoWrapperFactory, context);
+    }
+
+    // Must be called before the status is updated. DRAFT invoices don't count towards the balance nor the CBA.
+    public void changeInvoiceStatusFromTransaction(final InvoiceModelDao invoice, final InvoiceStatus newStatus, final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalCallContext context) {
+        if (InvoiceStatus.DRAFT.equals(invoice.getStatus()) == InvoiceStatus.DRAFT.equals(newStatus)) {
+            return;
+        }
+
+        final List<InvoiceItemModelDao> invoiceItems = entitySqlDaoWrapperFactory.become(InvoiceItemSqlDao.class).getInvoiceItemsByInvoice(invoice.getId().toString(), context);
+        final List<InvoicePaymentModelDao> invoicePayments = entitySqlDaoWrapperFactory.become(InvoicePaymentSqlDao.class).getAllPaymentsForInvoiceIncludedInit(invoice.getId().toString(), context);
+
+        final BalanceDelta delta = new BalanceDelta();
+        delta.addInvoice(invoice.isMigrated(), invoiceItems, invoicePayments);
+        applyFromTransaction(InvoiceStatus.DRAFT.equals(newStatus) ? delta.negate() : delta, entitySqlDaoWrapperFactory, context);
+    }
+
+    // The balance of a child account depends on its parent invoices, see isMaterializable
+    public void resetChildAccountFromTransaction(final Long childAccountRecordId, final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalCallContext context) {
+        entitySqlDaoWrapperFactory.getHandle().attach(InvoiceAccountBalanceSqlDao.class).resetComputedBalance(childAccountRecordId, context);
+    }
+
+    // Summary as maintained by the invoice writes (WRITTEN_OFF tags and parent invoices are ignored). The version must have been read before the invoices.
+    public InvoiceAccountBalanceModelDao computeAccountBalance(final UUID accountId, final List<InvoiceModelDao> invoices, final InvoiceAccountBalanceModelDao existingAccountBalance,
+                                                               final InternalTenantContext context) {
+        final BalanceDelta delta = new BalanceDelta();
+        for (final InvoiceModelDao cur : invoices) {
+            if (InvoiceStatus.DRAFT.equals(cur.getStatus())) {
+                continue;
+            }
+            delta.addInvoice(cur.isMigrated(), cur.getInvoiceItems(), cur.getInvoicePayments());
+        }
+
+        return new InvoiceAccountBalanceModelDao(accountId, delta.balance, delta.cba, existingAccountBalance.getVersion(), clock.getUTCNow(), context.getAccountRecordId(), context.getTenantRecordId());
+    }
+
+    // Balance as served by the APIs: WRITTEN_OFF invoices and paid children invoices reset the balance accumulated so far
+    public BigDecimal computeBalanceWithWrittenOffInvoices(final List<InvoiceModelDao> invoices) {
+        BigDecimal cba = BigDecimal.ZERO;
+
+        BigDecimal accountBalance = BigDecimal.ZERO;
+        for (final InvoiceModelDao cur : invoices) {
+
+            // Skip DRAFT invoices
+            if (cur.getStatus().equals(InvoiceStatus.DRAFT)) {
+                continue;
+            }
+
+            final boolean hasZeroParentBalance =
+                    cur.getParentInvoice() != null &&
+                    (cur.getParentInvoice().isWrittenOff() ||
+                     cur.getParentInvoice().getStatus() == InvoiceStatus.DRAFT ||
+                     InvoiceModelDaoHelper.getRawBalanceForRegularInvoice(cur.getParentInvoice()).compareTo(BigDecimal.ZERO) == 0);
+
+
+            // invoices that are WRITTEN_OFF or paid children invoices are excluded from balance computation but the cba summation needs to be included
+            accountBalance = cur.isWrittenOff() || hasZeroParentBalance ? BigDecimal.ZERO : accountBalance.add(InvoiceModelDaoHelper.getRawBalanceForRegularInvoice(cur));
+            cba = cba.add(InvoiceModelDaoHelper.getCBAAmount(cur));
+        }
+
+        return accountBalance.subtract(cba);
+    }
+
+    // The balance of a child account depends on its parent invoices, which are written by the parent account
+    public boolean isMaterializable(final List<InvoiceModelDao> invoices) {
+        for (final InvoiceModelDao invoice : invoices) {
+            if (invoice.getParentInvoice() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // No-op if a write happened since the summary version was read: the summary will be computed again on the next read. Returns the number of summaries saved.
+    public int saveAccountBalances(final Collection<InvoiceAccountBalanceModelDao> accountBalances) {
+        if (accountBalances.isEmpty()) {
+            return 0;
+        }
+
+        return dbi.inTransaction(new TransactionCallback<Integer>() {
+            @Override
+            public Integer inTransaction(final Handle handle, final TransactionStatus status) throws Exception {
+                int nbSaved = 0;
+                for (final int nbUpdated : handle.attach(InvoiceAccountBalanceSqlDao.class).updateComputedBalance(accountBalances)) {
+                    // Some drivers don't report the number of rows of batched statements
+                    nbSaved += nbUpdated == Statement.SUCCESS_NO_INFO ? 1 : nbUpdated;
+                }
+                return nbSaved;
+            }
+        });
+    }
+
+    private void applyFromTransaction(final BalanceDelta delta, final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalCallContext context) {
+        if (context.getAccountRecordId() == null || delta.isZero()) {
+            return;
+        }
+        entitySqlDaoWrapperFactory.getHandle().attach(InvoiceAccountBalanceSqlDao.class).addToComputedBalance(delta.balance, delta.cba, context);
+    }
+
+    private Map<Long, InvoiceAccountBalanceModelDao> getAccountBalances(final Collection<Long> accountRecordIds, final InternalTenantContext context) {
+        final List<InvoiceAccountBalanceModelDao> accountBalances = dbi.inTransaction(new TransactionCallback<List<InvoiceAccountBalanceModelDao>>() {
+            @Override
+            public List<InvoiceAccountBalanceModelDao> inTransaction(final Handle handle, final TransactionStatus status) throws Exception {
+                return handle.attach(InvoiceAccountBalanceSqlDao.class).getByAccountRecordIds(accountRecordIds, context);
+            }
+        });
+
+        final Map<Long, InvoiceAccountBalanceModelDao> accountBalancesByAccountRecordId = new HashMap<Long, InvoiceAccountBalanceModelDao>();
+        for (final InvoiceAccountBalanceModelDao accountBalance : accountBalances) {
+            accountBalancesByAccountRecordId.put(accountBalance.getAccountRecordId(), accountBalance);
+        }
+        return accountBalancesByAccountRecordId;
+    }
+
+    // Returns false if (one of) the summaries already existed
+    private boolean create(final List<InvoiceAccountBalanceModelDao> accountBalances) {
+        try {
+            dbi.inTransaction(new TransactionCallback<Void>() {
+                @Override
+                public Void inTransaction(final Handle handle, final TransactionStatus status) throws Exception {
+                    handle.attach(InvoiceAccountBalanceSqlDao.class).create(accountBalances);
+                    return null;
+                }
+            });
+            return true;
+        } catch (final DBIException e) {
+            if (SqlExceptionHelper.isDuplicateKey(e)) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    // Contribution of invoice rows to the account balance (raw invoice balances minus the CBA) and CBA. Amounts are not rounded per invoice.
+    private static final class BalanceDelta {
+
+        private BigDecimal balance = BigDecimal.ZERO;
+        private BigDecimal cba = BigDecimal.ZERO;
+
+        private void addInvoice(final boolean isMigrated, final Iterable<InvoiceItemModelDao> invoiceItems, final Iterable<InvoicePaymentModelDao> invoicePayments) {
+            for (final InvoiceItemModelDao invoiceItem : invoiceItems) {
+                addInvoiceItem(isMigrated, invoiceItem.getType(), invoiceItem.getAmount());
+            }
+            for (final InvoicePaymentModelDao invoicePayment : invoicePayments) {
+                addInvoicePayment(isMigrated, invoicePayment, BigDecimal.ONE);
+            }
+        }
+
+        private void addInvoiceItem(final InvoiceModelDao invoice, final InvoiceItemType type, final BigDecimal amount) {
+            if (InvoiceStatus.DRAFT.equals(invoice.getStatus())) {
+                return;
+            }
+            addInvoiceItem(invoice.isMigrated(), type, amount);
+        }
+
+        private void addInvoicePayment(final InvoiceModelDao invoice, final InvoicePaymentModelDao invoicePayment) {
+            if (InvoiceStatus.DRAFT.equals(invoice.getStatus())) {
+                return;
+            }
+            addInvoicePayment(invoice.isMigrated(), invoicePayment, BigDecimal.ONE);
+        }
+
+        private void removeInvoicePayment(final InvoiceModelDao invoice, final InvoicePaymentModelDao invoicePayment) {
+            if (InvoiceStatus.DRAFT.equals(invoice.getStatus())) {
+                return;
+            }
+            addInvoicePayment(invoice.isMigrated(), invoicePayment, BigDecimal.ONE.negate());
+        }
+
+        // The raw balance of migrated invoices is zero, but their CBA items still count
+        private void addInvoiceItem(final boolean isMigrated, final InvoiceItemType type, final BigDecimal amount) {
+            if (InvoiceItemType.CBA_ADJ.equals(type)) {
+                cba = cba.add(amount);
+                if (isMigrated) {
+                    balance = balance.subtract(amount);
+                }
+            } else if (!isMigrated && RAW_BALANCE_ITEM_TYPES.contains(type)) {
+                balance = balance.add(amount);
+            }
+        }
+
+        // Successful payments decrease the raw balance, refunds and chargebacks (negative amounts) increase it
+        private void addInvoicePayment(final boolean isMigrated, final InvoicePaymentModelDao invoicePayment, final BigDecimal sign) {
+            if (isMigrated || !Boolean.TRUE.equals(invoicePayment.getSuccess()) || !RAW_BALANCE_PAYMENT_TYPES.contains(invoicePayment.getType())) {
+                return;
+            }
+            balance = balance.subtract(invoicePayment.getAmount().multiply(sign));
+        }
+
+        private BalanceDelta negate() {
+            balance = balance.negate();
+            cba = cba.negate();
+            return this;
+        }
+
+        private boolean isZero() {
+            return balance.signum() == 0 && cba.signum() == 0;
+        }
+    }
+}
@@ -42,14 +42,21 @@ import com.google.common.collect.Ordering;
 public class CBADao {
 
     private final InvoiceDaoHelper invoiceDaoHelper;
+    private final AccountBalanceDao accountBalanceDao;
 
     @Inject
-    public CBADao(final InvoiceDaoHelper invoiceDaoHelper) {
+    public CBADao(final InvoiceDaoHelper invoiceDaoHelper, final AccountBalanceDao accountBalanceDao) {
         this.invoiceDaoHelper = invoiceDaoHelper;
+        this.accountBalanceDao = accountBalanceDao;
     }
 
-    // PERF: Compute the CBA directly in the database (faster than re-constructing all invoices)
+    // PERF: Use the materialized CBA, kept up-to-date by the write transaction, or compute it directly in the database (faster than re-constructing all invoices)
     public BigDecimal getAccountCBAFromTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalTenantContext context) {
+        final BigDecimal accountCBA = accountBalanceDao.getAccountCBAFromTransaction(entitySqlDaoWrapperFactory, context);
+        if (accountCBA != null) {
+            return accountCBA;
+        }
+
         final InvoiceItemSqlDao invoiceItemSqlDao = entitySqlDaoWrapperFactory.become(InvoiceItemSqlDao.class);
         return invoiceItemSqlDao.getAccountCBA(context);
     }
@@ -193,6 +200,7 @@ public class CBADao {
                                final InternalCallContext context) throws EntityPersistenceException {
         final InvoiceItemSqlDao transInvoiceItemDao = entitySqlDaoWrapperFactory.become(InvoiceItemSqlDao.class);
         transInvoiceItemDao.create(cbaItem, context);
+        accountBalanceDao.addInvoiceItemFromTransaction(invoiceModelDao, cbaItem, entitySqlDaoWrapperFactory, context);
 
         // Refresh the in-memory item
         invoiceModelDao.addInvoiceItem(cbaItem);
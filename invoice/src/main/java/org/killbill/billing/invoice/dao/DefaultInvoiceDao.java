@@ -26,6 +26,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.annotation.Nullable;
@@ -41,6 +42,7 @@ import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.entity.EntityPersistenceException;
 import org.killbill.billing.invoice.InvoiceDispatcher.FutureAccountNotifications;
 import org.killbill.billing.invoice.InvoiceDispatcher.FutureAccountNotifications.SubscriptionNotification;
+import org.killbill.billing.invoice.api.AccountBalanceSummaryCheck;
 import org.killbill.billing.invoice.api.DefaultInvoicePaymentErrorEvent;
 import org.killbill.billing.invoice.api.DefaultInvoicePaymentInfoEvent;
 import org.killbill.billing.invoice.api.Invoice;
@@ -71,6 +73,7 @@ import org.killbill.billing.util.entity.dao.EntityDaoBase;
 import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionWrapper;
 import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionalJdbiWrapper;
 import org.killbill.billing.util.entity.dao.EntitySqlDaoWrapperFactory;
+import org.killbill.billing.util.tag.ControlTagType;
 import org.killbill.billing.util.tag.Tag;
 import org.killbill.bus.api.BusEvent;
 import org.killbill.bus.api.PersistentBus;
@@ -81,6 +84,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
+import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
@@ -94,6 +98,9 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
 
     private static final Logger log = LoggerFactory.getLogger(DefaultInvoiceDao.class);
 
+    // Maximum number of elements in IN clauses when looking up invoice items
+    private static final int MAX_IN_CLAUSE_SIZE = 1000;
+
     private static final Ordering<InvoiceModelDao> INVOICE_MODEL_DAO_ORDERING = Ordering.natural()
                                                                                         .onResultOf(new Function<InvoiceModelDao, Comparable>() {
                                                                                             @Override
@@ -114,9 +121,12 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
     private final InternalCallContextFactory internalCallContextFactory;
     private final InvoiceDaoHelper invoiceDaoHelper;
     private final CBADao cbaDao;
+    private final AccountBalanceDao accountBalanceDao;
+    private final InvoiceItemTreeSnapshotDao itemTreeSnapshotDao;
     private final InvoiceConfig invoiceConfig;
     private final Clock clock;
     private final CacheController<String, UUID> objectIdCacheController;
+    private final CacheController<String, Long> recordIdCacheController;
     private final NonEntityDao nonEntityDao;
     private final ParentInvoiceCommitmentPoster parentInvoiceCommitmentPoster;
     private final TagInternalApi tagInternalApi;
@@ -132,6 +142,8 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                              final InvoiceConfig invoiceConfig,
                              final InvoiceDaoHelper invoiceDaoHelper,
                              final CBADao cbaDao,
+                             final AccountBalanceDao accountBalanceDao,
+                             final InvoiceItemTreeSnapshotDao itemTreeSnapshotDao,
                              final ParentInvoiceCommitmentPoster parentInvoiceCommitmentPoster,
                              final InternalCallContextFactory internalCallContextFactory) {
         super(new EntitySqlDaoTransactionalJdbiWrapper(dbi, clock, cacheControllerDispatcher, nonEntityDao, internalCallContextFactory), InvoiceSqlDao.class);
@@ -142,8 +154,11 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         this.internalCallContextFactory = internalCallContextFactory;
         this.invoiceDaoHelper = invoiceDaoHelper;
         this.cbaDao = cbaDao;
+        this.accountBalanceDao = accountBalanceDao;
+        this.itemTreeSnapshotDao = itemTreeSnapshotDao;
         this.clock = clock;
         this.objectIdCacheController = cacheControllerDispatcher.getCacheController(CacheType.OBJECT_ID);
+        this.recordIdCacheController = cacheControllerDispatcher.getCacheController(CacheType.RECORD_ID);
         this.nonEntityDao = nonEntityDao;
         this.parentInvoiceCommitmentPoster = parentInvoiceCommitmentPoster;
     }
@@ -264,7 +279,6 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
     @Override
     public void setFutureAccountNotificationsForEmptyInvoice(final UUID accountId, final FutureAccountNotifications callbackDateTimePerSubscriptions,
                                                              final InternalCallContext context) {
-
         transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Void>() {
             @Override
             public Void inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
@@ -313,6 +327,8 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<List<InvoiceItemModelDao>>() {
             @Override
             public List<InvoiceItemModelDao> inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                accountBalanceDao.lockFromTransaction(entitySqlDaoWrapperFactory, context);
+
                 final InvoiceSqlDao invoiceSqlDao = entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class);
                 final InvoiceItemSqlDao transInvoiceItemSqlDao = entitySqlDaoWrapperFactory.become(InvoiceItemSqlDao.class);
 
@@ -332,13 +348,16 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                     }
 
                     // Create the invoice items if needed (note: they may not necessarily belong to that invoice)
+                    final Collection<String> existingInvoiceItemIds = getExistingInvoiceItemIds(transInvoiceItemSqlDao, invoiceModelDao.getInvoiceItems(), context);
+                    final List<InvoiceItemModelDao> invoiceItemsToCreate = new LinkedList<InvoiceItemModelDao>();
                     for (final InvoiceItemModelDao invoiceItemModelDao : invoiceModelDao.getInvoiceItems()) {
-                        if (transInvoiceItemSqlDao.getById(invoiceItemModelDao.getId().toString(), context) == null) {
-                            createdInvoiceItems.add(createInvoiceItemFromTransaction(transInvoiceItemSqlDao, invoiceItemModelDao, context));
+                        if (existingInvoiceItemIds.add(invoiceItemModelDao.getId().toString())) {
+                            invoiceItemsToCreate.add(invoiceItemModelDao);
 
                             adjustedInvoiceIds.add(invoiceItemModelDao.getInvoiceId());
                         }
                     }
+                    createdInvoiceItems.addAll(createInvoiceItemsFromTransaction(transInvoiceItemSqlDao, invoiceItemsToCreate, context));
 
                     final boolean wasInvoiceCreated = createdInvoiceIds.contains(invoiceModelDao.getId());
                     if (InvoiceStatus.COMMITTED.equals(invoiceModelDao.getStatus())) {
@@ -355,6 +374,9 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                     }
                 }
 
+                // Once all invoices have been created (items may belong to another invoice of the list), and before the CBA computation below
+                accountBalanceDao.addInvoiceItemsFromTransaction(createdInvoiceItems, entitySqlDaoWrapperFactory, context);
+
                 for (final UUID adjustedInvoiceId : adjustedInvoiceIds) {
                     final boolean newInvoice = createdInvoiceIds.contains(adjustedInvoiceId);
                     if (newInvoice) {
@@ -429,44 +451,166 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
 
     @Override
     public BigDecimal getAccountBalance(final UUID accountId, final InternalTenantContext context) {
-        final List<Tag> invoicesTags = getInvoicesTags(context);
+        return getUpToDateAccountBalance(accountId, context).getBalance();
+    }
 
-        return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<BigDecimal>() {
-            @Override
-            public BigDecimal inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
-                BigDecimal cba = BigDecimal.ZERO;
+    @Override
+    public BigDecimal getAccountCBA(final UUID accountId, final InternalTenantContext context) {
+        return getUpToDateAccountBalance(accountId, context).getCba();
+    }
 
-                BigDecimal accountBalance = BigDecimal.ZERO;
-                final List<InvoiceModelDao> invoices = invoiceDaoHelper.getAllInvoicesByAccountFromTransaction(invoicesTags, entitySqlDaoWrapperFactory, context);
-                for (final InvoiceModelDao cur : invoices) {
+    @Override
+    public Map<UUID, InvoiceAccountBalanceModelDao> getAccountBalances(final Collection<UUID> accountIds, final InternalTenantContext context) {
+        final Map<UUID, InvoiceAccountBalanceModelDao> accountBalances = new HashMap<UUID, InvoiceAccountBalanceModelDao>();
+        for (final List<UUID> accountIdsChunk : Iterables.partition(ImmutableSet.<UUID>copyOf(accountIds), MAX_IN_CLAUSE_SIZE)) {
+            final Map<UUID, Long> accountRecordIds = nonEntityDao.retrieveRecordIdsFromObjects(accountIdsChunk, ObjectType.ACCOUNT, recordIdCacheController);
+            if (accountRecordIds.isEmpty()) {
+                continue;
+            }
 
-                    // Skip DRAFT invoices
-                    if (cur.getStatus().equals(InvoiceStatus.DRAFT)) {
-                        continue;
-                    }
+            final Map<Long, InvoiceAccountBalanceModelDao> existingAccountBalances = accountBalanceDao.getOrCreateAccountBalances(accountRecordIds, context);
+            final Set<Long> accountRecordIdsWithWrittenOffInvoices = tagInternalApi.getAccountRecordIdsWithTag(accountRecordIds.values(), ObjectType.INVOICE, ControlTagType.WRITTEN_OFF.getId(), context);
+            final Map<UUID, Long> staleAccountRecordIds = new HashMap<UUID, Long>();
+            for (final UUID accountId : accountRecordIds.keySet()) {
+                final Long accountRecordId = accountRecordIds.get(accountId);
+                final InvoiceAccountBalanceModelDao existingAccountBalance = existingAccountBalances.get(accountRecordId);
+                if (existingAccountBalance.isComputed() && !accountRecordIdsWithWrittenOffInvoices.contains(accountRecordId)) {
+                    accountBalances.put(accountId, existingAccountBalance);
+                } else {
+                    staleAccountRecordIds.put(accountId, accountRecordId);
+                }
+            }
 
-                    final boolean hasZeroParentBalance =
-                            cur.getParentInvoice() != null &&
-                            (cur.getParentInvoice().isWrittenOff() ||
-                             cur.getParentInvoice().getStatus() == InvoiceStatus.DRAFT ||
-                             InvoiceModelDaoHelper.getRawBalanceForRegularInvoice(cur.getParentInvoice()).compareTo(BigDecimal.ZERO) == 0);
+            if (!staleAccountRecordIds.isEmpty()) {
+                final Map<Long, List<Tag>> invoicesTagsPerAccountRecordId = tagInternalApi.getTagsForAccountsType(staleAccountRecordIds.values(), ObjectType.INVOICE, context);
+                accountBalances.putAll(computeAndSaveAccountBalances(staleAccountRecordIds, existingAccountBalances, invoicesTagsPerAccountRecordId, context));
+            }
+        }
+        return accountBalances;
+    }
 
+    @Override
+    public AccountBalanceSummaryCheck rebuildAccountBalanceSummary(final UUID accountId, final boolean dryRun, final InternalCallContext context) {
+        final InvoiceAccountBalanceModelDao existingAccountBalance = accountBalanceDao.getOrCreateAccountBalance(accountId, context);
+        final List<InvoiceModelDao> invoices = getAllInvoicesByAccount(getInvoicesTags(context), context);
+
+        final InvoiceAccountBalanceModelDao accountBalance = accountBalanceDao.computeAccountBalance(accountId, invoices, existingAccountBalance, context);
+        final boolean saved = !dryRun &&
+                              accountBalanceDao.isMaterializable(invoices) &&
+                              accountBalanceDao.saveAccountBalances(ImmutableList.<InvoiceAccountBalanceModelDao>of(accountBalance)) > 0;
+
+        final AccountBalanceSummaryCheck check = new AccountBalanceSummaryCheck(accountId,
+                                                                                existingAccountBalance.isComputed() ? existingAccountBalance.getBalance() : null,
+                                                                                existingAccountBalance.isComputed() ? existingAccountBalance.getCba() : null,
+                                                                                accountBalance.getBalance(),
+                                                                                accountBalance.getCba(),
+                                                                                saved);
+        if (!check.isConsistent()) {
+            log.warn("{} inconsistent account balance for accountId='{}': existing={}, rebuilt={}", dryRun ? "Found" : "Rebuilt", accountId, existingAccountBalance, accountBalance);
+        }
+        return check;
+    }
 
-                    // invoices that are WRITTEN_OFF or paid children invoices are excluded from balance computation but the cba summation needs to be included
-                    accountBalance = cur.isWrittenOff() || hasZeroParentBalance ? BigDecimal.ZERO : accountBalance.add(InvoiceModelDaoHelper.getRawBalanceForRegularInvoice(cur));
-                    cba = cba.add(InvoiceModelDaoHelper.getCBAAmount(cur));
-                }
-                return accountBalance.subtract(cba);
+    @Override
+    public List<InvoiceItemTreeSnapshotModelDao> getItemTreeSnapshots(final InternalTenantContext context) {
+        return itemTreeSnapshotDao.getSnapshots(context);
+    }
+
+    @Override
+    public void saveItemTreeSnapshots(final List<InvoiceItemTreeSnapshotModelDao> snapshots, final InternalCallContext context) {
+        itemTreeSnapshotDao.saveSnapshots(snapshots, context);
+    }
+
+    @Override
+    public List<InvoiceItemModelDao> getInvoiceItemsFromRecordId(final Long recordId, final InternalTenantContext context) {
+        return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<List<InvoiceItemModelDao>>() {
+            @Override
+            public List<InvoiceItemModelDao> inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                return entitySqlDaoWrapperFactory.become(InvoiceItemSqlDao.class).getInvoiceItemsFromRecordId(recordId, context);
             }
         });
     }
 
     @Override
-    public BigDecimal getAccountCBA(final UUID accountId, final InternalTenantContext context) {
-        return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<BigDecimal>() {
+    public InvoiceItemModelDao getLastInvoiceItem(final InternalCallContext context) {
+        return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<InvoiceItemModelDao>() {
             @Override
-            public BigDecimal inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
-                return cbaDao.getAccountCBAFromTransaction(entitySqlDaoWrapperFactory, context);
+            public InvoiceItemModelDao inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                // Serialized with the writes of the account: an item whose record id was already allocated is committed by now
+                accountBalanceDao.lockFromTransaction(entitySqlDaoWrapperFactory, context);
+                return entitySqlDaoWrapperFactory.become(InvoiceItemSqlDao.class).getLastInvoiceItem(context);
+            }
+        });
+    }
+
+    private InvoiceAccountBalanceModelDao getUpToDateAccountBalance(final UUID accountId, final InternalTenantContext context) {
+        final InvoiceAccountBalanceModelDao accountBalance = accountBalanceDao.getOrCreateAccountBalance(accountId, context);
+        final boolean hasWrittenOffInvoices = !tagInternalApi.getAccountRecordIdsWithTag(ImmutableList.<Long>of(context.getAccountRecordId()), ObjectType.INVOICE, ControlTagType.WRITTEN_OFF.getId(), context).isEmpty();
+        if (accountBalance.isComputed() && !hasWrittenOffInvoices) {
+            return accountBalance;
+        }
+
+        return computeAndSaveAccountBalance(accountId, accountBalance, context);
+    }
+
+    // The summary is only saved if it hasn't been computed yet, but the balance of accounts with written off invoices (or child accounts) is always computed from the invoices
+    private InvoiceAccountBalanceModelDao computeAndSaveAccountBalance(final UUID accountId, final InvoiceAccountBalanceModelDao existingAccountBalance, final InternalTenantContext context) {
+        final List<InvoiceModelDao> invoices = getAllInvoicesByAccount(getInvoicesTags(context), context);
+
+        final InvoiceAccountBalanceModelDao accountBalance = accountBalanceDao.computeAccountBalance(accountId, invoices, existingAccountBalance, context);
+        final boolean isMaterializable = accountBalanceDao.isMaterializable(invoices);
+        if (!existingAccountBalance.isComputed() && isMaterializable) {
+            accountBalanceDao.saveAccountBalances(ImmutableList.<InvoiceAccountBalanceModelDao>of(accountBalance));
+        }
+        return withWrittenOffInvoices(accountBalance, invoices);
+    }
+
+    // Same as above, with a fixed number of queries for all the accounts
+    private Map<UUID, InvoiceAccountBalanceModelDao> computeAndSaveAccountBalances(final Map<UUID, Long> accountRecordIds,
+                                                                                   final Map<Long, InvoiceAccountBalanceModelDao> existingAccountBalances,
+                                                                                   final Map<Long, List<Tag>> invoicesTagsPerAccountRecordId,
+                                                                                   final InternalTenantContext context) {
+        final List<Tag> invoicesTags = new LinkedList<Tag>();
+        for (final Long accountRecordId : accountRecordIds.values()) {
+            invoicesTags.addAll(MoreObjects.firstNonNull(invoicesTagsPerAccountRecordId.get(accountRecordId), ImmutableList.<Tag>of()));
+        }
+
+        final Map<UUID, List<InvoiceModelDao>> invoicesByAccountId = transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Map<UUID, List<InvoiceModelDao>>>() {
+            @Override
+            public Map<UUID, List<InvoiceModelDao>> inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                return invoiceDaoHelper.getAllInvoicesByAccountsFromTransaction(accountRecordIds.values(), invoicesTags, entitySqlDaoWrapperFactory, context);
+            }
+        });
+
+        final Map<UUID, InvoiceAccountBalanceModelDao> accountBalances = new HashMap<UUID, InvoiceAccountBalanceModelDao>();
+        final Collection<InvoiceAccountBalanceModelDao> materializableAccountBalances = new LinkedList<InvoiceAccountBalanceModelDao>();
+        for (final UUID accountId : accountRecordIds.keySet()) {
+            final Long accountRecordId = accountRecordIds.get(accountId);
+            final InternalTenantContext accountContext = internalCallContextFactory.createInternalTenantContext(context.getTenantRecordId(), accountRecordId);
+            final List<InvoiceModelDao> invoices = MoreObjects.firstNonNull(invoicesByAccountId.get(accountId), ImmutableList.<InvoiceModelDao>of());
+            final InvoiceAccountBalanceModelDao existingAccountBalance = existingAccountBalances.get(accountRecordId);
+
+            final InvoiceAccountBalanceModelDao accountBalance = accountBalanceDao.computeAccountBalance(accountId, invoices, existingAccountBalance, accountContext);
+            if (!existingAccountBalance.isComputed() && accountBalanceDao.isMaterializable(invoices)) {
+                materializableAccountBalances.add(accountBalance);
+            }
+            accountBalances.put(accountId, withWrittenOffInvoices(accountBalance, invoices));
+        }
+        accountBalanceDao.saveAccountBalances(materializableAccountBalances);
+
+        return accountBalances;
+    }
+
+    private InvoiceAccountBalanceModelDao withWrittenOffInvoices(final InvoiceAccountBalanceModelDao accountBalance, final List<InvoiceModelDao> invoices) {
+        return new InvoiceAccountBalanceModelDao(accountBalance.getAccountId(), accountBalanceDao.computeBalanceWithWrittenOffInvoices(invoices), accountBalance.getCba(),
+                                                 accountBalance.getVersion(), accountBalance.getUpdatedDate(), accountBalance.getAccountRecordId(), accountBalance.getTenantRecordId());
+    }
+
+    private List<InvoiceModelDao> getAllInvoicesByAccount(final List<Tag> invoicesTags, final InternalTenantContext context) {
+        return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<List<InvoiceModelDao>>() {
+            @Override
+            public List<InvoiceModelDao> inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                return invoiceDaoHelper.getAllInvoicesByAccountFromTransaction(invoicesTags, entitySqlDaoWrapperFactory, context);
             }
         });
     }
@@ -528,6 +672,8 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         return transactionalSqlDao.execute(InvoiceApiException.class, new EntitySqlDaoTransactionWrapper<InvoicePaymentModelDao>() {
             @Override
             public InvoicePaymentModelDao inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                accountBalanceDao.lockFromTransaction(entitySqlDaoWrapperFactory, context);
+
                 final InvoicePaymentSqlDao transactional = entitySqlDaoWrapperFactory.become(InvoicePaymentSqlDao.class);
 
                 final InvoiceSqlDao transInvoiceDao = entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class);
@@ -565,6 +711,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                                                                                  context.getCreatedDate(), requestedPositiveAmount.negate(),
                                                                                  payment.getCurrency(), payment.getProcessedCurrency(), transactionExternalKey, payment.getId(), true);
                 createAndRefresh(transactional, refund, context);
+                accountBalanceDao.updateInvoicePaymentFromTransaction(null, refund, entitySqlDaoWrapperFactory, context);
 
                 // Retrieve invoice after the Refund
                 final InvoiceModelDao invoice = transInvoiceDao.getById(payment.getInvoiceId().toString(), context);
@@ -585,6 +732,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                                                                                                context);
 
                         createInvoiceItemFromTransaction(transInvoiceItemDao, item, context);
+                        accountBalanceDao.addInvoiceItemFromTransaction(invoice, item, entitySqlDaoWrapperFactory, context);
                         invoice.addInvoiceItem(item);
                     }
                 }
@@ -609,6 +757,8 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         return transactionalSqlDao.execute(InvoiceApiException.class, new EntitySqlDaoTransactionWrapper<InvoicePaymentModelDao>() {
             @Override
             public InvoicePaymentModelDao inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                accountBalanceDao.lockFromTransaction(entitySqlDaoWrapperFactory, context);
+
                 final InvoicePaymentSqlDao transactional = entitySqlDaoWrapperFactory.become(InvoicePaymentSqlDao.class);
 
                 final List<InvoicePaymentModelDao> invoicePayments = transactional.getByPaymentId(paymentId.toString(), context);
@@ -644,6 +794,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                                                                                      requestedChargedBackAmount.negate(), payment.getCurrency(), payment.getProcessedCurrency(),
                                                                                      chargebackTransactionExternalKey, payment.getId(), true);
                 createAndRefresh(transactional, chargeBack, context);
+                accountBalanceDao.updateInvoicePaymentFromTransaction(null, chargeBack, entitySqlDaoWrapperFactory, context);
 
                 // Notify the bus since the balance of the invoice changed
                 final UUID accountId = transactional.getAccountIdFromInvoicePaymentId(chargeBack.getId().toString(), context);
@@ -664,6 +815,8 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         return transactionalSqlDao.execute(InvoiceApiException.class, new EntitySqlDaoTransactionWrapper<InvoicePaymentModelDao>() {
             @Override
             public InvoicePaymentModelDao inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                accountBalanceDao.lockFromTransaction(entitySqlDaoWrapperFactory, context);
+
                 final InvoicePaymentSqlDao transactional = entitySqlDaoWrapperFactory.become(InvoicePaymentSqlDao.class);
 
                 final InvoicePaymentModelDao invoicePayment = transactional.getPaymentForCookieId(chargebackTransactionExternalKey, context);
@@ -671,7 +824,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                     throw new InvoiceApiException(ErrorCode.PAYMENT_NO_SUCH_PAYMENT, paymentId);
                 }
 
-                transactional.updateAttempt(invoicePayment.getRecordId(),
+                transactional.updateAttempt(invoicePayment.getId().toString(),
                                             invoicePayment.getPaymentId().toString(),
                                             invoicePayment.getPaymentDate().toDate(),
                                             invoicePayment.getAmount(),
@@ -682,6 +835,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                                             false,
                                             context);
                 final InvoicePaymentModelDao chargebackReversed = transactional.getByRecordId(invoicePayment.getRecordId(), context);
+                accountBalanceDao.updateInvoicePaymentFromTransaction(invoicePayment, chargebackReversed, entitySqlDaoWrapperFactory, context);
 
                 // Notify the bus since the balance of the invoice changed
                 final UUID accountId = transactional.getAccountIdFromInvoicePaymentId(chargebackReversed.getId().toString(), context);
@@ -700,6 +854,8 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         return transactionalSqlDao.execute(InvoiceApiException.class, new EntitySqlDaoTransactionWrapper<InvoiceItemModelDao>() {
             @Override
             public InvoiceItemModelDao inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                accountBalanceDao.lockFromTransaction(entitySqlDaoWrapperFactory, context);
+
                 final InvoiceItemModelDao cbaNewItem = cbaDao.computeCBAComplexity(invoice, null, entitySqlDaoWrapperFactory, context);
                 return cbaNewItem;
             }
@@ -808,6 +964,8 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Void>() {
             @Override
             public Void inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                accountBalanceDao.lockFromTransaction(entitySqlDaoWrapperFactory, context);
+
                 final InvoicePaymentSqlDao transactional = entitySqlDaoWrapperFactory.become(InvoicePaymentSqlDao.class);
                 //
                 // In case of notifyOfPaymentInit we always want to record the row with success = false
@@ -830,8 +988,9 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
 
                     if (existingAttempt == null) {
                         createAndRefresh(transactional, invoicePayment, context);
+                        accountBalanceDao.updateInvoicePaymentFromTransaction(null, invoicePayment, entitySqlDaoWrapperFactory, context);
                     } else {
-                        transactional.updateAttempt(existingAttempt.getRecordId(),
+                        transactional.updateAttempt(existingAttempt.getId().toString(),
                                                     invoicePayment.getPaymentId().toString(),
                                                     invoicePayment.getPaymentDate().toDate(),
                                                     invoicePayment.getAmount(),
@@ -841,6 +1000,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                                                     null,
                                                     invoicePayment.getSuccess(),
                                                     context);
+                        accountBalanceDao.updateInvoicePaymentFromTransaction(existingAttempt, transactional.getByRecordId(existingAttempt.getRecordId(), context), entitySqlDaoWrapperFactory, context);
                     }
                 }
 
@@ -875,6 +1035,8 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         transactionalSqlDao.execute(InvoiceApiException.class, new EntitySqlDaoTransactionWrapper<Void>() {
             @Override
             public Void inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                accountBalanceDao.lockFromTransaction(entitySqlDaoWrapperFactory, context);
+
                 final InvoiceSqlDao transactional = entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class);
 
                 // Retrieve the invoice and make sure it belongs to the right account
@@ -898,6 +1060,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                                                                                null, null, null, null, null, null, context.getCreatedDate().toLocalDate(),
                                                                                null, cbaItem.getAmount().negate(), null, cbaItem.getCurrency(), cbaItem.getId());
                 createInvoiceItemFromTransaction(invoiceItemSqlDao, cbaAdjItem, context);
+                accountBalanceDao.addInvoiceItemFromTransaction(invoice, cbaAdjItem, entitySqlDaoWrapperFactory, context);
 
                 // Verify the final invoice balance is not negative
                 invoiceDaoHelper.populateChildren(invoice, invoicesTags, entitySqlDaoWrapperFactory, context);
@@ -955,6 +1118,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                                                                                            context.getCreatedDate().toLocalDate(), null,
                                                                                            positiveCBAAdjItemAmount, null, cbaItem.getCurrency(), cbaItem.getId());
                         createInvoiceItemFromTransaction(invoiceItemSqlDao, nextCBAAdjItem, context);
+                        accountBalanceDao.addInvoiceItemFromTransaction(invoiceFollowing, nextCBAAdjItem, entitySqlDaoWrapperFactory, context);
                         if (positiveRemainderToAdjust.compareTo(BigDecimal.ZERO) == 0) {
                             break;
                         }
@@ -973,6 +1137,8 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Void>() {
             @Override
             public Void inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                accountBalanceDao.lockFromTransaction(entitySqlDaoWrapperFactory, context);
+
                 cbaDao.doCBAComplexityFromTransaction(invoicesTags, entitySqlDaoWrapperFactory, context);
                 return null;
             }
@@ -1048,6 +1214,66 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         }
     }
 
+    private Collection<String> getExistingInvoiceItemIds(final InvoiceItemSqlDao invoiceItemSqlDao, final Collection<InvoiceItemModelDao> invoiceItemModelDaos, final InternalCallContext context) {
+        final Collection<String> existingInvoiceItemIds = new HashSet<String>();
+        for (final List<InvoiceItemModelDao> invoiceItemModelDaosChunk : Iterables.partition(invoiceItemModelDaos, MAX_IN_CLAUSE_SIZE)) {
+            final Collection<String> invoiceItemIds = new LinkedList<String>();
+            for (final InvoiceItemModelDao invoiceItemModelDao : invoiceItemModelDaosChunk) {
+                invoiceItemIds.add(invoiceItemModelDao.getId().toString());
+            }
+            for (final InvoiceItemModelDao existingInvoiceItem : invoiceItemSqlDao.getByIds(invoiceItemIds, context)) {
+                existingInvoiceItemIds.add(existingInvoiceItem.getId().toString());
+            }
+        }
+        return existingInvoiceItemIds;
+    }
+
+    // PERF: invoice items are inserted (and their history and audit rows recorded) as JDBC batches
+    private List<InvoiceItemModelDao> createInvoiceItemsFromTransaction(final InvoiceItemSqlDao invoiceItemSqlDao, final Iterable<InvoiceItemModelDao> invoiceItemModelDaos, final InternalCallContext context) throws EntityPersistenceException, InvoiceApiException {
+        final List<InvoiceItemModelDao> createdInvoiceItems = new LinkedList<InvoiceItemModelDao>();
+        final List<InvoiceItemModelDao> pendingInvoiceItems = new LinkedList<InvoiceItemModelDao>();
+        for (final InvoiceItemModelDao invoiceItemModelDao : invoiceItemModelDaos) {
+            if (InvoiceItemType.ITEM_ADJ.equals(invoiceItemModelDao.getType())) {
+                // The validation expects the linked item to exist already, which may be part of the pending batch
+                createdInvoiceItems.addAll(createInvoiceItemsInBatchFromTransaction(invoiceItemSqlDao, pendingInvoiceItems, context));
+                pendingInvoiceItems.clear();
+                createdInvoiceItems.add(createInvoiceItemFromTransaction(invoiceItemSqlDao, invoiceItemModelDao, context));
+            } else {
+                pendingInvoiceItems.add(invoiceItemModelDao);
+            }
+        }
+        createdInvoiceItems.addAll(createInvoiceItemsInBatchFromTransaction(invoiceItemSqlDao, pendingInvoiceItems, context));
+        return createdInvoiceItems;
+    }
+
+    private List<InvoiceItemModelDao> createInvoiceItemsInBatchFromTransaction(final InvoiceItemSqlDao invoiceItemSqlDao, final List<InvoiceItemModelDao> invoiceItemModelDaos, final InternalCallContext context) throws EntityPersistenceException {
+        if (invoiceItemModelDaos.isEmpty()) {
+            return ImmutableList.<InvoiceItemModelDao>of();
+        } else if (invoiceItemModelDaos.size() == 1) {
+            return ImmutableList.<InvoiceItemModelDao>of(createAndRefresh(invoiceItemSqlDao, invoiceItemModelDaos.get(0), context));
+        }
+
+        invoiceItemSqlDao.create(invoiceItemModelDaos, context);
+
+        // Batches don't return the re-hydrated entities: retrieve them all at once (in the original order)
+        final Map<String, InvoiceItemModelDao> createdInvoiceItemsById = new HashMap<String, InvoiceItemModelDao>();
+        for (final List<InvoiceItemModelDao> invoiceItemModelDaosChunk : Iterables.partition(invoiceItemModelDaos, MAX_IN_CLAUSE_SIZE)) {
+            final Collection<String> invoiceItemIds = new LinkedList<String>();
+            for (final InvoiceItemModelDao invoiceItemModelDao : invoiceItemModelDaosChunk) {
+                invoiceItemIds.add(invoiceItemModelDao.getId().toString());
+            }
+            for (final InvoiceItemModelDao createdInvoiceItem : invoiceItemSqlDao.getByIds(invoiceItemIds, context)) {
+                createdInvoiceItemsById.put(createdInvoiceItem.getId().toString(), createdInvoiceItem);
+            }
+        }
+
+        final List<InvoiceItemModelDao> createdInvoiceItems = new LinkedList<InvoiceItemModelDao>();
+        for (final InvoiceItemModelDao invoiceItemModelDao : invoiceItemModelDaos) {
+            createdInvoiceItems.add(createdInvoiceItemsById.get(invoiceItemModelDao.getId().toString()));
+        }
+        return createdInvoiceItems;
+    }
+
     private InvoiceItemModelDao createInvoiceItemFromTransaction(final InvoiceItemSqlDao invoiceItemSqlDao, final InvoiceItemModelDao invoiceItemModelDao, final InternalCallContext context) throws EntityPersistenceException, InvoiceApiException {
         // There is no efficient way to retrieve an invoice item given an ID today (and invoice plugins can put item adjustments
         // on a different invoice than the original item), so it's easier to do the check in the DAO rather than in the API layer
@@ -1077,6 +1303,8 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         transactionalSqlDao.execute(InvoiceApiException.class, new EntitySqlDaoTransactionWrapper<Void>() {
             @Override
             public Void inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                accountBalanceDao.lockFromTransaction(entitySqlDaoWrapperFactory, context);
+
                 final InvoiceSqlDao transactional = entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class);
 
                 // Retrieve the invoice and make sure it belongs to the right account
@@ -1090,6 +1318,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                     throw new InvoiceApiException(ErrorCode.INVOICE_INVALID_STATUS, newStatus, invoiceId, invoice.getStatus());
                 }
 
+                accountBalanceDao.changeInvoiceStatusFromTransaction(invoice, newStatus, entitySqlDaoWrapperFactory, context);
                 transactional.updateStatus(invoiceId.toString(), newStatus.toString(), context);
 
                 cbaDao.doCBAComplexityFromTransaction(invoicesTags, entitySqlDaoWrapperFactory, context);
@@ -1130,8 +1359,14 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Void>() {
             @Override
             public Void inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                accountBalanceDao.lockFromTransaction(entitySqlDaoWrapperFactory, context);
+
                 final InvoiceParentChildrenSqlDao transactional = entitySqlDaoWrapperFactory.become(InvoiceParentChildrenSqlDao.class);
                 createAndRefresh(transactional, invoiceRelation, context);
+
+                // The balance of the child account now depends on the parent invoice
+                final Long childAccountRecordId = nonEntityDao.retrieveRecordIdFromObjectInTransaction(invoiceRelation.getChildAccountId(), ObjectType.ACCOUNT, recordIdCacheController, entitySqlDaoWrapperFactory.getHandle());
+                accountBalanceDao.resetChildAccountFromTransaction(childAccountRecordId, entitySqlDaoWrapperFactory, context);
                 return null;
             }
         });
@@ -1170,6 +1405,8 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         transactionalSqlDao.execute(InvoiceApiException.class, new EntitySqlDaoTransactionWrapper<Void>() {
             @Override
             public Void inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                accountBalanceDao.lockFromTransaction(entitySqlDaoWrapperFactory, context);
+
                 final InvoiceItemSqlDao transactional = entitySqlDaoWrapperFactory.become(InvoiceItemSqlDao.class);
 
                 // Retrieve the invoice and make sure it belongs to the right account
@@ -1180,6 +1417,8 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                 }
 
                 transactional.updateAmount(invoiceItemId.toString(), amount, context);
+                accountBalanceDao.updateInvoiceItemAmountFromTransaction(invoiceItem, amount, entitySqlDaoWrapperFactory, context);
+                itemTreeSnapshotDao.deleteSnapshotsFromTransaction(entitySqlDaoWrapperFactory, context);
                 return null;
             }
         });
@@ -1198,13 +1437,17 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
         transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Void>() {
             @Override
             public Void inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                // Same order as createParentChildInvoiceRelation (parent, then child)
+                accountBalanceDao.lockFromTransaction(entitySqlDaoWrapperFactory, parentAccountContext);
+                accountBalanceDao.lockFromTransaction(entitySqlDaoWrapperFactory, childAccountContext);
+
                 final InvoiceSqlDao invoiceSqlDao = entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class);
                 final InvoiceItemSqlDao transInvoiceItemSqlDao = entitySqlDaoWrapperFactory.become(InvoiceItemSqlDao.class);
 
                 // create child and parent invoices
 
                 final DateTime childCreatedDate = childAccountContext.getCreatedDate();
-                final BigDecimal accountCBA = getAccountCBA(childAccount.getId(), childAccountContext);
+                final BigDecimal accountCBA = cbaDao.getAccountCBAFromTransaction(entitySqlDaoWrapperFactory, childAccountContext);
 
                 // create external charge to child account
                 final LocalDate childInvoiceDate = childAccountContext.toLocalDate(childAccountContext.getCreatedDate());
@@ -1250,6 +1493,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                 createAndRefresh(invoiceSqlDao, childInvoice, childAccountContext);
                 final InvoiceItemModelDao childExternalChargeItem = new InvoiceItemModelDao(externalChargeItem);
                 createInvoiceItemFromTransaction(transInvoiceItemSqlDao, childExternalChargeItem, childAccountContext);
+                accountBalanceDao.addInvoiceItemFromTransaction(childInvoice, childExternalChargeItem, entitySqlDaoWrapperFactory, childAccountContext);
                 // Keep invoice up-to-date for CBA below
                 childInvoice.addInvoiceItem(childExternalChargeItem);
 
@@ -1257,6 +1501,7 @@ public class DefaultInvoiceDao extends EntityDaoBase<InvoiceModelDao, Invoice, I
                 createAndRefresh(invoiceSqlDao, parentInvoice, parentAccountContext);
                 final InvoiceItemModelDao parentCreditItem = new InvoiceItemModelDao(creditItem);
                 createInvoiceItemFromTransaction(transInvoiceItemSqlDao, parentCreditItem, parentAccountContext);
+                accountBalanceDao.addInvoiceItemFromTransaction(parentInvoice, parentCreditItem, entitySqlDaoWrapperFactory, parentAccountContext);
                 // Keep invoice up-to-date for CBA below
                 parentInvoice.addInvoiceItem(parentCreditItem);
 
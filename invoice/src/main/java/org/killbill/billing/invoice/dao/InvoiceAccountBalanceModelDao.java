@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.invoice.dao;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+
+public class InvoiceAccountBalanceModelDao {
+
+    private Long recordId;
+    private UUID accountId;
+    // Both null until computed from the invoice rows, then maintained by the invoice writes, see AccountBalanceDao
+    private BigDecimal balance;
+    private BigDecimal cba;
+    // Incremented by every invoice write for the account, in the same transaction
+    private Long version;
+    private DateTime createdDate;
+    private DateTime updatedDate;
+    private Long accountRecordId;
+    private Long tenantRecordId;
+
+    public InvoiceAccountBalanceModelDao() { /* For the DAO mapper */ }
+
+    // Summary not computed yet
+    public InvoiceAccountBalanceModelDao(final UUID accountId, final DateTime createdDate, final Long accountRecordId, final Long tenantRecordId) {
+        this(accountId, null, null, 0L, createdDate, accountRecordId, tenantRecordId);
+    }
+
+    public InvoiceAccountBalanceModelDao(final UUID accountId, final BigDecimal balance, final BigDecimal cba, final Long version,
+                                         final DateTime updatedDate, final Long accountRecordId, final Long tenantRecordId) {
+        this.recordId = 0L;
+        this.accountId = accountId;
+        this.balance = balance;
+        this.cba = cba;
+        this.version = version;
+        this.createdDate = updatedDate;
+        this.updatedDate = updatedDate;
+        this.accountRecordId = accountRecordId;
+        this.tenantRecordId = tenantRecordId;
+    }
+
+    public boolean isComputed() {
+        return balance != null && cba != null;
+    }
+
+    public Long getRecordId() {
+        return recordId;
+    }
+
+    public void setRecordId(final Long recordId) {
+        this.recordId = recordId;
+    }
+
+    public UUID getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(final UUID accountId) {
+        this.accountId = accountId;
+    }
+
+    public BigDecimal getBalance() {
+        return balance;
+    }
+
+    public void setBalance(final BigDecimal balance) {
+        this.balance = balance;
+    }
+
+    public BigDecimal getCba() {
+        return cba;
+    }
+
+    public void setCba(final BigDecimal cba) {
+        this.cba = cba;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(final Long version) {
+        this.version = version;
+    }
+
+    public DateTime getCreatedDate() {
+        return createdDate;
+    }
+
+    public void setCreatedDate(final DateTime createdDate) {
+        this.createdDate = createdDate;
+    }
+
+    public DateTime getUpdatedDate() {
+        return updatedDate;
+    }
+
+    public void setUpdatedDate(final DateTime updatedDate) {
+        this.updatedDate = updatedDate;
+    }
+
+    public Long getAccountRecordId() {
+        return accountRecordId;
+    }
+
+    public void setAccountRecordId(final Long accountRecordId) {
+        this.accountRecordId = accountRecordId;
+    }
+
+    public Long getTenantRecordId() {
+        return tenantRecordId;
+    }
+
+    public void setTenantRecordId(final Long tenantRecordId) {
+        this.tenantRecordId = tenantRecordId;
+    }
+
+    @Override
+    public String toString() {
+        return "InvoiceAccountBalanceModelDao{" +
+               "recordId=" + recordId +
+               ", accountId=" + accountId +
+               ", balance=" + balance +
+               ", cba=" + cba +
+               ", version=" + version +
+               ", createdDate=" + createdDate +
+               ", updatedDate=" + updatedDate +
+               ", accountRecordId=" + accountRecordId +
+               ", tenantRecordId=" + tenantRecordId +
+               '}';
+    }
+}
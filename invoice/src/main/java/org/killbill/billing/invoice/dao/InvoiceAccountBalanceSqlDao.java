@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.invoice.dao;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.commons.jdbi.binder.SmartBindBean;
+import org.killbill.commons.jdbi.template.KillBillSqlDaoStringTemplate;
+import org.skife.jdbi.v2.sqlobject.Bind;
+import org.skife.jdbi.v2.sqlobject.SqlBatch;
+import org.skife.jdbi.v2.sqlobject.SqlQuery;
+import org.skife.jdbi.v2.sqlobject.SqlUpdate;
+import org.skife.jdbi.v2.sqlobject.mixins.CloseMe;
+import org.skife.jdbi.v2.sqlobject.mixins.Transactional;
+import org.skife.jdbi.v2.unstable.BindIn;
+
+@KillBillSqlDaoStringTemplate
+public interface InvoiceAccountBalanceSqlDao extends Transactional<InvoiceAccountBalanceSqlDao>, CloseMe {
+
+    @SqlBatch
+    public void create(@SmartBindBean final Iterable<InvoiceAccountBalanceModelDao> accountBalances);
+
+    // Only succeeds if no write happened since the version the summary was computed against
+    @SqlBatch
+    public int[] updateComputedBalance(@SmartBindBean final Iterable<InvoiceAccountBalanceModelDao> accountBalances);
+
+    // Also locks the row until the end of the write transaction
+    @SqlUpdate
+    public int incrementVersion(@SmartBindBean final InternalCallContext context);
+
+    // No-op on a summary which hasn't been computed yet
+    @SqlUpdate
+    public int addToComputedBalance(@Bind("balanceDelta") final BigDecimal balanceDelta,
+                                    @Bind("cbaDelta") final BigDecimal cbaDelta,
+                                    @SmartBindBean final InternalCallContext context);
+
+    // Also increments the version, so that a summary computed concurrently is not saved
+    @SqlUpdate
+    public int resetComputedBalance(@Bind("childAccountRecordId") final Long childAccountRecordId,
+                                    @SmartBindBean final InternalCallContext context);
+
+    @SqlQuery
+    public InvoiceAccountBalanceModelDao getByAccountRecordId(@SmartBindBean final InternalTenantContext context);
+
+    @SqlQuery
+    public List<InvoiceAccountBalanceModelDao> getByAccountRecordIds(@BindIn("accountRecordIds") final Collection<Long> accountRecordIds,
+                                                                     @SmartBindBean final InternalTenantContext context);
+}
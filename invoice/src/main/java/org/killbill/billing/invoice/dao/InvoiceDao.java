@@ -19,6 +19,7 @@
 package org.killbill.billing.invoice.dao;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -31,6 +32,7 @@ import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.invoice.InvoiceDispatcher.FutureAccountNotifications;
+import org.killbill.billing.invoice.api.AccountBalanceSummaryCheck;
 import org.killbill.billing.invoice.api.Invoice;
 import org.killbill.billing.invoice.api.InvoiceApiException;
 import org.killbill.billing.invoice.api.InvoiceStatus;
@@ -68,6 +70,47 @@ public interface InvoiceDao extends EntityDao<InvoiceModelDao, Invoice, InvoiceA
 
     BigDecimal getAccountCBA(UUID accountId, InternalTenantContext context);
 
+    /**
+     * Up-to-date summaries are retrieved with a single query, the other ones are recomputed (and saved) together, with a fixed number of queries.
+     *
+     * @return the balance and CBA of each account, keyed by account id
+     */
+    Map<UUID, InvoiceAccountBalanceModelDao> getAccountBalances(Collection<UUID> accountIds, InternalTenantContext context);
+
+    /**
+     * Recompute the account balance and CBA from the invoices, invoice items and invoice payments of the account
+     * and overwrite the materialized summary (unless dryRun is set).
+     *
+     * @return the previous summary (if it was computed) along with the rebuilt one
+     */
+    AccountBalanceSummaryCheck rebuildAccountBalanceSummary(UUID accountId, boolean dryRun, InternalCallContext context);
+
+    /**
+     * @return the item tree snapshots of the account, for the incremental invoice generation
+     */
+    List<InvoiceItemTreeSnapshotModelDao> getItemTreeSnapshots(InternalTenantContext context);
+
+    /**
+     * Create or update the item tree snapshots of the given subscriptions
+     *
+     * @param snapshots the snapshots to save
+     * @param context   the call context
+     */
+    void saveItemTreeSnapshots(List<InvoiceItemTreeSnapshotModelDao> snapshots, InternalCallContext context);
+
+    /**
+     * @param recordId the first record id to return
+     * @return the invoice items of the account created since the given record id (included), ordered by record id
+     */
+    List<InvoiceItemModelDao> getInvoiceItemsFromRecordId(Long recordId, InternalTenantContext context);
+
+    /**
+     * Waits for the concurrent writes of the account to complete: no item with a lower record id can be created afterwards.
+     *
+     * @return the last invoice item created for the account (the one with the highest record id), or null if there is none
+     */
+    InvoiceItemModelDao getLastInvoiceItem(InternalCallContext context);
+
     List<InvoiceModelDao> getUnpaidInvoicesByAccountId(UUID accountId, @Nullable LocalDate upToDate, InternalTenantContext context);
 
     // Include migrated invoices
@@ -231,8 +231,15 @@ public class InvoiceDaoHelper {
             return;
         }
 
-        getInvoiceItemsWithinTransaction(invoices, entitySqlDaoWrapperFactory, context);
-        getInvoicePaymentsWithinTransaction(invoices, entitySqlDaoWrapperFactory, context);
+        final List<InvoiceItemModelDao> invoiceItems = entitySqlDaoWrapperFactory.become(InvoiceItemSqlDao.class).getByAccountRecordId(context);
+        final List<InvoicePaymentModelDao> invoicePayments = entitySqlDaoWrapperFactory.become(InvoicePaymentSqlDao.class).getByAccountRecordId(context);
+        populateChildren(invoices, invoiceItems, invoicePayments, invoicesTags, entitySqlDaoWrapperFactory, context);
+    }
+
+    private void populateChildren(final Iterable<InvoiceModelDao> invoices, final List<InvoiceItemModelDao> invoiceItems, final List<InvoicePaymentModelDao> invoicePayments,
+                                  final List<Tag> invoicesTags, final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalTenantContext context) {
+        setInvoiceItems(invoices, invoiceItems);
+        setInvoicePayments(invoices, invoicePayments);
         setInvoicesWrittenOff(invoices, invoicesTags);
 
         final Iterable<InvoiceModelDao> nonParentInvoices = Iterables.<InvoiceModelDao>filter(invoices,
@@ -256,14 +263,34 @@ public class InvoiceDaoHelper {
         return invoices;
     }
 
+    // Invoices of several accounts of the same tenant, grouped by account id
+    public Map<UUID, List<InvoiceModelDao>> getAllInvoicesByAccountsFromTransaction(final Collection<Long> accountRecordIds, final List<Tag> invoicesTags, final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalTenantContext context) {
+        final List<InvoiceModelDao> invoices = entitySqlDaoWrapperFactory.become(InvoiceSqlDao.class).getByAccountRecordIds(accountRecordIds, context);
+
+        final Map<UUID, List<InvoiceModelDao>> invoicesPerAccountId = new HashMap<UUID, List<InvoiceModelDao>>();
+        if (invoices.isEmpty()) {
+            return invoicesPerAccountId;
+        }
+
+        final List<InvoiceItemModelDao> invoiceItems = entitySqlDaoWrapperFactory.become(InvoiceItemSqlDao.class).getByAccountRecordIds(accountRecordIds, context);
+        final List<InvoicePaymentModelDao> invoicePayments = entitySqlDaoWrapperFactory.become(InvoicePaymentSqlDao.class).getByAccountRecordIds(accountRecordIds, context);
+        populateChildren(invoices, invoiceItems, invoicePayments, invoicesTags, entitySqlDaoWrapperFactory, context);
+
+        for (final InvoiceModelDao invoice : invoices) {
+            if (invoicesPerAccountId.get(invoice.getAccountId()) == null) {
+                invoicesPerAccountId.put(invoice.getAccountId(), new LinkedList<InvoiceModelDao>());
+            }
+            invoicesPerAccountId.get(invoice.getAccountId()).add(invoice);
+        }
+        return invoicesPerAccountId;
+    }
+
     public BigDecimal getRemainingAmountPaidFromTransaction(final UUID invoicePaymentId, final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalTenantContext context) {
         final BigDecimal amount = entitySqlDaoWrapperFactory.become(InvoicePaymentSqlDao.class).getRemainingAmountPaid(invoicePaymentId.toString(), context);
         return amount == null ? BigDecimal.ZERO : amount;
     }
 
-    private void getInvoiceItemsWithinTransaction(final Iterable<InvoiceModelDao> invoices, final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalTenantContext context) {
-        final InvoiceItemSqlDao invoiceItemSqlDao = entitySqlDaoWrapperFactory.become(InvoiceItemSqlDao.class);
-        final List<InvoiceItemModelDao> invoiceItemsForAccount = invoiceItemSqlDao.getByAccountRecordId(context);
+    private void setInvoiceItems(final Iterable<InvoiceModelDao> invoices, final List<InvoiceItemModelDao> invoiceItemsForAccount) {
 
         final Map<UUID, List<InvoiceItemModelDao>> invoiceItemsPerInvoiceId = new HashMap<UUID, List<InvoiceItemModelDao>>();
         for (final InvoiceItemModelDao item : invoiceItemsForAccount) {
@@ -281,9 +308,7 @@ public class InvoiceDaoHelper {
         }
     }
 
-    private void getInvoicePaymentsWithinTransaction(final Iterable<InvoiceModelDao> invoices, final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalTenantContext context) {
-        final InvoicePaymentSqlDao invoicePaymentSqlDao = entitySqlDaoWrapperFactory.become(InvoicePaymentSqlDao.class);
-        final List<InvoicePaymentModelDao> invoicePaymentsForAccount = invoicePaymentSqlDao.getByAccountRecordId(context);
+    private void setInvoicePayments(final Iterable<InvoiceModelDao> invoices, final List<InvoicePaymentModelDao> invoicePaymentsForAccount) {
 
         final Map<UUID, List<InvoicePaymentModelDao>> invoicePaymentsPerInvoiceId = new HashMap<UUID, List<InvoicePaymentModelDao>>();
         for (final InvoicePaymentModelDao invoicePayment : invoicePaymentsForAccount) {
@@ -310,14 +335,14 @@ public class InvoiceDaoHelper {
     }
 
     private void setInvoicesWrittenOff(final Iterable<InvoiceModelDao> invoices, final List<Tag> invoicesTags) {
+        final Map<UUID, InvoiceModelDao> invoicesPerInvoiceId = new HashMap<UUID, InvoiceModelDao>();
+        for (final InvoiceModelDao invoice : invoices) {
+            invoicesPerInvoiceId.put(invoice.getId(), invoice);
+        }
+
         final Iterable<Tag> writtenOffTags = filterForWrittenOff(invoicesTags);
         for (final Tag cur : writtenOffTags) {
-            final InvoiceModelDao foundInvoice = Iterables.tryFind(invoices, new Predicate<InvoiceModelDao>() {
-                @Override
-                public boolean apply(final InvoiceModelDao input) {
-                    return input.getId().equals(cur.getObjectId());
-                }
-            }).orNull();
+            final InvoiceModelDao foundInvoice = invoicesPerInvoiceId.get(cur.getObjectId());
             if (foundInvoice != null) {
                 foundInvoice.setIsWrittenOff(true);
             }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.invoice.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoWrapperFactory;
+import org.killbill.commons.jdbi.mapper.LowerToCamelBeanMapperFactory;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.IDBI;
+import org.skife.jdbi.v2.TransactionCallback;
+import org.skife.jdbi.v2.TransactionStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per-subscription snapshots of the item tree, used by the incremental invoice generation
+ * (see {@link org.killbill.billing.invoice.generator.FixedAndRecurringInvoiceItemGenerator}).
+ * <p/>
+ * A snapshot is only a hint: the generator verifies the digests against the current items and billing events
+ * and falls back to a full rebuild of the tree on any mismatch.
+ */
+public class InvoiceItemTreeSnapshotDao {
+
+    private static final Logger log = LoggerFactory.getLogger(InvoiceItemTreeSnapshotDao.class);
+
+    private final IDBI dbi;
+
+    @Inject
+    public InvoiceItemTreeSnapshotDao(final IDBI dbi) {
+        this.dbi = dbi;
+        ((DBI) dbi).registerMapper(new LowerToCamelBeanMapperFactory(InvoiceItemTreeSnapshotModelDao.class));
+    }
+
+    public List<InvoiceItemTreeSnapshotModelDao> getSnapshots(final InternalTenantContext context) {
+        return dbi.inTransaction(new TransactionCallback<List<InvoiceItemTreeSnapshotModelDao>>() {
+            @Override
+            public List<InvoiceItemTreeSnapshotModelDao> inTransaction(final Handle handle, final TransactionStatus status) throws Exception {
+                return handle.attach(InvoiceItemTreeSnapshotSqlDao.class).getByAccountRecordId(context);
+            }
+        });
+    }
+
+    // Invoked when existing items are modified in place (e.g. their amount), which the snapshots can't detect: the next invoice run does a full rebuild
+    public void deleteSnapshotsFromTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalCallContext context) {
+        entitySqlDaoWrapperFactory.getHandle().attach(InvoiceItemTreeSnapshotSqlDao.class).deleteByAccountRecordId(context);
+    }
+
+    public void saveSnapshots(final List<InvoiceItemTreeSnapshotModelDao> snapshots, final InternalCallContext context) {
+        if (snapshots.isEmpty()) {
+            return;
+        }
+
+        try {
+            dbi.inTransaction(new TransactionCallback<Void>() {
+                @Override
+                public Void inTransaction(final Handle handle, final TransactionStatus status) throws Exception {
+                    final InvoiceItemTreeSnapshotSqlDao sqlDao = handle.attach(InvoiceItemTreeSnapshotSqlDao.class);
+                    final int[] updated = sqlDao.update(snapshots, context);
+                    final List<InvoiceItemTreeSnapshotModelDao> newSnapshots = new ArrayList<InvoiceItemTreeSnapshotModelDao>();
+                    for (int i = 0; i < updated.length; i++) {
+                        if (updated[i] == 0) {
+                            newSnapshots.add(snapshots.get(i));
+                        }
+                    }
+                    if (!newSnapshots.isEmpty()) {
+                        sqlDao.create(newSnapshots, context);
+                    }
+                    return null;
+                }
+            });
+        } catch (final RuntimeException e) {
+            // The next invoice run will do a full rebuild of the tree for these subscriptions and try again
+            log.warn("Unable to save item tree snapshots for accountRecordId='{}'", context.getAccountRecordId(), e);
+        }
+    }
+}
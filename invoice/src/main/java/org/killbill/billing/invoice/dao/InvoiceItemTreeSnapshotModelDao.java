@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.invoice.dao;
+
+import java.util.UUID;
+
+import org.joda.time.LocalDate;
+
+public class InvoiceItemTreeSnapshotModelDao {
+
+    private Long recordId;
+    private UUID subscriptionId;
+    // Items strictly before that date were fully reconciled with the proposed items when the snapshot was taken
+    private LocalDate watermarkDate;
+    // Last invoice item of the account when the snapshot was taken: only items created afterwards need to be checked against the watermark
+    private Long lastItemRecordId;
+    private UUID lastItemId;
+    private Long proposedItemsDigest;
+
+    public InvoiceItemTreeSnapshotModelDao() { /* For the DAO mapper */ }
+
+    public InvoiceItemTreeSnapshotModelDao(final UUID subscriptionId, final LocalDate watermarkDate, final Long lastItemRecordId, final UUID lastItemId, final Long proposedItemsDigest) {
+        this.recordId = 0L;
+        this.subscriptionId = subscriptionId;
+        this.watermarkDate = watermarkDate;
+        this.lastItemRecordId = lastItemRecordId;
+        this.lastItemId = lastItemId;
+        this.proposedItemsDigest = proposedItemsDigest;
+    }
+
+    public Long getRecordId() {
+        return recordId;
+    }
+
+    public void setRecordId(final Long recordId) {
+        this.recordId = recordId;
+    }
+
+    public UUID getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    public void setSubscriptionId(final UUID subscriptionId) {
+        this.subscriptionId = subscriptionId;
+    }
+
+    public LocalDate getWatermarkDate() {
+        return watermarkDate;
+    }
+
+    public void setWatermarkDate(final LocalDate watermarkDate) {
+        this.watermarkDate = watermarkDate;
+    }
+
+    public Long getLastItemRecordId() {
+        return lastItemRecordId;
+    }
+
+    public void setLastItemRecordId(final Long lastItemRecordId) {
+        this.lastItemRecordId = lastItemRecordId;
+    }
+
+    public UUID getLastItemId() {
+        return lastItemId;
+    }
+
+    public void setLastItemId(final UUID lastItemId) {
+        this.lastItemId = lastItemId;
+    }
+
+    public Long getProposedItemsDigest() {
+        return proposedItemsDigest;
+    }
+
+    public void setProposedItemsDigest(final Long proposedItemsDigest) {
+        this.proposedItemsDigest = proposedItemsDigest;
+    }
+
+    // Whether both snapshots describe the same reconciled state (the record id is ignored)
+    public boolean isSameSnapshot(final InvoiceItemTreeSnapshotModelDao other) {
+        return other != null &&
+               subscriptionId.equals(other.getSubscriptionId()) &&
+               watermarkDate.compareTo(other.getWatermarkDate()) == 0 &&
+               lastItemRecordId.equals(other.getLastItemRecordId()) &&
+               lastItemId.equals(other.getLastItemId()) &&
+               proposedItemsDigest.equals(other.getProposedItemsDigest());
+    }
+
+    @Override
+    public String toString() {
+        return "InvoiceItemTreeSnapshotModelDao{" +
+               "recordId=" + recordId +
+               ", subscriptionId=" + subscriptionId +
+               ", watermarkDate=" + watermarkDate +
+               ", lastItemRecordId=" + lastItemRecordId +
+               ", lastItemId=" + lastItemId +
+               ", proposedItemsDigest=" + proposedItemsDigest +
+               '}';
+    }
+}
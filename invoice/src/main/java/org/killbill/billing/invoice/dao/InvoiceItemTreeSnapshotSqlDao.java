@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.invoice.dao;
+
+import java.util.List;
+
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.commons.jdbi.binder.SmartBindBean;
+import org.killbill.commons.jdbi.template.KillBillSqlDaoStringTemplate;
+import org.skife.jdbi.v2.sqlobject.SqlBatch;
+import org.skife.jdbi.v2.sqlobject.SqlQuery;
+import org.skife.jdbi.v2.sqlobject.SqlUpdate;
+import org.skife.jdbi.v2.sqlobject.mixins.CloseMe;
+import org.skife.jdbi.v2.sqlobject.mixins.Transactional;
+
+@KillBillSqlDaoStringTemplate
+public interface InvoiceItemTreeSnapshotSqlDao extends Transactional<InvoiceItemTreeSnapshotSqlDao>, CloseMe {
+
+    @SqlBatch
+    public void create(@SmartBindBean final Iterable<InvoiceItemTreeSnapshotModelDao> snapshots,
+                       @SmartBindBean final InternalCallContext context);
+
+    // Returns, for each snapshot, the number of rows updated (0 if there is no snapshot yet for that subscription)
+    @SqlBatch
+    public int[] update(@SmartBindBean final Iterable<InvoiceItemTreeSnapshotModelDao> snapshots,
+                        @SmartBindBean final InternalCallContext context);
+
+    @SqlQuery
+    public List<InvoiceItemTreeSnapshotModelDao> getByAccountRecordId(@SmartBindBean final InternalTenantContext context);
+
+    @SqlUpdate
+    public void deleteByAccountRecordId(@SmartBindBean final InternalCallContext context);
+}
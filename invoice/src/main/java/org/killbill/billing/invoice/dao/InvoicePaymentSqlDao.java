@@ -23,9 +23,12 @@ import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 
+import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.invoice.api.InvoicePayment;
+import org.killbill.billing.util.audit.ChangeType;
+import org.killbill.billing.util.entity.dao.Audited;
 import org.killbill.billing.util.entity.dao.EntitySqlDao;
 import org.killbill.commons.jdbi.template.KillBillSqlDaoStringTemplate;
 import org.skife.jdbi.v2.sqlobject.Bind;
@@ -70,7 +73,8 @@ public interface InvoicePaymentSqlDao extends EntitySqlDao<InvoicePaymentModelDa
                                                            @SmartBindBean final InternalTenantContext context);
 
     @SqlUpdate
-    void updateAttempt(@Bind("recordId") Long recordId,
+    @Audited(ChangeType.UPDATE)
+    void updateAttempt(@Bind("id") final String invoicePaymentId,
                        @Bind("paymentId") final String paymentId,
                        @Bind("paymentDate") final Date paymentDate,
                        @Bind("amount") final BigDecimal amount,
@@ -79,5 +83,5 @@ public interface InvoicePaymentSqlDao extends EntitySqlDao<InvoicePaymentModelDa
                        @Bind("paymentCookieId") final String paymentCookieId,
                        @Bind("linkedInvoicePaymentId") final String linkedInvoicePaymentId,
                        @Bind("success") final boolean success,
-                       @SmartBindBean final InternalTenantContext context);
+                       @SmartBindBean final InternalCallContext context);
 }
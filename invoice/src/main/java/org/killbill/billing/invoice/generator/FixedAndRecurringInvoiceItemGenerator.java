@@ -22,9 +22,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.Nullable;
 
@@ -42,6 +45,9 @@ import org.killbill.billing.invoice.api.Invoice;
 import org.killbill.billing.invoice.api.InvoiceApiException;
 import org.killbill.billing.invoice.api.InvoiceItem;
 import org.killbill.billing.invoice.api.InvoiceItemType;
+import org.killbill.billing.invoice.dao.InvoiceDao;
+import org.killbill.billing.invoice.dao.InvoiceItemModelDao;
+import org.killbill.billing.invoice.dao.InvoiceItemTreeSnapshotModelDao;
 import org.killbill.billing.invoice.generator.InvoiceWithMetadata.SubscriptionFutureNotificationDates;
 import org.killbill.billing.invoice.model.FixedPriceInvoiceItem;
 import org.killbill.billing.invoice.model.InvalidDateSequenceException;
@@ -59,6 +65,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Supplier;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Range;
@@ -73,12 +80,16 @@ public class FixedAndRecurringInvoiceItemGenerator extends InvoiceItemGenerator
     private static final Logger log = LoggerFactory.getLogger(FixedAndRecurringInvoiceItemGenerator.class);
 
     private final InvoiceConfig config;
+    private final InvoiceDao invoiceDao;
+    private final InvoiceGeneratorExecutor invoiceGeneratorExecutor;
 
     private final Clock clock;
 
     @Inject
-    public FixedAndRecurringInvoiceItemGenerator(final InvoiceConfig config, final Clock clock) {
+    public FixedAndRecurringInvoiceItemGenerator(final InvoiceConfig config, final InvoiceDao invoiceDao, final InvoiceGeneratorExecutor invoiceGeneratorExecutor, final Clock clock) {
         this.config = config;
+        this.invoiceDao = invoiceDao;
+        this.invoiceGeneratorExecutor = invoiceGeneratorExecutor;
         this.clock = clock;
     }
 
@@ -86,16 +97,25 @@ public class FixedAndRecurringInvoiceItemGenerator extends InvoiceItemGenerator
                                            @Nullable final List<Invoice> existingInvoices, final LocalDate targetDate,
                                            final Currency targetCurrency, final Map<UUID, SubscriptionFutureNotificationDates> perSubscriptionFutureNotificationDate,
                                            final InternalCallContext internalCallContext) throws InvoiceApiException {
+        return generateItems(account, invoiceId, eventSet, existingInvoices, targetDate, targetCurrency, perSubscriptionFutureNotificationDate, new LinkedList<InvoiceItemTreeSnapshotModelDao>(), internalCallContext);
+    }
+
+    // The item tree snapshots are only returned: it is up to the caller to save them when the invoice is committed (not for dry runs)
+    public List<InvoiceItem> generateItems(final ImmutableAccountData account, final UUID invoiceId, final BillingEventSet eventSet,
+                                           @Nullable final List<Invoice> existingInvoices, final LocalDate targetDate,
+                                           final Currency targetCurrency, final Map<UUID, SubscriptionFutureNotificationDates> perSubscriptionFutureNotificationDate,
+                                           final List<InvoiceItemTreeSnapshotModelDao> itemTreeSnapshots,
+                                           final InternalCallContext internalCallContext) throws InvoiceApiException {
         final Multimap<UUID, LocalDate> createdItemsPerDayPerSubscription = LinkedListMultimap.<UUID, LocalDate>create();
 
-        final AccountItemTree accountItemTree = new AccountItemTree(account.getId(), invoiceId);
+        final List<InvoiceItem> existingItems = new ArrayList<InvoiceItem>();
         if (existingInvoices != null) {
             for (final Invoice invoice : existingInvoices) {
                 for (final InvoiceItem item : invoice.getInvoiceItems()) {
                     if (item.getSubscriptionId() == null || // Always include migration invoices, credits, external charges etc.
                         !eventSet.getSubscriptionIdsWithAutoInvoiceOff()
                                  .contains(item.getSubscriptionId())) { //don't add items with auto_invoice_off tag
-                        accountItemTree.addExistingItem(item);
+                        existingItems.add(item);
 
                         trackInvoiceItemCreatedDay(item, createdItemsPerDayPerSubscription, internalCallContext);
                     }
@@ -103,28 +123,92 @@ public class FixedAndRecurringInvoiceItemGenerator extends InvoiceItemGenerator
             }
         }
 
+        // Null unless parallel item generation is enabled for this tenant
+        final ExecutorService executorService = invoiceGeneratorExecutor.getExecutorService(internalCallContext);
+
         // Generate list of proposed invoice items based on billing events from junction-- proposed items are ALL items since beginning of time
         final List<InvoiceItem> proposedItems = new ArrayList<InvoiceItem>();
-        processRecurringBillingEvents(invoiceId, account.getId(), eventSet, targetDate, targetCurrency, proposedItems, perSubscriptionFutureNotificationDate, existingInvoices, internalCallContext);
+        processRecurringBillingEvents(invoiceId, account.getId(), eventSet, targetDate, targetCurrency, proposedItems, perSubscriptionFutureNotificationDate, existingInvoices, executorService, internalCallContext);
         processFixedBillingEvents(invoiceId, account.getId(), eventSet, targetDate, targetCurrency, proposedItems, internalCallContext);
 
-        try {
-            accountItemTree.mergeWithProposedItems(proposedItems);
-        } catch (final IllegalStateException e) {
-            // Proposed items have already been logged
-            throw new InvoiceApiException(e, ErrorCode.UNEXPECTED_ERROR, String.format("ILLEGAL INVOICING STATE accountItemTree=%s", accountItemTree.toString()));
+        final ItemTreeWatermarks itemTreeWatermarks = config.isIncrementalItemTreeEnabled() ? new ItemTreeWatermarks(existingItems, proposedItems) : null;
+
+        List<InvoiceItem> resultingItems = null;
+        if (itemTreeWatermarks != null && applyItemTreeSnapshots(itemTreeWatermarks, internalCallContext)) {
+            final AccountItemTree accountItemTree = new AccountItemTree(account.getId(), invoiceId, executorService);
+            try {
+                resultingItems = mergeWithProposedItems(accountItemTree, existingItems, proposedItems, itemTreeWatermarks);
+                if (!itemTreeWatermarks.isConsistent(resultingItems)) {
+                    log.warn("Inconsistent incremental item tree, falling back to a full rebuild: accountItemTree={}", accountItemTree);
+                    resultingItems = null;
+                }
+            } catch (final IllegalStateException e) {
+                log.warn("Unable to build the incremental item tree, falling back to a full rebuild: accountItemTree={}", accountItemTree, e);
+                resultingItems = null;
+            }
+            if (resultingItems == null) {
+                itemTreeWatermarks.discardSnapshots();
+            }
+        }
+
+        if (resultingItems == null) {
+            final AccountItemTree accountItemTree = new AccountItemTree(account.getId(), invoiceId, executorService);
+            try {
+                resultingItems = mergeWithProposedItems(accountItemTree, existingItems, proposedItems, null);
+            } catch (final IllegalStateException e) {
+                // Proposed items have already been logged
+                throw new InvoiceApiException(e, ErrorCode.UNEXPECTED_ERROR, String.format("ILLEGAL INVOICING STATE accountItemTree=%s", accountItemTree.toString()));
+            }
         }
 
-        final List<InvoiceItem> resultingItems = accountItemTree.getResultingItemList();
         safetyBounds(resultingItems, createdItemsPerDayPerSubscription, internalCallContext);
 
+        if (itemTreeWatermarks != null) {
+            itemTreeSnapshots.addAll(itemTreeWatermarks.computeSnapshots(resultingItems, new Supplier<InvoiceItemModelDao>() {
+                @Override
+                public InvoiceItemModelDao get() {
+                    return invoiceDao.getLastInvoiceItem(internalCallContext);
+                }
+            }));
+        }
+
         return resultingItems;
     }
 
+    // Only the items created since the snapshots were taken are loaded to verify them
+    private boolean applyItemTreeSnapshots(final ItemTreeWatermarks itemTreeWatermarks, final InternalCallContext internalCallContext) {
+        final List<InvoiceItemTreeSnapshotModelDao> previousSnapshots = invoiceDao.getItemTreeSnapshots(internalCallContext);
+        final Long firstRecordIdToVerify = ItemTreeWatermarks.getFirstRecordIdToVerify(previousSnapshots);
+        if (firstRecordIdToVerify == null) {
+            return false;
+        }
+        return itemTreeWatermarks.applySnapshots(previousSnapshots, invoiceDao.getInvoiceItemsFromRecordId(firstRecordIdToVerify, internalCallContext));
+    }
+
+    private List<InvoiceItem> mergeWithProposedItems(final AccountItemTree accountItemTree, final Iterable<InvoiceItem> existingItems, final Iterable<InvoiceItem> proposedItems,
+                                                     @Nullable final ItemTreeWatermarks itemTreeWatermarks) {
+        for (final InvoiceItem existingItem : existingItems) {
+            if (itemTreeWatermarks == null || !itemTreeWatermarks.isReconciled(existingItem)) {
+                accountItemTree.addExistingItem(existingItem);
+            }
+        }
+
+        final List<InvoiceItem> remainingProposedItems = new ArrayList<InvoiceItem>();
+        for (final InvoiceItem proposedItem : proposedItems) {
+            if (itemTreeWatermarks == null || !itemTreeWatermarks.isReconciled(proposedItem)) {
+                remainingProposedItems.add(proposedItem);
+            }
+        }
+        accountItemTree.mergeWithProposedItems(remainingProposedItems);
+
+        return accountItemTree.getResultingItemList();
+    }
+
     private void processRecurringBillingEvents(final UUID invoiceId, final UUID accountId, final BillingEventSet events,
                                                final LocalDate targetDate, final Currency currency, final List<InvoiceItem> proposedItems,
                                                final Map<UUID, SubscriptionFutureNotificationDates> perSubscriptionFutureNotificationDate,
                                                @Nullable final List<Invoice> existingInvoices,
+                                               @Nullable final ExecutorService executorService,
                                                final InternalCallContext internalCallContext) throws InvoiceApiException {
         if (events.isEmpty()) {
             return;
@@ -133,25 +217,62 @@ public class FixedAndRecurringInvoiceItemGenerator extends InvoiceItemGenerator
         // Pretty-print the generated invoice items from the junction events
         final InvoiceItemGeneratorLogger invoiceItemGeneratorLogger = new InvoiceItemGeneratorLogger(invoiceId, accountId, "recurring", log);
 
-        final Iterator<BillingEvent> eventIt = events.iterator();
-        BillingEvent nextEvent = eventIt.next();
-        while (eventIt.hasNext()) {
-            final BillingEvent thisEvent = nextEvent;
-            nextEvent = eventIt.next();
-            if (!events.getSubscriptionIdsWithAutoInvoiceOff().
-                    contains(thisEvent.getSubscription().getId())) { // don't consider events for subscriptions that have auto_invoice_off
-                final BillingEvent adjustedNextEvent = (thisEvent.getSubscription().getId() == nextEvent.getSubscription().getId()) ? nextEvent : null;
-                final List<InvoiceItem> newProposedItems = processRecurringEvent(invoiceId, accountId, thisEvent, adjustedNextEvent, targetDate, currency, invoiceItemGeneratorLogger, events.getRecurringBillingMode(), perSubscriptionFutureNotificationDate, internalCallContext);
-                proposedItems.addAll(newProposedItems);
+        // Billing events are sorted by subscription: the items for each subscription can be computed independently
+        final List<List<BillingEvent>> perSubscriptionEvents = new ArrayList<List<BillingEvent>>();
+        List<BillingEvent> curSubscriptionEvents = null;
+        for (final BillingEvent event : events) {
+            if (curSubscriptionEvents == null || !curSubscriptionEvents.get(0).getSubscription().getId().equals(event.getSubscription().getId())) {
+                curSubscriptionEvents = new ArrayList<BillingEvent>();
+                perSubscriptionEvents.add(curSubscriptionEvents);
             }
+            curSubscriptionEvents.add(event);
+        }
+
+        final List<Callable<SubscriptionRecurringItems>> tasks = new ArrayList<Callable<SubscriptionRecurringItems>>(perSubscriptionEvents.size());
+        for (int i = 0; i < perSubscriptionEvents.size(); i++) {
+            final List<BillingEvent> subscriptionEvents = perSubscriptionEvents.get(i);
+            final boolean isLastSubscription = i == perSubscriptionEvents.size() - 1;
+            tasks.add(new Callable<SubscriptionRecurringItems>() {
+                @Override
+                public SubscriptionRecurringItems call() throws InvoiceApiException {
+                    return processRecurringSubscriptionEvents(invoiceId, accountId, events, subscriptionEvents, isLastSubscription, targetDate, currency, internalCallContext);
+                }
+            });
         }
-        final List<InvoiceItem> newProposedItems = processRecurringEvent(invoiceId, accountId, nextEvent, null, targetDate, currency, invoiceItemGeneratorLogger, events.getRecurringBillingMode(), perSubscriptionFutureNotificationDate, internalCallContext);
 
-        proposedItems.addAll(newProposedItems);
+        // Merge the results in the order of the billing events
+        for (final SubscriptionRecurringItems subscriptionRecurringItems : InvoiceGeneratorExecutor.invokeAll(executorService, tasks)) {
+            proposedItems.addAll(subscriptionRecurringItems.getItems());
+            // Each subscription is only handled by a single task
+            perSubscriptionFutureNotificationDate.putAll(subscriptionRecurringItems.getPerSubscriptionFutureNotificationDate());
+            invoiceItemGeneratorLogger.append(subscriptionRecurringItems.getInvoiceItemGeneratorLogger());
+        }
 
         invoiceItemGeneratorLogger.logItems();
     }
 
+    private SubscriptionRecurringItems processRecurringSubscriptionEvents(final UUID invoiceId, final UUID accountId, final BillingEventSet events,
+                                                                          final List<BillingEvent> subscriptionEvents, final boolean isLastSubscription,
+                                                                          final LocalDate targetDate, final Currency currency,
+                                                                          final InternalCallContext internalCallContext) throws InvoiceApiException {
+        final SubscriptionRecurringItems result = new SubscriptionRecurringItems(new InvoiceItemGeneratorLogger(invoiceId, accountId, "recurring", log));
+
+        for (int i = 0; i < subscriptionEvents.size(); i++) {
+            final BillingEvent thisEvent = subscriptionEvents.get(i);
+            final BillingEvent nextEvent = i < subscriptionEvents.size() - 1 ? subscriptionEvents.get(i + 1) : null;
+            if (nextEvent == null && isLastSubscription) {
+                // The very last billing event is always processed
+                result.getItems().addAll(processRecurringEvent(invoiceId, accountId, thisEvent, null, targetDate, currency, result.getInvoiceItemGeneratorLogger(), events.getRecurringBillingMode(), result.getPerSubscriptionFutureNotificationDate(), internalCallContext));
+            } else if (!events.getSubscriptionIdsWithAutoInvoiceOff().
+                    contains(thisEvent.getSubscription().getId())) { // don't consider events for subscriptions that have auto_invoice_off
+                final BillingEvent adjustedNextEvent = (nextEvent != null && thisEvent.getSubscription().getId() == nextEvent.getSubscription().getId()) ? nextEvent : null;
+                result.getItems().addAll(processRecurringEvent(invoiceId, accountId, thisEvent, adjustedNextEvent, targetDate, currency, result.getInvoiceItemGeneratorLogger(), events.getRecurringBillingMode(), result.getPerSubscriptionFutureNotificationDate(), internalCallContext));
+            }
+        }
+
+        return result;
+    }
+
     @VisibleForTesting
     void processFixedBillingEvents(final UUID invoiceId, final UUID accountId, final BillingEventSet events, final LocalDate targetDate,
                                    final Currency currency, final List<InvoiceItem> proposedItems, final InternalCallContext internalCallContext) throws InvoiceApiException {
@@ -483,4 +604,29 @@ public class FixedAndRecurringInvoiceItemGenerator extends InvoiceItemGenerator
         createdItemsPerDayPerSubscription.put(subscriptionId, createdDay);
         return createdDay;
     }
+
+    private static final class SubscriptionRecurringItems {
+
+        private final List<InvoiceItem> items;
+        private final Map<UUID, SubscriptionFutureNotificationDates> perSubscriptionFutureNotificationDate;
+        private final InvoiceItemGeneratorLogger invoiceItemGeneratorLogger;
+
+        private SubscriptionRecurringItems(final InvoiceItemGeneratorLogger invoiceItemGeneratorLogger) {
+            this.items = new ArrayList<InvoiceItem>();
+            this.perSubscriptionFutureNotificationDate = new HashMap<UUID, SubscriptionFutureNotificationDates>();
+            this.invoiceItemGeneratorLogger = invoiceItemGeneratorLogger;
+        }
+
+        public List<InvoiceItem> getItems() {
+            return items;
+        }
+
+        public Map<UUID, SubscriptionFutureNotificationDates> getPerSubscriptionFutureNotificationDate() {
+            return perSubscriptionFutureNotificationDate;
+        }
+
+        public InvoiceItemGeneratorLogger getInvoiceItemGeneratorLogger() {
+            return invoiceItemGeneratorLogger;
+        }
+    }
 }
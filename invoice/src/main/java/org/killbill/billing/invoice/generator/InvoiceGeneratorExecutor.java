@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.invoice.generator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+import org.killbill.billing.ErrorCode;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.invoice.api.InvoiceApiException;
+import org.killbill.billing.util.config.definition.InvoiceConfig;
+
+/**
+ * Bounded pool used to compute the invoice items of the different subscriptions of an account in parallel.
+ * <p/>
+ * <p>The pool is shared by all invoice runs and is only used for tenants which have enabled
+ * <tt>org.killbill.invoice.parallelItemGenerationEnabled</tt>: callers fall back to computing the items
+ * in the calling thread when {@link #getExecutorService(InternalTenantContext)} returns null.
+ */
+public class InvoiceGeneratorExecutor {
+
+    private static final long TIMEOUT_EXECUTOR_SEC = 3L;
+
+    private static final String INVOICE_GENERATOR_THREAD_PREFIX = "invoice-generator-th-";
+
+    private final InvoiceConfig invoiceConfig;
+
+    private volatile ForkJoinPool executorService;
+
+    @Inject
+    public InvoiceGeneratorExecutor(final InvoiceConfig invoiceConfig) {
+        this.invoiceConfig = invoiceConfig;
+    }
+
+    public void initialize() {
+        this.executorService = new ForkJoinPool(invoiceConfig.getParallelItemGenerationThreads(),
+                                                new ForkJoinWorkerThreadFactory() {
+                                                    @Override
+                                                    public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+                                                        final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                                                        thread.setName(INVOICE_GENERATOR_THREAD_PREFIX + thread.getPoolIndex());
+                                                        return thread;
+                                                    }
+                                                },
+                                                null,
+                                                false);
+    }
+
+    public void stop() throws InterruptedException {
+        if (executorService == null) {
+            return;
+        }
+
+        executorService.shutdownNow();
+        executorService.awaitTermination(TIMEOUT_EXECUTOR_SEC, TimeUnit.SECONDS);
+        executorService = null;
+    }
+
+    /**
+     * @param tenantContext the tenant context of the invoice run
+     * @return the pool to use for that tenant or null if the items should be computed in the calling thread
+     */
+    @Nullable
+    public ExecutorService getExecutorService(final InternalTenantContext tenantContext) {
+        final ExecutorService currentExecutorService = executorService;
+        if (currentExecutorService == null || !invoiceConfig.isParallelItemGenerationEnabled(tenantContext)) {
+            return null;
+        }
+        return currentExecutorService;
+    }
+
+    /**
+     * Run the tasks and wait for their completion.
+     *
+     * @param executorService the pool to use or null to run the tasks sequentially in the calling thread
+     * @param tasks           the tasks to run
+     * @return the results, in the same order as the tasks
+     * @throws InvoiceApiException if one of the tasks failed
+     */
+    public static <T> List<T> invokeAll(@Nullable final ExecutorService executorService, final List<? extends Callable<T>> tasks) throws InvoiceApiException {
+        final List<T> results = new ArrayList<T>(tasks.size());
+        if (executorService == null || tasks.size() < 2) {
+            for (final Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (final Exception e) {
+                    throw propagate(e);
+                }
+            }
+            return results;
+        }
+
+        try {
+            for (final Future<T> future : executorService.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InvoiceApiException(e, ErrorCode.UNEXPECTED_ERROR, "Interrupted while generating invoice items");
+        } catch (final ExecutionException e) {
+            throw propagate(e.getCause());
+        }
+        return results;
+    }
+
+    // Rethrow unchecked exceptions as-is, so that callers see the same exceptions as in sequential mode
+    private static InvoiceApiException propagate(final Throwable e) {
+        if (e instanceof InvoiceApiException) {
+            return (InvoiceApiException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        } else {
+            return new InvoiceApiException(e, ErrorCode.UNEXPECTED_ERROR, "Failed to generate invoice items");
+        }
+    }
+}
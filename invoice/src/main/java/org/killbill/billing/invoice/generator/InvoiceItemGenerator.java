@@ -79,20 +79,29 @@ public abstract class InvoiceItemGenerator {
             }
         }
 
+        // Used to merge, in order, the output of the loggers of the per-subscription tasks
+        public void append(final InvoiceItemGeneratorLogger other) {
+            if (other.logStringBuilder != null) {
+                getLogStringBuilder().append(other.logStringBuilder);
+            }
+        }
+
         public void logItems() {
             if (logStringBuilder != null) {
-                delegate.info(getLogStringBuilder().toString());
+                delegate.info(new StringBuilder("Proposed ").append(type)
+                                                            .append(" items for invoiceId='")
+                                                            .append(invoiceId)
+                                                            .append("', accountId='")
+                                                            .append(accountId)
+                                                            .append("'")
+                                                            .append(logStringBuilder)
+                                                            .toString());
             }
         }
 
         private StringBuilder getLogStringBuilder() {
             if (logStringBuilder == null) {
-                logStringBuilder = new StringBuilder("Proposed ").append(type)
-                                                                 .append(" items for invoiceId='")
-                                                                 .append(invoiceId)
-                                                                 .append("', accountId='")
-                                                                 .append(accountId)
-                                                                 .append("'");
+                logStringBuilder = new StringBuilder();
             }
 
             return logStringBuilder;
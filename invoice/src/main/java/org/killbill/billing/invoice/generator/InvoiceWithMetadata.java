@@ -31,20 +31,29 @@ import org.killbill.billing.catalog.api.BillingMode;
 import org.killbill.billing.invoice.api.Invoice;
 import org.killbill.billing.invoice.api.InvoiceItem;
 import org.killbill.billing.invoice.api.InvoiceItemType;
+import org.killbill.billing.invoice.dao.InvoiceItemTreeSnapshotModelDao;
 import org.killbill.billing.invoice.model.DefaultInvoice;
 
 import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 
 public class InvoiceWithMetadata {
 
     private final Map<UUID, SubscriptionFutureNotificationDates> perSubscriptionFutureNotificationDates;
+    private final List<InvoiceItemTreeSnapshotModelDao> itemTreeSnapshots;
 
     private DefaultInvoice invoice;
 
     public InvoiceWithMetadata(final DefaultInvoice originalInvoice, final Map<UUID, SubscriptionFutureNotificationDates> perSubscriptionFutureNotificationDates) {
+        this(originalInvoice, perSubscriptionFutureNotificationDates, ImmutableList.<InvoiceItemTreeSnapshotModelDao>of());
+    }
+
+    public InvoiceWithMetadata(final DefaultInvoice originalInvoice, final Map<UUID, SubscriptionFutureNotificationDates> perSubscriptionFutureNotificationDates,
+                               final List<InvoiceItemTreeSnapshotModelDao> itemTreeSnapshots) {
         this.invoice = originalInvoice;
         this.perSubscriptionFutureNotificationDates = perSubscriptionFutureNotificationDates;
+        this.itemTreeSnapshots = itemTreeSnapshots;
         build();
         remove$0UsageItems();
     }
@@ -57,6 +66,11 @@ public class InvoiceWithMetadata {
         return perSubscriptionFutureNotificationDates;
     }
 
+    // To be saved when the invoice is committed
+    public List<InvoiceItemTreeSnapshotModelDao> getItemTreeSnapshots() {
+        return itemTreeSnapshots;
+    }
+
     // Remove all the IN_ADVANCE items for which we have no invoice items
     private void build() {
         // nextRecurringDate are computed based on *proposed* items, and not missing items (= proposed - existing). So
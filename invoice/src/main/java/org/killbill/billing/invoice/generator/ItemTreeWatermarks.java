@@ -0,0 +1,370 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.invoice.generator;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.joda.time.LocalDate;
+import org.killbill.billing.invoice.api.InvoiceItem;
+import org.killbill.billing.invoice.api.InvoiceItemType;
+import org.killbill.billing.invoice.dao.InvoiceItemModelDao;
+import org.killbill.billing.invoice.dao.InvoiceItemTreeSnapshotModelDao;
+import org.killbill.billing.invoice.model.InvoiceItemFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Incremental mode of the item tree.
+ * <p/>
+ * When the tree is built, the existing and proposed items of a subscription are reconciled interval by interval. If, at the end
+ * of a run, a subscription has no resulting item before a given date and no item straddles that date, all items before it were
+ * fully reconciled: the date is recorded as the watermark of the subscription, along with a digest of the proposed items before it
+ * and the last invoice item of the account at that time.
+ * <p/>
+ * Existing items are immutable (amount updates delete the snapshots of the account, see InvoiceDao#updateInvoiceItemAmount): on the next run,
+ * only the items created after that last item are checked. If none of them is before (or straddles) the watermark, nothing straddles it
+ * on the proposed side and the digest of the proposed items still matches (no billing event change before the watermark), the items
+ * before the watermark are left out of the tree as they would not yield anything. Otherwise, the tree of the subscription is fully rebuilt.
+ */
+class ItemTreeWatermarks {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final Map<UUID, InvoiceItem> existingItemsById = new HashMap<UUID, InvoiceItem>();
+    private final ListMultimap<UUID, InvoiceItem> existingItemsPerSubscription = LinkedListMultimap.<UUID, InvoiceItem>create();
+    private final ListMultimap<UUID, InvoiceItem> proposedItemsPerSubscription = LinkedListMultimap.<UUID, InvoiceItem>create();
+    // Previous snapshots which are still valid
+    private final Map<UUID, InvoiceItemTreeSnapshotModelDao> snapshots = new HashMap<UUID, InvoiceItemTreeSnapshotModelDao>();
+    private final Map<UUID, LocalDate> watermarks = new HashMap<UUID, LocalDate>();
+
+    ItemTreeWatermarks(final Iterable<InvoiceItem> existingItems, final Iterable<InvoiceItem> proposedItems) {
+        for (final InvoiceItem existingItem : existingItems) {
+            existingItemsById.put(existingItem.getId(), existingItem);
+        }
+        for (final InvoiceItem existingItem : existingItems) {
+            final UUID subscriptionId = getSubscriptionId(existingItem);
+            if (subscriptionId != null) {
+                existingItemsPerSubscription.put(subscriptionId, existingItem);
+            }
+        }
+        for (final InvoiceItem proposedItem : proposedItems) {
+            proposedItemsPerSubscription.put(proposedItem.getSubscriptionId(), proposedItem);
+        }
+    }
+
+    /**
+     * @param previousSnapshots the snapshots of the account
+     * @return the lowest last item record id of the snapshots (the items to verify start there), null if there is no snapshot
+     */
+    @Nullable
+    static Long getFirstRecordIdToVerify(final Iterable<InvoiceItemTreeSnapshotModelDao> previousSnapshots) {
+        Long firstRecordId = null;
+        for (final InvoiceItemTreeSnapshotModelDao snapshot : previousSnapshots) {
+            if (firstRecordId == null || snapshot.getLastItemRecordId() < firstRecordId) {
+                firstRecordId = snapshot.getLastItemRecordId();
+            }
+        }
+        return firstRecordId;
+    }
+
+    /**
+     * Verify the snapshots of the previous runs against the current items
+     *
+     * @param previousSnapshots the snapshots of the account
+     * @param itemsToVerify     the invoice items of the account from {@link #getFirstRecordIdToVerify(Iterable)}, ordered by record id
+     * @return true if the items of at least one subscription can be skipped
+     */
+    boolean applySnapshots(final Iterable<InvoiceItemTreeSnapshotModelDao> previousSnapshots, final Iterable<InvoiceItemModelDao> itemsToVerify) {
+        final Map<Long, UUID> itemIdsByRecordId = new HashMap<Long, UUID>();
+        final ListMultimap<UUID, InvoiceItemModelDao> itemsToVerifyPerSubscription = LinkedListMultimap.<UUID, InvoiceItemModelDao>create();
+        for (final InvoiceItemModelDao itemToVerify : itemsToVerify) {
+            itemIdsByRecordId.put(itemToVerify.getRecordId(), itemToVerify.getId());
+
+            final InvoiceItem item = InvoiceItemFactory.fromModelDao(itemToVerify);
+            if ((item.getInvoiceItemType() == InvoiceItemType.ITEM_ADJ || item.getInvoiceItemType() == InvoiceItemType.REPAIR_ADJ) &&
+                !existingItemsById.containsKey(item.getLinkedItemId())) {
+                // Linked to an item we don't know about (created concurrently): we can't tell which subscription is affected
+                return false;
+            }
+            final UUID subscriptionId = getSubscriptionId(item);
+            if (subscriptionId != null) {
+                itemsToVerifyPerSubscription.put(subscriptionId, itemToVerify);
+            }
+        }
+
+        for (final InvoiceItemTreeSnapshotModelDao snapshot : previousSnapshots) {
+            final UUID subscriptionId = snapshot.getSubscriptionId();
+            // Record ids aren't preserved when the account is exported and imported again: the snapshot is then ignored (and replaced)
+            if (!snapshot.getLastItemId().equals(itemIdsByRecordId.get(snapshot.getLastItemRecordId()))) {
+                continue;
+            }
+
+            final LocalDate watermarkDate = snapshot.getWatermarkDate();
+            final List<InvoiceItem> proposedItems = proposedItemsPerSubscription.get(subscriptionId);
+            if (hasNewItemsBefore(itemsToVerifyPerSubscription.get(subscriptionId), snapshot.getLastItemRecordId(), watermarkDate) ||
+                !isCleanCut(proposedItems, watermarkDate) ||
+                digest(proposedItems, watermarkDate) != snapshot.getProposedItemsDigest()) {
+                continue;
+            }
+            snapshots.put(subscriptionId, snapshot);
+            watermarks.put(subscriptionId, watermarkDate);
+        }
+        return !watermarks.isEmpty();
+    }
+
+    /**
+     * Forget the previous snapshots, e.g. when the incremental tree is inconsistent: all snapshots are then computed again
+     */
+    void discardSnapshots() {
+        snapshots.clear();
+        watermarks.clear();
+    }
+
+    /**
+     * @param item an existing or proposed item
+     * @return true if the item was already reconciled and can be left out of the tree
+     */
+    boolean isReconciled(final InvoiceItem item) {
+        final UUID subscriptionId = getSubscriptionId(item);
+        final LocalDate watermarkDate = subscriptionId == null ? null : watermarks.get(subscriptionId);
+        return watermarkDate != null && isBefore(getReferenceItem(item), watermarkDate);
+    }
+
+    /**
+     * Sanity check: when some items were skipped, nothing can be generated before the watermark
+     *
+     * @param resultingItems the items generated by the tree
+     * @return false if the tree should be fully rebuilt
+     */
+    boolean isConsistent(final Iterable<InvoiceItem> resultingItems) {
+        for (final InvoiceItem resultingItem : resultingItems) {
+            final UUID subscriptionId = getSubscriptionId(resultingItem);
+            final LocalDate watermarkDate = subscriptionId == null ? null : watermarks.get(subscriptionId);
+            if (watermarkDate != null && resultingItem.getStartDate().compareTo(watermarkDate) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param resultingItems   the items generated by the tree
+     * @param lastItemSupplier supplies the last invoice item of the account, only invoked if there is a snapshot to save
+     * @return the new or updated snapshots
+     */
+    List<InvoiceItemTreeSnapshotModelDao> computeSnapshots(final Iterable<InvoiceItem> resultingItems, final Supplier<InvoiceItemModelDao> lastItemSupplier) {
+        final Map<UUID, LocalDate> firstResultingItemDates = new HashMap<UUID, LocalDate>();
+        for (final InvoiceItem resultingItem : resultingItems) {
+            final UUID subscriptionId = getSubscriptionId(resultingItem);
+            final LocalDate firstResultingItemDate = firstResultingItemDates.get(subscriptionId);
+            if (subscriptionId != null && (firstResultingItemDate == null || resultingItem.getStartDate().compareTo(firstResultingItemDate) < 0)) {
+                firstResultingItemDates.put(subscriptionId, resultingItem.getStartDate());
+            }
+        }
+
+        final Set<UUID> subscriptionIds = new HashSet<UUID>(existingItemsPerSubscription.keySet());
+        subscriptionIds.addAll(proposedItemsPerSubscription.keySet());
+
+        InvoiceItemModelDao lastItem = null;
+        final List<InvoiceItemTreeSnapshotModelDao> result = new ArrayList<InvoiceItemTreeSnapshotModelDao>();
+        for (final UUID subscriptionId : subscriptionIds) {
+            final List<InvoiceItem> existingItems = existingItemsPerSubscription.get(subscriptionId);
+            final List<InvoiceItem> proposedItems = proposedItemsPerSubscription.get(subscriptionId);
+
+            LocalDate watermarkDate = firstResultingItemDates.get(subscriptionId);
+            if (watermarkDate == null) {
+                // Everything is reconciled
+                watermarkDate = getLastDate(existingItems, getLastDate(proposedItems, null));
+            }
+            if (watermarkDate == null) {
+                continue;
+            }
+            watermarkDate = getCleanCut(existingItems, proposedItems, watermarkDate);
+
+            if (!hasItemsBefore(existingItems, watermarkDate) && !hasItemsBefore(proposedItems, watermarkDate)) {
+                // Nothing to skip
+                continue;
+            }
+
+            final InvoiceItemTreeSnapshotModelDao previousSnapshot = snapshots.get(subscriptionId);
+            if (previousSnapshot != null && previousSnapshot.getWatermarkDate().compareTo(watermarkDate) == 0) {
+                // Same reconciled state: the previous snapshot stays valid (the items created since its last item are verified on each run)
+                continue;
+            }
+
+            if (lastItem == null) {
+                lastItem = lastItemSupplier.get();
+                // Items were created since ours were loaded: not knowing whether they were reconciled, don't record anything
+                if (lastItem == null || !existingItemsById.containsKey(lastItem.getId())) {
+                    return ImmutableList.<InvoiceItemTreeSnapshotModelDao>of();
+                }
+            }
+            result.add(new InvoiceItemTreeSnapshotModelDao(subscriptionId,
+                                                           watermarkDate,
+                                                           lastItem.getRecordId(),
+                                                           lastItem.getId(),
+                                                           digest(proposedItems, watermarkDate)));
+        }
+        return result;
+    }
+
+    // Whether an item created after the last item of the snapshot affects the items before the watermark (e.g. adjustment, repair)
+    private boolean hasNewItemsBefore(final Iterable<InvoiceItemModelDao> itemsToVerify, final Long lastItemRecordId, final LocalDate watermarkDate) {
+        for (final InvoiceItemModelDao itemToVerify : itemsToVerify) {
+            if (itemToVerify.getRecordId() <= lastItemRecordId) {
+                continue;
+            }
+            final InvoiceItem item = InvoiceItemFactory.fromModelDao(itemToVerify);
+            if (isBefore(getReferenceItem(item), watermarkDate) || isStraddling(item, watermarkDate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Move the date back until no recurring or repair item straddles it
+    private LocalDate getCleanCut(final Collection<InvoiceItem> existingItems, final Collection<InvoiceItem> proposedItems, final LocalDate date) {
+        LocalDate cleanCut = date;
+        boolean isClean = false;
+        while (!isClean) {
+            isClean = true;
+            for (final InvoiceItem item : Iterables.<InvoiceItem>concat(existingItems, proposedItems)) {
+                if (isStraddling(item, cleanCut)) {
+                    cleanCut = item.getStartDate();
+                    isClean = false;
+                }
+            }
+        }
+        return cleanCut;
+    }
+
+    private boolean isCleanCut(final Iterable<InvoiceItem> items, final LocalDate date) {
+        for (final InvoiceItem item : items) {
+            if (isStraddling(item, date)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean hasItemsBefore(final Iterable<InvoiceItem> items, final LocalDate date) {
+        for (final InvoiceItem item : items) {
+            if (isBefore(getReferenceItem(item), date)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private LocalDate getLastDate(final Iterable<InvoiceItem> items, @Nullable final LocalDate initialDate) {
+        LocalDate lastDate = initialDate;
+        for (final InvoiceItem item : items) {
+            final LocalDate date = item.getEndDate() != null ? item.getEndDate() : item.getStartDate().plusDays(1);
+            if (lastDate == null || date.compareTo(lastDate) > 0) {
+                lastDate = date;
+            }
+        }
+        return lastDate;
+    }
+
+    // Order-independent digest of the proposed items before the date
+    private long digest(final Iterable<InvoiceItem> items, final LocalDate date) {
+        long digest = 0L;
+        for (final InvoiceItem item : items) {
+            if (!isBefore(getReferenceItem(item), date)) {
+                continue;
+            }
+
+            final StringBuilder sb = new StringBuilder();
+            sb.append(item.getInvoiceItemType()).append('|')
+              .append(item.getStartDate()).append('|')
+              .append(item.getEndDate()).append('|')
+              .append(toString(item.getAmount())).append('|')
+              .append(toString(item.getRate())).append('|')
+              .append(item.getCurrency()).append('|')
+              .append(item.getPlanName()).append('|')
+              .append(item.getPhaseName());
+            digest += HASH_FUNCTION.hashString(sb, Charsets.UTF_8).asLong();
+        }
+        return digest;
+    }
+
+    private static String toString(@Nullable final BigDecimal value) {
+        return value == null ? null : value.stripTrailingZeros().toPlainString();
+    }
+
+    // Adjustments and repairs follow the item they are linked to
+    private InvoiceItem getReferenceItem(final InvoiceItem item) {
+        if (item.getInvoiceItemType() == InvoiceItemType.ITEM_ADJ || item.getInvoiceItemType() == InvoiceItemType.REPAIR_ADJ) {
+            final InvoiceItem linkedItem = existingItemsById.get(item.getLinkedItemId());
+            return linkedItem != null ? linkedItem : item;
+        }
+        return item;
+    }
+
+    // Only items which end up in a SubscriptionItemTree (see AccountItemTree#addExistingItem) have a subscription
+    @Nullable
+    private UUID getSubscriptionId(final InvoiceItem item) {
+        switch (item.getInvoiceItemType()) {
+            case RECURRING:
+            case FIXED:
+                return item.getSubscriptionId();
+            case ITEM_ADJ:
+            case REPAIR_ADJ:
+                final InvoiceItem linkedItem = existingItemsById.get(item.getLinkedItemId());
+                if (linkedItem != null &&
+                    (linkedItem.getInvoiceItemType() == InvoiceItemType.RECURRING || linkedItem.getInvoiceItemType() == InvoiceItemType.FIXED)) {
+                    return linkedItem.getSubscriptionId();
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isBefore(final InvoiceItem item, final LocalDate date) {
+        if (item.getInvoiceItemType() == InvoiceItemType.FIXED || item.getEndDate() == null) {
+            return item.getStartDate().compareTo(date) < 0;
+        }
+        return item.getEndDate().compareTo(date) <= 0;
+    }
+
+    private static boolean isStraddling(final InvoiceItem item, final LocalDate date) {
+        return (item.getInvoiceItemType() == InvoiceItemType.RECURRING || item.getInvoiceItemType() == InvoiceItemType.REPAIR_ADJ) &&
+               item.getEndDate() != null &&
+               item.getStartDate().compareTo(date) < 0 &&
+               item.getEndDate().compareTo(date) > 0;
+    }
+}
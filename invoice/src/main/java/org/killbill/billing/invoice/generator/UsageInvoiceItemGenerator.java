@@ -23,6 +23,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.Nullable;
 
@@ -61,10 +63,12 @@ public class UsageInvoiceItemGenerator extends InvoiceItemGenerator {
     private static final Logger log = LoggerFactory.getLogger(UsageInvoiceItemGenerator.class);
 
     private final RawUsageOptimizer rawUsageOptimizer;
+    private final InvoiceGeneratorExecutor invoiceGeneratorExecutor;
 
     @Inject
-    public UsageInvoiceItemGenerator(final RawUsageOptimizer rawUsageOptimizer) {
+    public UsageInvoiceItemGenerator(final RawUsageOptimizer rawUsageOptimizer, final InvoiceGeneratorExecutor invoiceGeneratorExecutor) {
         this.rawUsageOptimizer = rawUsageOptimizer;
+        this.invoiceGeneratorExecutor = invoiceGeneratorExecutor;
     }
 
     @Override
@@ -77,72 +81,91 @@ public class UsageInvoiceItemGenerator extends InvoiceItemGenerator {
                                            final Map<UUID, SubscriptionFutureNotificationDates> perSubscriptionFutureNotificationDates,
                                            final InternalCallContext internalCallContext) throws InvoiceApiException {
         final Map<UUID, List<InvoiceItem>> perSubscriptionInArrearUsageItems = extractPerSubscriptionExistingInArrearUsageItems(eventSet.getUsages(), existingInvoices);
-        try {
-            // Pretty-print the generated invoice items from the junction events
-            final InvoiceItemGeneratorLogger invoiceItemGeneratorLogger = new InvoiceItemGeneratorLogger(invoiceId, account.getId(), "usage", log);
-
-            final LocalDate minBillingEventDate = getMinBillingEventDate(eventSet, internalCallContext);
-
-            final List<InvoiceItem> items = Lists.newArrayList();
-            final Iterator<BillingEvent> events = eventSet.iterator();
-
-            RawUsageOptimizerResult rawUsageOptimizerResult = null;
-            List<BillingEvent> curEvents = Lists.newArrayList();
-            UUID curSubscriptionId = null;
-            while (events.hasNext()) {
-                final BillingEvent event = events.next();
-                // Skip events that are posterior to the targetDate
-                final LocalDate eventLocalEffectiveDate = internalCallContext.toLocalDate(event.getEffectiveDate());
-                if (eventLocalEffectiveDate.isAfter(targetDate)) {
-                    continue;
-                }
 
-                // Optimize to do the usage query only once after we know there are indeed some usage items
-                if (rawUsageOptimizerResult == null &&
-                    Iterables.any(event.getUsages(), new Predicate<Usage>() {
-                        @Override
-                        public boolean apply(@Nullable final Usage input) {
-                            return input.getBillingMode() == BillingMode.IN_ARREAR;
-                        }
-                    })) {
-                    rawUsageOptimizerResult = rawUsageOptimizer.getInArrearUsage(minBillingEventDate, targetDate, Iterables.concat(perSubscriptionInArrearUsageItems.values()), eventSet.getUsages(), internalCallContext);
-                }
+        // Pretty-print the generated invoice items from the junction events
+        final InvoiceItemGeneratorLogger invoiceItemGeneratorLogger = new InvoiceItemGeneratorLogger(invoiceId, account.getId(), "usage", log);
 
-                // None of the billing events report any usage IN_ARREAR sections
-                if (rawUsageOptimizerResult == null) {
-                    continue;
-                }
+        final LocalDate minBillingEventDate = getMinBillingEventDate(eventSet, internalCallContext);
 
-                final UUID subscriptionId = event.getSubscription().getId();
-                if (curSubscriptionId != null && !curSubscriptionId.equals(subscriptionId)) {
-                    final SubscriptionUsageInArrear subscriptionUsageInArrear = new SubscriptionUsageInArrear(account.getId(), invoiceId, curEvents, rawUsageOptimizerResult.getRawUsage(), targetDate, rawUsageOptimizerResult.getRawUsageStartDate(), internalCallContext);
-                    final List<InvoiceItem> usageInArrearItems = perSubscriptionInArrearUsageItems.get(curSubscriptionId);
+        final Iterator<BillingEvent> events = eventSet.iterator();
 
-                    final SubscriptionUsageInArrearItemsAndNextNotificationDate subscriptionResult = subscriptionUsageInArrear.computeMissingUsageInvoiceItems(usageInArrearItems != null ? usageInArrearItems : ImmutableList.<InvoiceItem>of(), invoiceItemGeneratorLogger);
-                    final List<InvoiceItem> newInArrearUsageItems = subscriptionResult.getInvoiceItems();
-                    items.addAll(newInArrearUsageItems);
-                    updatePerSubscriptionNextNotificationUsageDate(curSubscriptionId, subscriptionResult.getPerUsageNotificationDates(), BillingMode.IN_ARREAR, perSubscriptionFutureNotificationDates);
-                    curEvents = Lists.newArrayList();
-                }
-                curSubscriptionId = subscriptionId;
-                curEvents.add(event);
+        RawUsageOptimizerResult rawUsageOptimizerResult = null;
+        final List<List<BillingEvent>> perSubscriptionEvents = Lists.newArrayList();
+        List<BillingEvent> curEvents = Lists.newArrayList();
+        UUID curSubscriptionId = null;
+        while (events.hasNext()) {
+            final BillingEvent event = events.next();
+            // Skip events that are posterior to the targetDate
+            final LocalDate eventLocalEffectiveDate = internalCallContext.toLocalDate(event.getEffectiveDate());
+            if (eventLocalEffectiveDate.isAfter(targetDate)) {
+                continue;
+            }
+
+            // Optimize to do the usage query only once after we know there are indeed some usage items
+            if (rawUsageOptimizerResult == null &&
+                Iterables.any(event.getUsages(), new Predicate<Usage>() {
+                    @Override
+                    public boolean apply(@Nullable final Usage input) {
+                        return input.getBillingMode() == BillingMode.IN_ARREAR;
+                    }
+                })) {
+                rawUsageOptimizerResult = rawUsageOptimizer.getInArrearUsage(minBillingEventDate, targetDate, Iterables.concat(perSubscriptionInArrearUsageItems.values()), eventSet.getUsages(), internalCallContext);
             }
-            if (curSubscriptionId != null) {
-                final SubscriptionUsageInArrear subscriptionUsageInArrear = new SubscriptionUsageInArrear(account.getId(), invoiceId, curEvents, rawUsageOptimizerResult.getRawUsage(), targetDate, rawUsageOptimizerResult.getRawUsageStartDate(), internalCallContext);
-                final List<InvoiceItem> usageInArrearItems = perSubscriptionInArrearUsageItems.get(curSubscriptionId);
-
-                final SubscriptionUsageInArrearItemsAndNextNotificationDate subscriptionResult = subscriptionUsageInArrear.computeMissingUsageInvoiceItems(usageInArrearItems != null ? usageInArrearItems : ImmutableList.<InvoiceItem>of(), invoiceItemGeneratorLogger);
-                final List<InvoiceItem> newInArrearUsageItems = subscriptionResult.getInvoiceItems();
-                items.addAll(newInArrearUsageItems);
-                updatePerSubscriptionNextNotificationUsageDate(curSubscriptionId, subscriptionResult.getPerUsageNotificationDates(), BillingMode.IN_ARREAR, perSubscriptionFutureNotificationDates);
+
+            // None of the billing events report any usage IN_ARREAR sections
+            if (rawUsageOptimizerResult == null) {
+                continue;
             }
 
-            invoiceItemGeneratorLogger.logItems();
+            final UUID subscriptionId = event.getSubscription().getId();
+            if (curSubscriptionId != null && !curSubscriptionId.equals(subscriptionId)) {
+                perSubscriptionEvents.add(curEvents);
+                curEvents = Lists.newArrayList();
+            }
+            curSubscriptionId = subscriptionId;
+            curEvents.add(event);
+        }
+        if (curSubscriptionId != null) {
+            perSubscriptionEvents.add(curEvents);
+        }
 
+        final List<InvoiceItem> items = Lists.newArrayList();
+        if (perSubscriptionEvents.isEmpty()) {
             return items;
-        } catch (final CatalogApiException e) {
-            throw new InvoiceApiException(e);
         }
+
+        // The usage items for each subscription can be computed independently
+        final RawUsageOptimizerResult subscriptionsRawUsageOptimizerResult = rawUsageOptimizerResult;
+        final List<Callable<SubscriptionUsageItems>> tasks = Lists.newArrayListWithCapacity(perSubscriptionEvents.size());
+        for (final List<BillingEvent> subscriptionEvents : perSubscriptionEvents) {
+            tasks.add(new Callable<SubscriptionUsageItems>() {
+                @Override
+                public SubscriptionUsageItems call() throws InvoiceApiException {
+                    final UUID subscriptionId = subscriptionEvents.get(0).getSubscription().getId();
+                    final InvoiceItemGeneratorLogger subscriptionInvoiceItemGeneratorLogger = new InvoiceItemGeneratorLogger(invoiceId, account.getId(), "usage", log);
+                    final SubscriptionUsageInArrear subscriptionUsageInArrear = new SubscriptionUsageInArrear(account.getId(), invoiceId, subscriptionEvents, subscriptionsRawUsageOptimizerResult.getRawUsage(), targetDate, subscriptionsRawUsageOptimizerResult.getRawUsageStartDate(), internalCallContext);
+                    final List<InvoiceItem> usageInArrearItems = perSubscriptionInArrearUsageItems.get(subscriptionId);
+
+                    try {
+                        final SubscriptionUsageInArrearItemsAndNextNotificationDate subscriptionResult = subscriptionUsageInArrear.computeMissingUsageInvoiceItems(usageInArrearItems != null ? usageInArrearItems : ImmutableList.<InvoiceItem>of(), subscriptionInvoiceItemGeneratorLogger);
+                        return new SubscriptionUsageItems(subscriptionId, subscriptionResult, subscriptionInvoiceItemGeneratorLogger);
+                    } catch (final CatalogApiException e) {
+                        throw new InvoiceApiException(e);
+                    }
+                }
+            });
+        }
+
+        // Merge the results in the order of the billing events
+        for (final SubscriptionUsageItems subscriptionUsageItems : InvoiceGeneratorExecutor.invokeAll(invoiceGeneratorExecutor.getExecutorService(internalCallContext), tasks)) {
+            items.addAll(subscriptionUsageItems.getSubscriptionResult().getInvoiceItems());
+            updatePerSubscriptionNextNotificationUsageDate(subscriptionUsageItems.getSubscriptionId(), subscriptionUsageItems.getSubscriptionResult().getPerUsageNotificationDates(), BillingMode.IN_ARREAR, perSubscriptionFutureNotificationDates);
+            invoiceItemGeneratorLogger.append(subscriptionUsageItems.getInvoiceItemGeneratorLogger());
+        }
+
+        invoiceItemGeneratorLogger.logItems();
+
+        return items;
     }
 
     private LocalDate getMinBillingEventDate(final BillingEventSet eventSet, final InternalCallContext internalCallContext) {
@@ -203,4 +226,29 @@ public class UsageInvoiceItemGenerator extends InvoiceItemGenerator {
         }
         return result;
     }
+
+    private static final class SubscriptionUsageItems {
+
+        private final UUID subscriptionId;
+        private final SubscriptionUsageInArrearItemsAndNextNotificationDate subscriptionResult;
+        private final InvoiceItemGeneratorLogger invoiceItemGeneratorLogger;
+
+        private SubscriptionUsageItems(final UUID subscriptionId, final SubscriptionUsageInArrearItemsAndNextNotificationDate subscriptionResult, final InvoiceItemGeneratorLogger invoiceItemGeneratorLogger) {
+            this.subscriptionId = subscriptionId;
+            this.subscriptionResult = subscriptionResult;
+            this.invoiceItemGeneratorLogger = invoiceItemGeneratorLogger;
+        }
+
+        public UUID getSubscriptionId() {
+            return subscriptionId;
+        }
+
+        public SubscriptionUsageInArrearItemsAndNextNotificationDate getSubscriptionResult() {
+            return subscriptionResult;
+        }
+
+        public InvoiceItemGeneratorLogger getInvoiceItemGeneratorLogger() {
+            return invoiceItemGeneratorLogger;
+        }
+    }
 }
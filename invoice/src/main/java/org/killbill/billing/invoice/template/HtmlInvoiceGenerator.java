@@ -18,6 +18,8 @@ package org.killbill.billing.invoice.template;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.Locale;
@@ -34,10 +36,11 @@ import org.killbill.billing.invoice.api.formatters.InvoiceFormatter;
 import org.killbill.billing.invoice.api.formatters.InvoiceFormatterFactory;
 import org.killbill.billing.invoice.api.formatters.ResourceBundleFactory;
 import org.killbill.billing.invoice.api.formatters.ResourceBundleFactory.ResourceBundleType;
+import org.killbill.billing.invoice.template.InvoiceTemplateCache.Builder;
 import org.killbill.billing.invoice.template.translator.DefaultInvoiceTranslator;
-import org.killbill.billing.tenant.api.TenantInternalApi;
+import org.killbill.billing.tenant.api.TenantKV.TenantKey;
 import org.killbill.billing.util.LocaleUtils;
-import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.email.templates.CompiledTemplate;
 import org.killbill.billing.util.email.templates.TemplateEngine;
 import org.killbill.billing.util.io.IOUtils;
 import org.killbill.billing.util.template.translation.TranslatorConfig;
@@ -52,7 +55,7 @@ public class HtmlInvoiceGenerator {
     private final TranslatorConfig config;
     private final CurrencyConversionApi currencyConversionApi;
     private final TemplateEngine templateEngine;
-    private final TenantInternalApi tenantApi;
+    private final InvoiceTemplateCache invoiceTemplateCache;
     private final ResourceBundleFactory bundleFactory;
 
     @Inject
@@ -61,13 +64,13 @@ public class HtmlInvoiceGenerator {
                                 final TranslatorConfig config,
                                 final CurrencyConversionApi currencyConversionApi,
                                 final ResourceBundleFactory bundleFactory,
-                                final TenantInternalApi tenantInternalApi) {
+                                final InvoiceTemplateCache invoiceTemplateCache) {
         this.factory = factory;
         this.config = config;
         this.currencyConversionApi = currencyConversionApi;
         this.templateEngine = templateEngine;
         this.bundleFactory = bundleFactory;
-        this.tenantApi = tenantInternalApi;
+        this.invoiceTemplateCache = invoiceTemplateCache;
     }
 
     public HtmlInvoice generateInvoice(final Account account, @Nullable final Invoice invoice, final boolean manualPay, final InternalTenantContext context) throws IOException {
@@ -76,10 +79,22 @@ public class HtmlInvoiceGenerator {
             return null;
         }
 
+        final HtmlInvoice invoiceData = new HtmlInvoice();
+        final StringWriter body = new StringWriter();
+        invoiceData.setSubject(generateInvoice(account, invoice, manualPay, body, context));
+        invoiceData.setBody(body.toString());
+        return invoiceData;
+    }
+
+    /**
+     * Render the invoice directly into the writer
+     *
+     * @return the invoice email subject
+     */
+    public String generateInvoice(final Account account, final Invoice invoice, final boolean manualPay, final Writer writer, final InternalTenantContext context) throws IOException {
         final String accountLocale = Strings.emptyToNull(account.getLocale());
         final Locale locale = accountLocale == null ? Locale.getDefault() : LocaleUtils.toLocale(accountLocale);
 
-        final HtmlInvoice invoiceData = new HtmlInvoice();
         final Map<String, Object> data = new HashMap<String, Object>();
 
         final ResourceBundle invoiceBundle = accountLocale != null ?
@@ -93,23 +108,25 @@ public class HtmlInvoiceGenerator {
         final InvoiceFormatter formattedInvoice = factory.createInvoiceFormatter(config, invoice, locale, currencyConversionApi, bundleFactory, context);
         data.put("invoice", formattedInvoice);
 
-        invoiceData.setSubject(invoiceTranslator.getInvoiceEmailSubject());
-        final String templateText = getTemplateText(locale, manualPay, context);
-        invoiceData.setBody(templateEngine.executeTemplateText(templateText, data));
-        return invoiceData;
+        getTemplate(manualPay, context).execute(data, writer);
+        return invoiceTranslator.getInvoiceEmailSubject();
     }
 
-    private String getTemplateText(final Locale locale, final boolean manualPay, final InternalTenantContext context) throws IOException {
-
-        if (InternalCallContextFactory.INTERNAL_TENANT_RECORD_ID.equals(context.getTenantRecordId())) {
-            return getDefaultTemplate(manualPay ? config.getManualPayTemplateName() : config.getTemplateName());
-        }
-        final String template = manualPay ?
-                                tenantApi.getManualPayInvoiceTemplate(locale, context) :
-                                tenantApi.getInvoiceTemplate(locale, context);
-        return template == null ?
-               getDefaultTemplate(manualPay ? config.getManualPayTemplateName() : config.getTemplateName()) :
-               template;
+    private CompiledTemplate getTemplate(final boolean manualPay, final InternalTenantContext context) {
+        // Note: the invoice templates are not (yet) localized
+        final TenantKey tenantKey = manualPay ? TenantKey.INVOICE_MP_TEMPLATE : TenantKey.INVOICE_TEMPLATE;
+        final String templateText = invoiceTemplateCache.getTenantValue(tenantKey.toString(), context);
+        return invoiceTemplateCache.get(tenantKey.toString(),
+                                        templateText,
+                                        new Builder<CompiledTemplate>() {
+                                            @Override
+                                            public CompiledTemplate build(@Nullable final String tenantTemplateText) throws IOException {
+                                                return templateEngine.compileTemplateText(tenantTemplateText == null ?
+                                                                                          getDefaultTemplate(manualPay ? config.getManualPayTemplateName() : config.getTemplateName()) :
+                                                                                          tenantTemplateText);
+                                            }
+                                        },
+                                        context);
     }
 
     private String getDefaultTemplate(final String templateName) throws IOException {
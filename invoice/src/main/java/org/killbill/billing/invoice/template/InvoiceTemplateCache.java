@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.invoice.template;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.util.cache.Cachable.CacheType;
+import org.killbill.billing.util.cache.CacheController;
+import org.killbill.billing.util.cache.CacheControllerDispatcher;
+import org.killbill.billing.util.cache.CacheLoaderArgument;
+import org.killbill.billing.util.cache.InvoiceTemplateCacheLoader.LoaderCallback;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+
+import com.google.common.base.Objects;
+
+/**
+ * Per-tenant cache of the objects built from the invoice templates and translations (compiled templates, resource bundles).
+ * <p/>
+ * The raw per-tenant values are read through the tenant KV cache, which is invalidated when they are uploaded (and on the other
+ * nodes through the tenant broadcast mechanism). Each cached object remembers the raw value it was built from, and is rebuilt
+ * as soon as that value changes.
+ */
+public class InvoiceTemplateCache {
+
+    private final CacheController<String, String> tenantKVCache;
+    private final CacheController<String, Object> invoiceTemplateCache;
+
+    @Inject
+    public InvoiceTemplateCache(final CacheControllerDispatcher cacheControllerDispatcher) {
+        this.tenantKVCache = cacheControllerDispatcher.getCacheController(CacheType.TENANT_KV);
+        this.invoiceTemplateCache = cacheControllerDispatcher.getCacheController(CacheType.INVOICE_TEMPLATE);
+    }
+
+    // Raw (single) value for that tenant key, null if it isn't configured
+    public String getTenantValue(final String key, final InternalTenantContext context) {
+        if (InternalCallContextFactory.INTERNAL_TENANT_RECORD_ID.equals(context.getTenantRecordId())) {
+            return null;
+        }
+        return tenantKVCache.get(getCacheKey(key, context), new CacheLoaderArgument(ObjectType.TENANT_KVS));
+    }
+
+    // Object built from tenantValue (which should be the current value returned by getTenantValue) by the builder
+    public <T> T get(final String key, @Nullable final String tenantValue, final Builder<T> builder, final InternalTenantContext context) {
+        final String cacheKey = getCacheKey(key, context);
+        final LoaderCallback loaderCallback = new LoaderCallback() {
+            @Override
+            public Object loadInvoiceTemplate(final String cacheKey) throws IOException {
+                return new Entry(tenantValue, builder.build(tenantValue));
+            }
+        };
+        final CacheLoaderArgument cacheLoaderArgument = new CacheLoaderArgument(null, new Object[]{loaderCallback}, context);
+
+        Entry entry = (Entry) invoiceTemplateCache.get(cacheKey, cacheLoaderArgument);
+        if (!entry.isBuiltFrom(tenantValue)) {
+            // The tenant value was updated since the object was built
+            invoiceTemplateCache.remove(cacheKey);
+            entry = (Entry) invoiceTemplateCache.get(cacheKey, cacheLoaderArgument);
+        }
+        return (T) entry.getValue();
+    }
+
+    // Same format as the tenant KV cache key (see TenantCacheInvalidationCallback)
+    private String getCacheKey(final String key, final InternalTenantContext context) {
+        return key + CacheControllerDispatcher.CACHE_KEY_SEPARATOR + context.getTenantRecordId();
+    }
+
+    public interface Builder<T> {
+
+        // tenantValue is null when the tenant doesn't have any specific configuration
+        T build(@Nullable final String tenantValue) throws IOException;
+    }
+
+    private static final class Entry {
+
+        private final String tenantValue;
+        private final Object value;
+
+        private Entry(@Nullable final String tenantValue, @Nullable final Object value) {
+            this.tenantValue = tenantValue;
+            this.value = value;
+        }
+
+        // Values coming from the tenant KV cache are usually the same instances, so this is cheap
+        private boolean isBuiltFrom(@Nullable final String otherTenantValue) {
+            return Objects.equal(tenantValue, otherTenantValue);
+        }
+
+        private Object getValue() {
+            return value;
+        }
+    }
+}
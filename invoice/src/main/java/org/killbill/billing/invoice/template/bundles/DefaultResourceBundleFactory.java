@@ -26,12 +26,16 @@ import java.util.MissingResourceException;
 import java.util.PropertyResourceBundle;
 import java.util.ResourceBundle;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.invoice.api.formatters.ResourceBundleFactory;
-import org.killbill.billing.tenant.api.TenantInternalApi;
-import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.invoice.template.InvoiceTemplateCache;
+import org.killbill.billing.invoice.template.InvoiceTemplateCache.Builder;
+import org.killbill.billing.tenant.api.TenantKV.TenantKey;
+import org.killbill.billing.util.LocaleUtils;
+import org.killbill.billing.util.cache.CacheControllerDispatcher;
 import org.killbill.xmlloader.UriAccessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,19 +46,30 @@ public class DefaultResourceBundleFactory implements ResourceBundleFactory {
 
     private static final Logger logger = LoggerFactory.getLogger(DefaultResourceBundleFactory.class);
 
-    private final TenantInternalApi tenantApi;
+    private final InvoiceTemplateCache invoiceTemplateCache;
 
     @Inject
-    public DefaultResourceBundleFactory(final TenantInternalApi tenantApi) {
-        this.tenantApi = tenantApi;
+    public DefaultResourceBundleFactory(final InvoiceTemplateCache invoiceTemplateCache) {
+        this.invoiceTemplateCache = invoiceTemplateCache;
     }
 
     @Override
     public ResourceBundle createBundle(final Locale locale, final String bundlePath, final ResourceBundleType type, final InternalTenantContext tenantContext) {
-        if (InternalCallContextFactory.INTERNAL_TENANT_RECORD_ID.equals(tenantContext.getTenantRecordId())) {
-            return getGlobalBundle(locale, bundlePath);
-        }
-        final String bundle = getTenantBundleForType(locale, type, tenantContext);
+        final String tenantKey = getTenantKeyForType(locale, type);
+        // Parsed bundles are cached, the tenant bundle is only de-serialized again when it changes
+        final String bundle = tenantKey == null ? null : invoiceTemplateCache.getTenantValue(tenantKey, tenantContext);
+        return invoiceTemplateCache.get((tenantKey == null ? type.toString() : tenantKey) + CacheControllerDispatcher.CACHE_KEY_SEPARATOR + bundlePath,
+                                        bundle,
+                                        new Builder<ResourceBundle>() {
+                                            @Override
+                                            public ResourceBundle build(@Nullable final String tenantBundle) {
+                                                return createBundle(locale, bundlePath, tenantBundle, tenantContext);
+                                            }
+                                        },
+                                        tenantContext);
+    }
+
+    private ResourceBundle createBundle(final Locale locale, final String bundlePath, @Nullable final String bundle, final InternalTenantContext tenantContext) {
         if (bundle != null) {
             try {
                 return new PropertyResourceBundle(new ByteArrayInputStream(bundle.getBytes(Charsets.UTF_8)));
@@ -66,13 +81,13 @@ public class DefaultResourceBundleFactory implements ResourceBundleFactory {
         return getGlobalBundle(locale, bundlePath);
     }
 
-    private String getTenantBundleForType(final Locale locale, final ResourceBundleType type, final InternalTenantContext tenantContext) {
+    private String getTenantKeyForType(final Locale locale, final ResourceBundleType type) {
         switch (type) {
             case CATALOG_TRANSLATION:
-                return tenantApi.getCatalogTranslation(locale, tenantContext);
+                return LocaleUtils.localeString(locale, TenantKey.CATALOG_TRANSLATION_.toString());
 
             case INVOICE_TRANSLATION:
-                return tenantApi.getInvoiceTranslation(locale, tenantContext);
+                return LocaleUtils.localeString(locale, TenantKey.INVOICE_TRANSLATION_.toString());
 
             default:
                 logger.warn("Unexpected bundle type {} ", type);
@@ -20,13 +20,21 @@ package org.killbill.billing.invoice.tree;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
+import javax.annotation.Nullable;
+
+import org.killbill.billing.invoice.api.InvoiceApiException;
 import org.killbill.billing.invoice.api.InvoiceItem;
 import org.killbill.billing.invoice.api.InvoiceItemType;
+import org.killbill.billing.invoice.generator.InvoiceGeneratorExecutor;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
@@ -39,7 +47,9 @@ import com.google.common.collect.Iterables;
  * associated to a given subscription. That also means that invoice item adjustment which cross subscriptions
  * can't be correctly handled when they compete with other forms of adjustments.
  * <p/>
- * <p>The class is not thread safe, there is no such use case today, and there is a lifecyle to respect:
+ * <p>The class is not thread safe, but the per-subscription logic can be dispatched on an (optional) executor,
+ * in which case results are still returned in the same order as with the sequential logic.
+ * There is a lifecyle to respect:
  * <ul>
  * <li>Add existing invoice items
  * <li>Build the tree,
@@ -52,14 +62,20 @@ public class AccountItemTree {
     private final UUID accountId;
     private final UUID targetInvoiceId;
     private final Map<UUID, SubscriptionItemTree> subscriptionItemTree;
+    private final ExecutorService executorService;
     private final List<InvoiceItem> allExistingItems;
     private List<InvoiceItem> pendingItemAdj;
 
     private boolean isBuilt;
 
     public AccountItemTree(final UUID accountId, final UUID targetInvoiceId) {
+        this(accountId, targetInvoiceId, null);
+    }
+
+    public AccountItemTree(final UUID accountId, final UUID targetInvoiceId, @Nullable final ExecutorService executorService) {
         this.accountId = accountId;
         this.targetInvoiceId = targetInvoiceId;
+        this.executorService = executorService;
         this.subscriptionItemTree = new HashMap<UUID, SubscriptionItemTree>();
         this.isBuilt = false;
         this.allExistingItems = new LinkedList<InvoiceItem>();
@@ -78,9 +94,17 @@ public class AccountItemTree {
             }
             pendingItemAdj.clear();
         }
-        for (SubscriptionItemTree tree : subscriptionItemTree.values()) {
-            tree.build();
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(subscriptionItemTree.size());
+        for (final SubscriptionItemTree tree : subscriptionItemTree.values()) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    tree.build();
+                    return null;
+                }
+            });
         }
+        invokeAll(tasks);
         isBuilt = true;
     }
 
@@ -154,32 +178,63 @@ public class AccountItemTree {
     public void mergeWithProposedItems(final List<InvoiceItem> proposedItems) {
 
         build();
-        for (SubscriptionItemTree tree : subscriptionItemTree.values()) {
-            tree.flatten(true);
-        }
+        final Set<UUID> existingSubscriptionIds = new HashSet<UUID>(subscriptionItemTree.keySet());
 
+        // Dispatch the proposed items first, the merge logic is then independent for each subscription
+        final Map<UUID, List<InvoiceItem>> proposedItemsPerSubscription = new HashMap<UUID, List<InvoiceItem>>();
         for (InvoiceItem item : proposedItems) {
             final UUID subscriptionId = getSubscriptionId(item, null);
-            SubscriptionItemTree tree = subscriptionItemTree.get(subscriptionId);
-            if (tree == null) {
-                tree = new SubscriptionItemTree(subscriptionId, targetInvoiceId);
-                subscriptionItemTree.put(subscriptionId, tree);
+            if (!subscriptionItemTree.containsKey(subscriptionId)) {
+                subscriptionItemTree.put(subscriptionId, new SubscriptionItemTree(subscriptionId, targetInvoiceId));
+            }
+            List<InvoiceItem> subscriptionProposedItems = proposedItemsPerSubscription.get(subscriptionId);
+            if (subscriptionProposedItems == null) {
+                subscriptionProposedItems = new LinkedList<InvoiceItem>();
+                proposedItemsPerSubscription.put(subscriptionId, subscriptionProposedItems);
             }
-            tree.mergeProposedItem(item);
+            subscriptionProposedItems.add(item);
         }
 
-        for (SubscriptionItemTree tree : subscriptionItemTree.values()) {
-            tree.buildForMerge();
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(subscriptionItemTree.size());
+        for (final Map.Entry<UUID, SubscriptionItemTree> entry : subscriptionItemTree.entrySet()) {
+            final boolean isExistingTree = existingSubscriptionIds.contains(entry.getKey());
+            final List<InvoiceItem> subscriptionProposedItems = proposedItemsPerSubscription.get(entry.getKey());
+            final SubscriptionItemTree tree = entry.getValue();
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    if (isExistingTree) {
+                        tree.flatten(true);
+                    }
+                    if (subscriptionProposedItems != null) {
+                        for (final InvoiceItem item : subscriptionProposedItems) {
+                            tree.mergeProposedItem(item);
+                        }
+                    }
+                    tree.buildForMerge();
+                    return null;
+                }
+            });
         }
+        invokeAll(tasks);
     }
 
     /**
      * @return the resulting list of items that should be written to disk
      */
     public List<InvoiceItem> getResultingItemList() {
+        final List<Callable<List<InvoiceItem>>> tasks = new ArrayList<Callable<List<InvoiceItem>>>(subscriptionItemTree.size());
+        for (final SubscriptionItemTree tree : subscriptionItemTree.values()) {
+            tasks.add(new Callable<List<InvoiceItem>>() {
+                @Override
+                public List<InvoiceItem> call() {
+                    return tree.getView();
+                }
+            });
+        }
+
         final List<InvoiceItem> result = new ArrayList<InvoiceItem>();
-        for (SubscriptionItemTree tree : subscriptionItemTree.values()) {
-            final List<InvoiceItem> simplifiedView = tree.getView();
+        for (final List<InvoiceItem> simplifiedView : invokeAll(tasks)) {
             if (simplifiedView.size() > 0) {
                 result.addAll(simplifiedView);
             }
@@ -210,6 +265,15 @@ public class AccountItemTree {
         }).orNull();
     }
 
+    private <T> List<T> invokeAll(final List<Callable<T>> tasks) {
+        try {
+            return InvoiceGeneratorExecutor.invokeAll(executorService, tasks);
+        } catch (final InvoiceApiException e) {
+            // Our tasks only throw unchecked exceptions
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("AccountItemTree{");
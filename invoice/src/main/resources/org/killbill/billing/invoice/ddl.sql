@@ -98,3 +98,34 @@ CREATE UNIQUE INDEX invoice_parent_children_id ON invoice_parent_children(id);
 CREATE INDEX invoice_parent_children_invoice_id ON invoice_parent_children(parent_invoice_id);
 CREATE INDEX invoice_parent_children_tenant_account_record_id ON invoice_parent_children(tenant_record_id, account_record_id);
 CREATE INDEX invoice_parent_children_child_invoice_id ON invoice_parent_children(child_invoice_id);
+
+DROP TABLE IF EXISTS invoice_account_balances;
+CREATE TABLE invoice_account_balances (
+    record_id serial unique,
+    account_id varchar(36) NOT NULL,
+    balance numeric(15,9) DEFAULT NULL,
+    cba numeric(15,9) DEFAULT NULL,
+    version bigint /*! unsigned */ not null,
+    created_date datetime NOT NULL,
+    updated_date datetime NOT NULL,
+    account_record_id bigint /*! unsigned */ not null,
+    tenant_record_id bigint /*! unsigned */ not null default 0,
+    PRIMARY KEY(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
+CREATE UNIQUE INDEX invoice_account_balances_tenant_account_record_id ON invoice_account_balances(tenant_record_id, account_record_id);
+
+DROP TABLE IF EXISTS invoice_item_tree_snapshots;
+CREATE TABLE invoice_item_tree_snapshots (
+    record_id serial unique,
+    subscription_id varchar(36) NOT NULL,
+    watermark_date date NOT NULL,
+    last_item_record_id bigint /*! unsigned */ not null,
+    last_item_id varchar(36) NOT NULL,
+    proposed_items_digest bigint NOT NULL,
+    created_date datetime NOT NULL,
+    updated_date datetime NOT NULL,
+    account_record_id bigint /*! unsigned */ not null,
+    tenant_record_id bigint /*! unsigned */ not null default 0,
+    PRIMARY KEY(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
+CREATE UNIQUE INDEX invoice_item_tree_snapshots_subscription_id ON invoice_item_tree_snapshots(tenant_record_id, account_record_id, subscription_id);
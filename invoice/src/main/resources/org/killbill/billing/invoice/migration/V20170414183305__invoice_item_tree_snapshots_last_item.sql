@@ -0,0 +1,15 @@
+DROP TABLE IF EXISTS invoice_item_tree_snapshots;
+CREATE TABLE invoice_item_tree_snapshots (
+    record_id serial unique,
+    subscription_id varchar(36) NOT NULL,
+    watermark_date date NOT NULL,
+    last_item_record_id bigint /*! unsigned */ not null,
+    last_item_id varchar(36) NOT NULL,
+    proposed_items_digest bigint NOT NULL,
+    created_date datetime NOT NULL,
+    updated_date datetime NOT NULL,
+    account_record_id bigint /*! unsigned */ not null,
+    tenant_record_id bigint /*! unsigned */ not null default 0,
+    PRIMARY KEY(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
+CREATE UNIQUE INDEX invoice_item_tree_snapshots_subscription_id ON invoice_item_tree_snapshots(tenant_record_id, account_record_id, subscription_id);
@@ -18,10 +18,13 @@
 
 package org.killbill.billing.invoice;
 
+import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -33,6 +36,7 @@ import org.killbill.billing.invoice.api.InvoiceItem;
 import org.killbill.billing.invoice.api.formatters.InvoiceFormatterFactory;
 import org.killbill.billing.invoice.template.HtmlInvoice;
 import org.killbill.billing.invoice.template.HtmlInvoiceGenerator;
+import org.killbill.billing.invoice.template.InvoiceTemplateCache.Builder;
 import org.killbill.billing.invoice.template.formatters.DefaultInvoiceFormatterFactory;
 import org.killbill.billing.util.email.templates.MustacheTemplateEngine;
 import org.killbill.billing.util.email.templates.TemplateEngine;
@@ -54,7 +58,7 @@ public class TestHtmlInvoiceGenerator extends InvoiceTestSuiteNoDB {
         final TranslatorConfig config = new ConfigurationObjectFactory(skifeConfigSource).build(TranslatorConfig.class);
         final TemplateEngine templateEngine = new MustacheTemplateEngine();
         final InvoiceFormatterFactory factory = new DefaultInvoiceFormatterFactory();
-        g = new HtmlInvoiceGenerator(factory, templateEngine, config, null, resourceBundleFactory, null);
+        g = new HtmlInvoiceGenerator(factory, templateEngine, config, null, resourceBundleFactory, invoiceTemplateCache);
     }
 
     @Test(groups = "fast")
@@ -74,6 +78,46 @@ public class TestHtmlInvoiceGenerator extends InvoiceTestSuiteNoDB {
         Assert.assertEquals(output.getSubject(), "Your invoice");
     }
 
+    @Test(groups = "fast")
+    public void testGenerateInvoiceToWriter() throws Exception {
+        final Account account = createAccount();
+        final Invoice invoice = createInvoice();
+
+        final StringWriter writer = new StringWriter();
+        final String subject = g.generateInvoice(account, invoice, false, writer, internalCallContext);
+        Assert.assertEquals(subject, "Your invoice");
+
+        // Second rendering uses the cached template
+        final HtmlInvoice output = g.generateInvoice(account, invoice, false, internalCallContext);
+        Assert.assertEquals(output.getBody(), writer.toString());
+    }
+
+    @Test(groups = "fast")
+    public void testInvoiceTemplateCache() throws Exception {
+        final AtomicInteger nbBuilds = new AtomicInteger();
+        final Builder<String> builder = new Builder<String>() {
+            @Override
+            public String build(final String tenantValue) {
+                nbBuilds.incrementAndGet();
+                return "built-" + tenantValue;
+            }
+        };
+        final String key = UUID.randomUUID().toString();
+
+        Assert.assertEquals(invoiceTemplateCache.get(key, "v1", builder, internalCallContext), "built-v1");
+        Assert.assertEquals(invoiceTemplateCache.get(key, "v1", builder, internalCallContext), "built-v1");
+        Assert.assertEquals(nbBuilds.get(), 1);
+
+        // The tenant value changed
+        Assert.assertEquals(invoiceTemplateCache.get(key, "v2", builder, internalCallContext), "built-v2");
+        Assert.assertEquals(nbBuilds.get(), 2);
+
+        // No tenant specific value anymore
+        Assert.assertEquals(invoiceTemplateCache.get(key, null, builder, internalCallContext), "built-null");
+        Assert.assertEquals(invoiceTemplateCache.get(key, null, builder, internalCallContext), "built-null");
+        Assert.assertEquals(nbBuilds.get(), 3);
+    }
+
     @Test(groups = "fast")
     public void testGenerateNullInvoice() throws Exception {
         final HtmlInvoice output = g.generateInvoice(createAccount(), null, false, internalCallContext);
@@ -272,6 +272,8 @@ public class TestInvoiceHelper {
 
     public void createInvoiceItem(final InvoiceItem invoiceItem, final InternalCallContext internalCallContext) throws EntityPersistenceException {
         invoiceItemSqlDao.create(new InvoiceItemModelDao(invoiceItem), internalCallContext);
+        // Rows inserted outside of the DAO aren't reflected in the account balance summary
+        invoiceDao.rebuildAccountBalanceSummary(invoiceItem.getAccountId(), false, internalCallContext);
     }
 
     public InvoiceItemModelDao getInvoiceItemById(final UUID invoiceItemId, final InternalCallContext internalCallContext) {
@@ -312,6 +314,11 @@ public class TestInvoiceHelper {
         } catch (final EntityPersistenceException e) {
             Assert.fail(e.getMessage());
         }
+
+        final InvoiceModelDao invoice = invoiceSqlDao.getById(invoicePayment.getInvoiceId().toString(), internalCallContext);
+        if (invoice != null) {
+            invoiceDao.rebuildAccountBalanceSummary(invoice.getAccountId(), false, internalCallContext);
+        }
     }
 
     public void verifyInvoice(final UUID invoiceId, final double balance, final double cbaAmount, final InternalTenantContext context) throws InvoiceApiException {
@@ -33,6 +33,7 @@ import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.invoice.InvoiceDispatcher.FutureAccountNotifications;
+import org.killbill.billing.invoice.api.AccountBalanceSummaryCheck;
 import org.killbill.billing.invoice.api.Invoice;
 import org.killbill.billing.invoice.api.InvoiceApiException;
 import org.killbill.billing.invoice.api.InvoiceStatus;
@@ -52,8 +53,10 @@ public class MockInvoiceDao extends MockEntityDaoBase<InvoiceModelDao, Invoice,
     private final Object monitor = new Object();
     private final Map<UUID, InvoiceModelDao> invoices = new LinkedHashMap<UUID, InvoiceModelDao>();
     private final Map<UUID, InvoiceItemModelDao> items = new LinkedHashMap<UUID, InvoiceItemModelDao>();
+    private long lastItemRecordId = 0;
     private final Map<UUID, InvoicePaymentModelDao> payments = new LinkedHashMap<UUID, InvoicePaymentModelDao>();
     private final BiMap<UUID, Long> accountRecordIds = HashBiMap.create();
+    private final Map<UUID, InvoiceItemTreeSnapshotModelDao> itemTreeSnapshots = new LinkedHashMap<UUID, InvoiceItemTreeSnapshotModelDao>();
 
     @Inject
     public MockInvoiceDao(final PersistentBus eventBus) {
@@ -98,7 +101,10 @@ public class MockInvoiceDao extends MockEntityDaoBase<InvoiceModelDao, Invoice,
         for (final InvoiceItemModelDao invoiceItemModelDao : invoice.getInvoiceItems()) {
             final InvoiceItemModelDao oldItemOrNull = items.put(invoiceItemModelDao.getId(), invoiceItemModelDao);
             if (oldItemOrNull == null) {
+                invoiceItemModelDao.setRecordId(++lastItemRecordId);
                 createdItems.add(invoiceItemModelDao);
+            } else {
+                invoiceItemModelDao.setRecordId(oldItemOrNull.getRecordId());
             }
         }
         accountRecordIds.put(invoice.getAccountId(), context.getAccountRecordId());
@@ -356,6 +362,16 @@ public class MockInvoiceDao extends MockEntityDaoBase<InvoiceModelDao, Invoice,
         return null;
     }
 
+    @Override
+    public Map<UUID, InvoiceAccountBalanceModelDao> getAccountBalances(final Collection<UUID> accountIds, final InternalTenantContext context) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public AccountBalanceSummaryCheck rebuildAccountBalanceSummary(final UUID accountId, final boolean dryRun, final InternalCallContext context) {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public InvoicePaymentModelDao createRefund(final UUID paymentId, final BigDecimal amount, final boolean isInvoiceAdjusted,
                                                final Map<UUID, BigDecimal> invoiceItemIdsWithAmounts, final String transactionExternalKey,
@@ -377,6 +393,43 @@ public class MockInvoiceDao extends MockEntityDaoBase<InvoiceModelDao, Invoice,
 
     }
 
+    @Override
+    public List<InvoiceItemTreeSnapshotModelDao> getItemTreeSnapshots(final InternalTenantContext context) {
+        synchronized (monitor) {
+            return new ArrayList<InvoiceItemTreeSnapshotModelDao>(itemTreeSnapshots.values());
+        }
+    }
+
+    @Override
+    public void saveItemTreeSnapshots(final List<InvoiceItemTreeSnapshotModelDao> snapshots, final InternalCallContext context) {
+        synchronized (monitor) {
+            for (final InvoiceItemTreeSnapshotModelDao snapshot : snapshots) {
+                itemTreeSnapshots.put(snapshot.getSubscriptionId(), snapshot);
+            }
+        }
+    }
+
+    @Override
+    public List<InvoiceItemModelDao> getInvoiceItemsFromRecordId(final Long recordId, final InternalTenantContext context) {
+        final List<InvoiceItemModelDao> result = new ArrayList<InvoiceItemModelDao>();
+        synchronized (monitor) {
+            final UUID accountId = accountRecordIds.inverse().get(context.getAccountRecordId());
+            for (final InvoiceItemModelDao item : items.values()) {
+                if (accountId.equals(item.getAccountId()) && item.getRecordId() >= recordId) {
+                    result.add(item);
+                }
+            }
+        }
+        // Items are stored in creation order
+        return result;
+    }
+
+    @Override
+    public InvoiceItemModelDao getLastInvoiceItem(final InternalCallContext context) {
+        final List<InvoiceItemModelDao> accountItems = getInvoiceItemsFromRecordId(0L, context);
+        return accountItems.isEmpty() ? null : accountItems.get(accountItems.size() - 1);
+    }
+
     @Override
     public void changeInvoiceStatus(final UUID invoiceId, final InvoiceStatus newState, final InternalCallContext context) throws InvoiceApiException {
         throw new UnsupportedOperationException();
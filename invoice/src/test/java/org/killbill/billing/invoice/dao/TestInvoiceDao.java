@@ -27,12 +27,14 @@ import java.util.Map;
 import java.util.UUID;
 
 import javax.annotation.Nullable;
+import javax.inject.Inject;
 
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
 import org.killbill.billing.ErrorCode;
 import org.killbill.billing.account.api.Account;
 import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.catalog.DefaultPrice;
 import org.killbill.billing.catalog.MockInternationalPrice;
 import org.killbill.billing.catalog.MockPlan;
@@ -47,6 +49,7 @@ import org.killbill.billing.catalog.api.PlanPhase;
 import org.killbill.billing.entity.EntityPersistenceException;
 import org.killbill.billing.invoice.InvoiceTestSuiteWithEmbeddedDB;
 import org.killbill.billing.invoice.MockBillingEventSet;
+import org.killbill.billing.invoice.api.AccountBalanceSummaryCheck;
 import org.killbill.billing.invoice.api.Invoice;
 import org.killbill.billing.invoice.api.InvoiceApiException;
 import org.killbill.billing.invoice.api.InvoiceItem;
@@ -72,6 +75,8 @@ import org.killbill.billing.subscription.api.SubscriptionBaseTransitionType;
 import org.killbill.billing.util.currency.KillBillMoney;
 import org.killbill.clock.ClockMock;
 import org.mockito.Mockito;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.tweak.HandleCallback;
 import org.skife.jdbi.v2.exceptions.TransactionFailedException;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
@@ -91,6 +96,9 @@ import static org.testng.Assert.assertTrue;
 
 public class TestInvoiceDao extends InvoiceTestSuiteWithEmbeddedDB {
 
+    @Inject
+    private AccountBalanceDao accountBalanceDao;
+
     private Account account;
     private InternalCallContext context;
 
@@ -531,6 +539,214 @@ public class TestInvoiceDao extends InvoiceTestSuiteWithEmbeddedDB {
         assertEquals(balance.compareTo(rate1.add(rate2).subtract(payment1)), 0);
     }
 
+    @Test(groups = "slow")
+    public void testAccountBalanceSummary() throws EntityPersistenceException {
+        final UUID accountId = account.getId();
+        final UUID bundleId = UUID.randomUUID();
+        final LocalDate targetDate1 = new LocalDate(2011, 10, 6);
+        final Invoice invoice1 = new DefaultInvoice(accountId, clock.getUTCToday(), targetDate1, Currency.USD);
+        invoiceUtil.createInvoice(invoice1, context);
+
+        final LocalDate startDate = new LocalDate(2011, 3, 1);
+        final LocalDate endDate = startDate.plusMonths(1);
+
+        final BigDecimal rate1 = new BigDecimal("17.0");
+        final RecurringInvoiceItem item1 = new RecurringInvoiceItem(invoice1.getId(), accountId, bundleId, UUID.randomUUID(), "test plan", "test phase A", startDate,
+                                                                    endDate, rate1, rate1, Currency.USD);
+        invoiceUtil.createInvoiceItem(item1, context);
+
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(rate1), 0);
+        assertEquals(invoiceDao.getAccountCBA(accountId, context).compareTo(BigDecimal.ZERO), 0);
+        assertEquals(getStoredAccountBalance().compareTo(rate1), 0);
+
+        // Rows inserted outside of the DAO are only reflected once the summary is rebuilt (see TestInvoiceHelper)
+        final BigDecimal payment1 = new BigDecimal("7.0");
+        final InvoicePayment payment = new DefaultInvoicePayment(InvoicePaymentType.ATTEMPT, UUID.randomUUID(), invoice1.getId(), new DateTime(), payment1, Currency.USD, Currency.USD, null, true);
+        invoiceUtil.createPayment(payment, context);
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(rate1.subtract(payment1)), 0);
+        assertEquals(getStoredAccountBalance().compareTo(rate1.subtract(payment1)), 0);
+
+        // Corrupt the summary: it is served as-is until rebuilt
+        final BigDecimal corruptedBalance = new BigDecimal("1000.0");
+        dbi.withHandle(new HandleCallback<Void>() {
+            @Override
+            public Void withHandle(final Handle handle) throws Exception {
+                handle.execute("update invoice_account_balances set balance = ? where account_record_id = ?", corruptedBalance, context.getAccountRecordId());
+                return null;
+            }
+        });
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(corruptedBalance), 0);
+
+        // A dry-run reports the difference, without fixing it
+        final AccountBalanceSummaryCheck dryRunCheck = invoiceDao.rebuildAccountBalanceSummary(accountId, true, context);
+        Assert.assertFalse(dryRunCheck.isConsistent());
+        Assert.assertFalse(dryRunCheck.isSaved());
+        assertEquals(dryRunCheck.getExistingBalance().compareTo(corruptedBalance), 0);
+        assertEquals(dryRunCheck.getRebuiltBalance().compareTo(rate1.subtract(payment1)), 0);
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(corruptedBalance), 0);
+
+        final AccountBalanceSummaryCheck check = invoiceDao.rebuildAccountBalanceSummary(accountId, false, context);
+        Assert.assertFalse(check.isConsistent());
+        assertTrue(check.isSaved());
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(rate1.subtract(payment1)), 0);
+        assertTrue(invoiceDao.rebuildAccountBalanceSummary(accountId, true, context).isConsistent());
+    }
+
+    @Test(groups = "slow")
+    public void testAccountBalances() throws Exception {
+        final UUID accountId = account.getId();
+        final Invoice invoice1 = new DefaultInvoice(accountId, clock.getUTCToday(), new LocalDate(2011, 10, 6), Currency.USD);
+        invoiceUtil.createInvoice(invoice1, context);
+
+        final LocalDate startDate = new LocalDate(2011, 3, 1);
+        final BigDecimal rate1 = new BigDecimal("17.0");
+        final RecurringInvoiceItem item1 = new RecurringInvoiceItem(invoice1.getId(), accountId, UUID.randomUUID(), UUID.randomUUID(), "test plan", "test phase A", startDate,
+                                                                    startDate.plusMonths(1), rate1, rate1, Currency.USD);
+        invoiceUtil.createInvoiceItem(item1, context);
+
+        // Computed summary for the first account, none for the second one
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(rate1), 0);
+        final UUID otherAccountId = invoiceUtil.createAccount(callContext).getId();
+        final InternalTenantContext tenantContext = internalCallContextFactory.createInternalTenantContextWithoutAccountRecordId(callContext);
+
+        final Map<UUID, InvoiceAccountBalanceModelDao> accountBalances = invoiceDao.getAccountBalances(ImmutableList.<UUID>of(accountId, otherAccountId), tenantContext);
+        assertEquals(accountBalances.size(), 2);
+        assertEquals(accountBalances.get(accountId).getBalance().compareTo(rate1), 0);
+        assertEquals(accountBalances.get(accountId).getCba().compareTo(BigDecimal.ZERO), 0);
+        assertEquals(accountBalances.get(otherAccountId).getBalance().compareTo(BigDecimal.ZERO), 0);
+        assertEquals(accountBalances.get(otherAccountId).getCba().compareTo(BigDecimal.ZERO), 0);
+
+        // The missing summary has been saved
+        final Long otherAccountRecordId = internalCallContextFactory.createInternalTenantContext(otherAccountId, callContext).getAccountRecordId();
+        final Integer nbStoredAccountBalances = dbi.withHandle(new HandleCallback<Integer>() {
+            @Override
+            public Integer withHandle(final Handle handle) throws Exception {
+                return handle.select("select record_id from invoice_account_balances where account_record_id = ?", otherAccountRecordId).size();
+            }
+        });
+        assertEquals(nbStoredAccountBalances, (Integer) 1);
+
+        // Cold summaries are all recomputed together
+        dbi.withHandle(new HandleCallback<Void>() {
+            @Override
+            public Void withHandle(final Handle handle) throws Exception {
+                handle.execute("delete from invoice_account_balances");
+                return null;
+            }
+        });
+        final Map<UUID, InvoiceAccountBalanceModelDao> recomputedAccountBalances = invoiceDao.getAccountBalances(ImmutableList.<UUID>of(accountId, otherAccountId), tenantContext);
+        assertEquals(recomputedAccountBalances.get(accountId).getBalance().compareTo(rate1), 0);
+        assertEquals(recomputedAccountBalances.get(otherAccountId).getBalance().compareTo(BigDecimal.ZERO), 0);
+        assertEquals(getStoredAccountBalance().compareTo(rate1), 0);
+    }
+
+    @Test(groups = "slow")
+    public void testAccountBalanceSummaryVersion() throws Exception {
+        final UUID accountId = account.getId();
+        final Invoice invoice1 = new DefaultInvoice(accountId, clock.getUTCToday(), new LocalDate(2011, 10, 6), Currency.USD);
+        invoiceUtil.createInvoice(invoice1, context);
+
+        final LocalDate startDate = new LocalDate(2011, 3, 1);
+        final BigDecimal rate1 = new BigDecimal("17.0");
+        final RecurringInvoiceItem item1 = new RecurringInvoiceItem(invoice1.getId(), accountId, UUID.randomUUID(), UUID.randomUUID(), "test plan", "test phase A", startDate,
+                                                                    startDate.plusMonths(1), rate1, rate1, Currency.USD);
+        invoiceUtil.createInvoiceItem(item1, context);
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(rate1), 0);
+        final Long initialVersion = accountBalanceDao.getAccountBalance(context).getVersion();
+
+        // DAO writes bump the version
+        invoiceDao.changeInvoiceStatus(invoice1.getId(), InvoiceStatus.DRAFT, context);
+        assertEquals(accountBalanceDao.getAccountBalance(context).getVersion(), (Long) (initialVersion + 1));
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(BigDecimal.ZERO), 0);
+        assertEquals(getStoredAccountBalance().compareTo(BigDecimal.ZERO), 0);
+
+        invoiceDao.changeInvoiceStatus(invoice1.getId(), InvoiceStatus.COMMITTED, context);
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(rate1), 0);
+
+        // A summary computed before a concurrent write isn't saved
+        final InvoiceAccountBalanceModelDao accountBalanceBeforeWrite = accountBalanceDao.getAccountBalance(context);
+        final InvoiceAccountBalanceModelDao staleAccountBalance = new InvoiceAccountBalanceModelDao(accountId, new BigDecimal("1000.0"), BigDecimal.ZERO,
+                                                                                                    accountBalanceBeforeWrite.getVersion(), clock.getUTCNow(),
+                                                                                                    context.getAccountRecordId(), context.getTenantRecordId());
+        invoiceDao.changeInvoiceStatus(invoice1.getId(), InvoiceStatus.DRAFT, context);
+        accountBalanceDao.saveAccountBalances(ImmutableList.<InvoiceAccountBalanceModelDao>of(staleAccountBalance));
+        assertEquals(getStoredAccountBalance().compareTo(BigDecimal.ZERO), 0);
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(BigDecimal.ZERO), 0);
+    }
+
+    @Test(groups = "slow")
+    public void testAccountBalanceSummaryDeltas() throws Exception {
+        final UUID accountId = account.getId();
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(BigDecimal.ZERO), 0);
+        assertEquals(getStoredAccountBalance().compareTo(BigDecimal.ZERO), 0);
+
+        // Each DAO write adds its own delta to the stored summary, without computing it again
+        final InvoiceModelDao invoiceForExternalCharge = new InvoiceModelDao(accountId, clock.getUTCToday(), clock.getUTCToday(), Currency.USD, false);
+        final BigDecimal chargeAmount = new BigDecimal("15.0");
+        invoiceForExternalCharge.addInvoiceItem(new InvoiceItemModelDao(new ExternalChargeInvoiceItem(invoiceForExternalCharge.getId(), accountId, UUID.randomUUID(), UUID.randomUUID().toString(),
+                                                                                                      clock.getUTCToday(), chargeAmount, Currency.USD)));
+        invoiceDao.createInvoices(ImmutableList.<InvoiceModelDao>of(invoiceForExternalCharge), context);
+        assertEquals(getStoredAccountBalance().compareTo(chargeAmount), 0);
+
+        final BigDecimal paymentAmount = new BigDecimal("10.0");
+        final DefaultInvoicePayment invoicePayment = new DefaultInvoicePayment(InvoicePaymentType.ATTEMPT, UUID.randomUUID(), invoiceForExternalCharge.getId(), clock.getUTCNow(), paymentAmount, Currency.USD, Currency.USD, "cookie", true);
+        invoiceDao.notifyOfPaymentCompletion(new InvoicePaymentModelDao(invoicePayment), context);
+        assertEquals(getStoredAccountBalance().compareTo(chargeAmount.subtract(paymentAmount)), 0);
+
+        invoiceDao.changeInvoiceStatus(invoiceForExternalCharge.getId(), InvoiceStatus.DRAFT, context);
+        assertEquals(getStoredAccountBalance().compareTo(BigDecimal.ZERO), 0);
+
+        invoiceDao.changeInvoiceStatus(invoiceForExternalCharge.getId(), InvoiceStatus.COMMITTED, context);
+        assertEquals(getStoredAccountBalance().compareTo(chargeAmount.subtract(paymentAmount)), 0);
+        assertEquals(invoiceDao.getAccountBalance(accountId, context).compareTo(chargeAmount.subtract(paymentAmount)), 0);
+
+        // The maintained summary matches the invoice rows
+        assertTrue(invoiceDao.rebuildAccountBalanceSummary(accountId, true, context).isConsistent());
+    }
+
+    private BigDecimal getStoredAccountBalance() {
+        return dbi.withHandle(new HandleCallback<BigDecimal>() {
+            @Override
+            public BigDecimal withHandle(final Handle handle) throws Exception {
+                return (BigDecimal) handle.select("select balance from invoice_account_balances where account_record_id = ?", context.getAccountRecordId()).get(0).get("balance");
+            }
+        });
+    }
+
+    @Test(groups = "slow")
+    public void testItemTreeSnapshots() {
+        assertEquals(invoiceDao.getItemTreeSnapshots(context).size(), 0);
+
+        final UUID subscriptionId1 = UUID.randomUUID();
+        final UUID subscriptionId2 = UUID.randomUUID();
+        final LocalDate watermarkDate = new LocalDate(2011, 3, 1);
+        final UUID lastItemId1 = UUID.randomUUID();
+        final UUID lastItemId2 = UUID.randomUUID();
+        invoiceDao.saveItemTreeSnapshots(ImmutableList.<InvoiceItemTreeSnapshotModelDao>of(new InvoiceItemTreeSnapshotModelDao(subscriptionId1, watermarkDate, 1L, lastItemId1, -2L),
+                                                                                           new InvoiceItemTreeSnapshotModelDao(subscriptionId2, watermarkDate, 3L, lastItemId2, 4L)),
+                                         context);
+
+        final Map<UUID, InvoiceItemTreeSnapshotModelDao> snapshots = new HashMap<UUID, InvoiceItemTreeSnapshotModelDao>();
+        for (final InvoiceItemTreeSnapshotModelDao snapshot : invoiceDao.getItemTreeSnapshots(context)) {
+            snapshots.put(snapshot.getSubscriptionId(), snapshot);
+        }
+        assertEquals(snapshots.size(), 2);
+        assertTrue(snapshots.get(subscriptionId1).isSameSnapshot(new InvoiceItemTreeSnapshotModelDao(subscriptionId1, watermarkDate, 1L, lastItemId1, -2L)));
+        assertTrue(snapshots.get(subscriptionId2).isSameSnapshot(new InvoiceItemTreeSnapshotModelDao(subscriptionId2, watermarkDate, 3L, lastItemId2, 4L)));
+
+        // Existing snapshots are updated in place
+        invoiceDao.saveItemTreeSnapshots(ImmutableList.<InvoiceItemTreeSnapshotModelDao>of(new InvoiceItemTreeSnapshotModelDao(subscriptionId1, watermarkDate.plusMonths(1), 5L, lastItemId2, 6L)), context);
+        final List<InvoiceItemTreeSnapshotModelDao> updatedSnapshots = invoiceDao.getItemTreeSnapshots(context);
+        assertEquals(updatedSnapshots.size(), 2);
+        for (final InvoiceItemTreeSnapshotModelDao snapshot : updatedSnapshots) {
+            if (snapshot.getSubscriptionId().equals(subscriptionId1)) {
+                assertTrue(snapshot.isSameSnapshot(new InvoiceItemTreeSnapshotModelDao(subscriptionId1, watermarkDate.plusMonths(1), 5L, lastItemId2, 6L)));
+            } else {
+                assertTrue(snapshot.isSameSnapshot(snapshots.get(subscriptionId2)));
+            }
+        }
+    }
+
     @Test(groups = "slow")
     public void testAccountBalanceWithCredit() throws EntityPersistenceException {
         final UUID accountId = account.getId();
@@ -1839,4 +2055,51 @@ public class TestInvoiceDao extends InvoiceTestSuiteWithEmbeddedDB {
 
     }
 
+    @Test(groups = "slow")
+    public void testCreateInvoiceItemsInBatch() throws Exception {
+        final UUID accountId = account.getId();
+        final UUID bundleId = UUID.randomUUID();
+        final LocalDate startDate = new LocalDate(2010, 1, 1);
+        final LocalDate endDate = new LocalDate(2010, 2, 1);
+
+        final InvoiceModelDao invoice = new InvoiceModelDao(accountId, clock.getUTCToday(), clock.getUTCToday(), Currency.USD, false);
+        final List<InvoiceItem> recurringItems = new ArrayList<InvoiceItem>();
+        for (int i = 0; i < 5; i++) {
+            final InvoiceItem recurringItem = new RecurringInvoiceItem(invoice.getId(), accountId, bundleId, UUID.randomUUID(), "test plan", "test phase " + i, startDate, endDate,
+                                                                       TEN, TEN, Currency.USD);
+            recurringItems.add(recurringItem);
+            invoice.addInvoiceItem(new InvoiceItemModelDao(recurringItem));
+        }
+        // The adjusted item is part of the same batch
+        invoice.addInvoiceItem(new InvoiceItemModelDao(new ItemAdjInvoiceItem(recurringItems.get(2), startDate, FIVE.negate(), Currency.USD)));
+        invoice.addInvoiceItem(new InvoiceItemModelDao(new ExternalChargeInvoiceItem(invoice.getId(), accountId, bundleId, "charge", startDate, TWENTY, Currency.USD)));
+
+        final List<InvoiceItemModelDao> createdItems = invoiceDao.createInvoices(ImmutableList.<InvoiceModelDao>of(invoice), context);
+        assertEquals(createdItems.size(), 7);
+        for (int i = 0; i < createdItems.size(); i++) {
+            // Returned items are re-hydrated, in the original order
+            assertEquals(createdItems.get(i).getId(), invoice.getInvoiceItems().get(i).getId());
+            assertNotNull(createdItems.get(i).getRecordId());
+        }
+        assertEquals(createdItems.get(5).getType(), InvoiceItemType.ITEM_ADJ);
+
+        final InvoiceModelDao retrievedInvoice = invoiceDao.getById(invoice.getId(), context);
+        assertEquals(retrievedInvoice.getInvoiceItems().size(), 7);
+        assertEquals(InvoiceModelDaoHelper.getRawBalanceForRegularInvoice(retrievedInvoice).compareTo(new BigDecimal("65.00")), 0);
+
+        // One audit row per item
+        final Integer nbAudits = dbi.withHandle(new HandleCallback<Integer>() {
+            @Override
+            public Integer withHandle(final Handle handle) throws Exception {
+                return handle.createQuery("select count(*) from audit_log where table_name = 'INVOICE_ITEMS' and account_record_id = :accountRecordId")
+                             .bind("accountRecordId", context.getAccountRecordId())
+                             .mapTo(Integer.class)
+                             .first();
+            }
+        });
+        assertEquals(nbAudits, (Integer) 7);
+
+        // Re-creating the invoice is a no-op
+        assertEquals(invoiceDao.createInvoices(ImmutableList.<InvoiceModelDao>of(invoice), context).size(), 0);
+    }
 }
@@ -23,12 +23,14 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
 import org.killbill.billing.ErrorCode;
 import org.killbill.billing.account.api.Account;
+import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.catalog.DefaultPrice;
 import org.killbill.billing.catalog.MockInternationalPrice;
 import org.killbill.billing.catalog.MockPlan;
@@ -45,6 +47,10 @@ import org.killbill.billing.invoice.api.Invoice;
 import org.killbill.billing.invoice.api.InvoiceApiException;
 import org.killbill.billing.invoice.api.InvoiceItem;
 import org.killbill.billing.invoice.api.InvoiceItemType;
+import org.killbill.billing.invoice.dao.InvoiceItemModelDao;
+import org.killbill.billing.invoice.dao.InvoiceItemTreeSnapshotModelDao;
+import org.killbill.billing.invoice.dao.InvoiceModelDao;
+import org.killbill.billing.invoice.dao.MockInvoiceDao;
 import org.killbill.billing.invoice.generator.InvoiceWithMetadata.SubscriptionFutureNotificationDates;
 import org.killbill.billing.invoice.model.DefaultInvoice;
 import org.killbill.billing.invoice.model.FixedPriceInvoiceItem;
@@ -55,9 +61,12 @@ import org.killbill.billing.junction.BillingEvent;
 import org.killbill.billing.junction.BillingEventSet;
 import org.killbill.billing.subscription.api.SubscriptionBase;
 import org.killbill.billing.subscription.api.SubscriptionBaseTransitionType;
+import org.killbill.billing.util.config.definition.InvoiceConfig;
+import org.mockito.Mockito;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Multimap;
 
@@ -1351,4 +1360,187 @@ public class TestFixedAndRecurringInvoiceItemGenerator extends InvoiceTestSuiteN
             assertEquals(e.getCode(), ErrorCode.UNEXPECTED_ERROR.getCode());
         }
     }
+
+    @Test(groups = "fast")
+    public void testIncrementalItemTree() throws InvoiceApiException {
+        final InvoiceConfig incrementalInvoiceConfig = Mockito.mock(InvoiceConfig.class);
+        Mockito.when(incrementalInvoiceConfig.isIncrementalItemTreeEnabled()).thenReturn(true);
+        Mockito.when(incrementalInvoiceConfig.getMaxDailyNumberOfItemsSafetyBound(Mockito.<InternalTenantContext>any())).thenReturn(-1);
+        final MockInvoiceDao snapshotsInvoiceDao = new MockInvoiceDao(bus);
+        final FixedAndRecurringInvoiceItemGenerator incrementalGenerator = new FixedAndRecurringInvoiceItemGenerator(incrementalInvoiceConfig, snapshotsInvoiceDao, new InvoiceGeneratorExecutor(incrementalInvoiceConfig), clock);
+
+        final LocalDate startDate = new LocalDate("2016-01-01");
+
+        final BillingEventSet events = new MockBillingEventSet();
+        final Plan plan = new MockPlan("my-plan");
+        final BigDecimal amount = BigDecimal.TEN;
+        final PlanPhase planPhase = new MockPlanPhase(new MockInternationalPrice(new DefaultPrice(amount, account.getCurrency())), null, BillingPeriod.MONTHLY, PhaseType.EVERGREEN);
+        events.add(invoiceUtil.createMockBillingEvent(account, subscription, startDate.toDateTimeAtStartOfDay(), plan, planPhase, null, amount, account.getCurrency(),
+                                                      BillingPeriod.MONTHLY, 1, BillingMode.IN_ADVANCE, "Billing Event Desc", 1L, SubscriptionBaseTransitionType.CREATE));
+
+        // One invoice run per BCD
+        final List<Invoice> existingInvoices = new LinkedList<Invoice>();
+        for (int i = 0; i < 6; i++) {
+            final List<InvoiceItem> generatedItems = generateItemsAndCompareWithFullRebuild(incrementalGenerator, snapshotsInvoiceDao, events, existingInvoices, startDate.plusMonths(i));
+            assertEquals(generatedItems.size(), 1);
+            assertEquals(generatedItems.get(0).getStartDate(), startDate.plusMonths(i));
+        }
+
+        // Everything before the last period has been reconciled
+        List<InvoiceItemTreeSnapshotModelDao> snapshots = snapshotsInvoiceDao.getItemTreeSnapshots(internalCallContext);
+        assertEquals(snapshots.size(), 1);
+        assertEquals(snapshots.get(0).getSubscriptionId(), subscription.getId());
+        assertEquals(snapshots.get(0).getWatermarkDate(), startDate.plusMonths(5));
+
+        // Dry runs don't save any snapshot
+        incrementalGenerator.generateItems(account, UUID.randomUUID(), events, existingInvoices, startDate.plusMonths(8), account.getCurrency(),
+                                           new HashMap<UUID, SubscriptionFutureNotificationDates>(), internalCallContext);
+        snapshots = snapshotsInvoiceDao.getItemTreeSnapshots(internalCallContext);
+        assertEquals(snapshots.size(), 1);
+        assertEquals(snapshots.get(0).getWatermarkDate(), startDate.plusMonths(5));
+
+        // Adjust an item before the watermark, which invalidates the snapshot
+        final InvoiceItem adjustedItem = existingInvoices.get(1).getInvoiceItems().get(0);
+        existingInvoices.get(1).addInvoiceItem(new ItemAdjInvoiceItem(adjustedItem, startDate.plusMonths(1).plusDays(10), BigDecimal.ONE.negate(), account.getCurrency()));
+        storeInvoice(snapshotsInvoiceDao, existingInvoices.get(1));
+        List<InvoiceItem> generatedItems = generateItemsAndCompareWithFullRebuild(incrementalGenerator, snapshotsInvoiceDao, events, existingInvoices, startDate.plusMonths(6));
+        assertEquals(generatedItems.size(), 1);
+        assertEquals(generatedItems.get(0).getStartDate(), startDate.plusMonths(6));
+
+        snapshots = snapshotsInvoiceDao.getItemTreeSnapshots(internalCallContext);
+        assertEquals(snapshots.size(), 1);
+        assertEquals(snapshots.get(0).getWatermarkDate(), startDate.plusMonths(6));
+
+        // Record ids are remapped when the account is exported and imported again: the snapshot no longer matches and is replaced
+        final InvoiceItemTreeSnapshotModelDao snapshot = snapshots.get(0);
+        snapshotsInvoiceDao.saveItemTreeSnapshots(ImmutableList.<InvoiceItemTreeSnapshotModelDao>of(new InvoiceItemTreeSnapshotModelDao(snapshot.getSubscriptionId(),
+                                                                                                                                      snapshot.getWatermarkDate(),
+                                                                                                                                      snapshot.getLastItemRecordId() - 1,
+                                                                                                                                      snapshot.getLastItemId(),
+                                                                                                                                      snapshot.getProposedItemsDigest())),
+                                                  internalCallContext);
+        generatedItems = generateItemsAndCompareWithFullRebuild(incrementalGenerator, snapshotsInvoiceDao, events, existingInvoices, startDate.plusMonths(6));
+        assertEquals(generatedItems.size(), 0);
+
+        snapshots = snapshotsInvoiceDao.getItemTreeSnapshots(internalCallContext);
+        assertEquals(snapshots.size(), 1);
+        assertEquals(snapshots.get(0).getWatermarkDate(), startDate.plusMonths(6));
+        assertEquals(snapshots.get(0).getLastItemId(), snapshotsInvoiceDao.getLastInvoiceItem(internalCallContext).getId());
+        assertEquals(snapshots.get(0).getLastItemRecordId(), snapshotsInvoiceDao.getLastInvoiceItem(internalCallContext).getRecordId());
+
+        // Change the price retroactively, before the watermark
+        final BigDecimal newAmount = new BigDecimal("20");
+        final PlanPhase newPlanPhase = new MockPlanPhase(new MockInternationalPrice(new DefaultPrice(newAmount, account.getCurrency())), null, BillingPeriod.MONTHLY, PhaseType.EVERGREEN);
+        events.add(invoiceUtil.createMockBillingEvent(account, subscription, startDate.plusMonths(4).toDateTimeAtStartOfDay(), plan, newPlanPhase, null, newAmount, account.getCurrency(),
+                                                      BillingPeriod.MONTHLY, 1, BillingMode.IN_ADVANCE, "Billing Event Desc", 2L, SubscriptionBaseTransitionType.CHANGE));
+        generatedItems = generateItemsAndCompareWithFullRebuild(incrementalGenerator, snapshotsInvoiceDao, events, existingInvoices, startDate.plusMonths(6));
+        // Months 4 to 6 are repaired and re-invoiced
+        assertEquals(generatedItems.size(), 6);
+
+        // Next BCD
+        generatedItems = generateItemsAndCompareWithFullRebuild(incrementalGenerator, snapshotsInvoiceDao, events, existingInvoices, startDate.plusMonths(7));
+        assertEquals(generatedItems.size(), 1);
+        assertEquals(generatedItems.get(0).getAmount().compareTo(newAmount), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testParallelItemGeneration() throws Exception {
+        final InvoiceConfig parallelInvoiceConfig = Mockito.mock(InvoiceConfig.class);
+        Mockito.when(parallelInvoiceConfig.isParallelItemGenerationEnabled(Mockito.<InternalTenantContext>any())).thenReturn(true);
+        Mockito.when(parallelInvoiceConfig.getParallelItemGenerationThreads()).thenReturn(4);
+        Mockito.when(parallelInvoiceConfig.getMaxDailyNumberOfItemsSafetyBound(Mockito.<InternalTenantContext>any())).thenReturn(-1);
+        final InvoiceGeneratorExecutor invoiceGeneratorExecutor = new InvoiceGeneratorExecutor(parallelInvoiceConfig);
+        invoiceGeneratorExecutor.initialize();
+        final FixedAndRecurringInvoiceItemGenerator parallelGenerator = new FixedAndRecurringInvoiceItemGenerator(parallelInvoiceConfig, null, invoiceGeneratorExecutor, clock);
+
+        try {
+            final LocalDate startDate = new LocalDate("2016-01-01");
+            final Plan plan = new MockPlan("my-plan");
+            final BigDecimal amount = BigDecimal.TEN;
+            final PlanPhase planPhase = new MockPlanPhase(new MockInternationalPrice(new DefaultPrice(amount, account.getCurrency())), null, BillingPeriod.MONTHLY, PhaseType.EVERGREEN);
+            final BigDecimal newAmount = new BigDecimal("20");
+            final PlanPhase newPlanPhase = new MockPlanPhase(new MockInternationalPrice(new DefaultPrice(newAmount, account.getCurrency())), null, BillingPeriod.MONTHLY, PhaseType.EVERGREEN);
+
+            final BillingEventSet events = new MockBillingEventSet();
+            for (int i = 0; i < 10; i++) {
+                final SubscriptionBase curSubscription = invoiceUtil.createSubscription();
+                events.add(invoiceUtil.createMockBillingEvent(account, curSubscription, startDate.plusDays(i).toDateTimeAtStartOfDay(), plan, planPhase, null, amount, account.getCurrency(),
+                                                              BillingPeriod.MONTHLY, 1, BillingMode.IN_ADVANCE, "Billing Event Desc", 1L, SubscriptionBaseTransitionType.CREATE));
+                if (i % 2 == 0) {
+                    // Mid-period price change
+                    events.add(invoiceUtil.createMockBillingEvent(account, curSubscription, startDate.plusMonths(2).plusDays(10).toDateTimeAtStartOfDay(), plan, newPlanPhase, null, newAmount, account.getCurrency(),
+                                                                  BillingPeriod.MONTHLY, 1, BillingMode.IN_ADVANCE, "Billing Event Desc", 2L, SubscriptionBaseTransitionType.CHANGE));
+                }
+            }
+
+            final List<Invoice> existingInvoices = new LinkedList<Invoice>();
+            for (int i = 0; i < 4; i++) {
+                final LocalDate targetDate = startDate.plusMonths(i).plusDays(15);
+                final Invoice invoice = new DefaultInvoice(account.getId(), clock.getUTCToday(), targetDate, account.getCurrency());
+
+                final Map<UUID, SubscriptionFutureNotificationDates> expectedNotificationDates = new HashMap<UUID, SubscriptionFutureNotificationDates>();
+                final List<InvoiceItem> expectedItems = fixedAndRecurringInvoiceItemGenerator.generateItems(account, invoice.getId(), events, existingInvoices, targetDate, account.getCurrency(),
+                                                                                                            expectedNotificationDates, internalCallContext);
+                final Map<UUID, SubscriptionFutureNotificationDates> notificationDates = new HashMap<UUID, SubscriptionFutureNotificationDates>();
+                final List<InvoiceItem> generatedItems = parallelGenerator.generateItems(account, invoice.getId(), events, existingInvoices, targetDate, account.getCurrency(),
+                                                                                         notificationDates, internalCallContext);
+
+                assertFalse(generatedItems.isEmpty());
+                assertEquals(generatedItems.size(), expectedItems.size());
+                for (int j = 0; j < generatedItems.size(); j++) {
+                    assertEquals(generatedItems.get(j).getInvoiceItemType(), expectedItems.get(j).getInvoiceItemType());
+                    assertEquals(generatedItems.get(j).getSubscriptionId(), expectedItems.get(j).getSubscriptionId());
+                    assertEquals(generatedItems.get(j).getStartDate(), expectedItems.get(j).getStartDate());
+                    assertEquals(generatedItems.get(j).getEndDate(), expectedItems.get(j).getEndDate());
+                    assertEquals(generatedItems.get(j).getAmount().compareTo(expectedItems.get(j).getAmount()), 0);
+                    assertEquals(generatedItems.get(j).getLinkedItemId(), expectedItems.get(j).getLinkedItemId());
+                }
+
+                assertEquals(notificationDates.keySet(), expectedNotificationDates.keySet());
+                for (final UUID subscriptionId : notificationDates.keySet()) {
+                    assertEquals(notificationDates.get(subscriptionId).getNextRecurringDate(), expectedNotificationDates.get(subscriptionId).getNextRecurringDate());
+                }
+
+                invoice.addInvoiceItems(generatedItems);
+                existingInvoices.add(invoice);
+            }
+        } finally {
+            invoiceGeneratorExecutor.stop();
+        }
+    }
+
+    private List<InvoiceItem> generateItemsAndCompareWithFullRebuild(final FixedAndRecurringInvoiceItemGenerator incrementalGenerator, final MockInvoiceDao snapshotsInvoiceDao,
+                                                                      final BillingEventSet events, final List<Invoice> existingInvoices, final LocalDate targetDate) throws InvoiceApiException {
+        final Invoice invoice = new DefaultInvoice(account.getId(), clock.getUTCToday(), targetDate, account.getCurrency());
+
+        final List<InvoiceItem> expectedItems = fixedAndRecurringInvoiceItemGenerator.generateItems(account, invoice.getId(), events, existingInvoices, targetDate, account.getCurrency(),
+                                                                                                    new HashMap<UUID, SubscriptionFutureNotificationDates>(), internalCallContext);
+        final List<InvoiceItemTreeSnapshotModelDao> itemTreeSnapshots = new LinkedList<InvoiceItemTreeSnapshotModelDao>();
+        final List<InvoiceItem> generatedItems = incrementalGenerator.generateItems(account, invoice.getId(), events, existingInvoices, targetDate, account.getCurrency(),
+                                                                                    new HashMap<UUID, SubscriptionFutureNotificationDates>(), itemTreeSnapshots, internalCallContext);
+        assertEquals(generatedItems.size(), expectedItems.size());
+        for (int i = 0; i < generatedItems.size(); i++) {
+            assertEquals(generatedItems.get(i).getInvoiceItemType(), expectedItems.get(i).getInvoiceItemType());
+            assertEquals(generatedItems.get(i).getStartDate(), expectedItems.get(i).getStartDate());
+            assertEquals(generatedItems.get(i).getEndDate(), expectedItems.get(i).getEndDate());
+            assertEquals(generatedItems.get(i).getAmount().compareTo(expectedItems.get(i).getAmount()), 0);
+            assertEquals(generatedItems.get(i).getLinkedItemId(), expectedItems.get(i).getLinkedItemId());
+        }
+
+        // Commit the invoice
+        invoice.addInvoiceItems(generatedItems);
+        existingInvoices.add(invoice);
+        storeInvoice(snapshotsInvoiceDao, invoice);
+        snapshotsInvoiceDao.saveItemTreeSnapshots(itemTreeSnapshots, internalCallContext);
+        return generatedItems;
+    }
+
+    // Assigns the record ids the snapshots are verified against
+    private void storeInvoice(final MockInvoiceDao snapshotsInvoiceDao, final Invoice invoice) {
+        final InvoiceModelDao invoiceModelDao = new InvoiceModelDao(invoice);
+        for (final InvoiceItem invoiceItem : invoice.getInvoiceItems()) {
+            invoiceModelDao.addInvoiceItem(new InvoiceItemModelDao(invoiceItem));
+        }
+        snapshotsInvoiceDao.createInvoices(ImmutableList.<InvoiceModelDao>of(invoiceModelDao), internalCallContext);
+    }
 }
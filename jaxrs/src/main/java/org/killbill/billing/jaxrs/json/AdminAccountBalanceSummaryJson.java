@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.jaxrs.json;
+
+import java.math.BigDecimal;
+
+import org.killbill.billing.invoice.api.AccountBalanceSummaryCheck;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.annotations.ApiModelProperty;
+
+public class AdminAccountBalanceSummaryJson {
+
+    @ApiModelProperty(dataType = "java.util.UUID")
+    private final String accountId;
+    private final BigDecimal existingBalance;
+    private final BigDecimal existingCBA;
+    private final BigDecimal rebuiltBalance;
+    private final BigDecimal rebuiltCBA;
+    private final Boolean isConsistent;
+    private final Boolean isSaved;
+
+    @JsonCreator
+    public AdminAccountBalanceSummaryJson(@JsonProperty("accountId") final String accountId,
+                                          @JsonProperty("existingBalance") final BigDecimal existingBalance,
+                                          @JsonProperty("existingCBA") final BigDecimal existingCBA,
+                                          @JsonProperty("rebuiltBalance") final BigDecimal rebuiltBalance,
+                                          @JsonProperty("rebuiltCBA") final BigDecimal rebuiltCBA,
+                                          @JsonProperty("isConsistent") final Boolean isConsistent,
+                                          @JsonProperty("isSaved") final Boolean isSaved) {
+        this.accountId = accountId;
+        this.existingBalance = existingBalance;
+        this.existingCBA = existingCBA;
+        this.rebuiltBalance = rebuiltBalance;
+        this.rebuiltCBA = rebuiltCBA;
+        this.isConsistent = isConsistent;
+        this.isSaved = isSaved;
+    }
+
+    public AdminAccountBalanceSummaryJson(final AccountBalanceSummaryCheck check) {
+        this(check.getAccountId().toString(),
+             check.getExistingBalance(),
+             check.getExistingCBA(),
+             check.getRebuiltBalance(),
+             check.getRebuiltCBA(),
+             check.isConsistent(),
+             check.isSaved());
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public BigDecimal getExistingBalance() {
+        return existingBalance;
+    }
+
+    public BigDecimal getExistingCBA() {
+        return existingCBA;
+    }
+
+    public BigDecimal getRebuiltBalance() {
+        return rebuiltBalance;
+    }
+
+    public BigDecimal getRebuiltCBA() {
+        return rebuiltCBA;
+    }
+
+    @JsonProperty("isConsistent")
+    public Boolean isConsistent() {
+        return isConsistent;
+    }
+
+    @JsonProperty("isSaved")
+    public Boolean isSaved() {
+        return isSaved;
+    }
+
+    @Override
+    public String toString() {
+        return "AdminAccountBalanceSummaryJson{" +
+               "accountId='" + accountId + '\'' +
+               ", existingBalance=" + existingBalance +
+               ", existingCBA=" + existingCBA +
+               ", rebuiltBalance=" + rebuiltBalance +
+               ", rebuiltCBA=" + rebuiltCBA +
+               ", isConsistent=" + isConsistent +
+               ", isSaved=" + isSaved +
+               '}';
+    }
+}
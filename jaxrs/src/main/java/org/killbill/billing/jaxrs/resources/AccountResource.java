@@ -26,6 +26,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -59,6 +60,8 @@ import org.killbill.billing.account.api.AccountData;
 import org.killbill.billing.account.api.AccountEmail;
 import org.killbill.billing.account.api.AccountUserApi;
 import org.killbill.billing.account.api.MutableAccountData;
+import org.killbill.billing.audit.AuditInternalApi;
+import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.catalog.api.BillingActionPolicy;
 import org.killbill.billing.catalog.api.CatalogApiException;
 import org.killbill.billing.catalog.api.Currency;
@@ -71,8 +74,10 @@ import org.killbill.billing.entitlement.api.Subscription;
 import org.killbill.billing.entitlement.api.SubscriptionApi;
 import org.killbill.billing.entitlement.api.SubscriptionApiException;
 import org.killbill.billing.entitlement.api.SubscriptionBundle;
+import org.killbill.billing.invoice.api.AccountBalanceSummary;
 import org.killbill.billing.invoice.api.Invoice;
 import org.killbill.billing.invoice.api.InvoiceApiException;
+import org.killbill.billing.invoice.api.InvoiceInternalApi;
 import org.killbill.billing.invoice.api.InvoiceItem;
 import org.killbill.billing.invoice.api.InvoiceItemType;
 import org.killbill.billing.invoice.api.InvoicePayment;
@@ -134,6 +139,7 @@ import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import io.swagger.annotations.Api;
@@ -152,6 +158,8 @@ public class AccountResource extends JaxRsResourceBase {
 
     private final SubscriptionApi subscriptionApi;
     private final InvoiceUserApi invoiceApi;
+    private final InvoiceInternalApi invoiceInternalApi;
+    private final AuditInternalApi auditInternalApi;
     private final InvoicePaymentApi invoicePaymentApi;
     private final OverdueApi overdueApi;
     private final PaymentConfig paymentConfig;
@@ -162,10 +170,12 @@ public class AccountResource extends JaxRsResourceBase {
     public AccountResource(final JaxrsUriBuilder uriBuilder,
                            final AccountUserApi accountApi,
                            final InvoiceUserApi invoiceApi,
+                           final InvoiceInternalApi invoiceInternalApi,
                            final InvoicePaymentApi invoicePaymentApi,
                            final PaymentApi paymentApi,
                            final TagUserApi tagUserApi,
                            final AuditUserApi auditUserApi,
+                           final AuditInternalApi auditInternalApi,
                            final CustomFieldUserApi customFieldUserApi,
                            final SubscriptionApi subscriptionApi,
                            final OverdueApi overdueApi,
@@ -177,6 +187,8 @@ public class AccountResource extends JaxRsResourceBase {
         super(uriBuilder, tagUserApi, customFieldUserApi, auditUserApi, accountApi, paymentApi, subscriptionApi, clock, context);
         this.subscriptionApi = subscriptionApi;
         this.invoiceApi = invoiceApi;
+        this.invoiceInternalApi = invoiceInternalApi;
+        this.auditInternalApi = auditInternalApi;
         this.invoicePaymentApi = invoicePaymentApi;
         this.overdueApi = overdueApi;
         this.paymentConfig = paymentConfig;
@@ -221,11 +233,11 @@ public class AccountResource extends JaxRsResourceBase {
                                                                                                                                                            QUERY_ACCOUNT_WITH_BALANCE_AND_CBA, accountWithBalanceAndCBA.toString(),
                                                                                                                                                            QUERY_AUDIT, auditMode.getLevel().toString()));
         return buildStreamingPaginationResponse(accounts,
-                                                new Function<Account, AccountJson>() {
+                                                STREAMING_PAGINATION_CHUNK_SIZE,
+                                                new Function<List<Account>, List<AccountJson>>() {
                                                     @Override
-                                                    public AccountJson apply(final Account account) {
-                                                        final AccountAuditLogs accountAuditLogs = auditUserApi.getAccountAuditLogs(account.getId(), auditMode.getLevel(), tenantContext);
-                                                        return getAccount(account, accountWithBalance, accountWithBalanceAndCBA, accountAuditLogs, tenantContext);
+                                                    public List<AccountJson> apply(final List<Account> accountsChunk) {
+                                                        return getAccounts(accountsChunk, accountWithBalance, accountWithBalanceAndCBA, auditMode.getLevel(), tenantContext);
                                                     }
                                                 },
                                                 nextPageUri
@@ -252,11 +264,11 @@ public class AccountResource extends JaxRsResourceBase {
                                                                                                                                                               QUERY_ACCOUNT_WITH_BALANCE_AND_CBA, accountWithBalanceAndCBA.toString(),
                                                                                                                                                               QUERY_AUDIT, auditMode.getLevel().toString()));
         return buildStreamingPaginationResponse(accounts,
-                                                new Function<Account, AccountJson>() {
+                                                STREAMING_PAGINATION_CHUNK_SIZE,
+                                                new Function<List<Account>, List<AccountJson>>() {
                                                     @Override
-                                                    public AccountJson apply(final Account account) {
-                                                        final AccountAuditLogs accountAuditLogs = auditUserApi.getAccountAuditLogs(account.getId(), auditMode.getLevel(), tenantContext);
-                                                        return getAccount(account, accountWithBalance, accountWithBalanceAndCBA, accountAuditLogs, tenantContext);
+                                                    public List<AccountJson> apply(final List<Account> accountsChunk) {
+                                                        return getAccounts(accountsChunk, accountWithBalance, accountWithBalanceAndCBA, auditMode.getLevel(), tenantContext);
                                                     }
                                                 },
                                                 nextPageUri
@@ -332,6 +344,29 @@ public class AccountResource extends JaxRsResourceBase {
         return Response.status(Status.OK).entity(accountJson).build();
     }
 
+    private List<AccountJson> getAccounts(final List<Account> accounts, final Boolean accountWithBalance, final Boolean accountWithBalanceAndCBA,
+                                          final AuditLevel auditLevel, final TenantContext tenantContext) {
+        final Collection<UUID> accountIds = Collections2.transform(accounts, new Function<Account, UUID>() {
+            @Override
+            public UUID apply(final Account account) {
+                return account.getId();
+            }
+        });
+
+        final InternalTenantContext internalTenantContext = context.createInternalTenantContext(tenantContext);
+        final Map<UUID, AccountAuditLogs> accountsAuditLogs = auditInternalApi.getAccountsAuditLogs(accountIds, auditLevel, internalTenantContext);
+        final Map<UUID, AccountBalanceSummary> accountBalanceSummaries = accountWithBalance || accountWithBalanceAndCBA ? invoiceInternalApi.getAccountBalanceSummaries(accountIds, internalTenantContext) : ImmutableMap.<UUID, AccountBalanceSummary>of();
+
+        final List<AccountJson> accountsJson = new ArrayList<AccountJson>(accounts.size());
+        for (final Account account : accounts) {
+            final AccountBalanceSummary accountBalanceSummary = accountBalanceSummaries.get(account.getId());
+            final BigDecimal accountBalance = accountBalanceSummary == null ? null : accountBalanceSummary.getBalance();
+            final BigDecimal accountCBA = accountBalanceSummary == null || !accountWithBalanceAndCBA ? null : accountBalanceSummary.getCBA();
+            accountsJson.add(new AccountJson(account, accountBalance, accountCBA, accountsAuditLogs.get(account.getId())));
+        }
+        return accountsJson;
+    }
+
     private AccountJson getAccount(final Account account, final Boolean accountWithBalance, final Boolean accountWithBalanceAndCBA,
                                    final AccountAuditLogs auditLogs, final TenantContext tenantContext) {
         if (accountWithBalanceAndCBA) {
@@ -1416,9 +1451,8 @@ public class AccountResource extends JaxRsResourceBase {
         final List<Account> accounts = accountUserApi.getChildrenAccounts(UUID.fromString(parentAccountId), tenantContext);
 
         final List<AccountJson> accountJson = new ArrayList<AccountJson>();
-        for (final Account account : accounts) {
-            final AccountAuditLogs accountAuditLogs = auditUserApi.getAccountAuditLogs(account.getId(), auditMode.getLevel(), tenantContext);
-            accountJson.add(getAccount(account, accountWithBalance, accountWithBalanceAndCBA, accountAuditLogs, tenantContext));
+        for (final List<Account> accountsChunk : Lists.partition(accounts, STREAMING_PAGINATION_CHUNK_SIZE)) {
+            accountJson.addAll(getAccounts(accountsChunk, accountWithBalance, accountWithBalanceAndCBA, auditMode.getLevel(), tenantContext));
         }
         return Response.status(Status.OK).entity(accountJson).build();
     }
@@ -46,11 +46,15 @@ import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.killbill.billing.ErrorCode;
 import org.killbill.billing.ObjectType;
+import org.killbill.billing.account.api.AccountApiException;
 import org.killbill.billing.account.api.AccountUserApi;
 import org.killbill.billing.account.api.ImmutableAccountData;
 import org.killbill.billing.catalog.api.Catalog;
+import org.killbill.billing.invoice.api.AccountBalanceSummaryCheck;
 import org.killbill.billing.invoice.api.InvoiceApiException;
+import org.killbill.billing.invoice.api.InvoiceInternalApi;
 import org.killbill.billing.invoice.api.InvoiceUserApi;
+import org.killbill.billing.jaxrs.json.AdminAccountBalanceSummaryJson;
 import org.killbill.billing.jaxrs.json.AdminPaymentJson;
 import org.killbill.billing.jaxrs.util.Context;
 import org.killbill.billing.jaxrs.util.JaxrsUriBuilder;
@@ -110,6 +114,7 @@ public class AdminResource extends JaxRsResourceBase {
 
     private final AdminPaymentApi adminPaymentApi;
     private final InvoiceUserApi invoiceUserApi;
+    private final InvoiceInternalApi invoiceInternalApi;
     private final TenantUserApi tenantApi;
     private final CacheControllerDispatcher cacheControllerDispatcher;
     private final RecordIdApi recordIdApi;
@@ -125,6 +130,7 @@ public class AdminResource extends JaxRsResourceBase {
                          final PaymentApi paymentApi,
                          final AdminPaymentApi adminPaymentApi,
                          final InvoiceUserApi invoiceUserApi,
+                         final InvoiceInternalApi invoiceInternalApi,
                          final CacheControllerDispatcher cacheControllerDispatcher,
                          final TenantUserApi tenantApi,
                          final RecordIdApi recordIdApi,
@@ -135,6 +141,7 @@ public class AdminResource extends JaxRsResourceBase {
         super(uriBuilder, tagUserApi, customFieldUserApi, auditUserApi, accountUserApi, paymentApi, null, clock, context);
         this.adminPaymentApi = adminPaymentApi;
         this.invoiceUserApi = invoiceUserApi;
+        this.invoiceInternalApi = invoiceInternalApi;
         this.tenantApi = tenantApi;
         this.recordIdApi = recordIdApi;
         this.cacheControllerDispatcher = cacheControllerDispatcher;
@@ -318,6 +325,27 @@ public class AdminResource extends JaxRsResourceBase {
                        .build();
     }
 
+    @POST
+    @Produces(APPLICATION_JSON)
+    @Path("/" + ACCOUNTS + "/{accountId:" + UUID_PATTERN + "}/" + ACCOUNT_BALANCE_SUMMARY)
+    @ApiOperation(value = "Rebuild the materialized account balance and CBA from the invoice rows (only compare them with dryRun)", response = AdminAccountBalanceSummaryJson.class)
+    @ApiResponses(value = {@ApiResponse(code = 400, message = "Invalid account id supplied"),
+                           @ApiResponse(code = 404, message = "Account not found")})
+    public Response rebuildAccountBalanceSummary(@PathParam("accountId") final String accountIdStr,
+                                                 @QueryParam(DRY_RUN) @DefaultValue("false") final Boolean dryRun,
+                                                 @HeaderParam(HDR_CREATED_BY) final String createdBy,
+                                                 @HeaderParam(HDR_REASON) final String reason,
+                                                 @HeaderParam(HDR_COMMENT) final String comment,
+                                                 @javax.ws.rs.core.Context final HttpServletRequest request) throws AccountApiException {
+        final CallContext callContext = context.createContext(createdBy, reason, comment, request);
+        final UUID accountId = UUID.fromString(accountIdStr);
+        // Make sure the account exists (404 otherwise)
+        accountUserApi.getAccountById(accountId, callContext);
+
+        final AccountBalanceSummaryCheck check = invoiceInternalApi.rebuildAccountBalanceSummary(accountId, dryRun, context.createInternalCallContext(accountId, callContext));
+        return Response.status(Status.OK).entity(new AdminAccountBalanceSummaryJson(check)).build();
+    }
+
     @DELETE
     @Path("/" + CACHE)
     @Produces(APPLICATION_JSON)
@@ -364,6 +392,10 @@ public class AdminResource extends JaxRsResourceBase {
         final CacheController<UUID, Integer> accountBCDCacheController = cacheControllerDispatcher.getCacheController(CacheType.ACCOUNT_BCD);
         accountBCDCacheController.remove(accountId);
 
+        // clear account-subscriptions cache by account record id
+        final CacheController<Long, Object> accountSubscriptionsCacheController = cacheControllerDispatcher.getCacheController(CacheType.ACCOUNT_SUBSCRIPTIONS);
+        accountSubscriptionsCacheController.remove(accountRecordId);
+
         return Response.status(Status.OK).build();
     }
 
@@ -18,16 +18,21 @@ package org.killbill.billing.jaxrs.resources;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
 import java.util.UUID;
 
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.StreamingOutput;
 
 import org.killbill.billing.account.api.AccountUserApi;
@@ -39,15 +44,20 @@ import org.killbill.billing.util.api.CustomFieldUserApi;
 import org.killbill.billing.util.api.ExportUserApi;
 import org.killbill.billing.util.api.TagUserApi;
 import org.killbill.billing.util.callcontext.CallContext;
+import org.killbill.billing.util.export.dao.BinaryExportOutputStream;
+import org.killbill.billing.util.export.dao.BinaryExportOutputStream.Compression;
 import org.killbill.clock.Clock;
 import org.killbill.commons.metrics.TimedResource;
 
+import com.google.common.base.Enums;
+import com.google.common.base.Optional;
 import com.google.inject.Singleton;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 
+import static javax.ws.rs.core.MediaType.APPLICATION_OCTET_STREAM;
 import static javax.ws.rs.core.MediaType.TEXT_PLAIN;
 
 @Singleton
@@ -92,4 +102,37 @@ public class ExportResource extends JaxRsResourceBase {
             }
         };
     }
+
+    @TimedResource
+    @GET
+    @Path("/{accountId:" + UUID_PATTERN + "}/" + BINARY)
+    @Produces(APPLICATION_OCTET_STREAM)
+    @ApiOperation(value = "Export account data in the binary format", response = String.class)
+    @ApiResponses(value = {@ApiResponse(code = 400, message = "Invalid account id or compression supplied"),
+                           @ApiResponse(code = 404, message = "Account not found")})
+    public Response exportBinaryDataForAccount(@PathParam("accountId") final String accountId,
+                                                      @QueryParam(QUERY_COMPRESSION) @DefaultValue("GZIP") final String compression,
+                                                      @HeaderParam(HDR_CREATED_BY) final String createdBy,
+                                                      @HeaderParam(HDR_REASON) final String reason,
+                                                      @HeaderParam(HDR_COMMENT) final String comment,
+                                                      @javax.ws.rs.core.Context final HttpServletRequest request) {
+        final CallContext callContext = context.createContext(createdBy, reason, comment, request);
+        final Optional<Compression> outputCompression = Enums.getIfPresent(Compression.class, compression.toUpperCase());
+        if (!outputCompression.isPresent()) {
+            return Response.status(Status.BAD_REQUEST).build();
+        }
+
+        final StreamingOutput binaryOutput = new StreamingOutput() {
+            @Override
+            public void write(final OutputStream output) throws IOException, WebApplicationException {
+                final BinaryExportOutputStream out = new BinaryExportOutputStream(Channels.newChannel(output), outputCompression.get());
+                try {
+                    exportUserApi.exportDataForAccount(UUID.fromString(accountId), out, callContext);
+                } finally {
+                    out.close();
+                }
+            }
+        };
+        return Response.status(Status.OK).entity(binaryOutput).build();
+    }
 }
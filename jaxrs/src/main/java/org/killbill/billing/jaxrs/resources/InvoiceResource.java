@@ -33,7 +33,6 @@ import java.util.Map;
 import java.util.PropertyResourceBundle;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
@@ -58,6 +57,7 @@ import org.killbill.billing.ObjectType;
 import org.killbill.billing.account.api.Account;
 import org.killbill.billing.account.api.AccountApiException;
 import org.killbill.billing.account.api.AccountUserApi;
+import org.killbill.billing.audit.AuditInternalApi;
 import org.killbill.billing.catalog.DefaultPlanPhasePriceOverride;
 import org.killbill.billing.catalog.api.BillingActionPolicy;
 import org.killbill.billing.catalog.api.BillingPeriod;
@@ -93,6 +93,7 @@ import org.killbill.billing.tenant.api.TenantApiException;
 import org.killbill.billing.tenant.api.TenantKV.TenantKey;
 import org.killbill.billing.tenant.api.TenantUserApi;
 import org.killbill.billing.util.LocaleUtils;
+import org.killbill.billing.util.api.AuditLevel;
 import org.killbill.billing.util.api.AuditUserApi;
 import org.killbill.billing.util.api.CustomFieldApiException;
 import org.killbill.billing.util.api.CustomFieldUserApi;
@@ -136,6 +137,7 @@ public class InvoiceResource extends JaxRsResourceBase {
     private static final String LOCALE_PARAM_NAME = "locale";
 
     private final InvoiceUserApi invoiceApi;
+    private final AuditInternalApi auditInternalApi;
     private final InvoiceNotifier invoiceNotifier;
     private final TenantUserApi tenantApi;
     private final Locale defaultLocale;
@@ -157,10 +159,12 @@ public class InvoiceResource extends JaxRsResourceBase {
                            final TagUserApi tagUserApi,
                            final CustomFieldUserApi customFieldUserApi,
                            final AuditUserApi auditUserApi,
+                           final AuditInternalApi auditInternalApi,
                            final TenantUserApi tenantApi,
                            final Context context) {
         super(uriBuilder, tagUserApi, customFieldUserApi, auditUserApi, accountUserApi, paymentApi, null, clock, context);
         this.invoiceApi = invoiceApi;
+        this.auditInternalApi = auditInternalApi;
         this.invoiceNotifier = invoiceNotifier;
         this.tenantApi = tenantApi;
         this.defaultLocale = Locale.getDefault();
@@ -242,16 +246,13 @@ public class InvoiceResource extends JaxRsResourceBase {
         final URI nextPageUri = uriBuilder.nextPage(InvoiceResource.class, "getInvoices", invoices.getNextOffset(), limit, ImmutableMap.<String, String>of(QUERY_INVOICE_WITH_ITEMS, withItems.toString(),
                                                                                                                                                            QUERY_AUDIT, auditMode.getLevel().toString()));
 
-        final AtomicReference<Map<UUID, AccountAuditLogs>> accountsAuditLogs = new AtomicReference<Map<UUID, AccountAuditLogs>>(new HashMap<UUID, AccountAuditLogs>());
+        final Map<UUID, AccountAuditLogs> accountsAuditLogs = new HashMap<UUID, AccountAuditLogs>();
         return buildStreamingPaginationResponse(invoices,
-                                                new Function<Invoice, InvoiceJson>() {
+                                                STREAMING_PAGINATION_CHUNK_SIZE,
+                                                new Function<List<Invoice>, List<InvoiceJson>>() {
                                                     @Override
-                                                    public InvoiceJson apply(final Invoice invoice) {
-                                                        // Cache audit logs per account
-                                                        if (accountsAuditLogs.get().get(invoice.getAccountId()) == null) {
-                                                            accountsAuditLogs.get().put(invoice.getAccountId(), auditUserApi.getAccountAuditLogs(invoice.getAccountId(), auditMode.getLevel(), tenantContext));
-                                                        }
-                                                        return new InvoiceJson(invoice, withItems, null, accountsAuditLogs.get().get(invoice.getAccountId()));
+                                                    public List<InvoiceJson> apply(final List<Invoice> invoicesChunk) {
+                                                        return getInvoices(invoicesChunk, withItems, auditMode.getLevel(), accountsAuditLogs, tenantContext);
                                                     }
                                                 },
                                                 nextPageUri
@@ -275,22 +276,39 @@ public class InvoiceResource extends JaxRsResourceBase {
         final URI nextPageUri = uriBuilder.nextPage(InvoiceResource.class, "searchInvoices", invoices.getNextOffset(), limit, ImmutableMap.<String, String>of("searchKey", searchKey,
                                                                                                                                                               QUERY_INVOICE_WITH_ITEMS, withItems.toString(),
                                                                                                                                                               QUERY_AUDIT, auditMode.getLevel().toString()));
-        final AtomicReference<Map<UUID, AccountAuditLogs>> accountsAuditLogs = new AtomicReference<Map<UUID, AccountAuditLogs>>(new HashMap<UUID, AccountAuditLogs>());
+        final Map<UUID, AccountAuditLogs> accountsAuditLogs = new HashMap<UUID, AccountAuditLogs>();
         return buildStreamingPaginationResponse(invoices,
-                                                new Function<Invoice, InvoiceJson>() {
+                                                STREAMING_PAGINATION_CHUNK_SIZE,
+                                                new Function<List<Invoice>, List<InvoiceJson>>() {
                                                     @Override
-                                                    public InvoiceJson apply(final Invoice invoice) {
-                                                        // Cache audit logs per account
-                                                        if (accountsAuditLogs.get().get(invoice.getAccountId()) == null) {
-                                                            accountsAuditLogs.get().put(invoice.getAccountId(), auditUserApi.getAccountAuditLogs(invoice.getAccountId(), auditMode.getLevel(), tenantContext));
-                                                        }
-                                                        return new InvoiceJson(invoice, withItems, null, accountsAuditLogs.get().get(invoice.getAccountId()));
+                                                    public List<InvoiceJson> apply(final List<Invoice> invoicesChunk) {
+                                                        return getInvoices(invoicesChunk, withItems, auditMode.getLevel(), accountsAuditLogs, tenantContext);
                                                     }
                                                 },
                                                 nextPageUri
                                                );
     }
 
+    private List<InvoiceJson> getInvoices(final List<Invoice> invoices, final Boolean withItems, final AuditLevel auditLevel,
+                                          final Map<UUID, AccountAuditLogs> accountsAuditLogs, final TenantContext tenantContext) {
+        // Audit logs are cached per account across chunks: only retrieve the ones for accounts not seen yet
+        final Set<UUID> accountIds = new HashSet<UUID>();
+        for (final Invoice invoice : invoices) {
+            if (accountsAuditLogs.get(invoice.getAccountId()) == null) {
+                accountIds.add(invoice.getAccountId());
+            }
+        }
+        if (!accountIds.isEmpty()) {
+            accountsAuditLogs.putAll(auditInternalApi.getAccountsAuditLogs(accountIds, auditLevel, context.createInternalTenantContext(tenantContext)));
+        }
+
+        final List<InvoiceJson> invoicesJson = new ArrayList<InvoiceJson>(invoices.size());
+        for (final Invoice invoice : invoices) {
+            invoicesJson.add(new InvoiceJson(invoice, withItems, null, accountsAuditLogs.get(invoice.getAccountId())));
+        }
+        return invoicesJson;
+    }
+
     @TimedResource
     @POST
     @Consumes(APPLICATION_JSON)
@@ -122,6 +122,9 @@ public abstract class JaxRsResourceBase implements JaxrsResource {
 
     protected static final ObjectMapper mapper = new ObjectMapper();
 
+    // Number of entities converted at once when their json representation is built with set-based queries
+    protected static final int STREAMING_PAGINATION_CHUNK_SIZE = 100;
+
     protected final JaxrsUriBuilder uriBuilder;
     protected final TagUserApi tagUserApi;
     protected final CustomFieldUserApi customFieldUserApi;
@@ -311,6 +314,26 @@ public abstract class JaxRsResourceBase implements JaxrsResource {
     protected <E extends Entity, J extends JsonBase> Response buildStreamingPaginationResponse(final Pagination<E> entities,
                                                                                                final Function<E, J> toJson,
                                                                                                final URI nextPageUri) {
+        return buildStreamingPaginationResponse(entities,
+                                                1,
+                                                new Function<List<E>, List<J>>() {
+                                                    @Override
+                                                    public List<J> apply(final List<E> chunk) {
+                                                        return Lists.<E, J>transform(chunk, toJson);
+                                                    }
+                                                },
+                                                nextPageUri);
+    }
+
+    /**
+     * Entities are handed over chunkSize at a time to chunkToJson, so that the data needed to build their json representation
+     * (balances, audit logs, etc.) can be retrieved with one query per chunk instead of one query per entity.
+     * chunkToJson must return, in order, one json object per entity (null to skip it).
+     */
+    protected <E extends Entity, J extends JsonBase> Response buildStreamingPaginationResponse(final Pagination<E> entities,
+                                                                                               final int chunkSize,
+                                                                                               final Function<List<E>, List<J>> chunkToJson,
+                                                                                               final URI nextPageUri) {
         final StreamingOutput json = new StreamingOutput() {
             @Override
             public void write(final OutputStream output) throws IOException, WebApplicationException {
@@ -321,12 +344,19 @@ public abstract class JaxRsResourceBase implements JaxrsResource {
                     generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
 
                     generator.writeStartArray();
+                    List<E> chunk = new ArrayList<E>(chunkSize);
                     while (iterator.hasNext()) {
-                        final E entity = iterator.next();
-                        final J asJson = toJson.apply(entity);
-                        if (asJson != null) {
-                            generator.writeObject(asJson);
+                        chunk.add(iterator.next());
+                        if (chunk.size() < chunkSize && iterator.hasNext()) {
+                            continue;
+                        }
+
+                        for (final J asJson : chunkToJson.apply(chunk)) {
+                            if (asJson != null) {
+                                generator.writeObject(asJson);
+                            }
                         }
+                        chunk = new ArrayList<E>(chunkSize);
                     }
                     generator.writeEndArray();
                     generator.close();
@@ -155,6 +155,8 @@ public interface JaxrsResource {
 
     public static final String QUERY_AUTO_COMMIT = "autoCommit";
 
+    public static final String QUERY_COMPRESSION = "compression";
+
     public static final String QUERY_NOTIFICATION_CALLBACK = "cb";
 
     public static final String PAGINATION = "pagination";
@@ -238,9 +240,11 @@ public interface JaxrsResource {
 
     public static final String USAGES = "usages";
     public static final String USAGES_PATH = PREFIX + "/" + USAGES;
+    public static final String BULK = "bulk";
 
     public static final String EXPORT = "export";
     public static final String EXPORT_PATH = PREFIX + "/" + EXPORT;
+    public static final String BINARY = "binary";
 
     public static final String PLUGINS_INFO = "pluginsInfo";
     public static final String PLUGINS_INFO_PATH = PREFIX + "/" + PLUGINS_INFO;
@@ -285,6 +289,7 @@ public interface JaxrsResource {
     public static final String TRANSFER_CREDIT = "transferCredit";
 
     public static final String CACHE = "cache";
+    public static final String ACCOUNT_BALANCE_SUMMARY = "balanceSummary";
 
     public static final String QUERY_INCLUDED_DELETED = "includedDeleted";
 
@@ -331,7 +331,7 @@ public class TenantResource extends JaxRsResourceBase {
     @Consumes(TEXT_PLAIN)
     @Produces(APPLICATION_JSON)
     @ApiOperation(value = "Add a per tenant user key/value")
-    @ApiResponses(value = {@ApiResponse(code = 400, message = "Invalid tenantId supplied")})
+    @ApiResponses(value = {@ApiResponse(code = 400, message = "Invalid tenantId or reserved key supplied")})
     public Response insertUserKeyValue(@PathParam("keyName") final String key,
                                final String value,
                                @HeaderParam(HDR_CREATED_BY) final String createdBy,
@@ -16,7 +16,12 @@
 
 package org.killbill.billing.jaxrs.resources;
 
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.inject.Inject;
@@ -34,8 +39,12 @@ import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriInfo;
 
 import org.joda.time.LocalDate;
+import org.killbill.billing.ObjectType;
 import org.killbill.billing.account.api.AccountApiException;
 import org.killbill.billing.account.api.AccountUserApi;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.entitlement.AccountEntitlements;
+import org.killbill.billing.entitlement.EntitlementInternalApi;
 import org.killbill.billing.entitlement.api.Entitlement;
 import org.killbill.billing.entitlement.api.Entitlement.EntitlementState;
 import org.killbill.billing.entitlement.api.EntitlementApi;
@@ -47,6 +56,7 @@ import org.killbill.billing.jaxrs.json.SubscriptionUsageRecordJson.UsageRecordJs
 import org.killbill.billing.jaxrs.util.Context;
 import org.killbill.billing.jaxrs.util.JaxrsUriBuilder;
 import org.killbill.billing.payment.api.PaymentApi;
+import org.killbill.billing.usage.BulkUsageUserApi;
 import org.killbill.billing.usage.api.RolledUpUsage;
 import org.killbill.billing.usage.api.SubscriptionUsageRecord;
 import org.killbill.billing.usage.api.UsageApiException;
@@ -59,9 +69,11 @@ import org.killbill.billing.util.callcontext.TenantContext;
 import org.killbill.clock.Clock;
 import org.killbill.commons.metrics.TimedResource;
 
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 import com.google.inject.Singleton;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
@@ -76,7 +88,9 @@ import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 public class UsageResource extends JaxRsResourceBase {
 
     private final UsageUserApi usageUserApi;
+    private final BulkUsageUserApi bulkUsageUserApi;
     private final EntitlementApi entitlementApi;
+    private final EntitlementInternalApi entitlementInternalApi;
 
     @Inject
     public UsageResource(final JaxrsUriBuilder uriBuilder,
@@ -85,13 +99,17 @@ public class UsageResource extends JaxRsResourceBase {
                          final AuditUserApi auditUserApi,
                          final AccountUserApi accountUserApi,
                          final UsageUserApi usageUserApi,
+                         final BulkUsageUserApi bulkUsageUserApi,
                          final PaymentApi paymentApi,
                          final EntitlementApi entitlementApi,
+                         final EntitlementInternalApi entitlementInternalApi,
                          final Clock clock,
                          final Context context) {
         super(uriBuilder, tagUserApi, customFieldUserApi, auditUserApi, accountUserApi, paymentApi, null, clock, context);
         this.usageUserApi = usageUserApi;
+        this.bulkUsageUserApi = bulkUsageUserApi;
         this.entitlementApi = entitlementApi;
+        this.entitlementInternalApi = entitlementInternalApi;
     }
 
     @TimedResource
@@ -109,18 +127,7 @@ public class UsageResource extends JaxRsResourceBase {
                                                                                         AccountApiException,
                                                                                         UsageApiException {
         verifyNonNullOrEmpty(json, "SubscriptionUsageRecordJson body should be specified");
-        verifyNonNullOrEmpty(json.getSubscriptionId(), "SubscriptionUsageRecordJson subscriptionId needs to be set",
-                             json.getUnitUsageRecords(), "SubscriptionUsageRecordJson unitUsageRecords needs to be set");
-        Preconditions.checkArgument(!json.getUnitUsageRecords().isEmpty());
-        for (final UnitUsageRecordJson unitUsageRecordJson : json.getUnitUsageRecords()) {
-            verifyNonNullOrEmpty(unitUsageRecordJson.getUnitType(), "UnitUsageRecordJson unitType need to be set");
-            Preconditions.checkArgument(Iterables.size(unitUsageRecordJson.getUsageRecords()) > 0,
-                                        "UnitUsageRecordJson usageRecords must have at least one element.");
-            for (final UsageRecordJson usageRecordJson : unitUsageRecordJson.getUsageRecords()) {
-                verifyNonNull(usageRecordJson.getAmount(), "UsageRecordJson amount needs to be set");
-                verifyNonNull(usageRecordJson.getRecordDate(), "UsageRecordJson recordDate needs to be set");
-            }
-        }
+        verifySubscriptionUsageRecordJson(json);
         final CallContext callContext = context.createContext(createdBy, reason, comment, request);
         // Verify subscription exists..
         final Entitlement entitlement = entitlementApi.getEntitlementForId(UUID.fromString(json.getSubscriptionId()), callContext);
@@ -133,6 +140,57 @@ public class UsageResource extends JaxRsResourceBase {
         return Response.status(Status.CREATED).build();
     }
 
+    @TimedResource
+    @POST
+    @Path("/" + BULK)
+    @Consumes(APPLICATION_JSON)
+    @Produces(APPLICATION_JSON)
+    @ApiOperation(value = "Record usage for several subscriptions")
+    @ApiResponses(value = {@ApiResponse(code = 400, message = "Invalid subscription (e.g. inactive)")})
+    public Response recordBulkUsage(final List<SubscriptionUsageRecordJson> json,
+                                    @HeaderParam(HDR_CREATED_BY) final String createdBy,
+                                    @HeaderParam(HDR_REASON) final String reason,
+                                    @HeaderParam(HDR_COMMENT) final String comment,
+                                    @javax.ws.rs.core.Context final HttpServletRequest request,
+                                    @javax.ws.rs.core.Context final UriInfo uriInfo) throws EntitlementApiException,
+                                                                                            AccountApiException,
+                                                                                            UsageApiException {
+        verifyNonNullOrEmpty(json, "SubscriptionUsageRecordJson list should be specified");
+        final Set<UUID> subscriptionIds = new LinkedHashSet<UUID>();
+        for (final SubscriptionUsageRecordJson subscriptionUsageRecordJson : json) {
+            verifySubscriptionUsageRecordJson(subscriptionUsageRecordJson);
+            subscriptionIds.add(UUID.fromString(subscriptionUsageRecordJson.getSubscriptionId()));
+        }
+        final CallContext callContext = context.createContext(createdBy, reason, comment, request);
+        // Verify subscriptions exist (with a single lookup per account)..
+        final Map<UUID, InternalCallContext> internalCallContexts = context.createInternalCallContexts(subscriptionIds, ObjectType.SUBSCRIPTION, callContext);
+        final Set<InternalCallContext> accountContexts = Sets.<InternalCallContext>newIdentityHashSet();
+        accountContexts.addAll(internalCallContexts.values());
+        final Set<UUID> activeSubscriptionIds = new HashSet<UUID>();
+        for (final InternalCallContext accountContext : accountContexts) {
+            final AccountEntitlements accountEntitlements = entitlementInternalApi.getAllEntitlementsForAccount(accountContext);
+            for (final Collection<Entitlement> entitlements : accountEntitlements.getEntitlements().values()) {
+                for (final Entitlement entitlement : entitlements) {
+                    if (entitlement.getState() == EntitlementState.ACTIVE) {
+                        activeSubscriptionIds.add(entitlement.getId());
+                    }
+                }
+            }
+        }
+        if (!activeSubscriptionIds.containsAll(subscriptionIds)) {
+            return Response.status(Status.BAD_REQUEST).build();
+        }
+
+        final List<SubscriptionUsageRecord> records = ImmutableList.<SubscriptionUsageRecord>copyOf(Iterables.<SubscriptionUsageRecordJson, SubscriptionUsageRecord>transform(json, new Function<SubscriptionUsageRecordJson, SubscriptionUsageRecord>() {
+            @Override
+            public SubscriptionUsageRecord apply(final SubscriptionUsageRecordJson input) {
+                return input.toSubscriptionUsageRecord();
+            }
+        }));
+        bulkUsageUserApi.recordRolledUpUsage(records, callContext);
+        return Response.status(Status.CREATED).build();
+    }
+
     @TimedResource
     @GET
     @Path("/{subscriptionId:" + UUID_PATTERN + "}/{unitType}")
@@ -183,5 +241,19 @@ public class UsageResource extends JaxRsResourceBase {
         return Response.status(Status.OK).entity(result).build();
     }
 
+    private void verifySubscriptionUsageRecordJson(final SubscriptionUsageRecordJson json) {
+        verifyNonNullOrEmpty(json, "SubscriptionUsageRecordJson should be specified");
+        verifyNonNullOrEmpty(json.getSubscriptionId(), "SubscriptionUsageRecordJson subscriptionId needs to be set",
+                             json.getUnitUsageRecords(), "SubscriptionUsageRecordJson unitUsageRecords needs to be set");
+        Preconditions.checkArgument(!json.getUnitUsageRecords().isEmpty());
+        for (final UnitUsageRecordJson unitUsageRecordJson : json.getUnitUsageRecords()) {
+            verifyNonNullOrEmpty(unitUsageRecordJson.getUnitType(), "UnitUsageRecordJson unitType need to be set");
+            Preconditions.checkArgument(Iterables.size(unitUsageRecordJson.getUsageRecords()) > 0,
+                                        "UnitUsageRecordJson usageRecords must have at least one element.");
+            for (final UsageRecordJson usageRecordJson : unitUsageRecordJson.getUsageRecords()) {
+                verifyNonNull(usageRecordJson.getAmount(), "UsageRecordJson amount needs to be set");
+                verifyNonNull(usageRecordJson.getRecordDate(), "UsageRecordJson recordDate needs to be set");
+            }
+        }
+    }
 }
-
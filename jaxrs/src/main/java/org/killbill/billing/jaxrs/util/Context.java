@@ -18,10 +18,14 @@
 
 package org.killbill.billing.jaxrs.util;
 
+import java.util.Map;
 import java.util.UUID;
 
 import javax.servlet.ServletRequest;
 
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.jaxrs.resources.JaxrsResource;
 import org.killbill.billing.tenant.api.Tenant;
 import org.killbill.billing.util.UUIDs;
@@ -83,6 +87,20 @@ public class Context {
         return tenantContext;
     }
 
+    // For internal APIs working across accounts (e.g. to enrich a page of results)
+    public InternalTenantContext createInternalTenantContext(final TenantContext tenantContext) {
+        return internalCallContextFactory.createInternalTenantContextWithoutAccountRecordId(tenantContext);
+    }
+
+    public InternalCallContext createInternalCallContext(final UUID accountId, final CallContext callContext) {
+        return internalCallContextFactory.createInternalCallContext(accountId, callContext);
+    }
+
+    // Resolves the accounts of all objects at once: contexts are shared by the objects of a given account
+    public Map<UUID, InternalCallContext> createInternalCallContexts(final Iterable<UUID> objectIds, final ObjectType objectType, final CallContext callContext) {
+        return internalCallContextFactory.createInternalCallContexts(objectIds, objectType, callContext);
+    }
+
     // Use REQUEST_ID_HEADER if this is provided and lloks like a UUID, if not allocate a random one.
     public static  UUID getOrCreateUserToken() {
         UUID userToken;
@@ -63,6 +63,9 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Collections2;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 
 public class DefaultInternalBillingApi implements BillingInternalApi {
@@ -137,6 +140,9 @@ public class DefaultInternalBillingApi implements BillingInternalApi {
 
         final boolean dryRunMode = dryRunArguments != null;
 
+        final Catalog catalog = catalogService.getFullCatalog(true, true, context);
+        int currentAccountBCD = accountApi.getBCD(account.getId(), context);
+
         // In dryRun mode, when we care about invoice generated for new BASE subscription, no such bundle exists yet; we still
         // want to tap into subscriptionBase logic, so we make up a bundleId
         if (dryRunArguments != null &&
@@ -145,47 +151,57 @@ public class DefaultInternalBillingApi implements BillingInternalApi {
             final UUID fakeBundleId = UUIDs.randomUUID();
             final List<SubscriptionBase> subscriptions = subscriptionApi.getSubscriptionsForBundle(fakeBundleId, dryRunArguments, context);
 
-            addBillingEventsForSubscription(account, subscriptions, null, dryRunMode, context, result, skipSubscriptionsSet);
-
+            currentAccountBCD = addBillingEventsForSubscription(account, subscriptions, null, currentAccountBCD, catalog, dryRunMode, context, result, skipSubscriptionsSet);
         }
 
+        // Bulk load the subscriptions (with their events) and the bundle tags for the whole account, instead of issuing these queries for each bundle
+        final Map<UUID, List<SubscriptionBase>> subscriptionsForAccount = bundles.isEmpty() ? ImmutableMap.<UUID, List<SubscriptionBase>>of() : subscriptionApi.getSubscriptionsForAccount(context);
+        final Set<UUID> bundleIdsWithAutoInvoicingOff = bundles.isEmpty() ? ImmutableSet.<UUID>of() : getObjectIdsWith_AUTO_INVOICING_OFF(tagApi.getTagsForAccountType(ObjectType.BUNDLE, false, context));
+
         for (final SubscriptionBaseBundle bundle : bundles) {
             final DryRunArguments dryRunArgumentsForBundle = (dryRunArguments != null &&
                                                               dryRunArguments.getBundleId() != null &&
                                                               dryRunArguments.getBundleId().equals(bundle.getId())) ?
                                                              dryRunArguments : null;
-            final List<SubscriptionBase> subscriptions = subscriptionApi.getSubscriptionsForBundle(bundle.getId(), dryRunArgumentsForBundle, context);
+            final List<SubscriptionBase> subscriptions;
+            if (dryRunArgumentsForBundle != null) {
+                // The dryRun events need to be merged in, for that bundle only
+                subscriptions = subscriptionApi.getSubscriptionsForBundle(bundle.getId(), dryRunArgumentsForBundle, context);
+            } else if (subscriptionsForAccount.get(bundle.getId()) != null) {
+                subscriptions = subscriptionsForAccount.get(bundle.getId());
+            } else {
+                subscriptions = ImmutableList.<SubscriptionBase>of();
+            }
 
             //Check if billing is off for the bundle
-            final List<Tag> bundleTags = tagApi.getTags(bundle.getId(), ObjectType.BUNDLE, context);
-            boolean found_AUTO_INVOICING_OFF = is_AUTO_INVOICING_OFF(bundleTags);
-            if (found_AUTO_INVOICING_OFF) {
+            if (bundleIdsWithAutoInvoicingOff.contains(bundle.getId())) {
                 for (final SubscriptionBase subscription : subscriptions) { // billing is off so list sub ids in set to be excluded
                     result.getSubscriptionIdsWithAutoInvoiceOff().add(subscription.getId());
                 }
             } else { // billing is not off
                 final SubscriptionBase baseSubscription = !subscriptions.isEmpty() ? subscriptions.get(0) : null;
-                addBillingEventsForSubscription(account, subscriptions, baseSubscription, dryRunMode, context, result, skipSubscriptionsSet);
+                currentAccountBCD = addBillingEventsForSubscription(account, subscriptions, baseSubscription, currentAccountBCD, catalog, dryRunMode, context, result, skipSubscriptionsSet);
             }
         }
     }
 
-
-    private void addBillingEventsForSubscription(final ImmutableAccountData account,
-                                                 final List<SubscriptionBase> subscriptions,
-                                                 final SubscriptionBase baseSubscription,
-                                                 final boolean dryRunMode,
-                                                 final InternalCallContext context,
-                                                 final DefaultBillingEventSet result,
-                                                 final Set<UUID> skipSubscriptionsSet) throws AccountApiException, CatalogApiException, SubscriptionBaseApiException {
+    // Return the (possibly updated) account BCD
+    private int addBillingEventsForSubscription(final ImmutableAccountData account,
+                                                final List<SubscriptionBase> subscriptions,
+                                                final SubscriptionBase baseSubscription,
+                                                final int currentAccountBCD,
+                                                final Catalog catalog,
+                                                final boolean dryRunMode,
+                                                final InternalCallContext context,
+                                                final DefaultBillingEventSet result,
+                                                final Set<UUID> skipSubscriptionsSet) throws AccountApiException, CatalogApiException, SubscriptionBaseApiException {
 
         // If dryRun is specified, we don't want to to update the account BCD value, so we initialize the flag updatedAccountBCD to true
         boolean updatedAccountBCD = dryRunMode;
+        int newAccountBCD = currentAccountBCD;
 
         final Map<UUID, Integer> bcdCache = new HashMap<UUID, Integer>();
 
-        int currentAccountBCD = accountApi.getBCD(account.getId(), context);
-
         for (final SubscriptionBase subscription : subscriptions) {
 
 
@@ -195,11 +211,9 @@ public class DefaultInternalBillingApi implements BillingInternalApi {
                  billingTransitions.get(0).getTransitionType() != SubscriptionBaseTransitionType.TRANSFER)) {
                 log.warn("Skipping billing events for subscription " + subscription.getId() + ": Does not start with a valid CREATE transition");
                 skipSubscriptionsSet.add(subscription.getId());
-                return;
+                return newAccountBCD;
             }
 
-            final Catalog catalog = catalogService.getFullCatalog(true, true, context);
-
             Integer overridenBCD = null;
             for (final EffectiveSubscriptionInternalEvent transition : billingTransitions) {
                 //
@@ -216,12 +230,14 @@ public class DefaultInternalBillingApi implements BillingInternalApi {
                     log.info("Setting account BCD='{}', accountId='{}'", bcdLocal, account.getId());
                     accountApi.updateBCD(account.getExternalKey(), bcdLocal, context);
                     updatedAccountBCD = true;
+                    newAccountBCD = bcdLocal;
                 }
 
                 final BillingEvent event = new DefaultBillingEvent(transition, subscription, bcdLocal, account.getCurrency(), catalog);
                 result.add(event);
             }
         }
+        return newAccountBCD;
     }
 
     private int calculateBcdForTransition(final Catalog catalog, final Map<UUID, Integer> bcdCache, final SubscriptionBase baseSubscription, final SubscriptionBase subscription, final int accountBillCycleDayLocal, final EffectiveSubscriptionInternalEvent transition, final InternalTenantContext internalTenantContext)
@@ -244,6 +260,16 @@ public class DefaultInternalBillingApi implements BillingInternalApi {
 
     }
 
+    private Set<UUID> getObjectIdsWith_AUTO_INVOICING_OFF(final List<Tag> tags) {
+        final Set<UUID> result = new HashSet<UUID>();
+        for (final Tag tag : tags) {
+            if (ControlTagType.isAutoInvoicingOff(ImmutableList.<UUID>of(tag.getTagDefinitionId()))) {
+                result.add(tag.getObjectId());
+            }
+        }
+        return result;
+    }
+
     private boolean is_AUTO_INVOICING_OFF(final List<Tag> tags) {
         return ControlTagType.isAutoInvoicingOff(Collections2.transform(tags, new Function<Tag, UUID>() {
             @Nullable
@@ -19,6 +19,7 @@
 package org.killbill.billing.overdue.notification;
 
 import org.joda.time.DateTime;
+import org.killbill.billing.overdue.notification.OverdueAsyncBusNotificationKey.OverdueAsyncBusNotificationAction;
 import org.killbill.billing.util.cache.CacheControllerDispatcher;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.dao.NonEntityDao;
@@ -29,7 +30,6 @@ import org.killbill.notificationq.api.NotificationQueue;
 import org.killbill.notificationq.api.NotificationQueueService;
 import org.skife.jdbi.v2.IDBI;
 
-import com.google.common.collect.Iterables;
 import com.google.inject.Inject;
 
 public class OverdueAsyncBusPoster extends DefaultOverduePosterBase {
@@ -45,11 +45,28 @@ public class OverdueAsyncBusPoster extends DefaultOverduePosterBase {
     protected <T extends OverdueCheckNotificationKey> boolean cleanupFutureNotificationsFormTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory,
                                                                                                         final Iterable<NotificationEventWithMetadata<T>> futureNotifications,
                                                                                                         final DateTime futureNotificationTime,
+                                                                                                        final T notificationKey,
                                                                                                         final NotificationQueue overdueQueue) {
-        // If we already have notification for that account we don't insert the new one
-        // Note that this is slightly incorrect because we could for instance already have a REFRESH and insert a CLEAR, but if that were the case,
+        // If we already have notification for that account we don't insert the new one: all REFRESH events received while one is pending
+        // (see org.killbill.overdue.refresh.coalescing.window) are coalesced into a single evaluation.
+        // A CLEAR however supersedes any pending REFRESH, which would otherwise delay (or drop) it.
+        // Note that this is slightly incorrect because we could for instance already have a CLEAR and insert a REFRESH, but if that were the case,
         // if means overdue state would change very rapidly and the behavior would anyway be non deterministic
-        // Note: don't use isEmpty() to go through all results to close the connection
-        return Iterables.<NotificationEventWithMetadata<T>>size(futureNotifications) == 0;
+        final boolean isClear = isClear(notificationKey);
+        boolean shouldInsertNewNotification = true;
+        // Note: go through all results to close the connection
+        for (final NotificationEventWithMetadata<T> cur : futureNotifications) {
+            if (isClear && !isClear(cur.getEvent())) {
+                overdueQueue.removeNotificationFromTransaction(entitySqlDaoWrapperFactory.getHandle().getConnection(), cur.getRecordId());
+            } else {
+                shouldInsertNewNotification = false;
+            }
+        }
+        return shouldInsertNewNotification;
+    }
+
+    private boolean isClear(final OverdueCheckNotificationKey notificationKey) {
+        return notificationKey instanceof OverdueAsyncBusNotificationKey &&
+               ((OverdueAsyncBusNotificationKey) notificationKey).getAction() == OverdueAsyncBusNotificationAction.CLEAR;
     }
 }
@@ -43,7 +43,8 @@ public class OverdueCheckPoster extends DefaultOverduePosterBase {
     @Override
     protected <T extends OverdueCheckNotificationKey> boolean cleanupFutureNotificationsFormTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory,
                                                                                                         final Iterable<NotificationEventWithMetadata<T>> futureNotifications,
-                                                                                                        final DateTime futureNotificationTime, final NotificationQueue overdueQueue) {
+                                                                                                        final DateTime futureNotificationTime, final T notificationKey,
+                                                                                                        final NotificationQueue overdueQueue) {
 
         boolean shouldInsertNewNotification = true;
         int minIndexToDeleteFrom = 0;
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.overdue.notification;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.killbill.billing.overdue.OverdueTestSuiteWithEmbeddedDB;
+import org.killbill.billing.overdue.notification.OverdueAsyncBusNotificationKey.OverdueAsyncBusNotificationAction;
+import org.killbill.billing.overdue.service.DefaultOverdueService;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionWrapper;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionalJdbiWrapper;
+import org.killbill.billing.util.entity.dao.EntitySqlDaoWrapperFactory;
+import org.killbill.notificationq.api.NotificationEventWithMetadata;
+import org.killbill.notificationq.api.NotificationQueue;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class TestOverdueAsyncBusPoster extends OverdueTestSuiteWithEmbeddedDB {
+
+    private EntitySqlDaoTransactionalJdbiWrapper entitySqlDaoTransactionalJdbiWrapper;
+    private NotificationQueue overdueQueue;
+    private DateTime testReferenceTime;
+
+    @Override
+    @BeforeMethod(groups = "slow")
+    public void beforeMethod() throws Exception {
+        super.beforeMethod();
+        entitySqlDaoTransactionalJdbiWrapper = new EntitySqlDaoTransactionalJdbiWrapper(dbi, clock, cacheControllerDispatcher, nonEntityDao, internalCallContextFactory);
+
+        overdueQueue = notificationQueueService.getNotificationQueue(DefaultOverdueService.OVERDUE_SERVICE_NAME,
+                                                                     OverdueAsyncBusNotifier.OVERDUE_ASYNC_BUS_NOTIFIER_QUEUE);
+        Assert.assertTrue(overdueQueue.isStarted());
+
+        testReferenceTime = clock.getUTCNow();
+    }
+
+    @Test(groups = "slow")
+    public void testShouldCoalesceRefreshNotifications() throws Exception {
+        final UUID accountId = UUID.randomUUID();
+
+        // Successive REFRESH are coalesced into the pending one
+        insertAndVerifyQueueContent(accountId, OverdueAsyncBusNotificationAction.REFRESH, 10, OverdueAsyncBusNotificationAction.REFRESH, 10);
+        insertAndVerifyQueueContent(accountId, OverdueAsyncBusNotificationAction.REFRESH, 20, OverdueAsyncBusNotificationAction.REFRESH, 10);
+        insertAndVerifyQueueContent(accountId, OverdueAsyncBusNotificationAction.REFRESH, 30, OverdueAsyncBusNotificationAction.REFRESH, 10);
+
+        // A CLEAR supersedes the pending REFRESH
+        insertAndVerifyQueueContent(accountId, OverdueAsyncBusNotificationAction.CLEAR, 5, OverdueAsyncBusNotificationAction.CLEAR, 5);
+
+        // Nothing to do while the CLEAR is pending
+        insertAndVerifyQueueContent(accountId, OverdueAsyncBusNotificationAction.REFRESH, 40, OverdueAsyncBusNotificationAction.CLEAR, 5);
+        insertAndVerifyQueueContent(accountId, OverdueAsyncBusNotificationAction.CLEAR, 50, OverdueAsyncBusNotificationAction.CLEAR, 5);
+    }
+
+    private void insertAndVerifyQueueContent(final UUID accountId,
+                                             final OverdueAsyncBusNotificationAction action,
+                                             final int nbMinutesInFuture,
+                                             final OverdueAsyncBusNotificationAction expectedAction,
+                                             final int expectedNbMinutesInFuture) {
+        final DateTime futureNotificationTime = testReferenceTime.plusMinutes(nbMinutesInFuture);
+
+        final OverdueAsyncBusNotificationKey notificationKey = new OverdueAsyncBusNotificationKey(accountId, action);
+        asyncPoster.insertOverdueNotification(accountId, futureNotificationTime, OverdueAsyncBusNotifier.OVERDUE_ASYNC_BUS_NOTIFIER_QUEUE, notificationKey, internalCallContext);
+
+        final List<NotificationEventWithMetadata<OverdueAsyncBusNotificationKey>> notificationsForKey = getNotificationsForAccount();
+        Assert.assertEquals(notificationsForKey.size(), 1);
+        final NotificationEventWithMetadata<OverdueAsyncBusNotificationKey> nm = notificationsForKey.get(0);
+        Assert.assertEquals(nm.getEvent(), new OverdueAsyncBusNotificationKey(accountId, expectedAction));
+        Assert.assertEquals(nm.getEffectiveDate(), testReferenceTime.plusMinutes(expectedNbMinutesInFuture));
+    }
+
+    private List<NotificationEventWithMetadata<OverdueAsyncBusNotificationKey>> getNotificationsForAccount() {
+        return entitySqlDaoTransactionalJdbiWrapper.execute(new EntitySqlDaoTransactionWrapper<List<NotificationEventWithMetadata<OverdueAsyncBusNotificationKey>>>() {
+            @Override
+            public List<NotificationEventWithMetadata<OverdueAsyncBusNotificationKey>> inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                return ImmutableList.<NotificationEventWithMetadata<OverdueAsyncBusNotificationKey>>copyOf(((OverdueAsyncBusPoster) asyncPoster).getFutureNotificationsForAccountInTransaction(entitySqlDaoWrapperFactory, overdueQueue, OverdueAsyncBusNotificationKey.class, internalCallContext));
+            }
+        });
+    }
+}
@@ -144,6 +144,16 @@ public class MultiTenantPaymentConfig extends MultiTenantConfigBase implements P
         return staticConfig.getJanitorRunningRate();
     }
 
+    @Override
+    public int getJanitorThreadNb() {
+        return staticConfig.getJanitorThreadNb();
+    }
+
+    @Override
+    public int getJanitorPluginRate() {
+        return staticConfig.getJanitorPluginRate();
+    }
+
     @Override
     public TimeSpan getIncompleteAttemptsTimeSpanDelay() {
         return staticConfig.getIncompleteAttemptsTimeSpanDelay();
@@ -164,6 +174,51 @@ public class MultiTenantPaymentConfig extends MultiTenantConfigBase implements P
         return staticConfig.getPaymentPluginThreadNb();
     }
 
+    @Override
+    public boolean isPaymentPluginThreadsOnDemand() {
+        return staticConfig.isPaymentPluginThreadsOnDemand();
+    }
+
+    @Override
+    public int getPaymentPluginThreadsOnDemandMax() {
+        return staticConfig.getPaymentPluginThreadsOnDemandMax();
+    }
+
+    @Override
+    public int getPaymentPluginConcurrencyLimit() {
+        return staticConfig.getPaymentPluginConcurrencyLimit();
+    }
+
+    @Override
+    public int getPaymentPluginBulkheadThreadNb() {
+        return staticConfig.getPaymentPluginBulkheadThreadNb();
+    }
+
+    @Override
+    public int getPaymentPluginBulkheadQueueSize() {
+        return staticConfig.getPaymentPluginBulkheadQueueSize();
+    }
+
+    @Override
+    public int getPaymentPluginCircuitBreakerFailureRate() {
+        return staticConfig.getPaymentPluginCircuitBreakerFailureRate();
+    }
+
+    @Override
+    public int getPaymentPluginCircuitBreakerWindow() {
+        return staticConfig.getPaymentPluginCircuitBreakerWindow();
+    }
+
+    @Override
+    public TimeSpan getPaymentPluginCircuitBreakerSlowCall() {
+        return staticConfig.getPaymentPluginCircuitBreakerSlowCall();
+    }
+
+    @Override
+    public TimeSpan getPaymentPluginCircuitBreakerOpenDuration() {
+        return staticConfig.getPaymentPluginCircuitBreakerOpenDuration();
+    }
+
     @Override
     public int getMaxGlobalLockRetries() {
         return staticConfig.getMaxGlobalLockRetries();
@@ -17,24 +17,37 @@
 
 package org.killbill.billing.payment.core;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
+import org.killbill.billing.payment.dispatcher.PluginBulkhead;
+import org.killbill.billing.payment.dispatcher.PluginCircuitBreaker;
 import org.killbill.billing.util.config.definition.PaymentConfig;
 import org.killbill.commons.concurrent.Executors;
 import org.killbill.commons.concurrent.WithProfilingThreadPoolExecutor;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+
 public class PaymentExecutors {
 
     private static final long TIMEOUT_EXECUTOR_SEC = 3L;
 
     private static final int DEFAULT_MIN_PLUGIN_THREADS = 5;
+    private static final long ON_DEMAND_PLUGIN_THREADS_KEEP_ALIVE_SEC = 60L;
 
     private static final String PLUGIN_THREAD_PREFIX = "Plugin-th-";
     private static final String PAYMENT_PLUGIN_TH_GROUP_NAME = "pay-plugin-grp";
@@ -42,33 +55,60 @@ public class PaymentExecutors {
     public static final String JANITOR_EXECUTOR_NAMED = "JanitorExecutor";
     public static final String PLUGIN_EXECUTOR_NAMED = "PluginExecutor";
 
+    private static final String PLUGIN_METRICS_PREFIX = "killbill.payment.plugin";
+
     private final PaymentConfig paymentConfig;
+    private final MetricRegistry metricRegistry;
+    private final ConcurrentMap<String, PluginBulkhead> pluginBulkheads = new ConcurrentHashMap<String, PluginBulkhead>();
 
     private volatile ThreadPoolExecutor pluginExecutorService;
     private volatile ScheduledExecutorService janitorExecutorService;
+    private volatile ExecutorService janitorWorkerExecutorService;
 
     @Inject
-    public PaymentExecutors(PaymentConfig paymentConfig) {
+    public PaymentExecutors(final PaymentConfig paymentConfig, final MetricRegistry metricRegistry) {
         this.paymentConfig = paymentConfig;
-
+        this.metricRegistry = metricRegistry;
     }
 
     public void initialize() {
         this.pluginExecutorService = createPluginExecutorService();
         this.pluginExecutorService.prestartAllCoreThreads();
         this.janitorExecutorService = createJanitorExecutorService();
+        this.janitorWorkerExecutorService = createJanitorWorkerExecutorService();
     }
 
 
     public void stop() throws InterruptedException {
         pluginExecutorService.shutdownNow();
         janitorExecutorService.shutdownNow();
+        for (final PluginBulkhead pluginBulkhead : pluginBulkheads.values()) {
+            if (pluginBulkhead.getExecutor() != pluginExecutorService) {
+                pluginBulkhead.getExecutor().shutdownNow();
+            }
+        }
 
         pluginExecutorService.awaitTermination(TIMEOUT_EXECUTOR_SEC, TimeUnit.SECONDS);
+        for (final PluginBulkhead pluginBulkhead : pluginBulkheads.values()) {
+            pluginBulkhead.getExecutor().awaitTermination(TIMEOUT_EXECUTOR_SEC, TimeUnit.SECONDS);
+        }
+        pluginBulkheads.clear();
+        metricRegistry.removeMatching(new MetricFilter() {
+            @Override
+            public boolean matches(final String name, final Metric metric) {
+                return name != null && name.startsWith(PLUGIN_METRICS_PREFIX);
+            }
+        });
         pluginExecutorService = null;
 
         janitorExecutorService.awaitTermination(TIMEOUT_EXECUTOR_SEC, TimeUnit.SECONDS);
         janitorExecutorService = null;
+
+        if (janitorWorkerExecutorService != null) {
+            janitorWorkerExecutorService.shutdownNow();
+            janitorWorkerExecutorService.awaitTermination(TIMEOUT_EXECUTOR_SEC, TimeUnit.SECONDS);
+            janitorWorkerExecutorService = null;
+        }
     }
 
     public ExecutorService getPluginExecutorService() {
@@ -79,7 +119,95 @@ public class PaymentExecutors {
         return janitorExecutorService;
     }
 
+    // Null when the janitor runs single threaded
+    public ExecutorService getJanitorWorkerExecutorService() {
+        return janitorWorkerExecutorService;
+    }
+
+    //
+    // Each plugin (or chain of control plugins) gets its own circuit breaker and metrics, and, when
+    // org.killbill.payment.plugin.bulkhead.threads.nb is set, its own bounded pool so that a slow gateway
+    // cannot exhaust the threads used to call the other ones. With on demand threads, there is no pool to
+    // exhaust and org.killbill.payment.plugin.concurrency.limit is what bounds the calls to each plugin.
+    //
+    public PluginBulkhead getPluginBulkhead(final String pluginName) {
+        final String key = Strings.nullToEmpty(pluginName);
+        final PluginBulkhead pluginBulkhead = pluginBulkheads.get(key);
+        return pluginBulkhead != null ? pluginBulkhead : createPluginBulkhead(key);
+    }
+
+    private synchronized PluginBulkhead createPluginBulkhead(final String pluginName) {
+        PluginBulkhead pluginBulkhead = pluginBulkheads.get(pluginName);
+        if (pluginBulkhead != null) {
+            return pluginBulkhead;
+        }
+
+        final boolean dedicatedExecutor = paymentConfig.getPaymentPluginBulkheadThreadNb() > 0 && !paymentConfig.isPaymentPluginThreadsOnDemand();
+        final ThreadPoolExecutor executor = dedicatedExecutor ? createPluginBulkheadExecutorService(pluginName) : pluginExecutorService;
+        final Semaphore permits = paymentConfig.getPaymentPluginConcurrencyLimit() > 0 ? new Semaphore(paymentConfig.getPaymentPluginConcurrencyLimit()) : null;
+        final PluginCircuitBreaker circuitBreaker = new PluginCircuitBreaker(paymentConfig.getPaymentPluginCircuitBreakerFailureRate(),
+                                                                             paymentConfig.getPaymentPluginCircuitBreakerWindow(),
+                                                                             TimeUnit.MILLISECONDS.toNanos(paymentConfig.getPaymentPluginCircuitBreakerSlowCall().getMillis()),
+                                                                             TimeUnit.MILLISECONDS.toNanos(paymentConfig.getPaymentPluginCircuitBreakerOpenDuration().getMillis()));
+        pluginBulkhead = new PluginBulkhead(pluginName,
+                                            executor,
+                                            circuitBreaker,
+                                            permits,
+                                            metricRegistry.timer(MetricRegistry.name(PLUGIN_METRICS_PREFIX, pluginName, "latency")),
+                                            metricRegistry.meter(MetricRegistry.name(PLUGIN_METRICS_PREFIX, pluginName, "rejections")));
+        registerGauge(MetricRegistry.name(PLUGIN_METRICS_PREFIX, pluginName, "queueSize"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return executor.getQueue().size();
+            }
+        });
+        registerGauge(MetricRegistry.name(PLUGIN_METRICS_PREFIX, pluginName, "activeThreads"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return executor.getActiveCount();
+            }
+        });
+        registerGauge(MetricRegistry.name(PLUGIN_METRICS_PREFIX, pluginName, "circuitBreaker"), new Gauge<String>() {
+            @Override
+            public String getValue() {
+                return circuitBreaker.getState().toString();
+            }
+        });
+
+        pluginBulkheads.put(pluginName, pluginBulkhead);
+        return pluginBulkhead;
+    }
+
+    private void registerGauge(final String name, final Gauge<?> gauge) {
+        metricRegistry.remove(name);
+        metricRegistry.register(name, gauge);
+    }
+
+    private ThreadPoolExecutor createPluginBulkheadExecutorService(final String pluginName) {
+        final int threadNb = paymentConfig.getPaymentPluginBulkheadThreadNb();
+        final ThreadPoolExecutor executor = new WithProfilingThreadPoolExecutor(threadNb,
+                                                                                threadNb,
+                                                                                10,
+                                                                                TimeUnit.MINUTES,
+                                                                                new LinkedBlockingQueue<Runnable>(paymentConfig.getPaymentPluginBulkheadQueueSize()),
+                                                                                new ThreadFactory() {
+
+                                                                                    @Override
+                                                                                    public Thread newThread(final Runnable r) {
+                                                                                        final Thread th = new Thread(new ThreadGroup(PAYMENT_PLUGIN_TH_GROUP_NAME), r);
+                                                                                        th.setName(PLUGIN_THREAD_PREFIX + pluginName + "-" + th.getId());
+                                                                                        return th;
+                                                                                    }
+                                                                                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     private ThreadPoolExecutor createPluginExecutorService() {
+        if (paymentConfig.isPaymentPluginThreadsOnDemand()) {
+            return createOnDemandPluginExecutorService();
+        }
+
         final int minThreadNb = DEFAULT_MIN_PLUGIN_THREADS < paymentConfig.getPaymentPluginThreadNb() ? DEFAULT_MIN_PLUGIN_THREADS : paymentConfig.getPaymentPluginThreadNb();
         return new WithProfilingThreadPoolExecutor(minThreadNb,
                                                    paymentConfig.getPaymentPluginThreadNb(),
@@ -98,7 +226,36 @@ public class PaymentExecutors {
 
     }
 
+    //
+    // Plugin calls mostly block on network I/O: rather than capping the throughput by the size of the pool, each call gets
+    // a thread (idle ones are reused, and reclaimed after a minute). The number of threads is still capped, calls beyond it
+    // being rejected, in case org.killbill.payment.plugin.concurrency.limit isn't set.
+    //
+    private ThreadPoolExecutor createOnDemandPluginExecutorService() {
+        return new WithProfilingThreadPoolExecutor(0,
+                                                   Math.max(1, paymentConfig.getPaymentPluginThreadsOnDemandMax()),
+                                                   ON_DEMAND_PLUGIN_THREADS_KEEP_ALIVE_SEC,
+                                                   TimeUnit.SECONDS,
+                                                   new SynchronousQueue<Runnable>(),
+                                                   new ThreadFactory() {
+
+                                                       @Override
+                                                       public Thread newThread(final Runnable r) {
+                                                           final Thread th = new Thread(new ThreadGroup(PAYMENT_PLUGIN_TH_GROUP_NAME), r);
+                                                           th.setName(PLUGIN_THREAD_PREFIX + th.getId());
+                                                           return th;
+                                                       }
+                                                   });
+    }
+
     private ScheduledExecutorService createJanitorExecutorService() {
         return Executors.newSingleThreadScheduledExecutor("PaymentJanitor");
     }
+
+    private ExecutorService createJanitorWorkerExecutorService() {
+        if (paymentConfig.getJanitorThreadNb() <= 1) {
+            return null;
+        }
+        return Executors.newFixedThreadPool(paymentConfig.getJanitorThreadNb(), "PaymentJanitorWorker");
+    }
 }
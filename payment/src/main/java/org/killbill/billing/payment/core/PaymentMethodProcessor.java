@@ -21,7 +21,9 @@ package org.killbill.billing.payment.core;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -66,6 +68,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
@@ -76,6 +79,8 @@ import com.google.inject.Inject;
 import static org.killbill.billing.payment.dispatcher.PaymentPluginDispatcher.dispatchWithExceptionHandling;
 import static org.killbill.billing.util.entity.dao.DefaultPaginationHelper.getEntityPagination;
 import static org.killbill.billing.util.entity.dao.DefaultPaginationHelper.getEntityPaginationFromPlugins;
+import static org.killbill.billing.util.entity.dao.DefaultPaginationHelper.getEntityPaginationNoException;
+import static org.killbill.billing.util.entity.dao.DefaultPaginationSqlDaoHelper.isSeekOffset;
 
 public class PaymentMethodProcessor extends ProcessorBase {
 
@@ -238,6 +243,11 @@ public class PaymentMethodProcessor extends ProcessorBase {
     }
 
     public Pagination<PaymentMethod> getPaymentMethods(final Long offset, final Long limit, final boolean withPluginInfo, final Iterable<PluginProperty> properties, final TenantContext tenantContext, final InternalTenantContext internalTenantContext) {
+        if (isSeekOffset(offset)) {
+            // Keyset pagination cannot be unioned across plugins: go through all payment methods in record_id order instead
+            return getPaymentMethodsAcrossPlugins(offset, limit, withPluginInfo, properties, tenantContext, internalTenantContext);
+        }
+
         return getEntityPaginationFromPlugins(true,
                                               getAvailablePlugins(),
                                               offset,
@@ -251,6 +261,42 @@ public class PaymentMethodProcessor extends ProcessorBase {
                                              );
     }
 
+    private Pagination<PaymentMethod> getPaymentMethodsAcrossPlugins(final Long offset, final Long limit, final boolean withPluginInfo, final Iterable<PluginProperty> properties, final TenantContext tenantContext, final InternalTenantContext internalTenantContext) {
+        final Map<String, Optional<PaymentPluginApi>> pluginNameToPaymentPluginApi = new HashMap<String, Optional<PaymentPluginApi>>();
+
+        return getEntityPaginationNoException(limit,
+                                              new SourcePaginationBuilder<PaymentMethodModelDao, PaymentApiException>() {
+                                                  @Override
+                                                  public Pagination<PaymentMethodModelDao> build() {
+                                                      // Find all payment methods for all accounts
+                                                      return paymentDao.getPaymentMethods(offset, limit, internalTenantContext);
+                                                  }
+                                              },
+                                              new Function<PaymentMethodModelDao, PaymentMethod>() {
+                                                  @Override
+                                                  public PaymentMethod apply(final PaymentMethodModelDao paymentMethodModelDao) {
+                                                      final PaymentPluginApi pluginApi;
+                                                      if (!withPluginInfo) {
+                                                          pluginApi = null;
+                                                      } else {
+                                                          final String pluginName = paymentMethodModelDao.getPluginName();
+                                                          if (pluginNameToPaymentPluginApi.get(pluginName) == null) {
+                                                              try {
+                                                                  pluginNameToPaymentPluginApi.put(pluginName, Optional.<PaymentPluginApi>of(getPaymentPluginApi(pluginName)));
+                                                              } catch (final PaymentApiException e) {
+                                                                  log.warn("Unable to retrieve PaymentPluginApi for plugin='{}'", pluginName, e);
+                                                                  // We use Optional to avoid printing the log line for each result
+                                                                  pluginNameToPaymentPluginApi.put(pluginName, Optional.<PaymentPluginApi>absent());
+                                                              }
+                                                          }
+                                                          pluginApi = pluginNameToPaymentPluginApi.get(pluginName).orNull();
+                                                      }
+                                                      return toPaymentMethod(paymentMethodModelDao, pluginApi, properties, tenantContext);
+                                                  }
+                                              }
+                                             );
+    }
+
     public Pagination<PaymentMethod> getPaymentMethods(final Long offset, final Long limit, final String pluginName, final boolean withPluginInfo, final Iterable<PluginProperty> properties, final TenantContext tenantContext, final InternalTenantContext internalTenantContext) throws PaymentApiException {
         final PaymentPluginApi pluginApi = withPluginInfo ? getPaymentPluginApi(pluginName) : null;
 
@@ -265,26 +311,30 @@ public class PaymentMethodProcessor extends ProcessorBase {
                                    new Function<PaymentMethodModelDao, PaymentMethod>() {
                                        @Override
                                        public PaymentMethod apply(final PaymentMethodModelDao paymentMethodModelDao) {
-                                           PaymentMethodPlugin paymentMethodPlugin = null;
-                                           if (pluginApi != null) {
-                                               try {
-                                                   paymentMethodPlugin = pluginApi.getPaymentMethodDetail(paymentMethodModelDao.getAccountId(), paymentMethodModelDao.getId(), properties, tenantContext);
-                                               } catch (final PaymentPluginApiException e) {
-                                                   if (e.getCause() == null) {
-                                                       log.warn("Error retrieving paymentMethodId='{}', plugin='{}', errorMessage='{}', errorType='{}'", paymentMethodModelDao.getId(), pluginName, e.getErrorMessage(), e.getErrorType());
-                                                   } else {
-                                                       log.warn("Error retrieving paymentMethodId='{}', plugin='{}', errorMessage='{}', errorType='{}'", paymentMethodModelDao.getId(), pluginName, e.getErrorMessage(), e.getErrorType(), e);
-                                                   }
-                                                   // We still want to return a payment method object, even though the plugin details are missing
-                                               }
-                                           }
-
-                                           return new DefaultPaymentMethod(paymentMethodModelDao, paymentMethodPlugin);
+                                           return toPaymentMethod(paymentMethodModelDao, pluginApi, properties, tenantContext);
                                        }
                                    }
                                   );
     }
 
+    private PaymentMethod toPaymentMethod(final PaymentMethodModelDao paymentMethodModelDao, @Nullable final PaymentPluginApi pluginApi, final Iterable<PluginProperty> properties, final TenantContext tenantContext) {
+        PaymentMethodPlugin paymentMethodPlugin = null;
+        if (pluginApi != null) {
+            try {
+                paymentMethodPlugin = pluginApi.getPaymentMethodDetail(paymentMethodModelDao.getAccountId(), paymentMethodModelDao.getId(), properties, tenantContext);
+            } catch (final PaymentPluginApiException e) {
+                if (e.getCause() == null) {
+                    log.warn("Error retrieving paymentMethodId='{}', plugin='{}', errorMessage='{}', errorType='{}'", paymentMethodModelDao.getId(), paymentMethodModelDao.getPluginName(), e.getErrorMessage(), e.getErrorType());
+                } else {
+                    log.warn("Error retrieving paymentMethodId='{}', plugin='{}', errorMessage='{}', errorType='{}'", paymentMethodModelDao.getId(), paymentMethodModelDao.getPluginName(), e.getErrorMessage(), e.getErrorType(), e);
+                }
+                // We still want to return a payment method object, even though the plugin details are missing
+            }
+        }
+
+        return new DefaultPaymentMethod(paymentMethodModelDao, paymentMethodPlugin);
+    }
+
     public Pagination<PaymentMethod> searchPaymentMethods(final String searchKey, final Long offset, final Long limit, final boolean withPluginInfo, final Iterable<PluginProperty> properties, final TenantContext tenantContext, final InternalTenantContext internalTenantContext) {
         if (withPluginInfo) {
             return getEntityPaginationFromPlugins(false,
@@ -18,7 +18,19 @@
 package org.killbill.billing.payment.core.janitor;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
 
 import org.killbill.billing.account.api.AccountApiException;
 import org.killbill.billing.account.api.AccountInternalApi;
@@ -45,10 +57,15 @@ import org.killbill.notificationq.api.NotificationQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.annotations.VisibleForTesting;
+
 abstract class CompletionTaskBase<T> implements Runnable {
 
     private static final Logger log = LoggerFactory.getLogger(CompletionTaskBase.class);
 
+    // Max number of items read at a time when the janitor runs multi-threaded
+    private static final int SHARDING_BATCH_SIZE = 1000;
+
     protected final PaymentConfig paymentConfig;
     protected final Clock clock;
     protected final PaymentDao paymentDao;
@@ -59,6 +76,9 @@ abstract class CompletionTaskBase<T> implements Runnable {
     protected final GlobalLocker locker;
 
     protected NotificationQueue janitorQueue;
+    private volatile ExecutorService janitorWorkerExecutor;
+    // One lane per shard, on top of janitorWorkerExecutor, see runInShard
+    private volatile List<ShardLane> janitorWorkerLanes;
 
     private volatile boolean isStopped;
 
@@ -90,16 +110,25 @@ abstract class CompletionTaskBase<T> implements Runnable {
 
         final Iterator<T> iterator = getItemsForIteration().iterator();
         try {
-            while (iterator.hasNext()) {
-                final T item = iterator.next();
-                if (isStopped) {
-                    log.info("Janitor was requested to stop");
-                    return;
+            final ExecutorService workerExecutor = janitorWorkerExecutor;
+            if (workerExecutor == null) {
+                while (iterator.hasNext()) {
+                    final T item = iterator.next();
+                    if (isStopped) {
+                        log.info("Janitor was requested to stop");
+                        return;
+                    }
+                    doIterationAndLogException(item);
                 }
-                try {
-                    doIteration(item);
-                } catch (final Exception e) {
-                    log.warn(e.getMessage());
+            } else {
+                while (iterator.hasNext()) {
+                    if (isStopped) {
+                        log.info("Janitor was requested to stop");
+                        return;
+                    }
+                    if (!runShards(shardByAccount(iterator, getShardingBatchSize()), workerExecutor)) {
+                        return;
+                    }
                 }
             }
         } finally {
@@ -110,6 +139,102 @@ abstract class CompletionTaskBase<T> implements Runnable {
         }
     }
 
+    //
+    // Items for a given account always end up in the same shard: they are processed in order, by a single worker,
+    // and the workers don't compete for the same account locks. Items are read in batches of at most
+    // getShardingBatchSize() items, so that we never hold all the items in memory: a batch is fully processed
+    // before the next one is read, which also preserves the ordering for a given account across batches.
+    //
+    private List<List<T>> shardByAccount(final Iterator<T> iterator, final int batchSize) {
+        final int nbShards = paymentConfig.getJanitorThreadNb();
+        final List<List<T>> shards = new ArrayList<List<T>>(nbShards);
+        for (int i = 0; i < nbShards; i++) {
+            shards.add(new ArrayList<T>());
+        }
+        int nbItems = 0;
+        while (nbItems < batchSize && iterator.hasNext()) {
+            final T item = iterator.next();
+            final Long accountRecordId = getAccountRecordId(item);
+            final int shard = accountRecordId == null ? 0 : (int) Math.abs(accountRecordId % nbShards);
+            shards.get(shard).add(item);
+            nbItems++;
+        }
+        return shards;
+    }
+
+    // Return false if the janitor was interrupted while waiting for its workers
+    private boolean runShards(final List<List<T>> shards, final ExecutorService workerExecutor) {
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final List<T> shard : shards) {
+            if (shard.isEmpty()) {
+                continue;
+            }
+            futures.add(workerExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (final T item : shard) {
+                        if (isStopped) {
+                            log.info("Janitor was requested to stop");
+                            return;
+                        }
+                        doIterationAndLogException(item);
+                    }
+                }
+            }));
+        }
+
+        // Wait for all shards before reading the next batch (or before the next scheduled run starts fetching items again)
+        for (final Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Janitor was interrupted while waiting for its workers");
+                return false;
+            } catch (final ExecutionException e) {
+                log.warn("Janitor worker failed", e.getCause());
+            }
+        }
+        return true;
+    }
+
+    //
+    // Same sharding for work items that are not read by the janitor itself (e.g. notifications): the item is run by the lane of the account
+    // shard, on top of the worker pool, and the caller waits for it (so that a notification is only acknowledged once processed).
+    // Items for a given account are run in order, by a single worker at a time, whichever thread hands them over.
+    //
+    protected void runInShard(@Nullable final Long accountRecordId, final Runnable runnable) {
+        final List<ShardLane> lanes = janitorWorkerLanes;
+        if (lanes == null) {
+            runnable.run();
+            return;
+        }
+
+        final FutureTask<Void> task = new FutureTask<Void>(runnable, null);
+        lanes.get(accountRecordId == null ? 0 : (int) Math.abs(accountRecordId % lanes.size())).execute(task);
+        try {
+            task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Janitor was interrupted while waiting for its worker, accountRecordId='{}'", accountRecordId);
+        } catch (final ExecutionException e) {
+            log.warn("Janitor worker failed", e.getCause());
+        }
+    }
+
+    @VisibleForTesting
+    int getShardingBatchSize() {
+        return SHARDING_BATCH_SIZE;
+    }
+
+    private void doIterationAndLogException(final T item) {
+        try {
+            doIteration(item);
+        } catch (final Exception e) {
+            log.warn(e.getMessage());
+        }
+    }
+
     public synchronized void start() {
         this.isStopped = false;
     }
@@ -122,12 +247,79 @@ abstract class CompletionTaskBase<T> implements Runnable {
 
     public abstract void doIteration(final T item);
 
+    protected abstract Long getAccountRecordId(final T item);
+
     public abstract void processPaymentEvent(final PaymentInternalEvent event, final NotificationQueue janitorQueue) throws IOException;
 
     public void attachJanitorQueue(final NotificationQueue janitorQueue) {
         this.janitorQueue = janitorQueue;
     }
 
+    public void attachJanitorWorkerExecutor(@Nullable final ExecutorService janitorWorkerExecutor) {
+        if (janitorWorkerExecutor == null) {
+            this.janitorWorkerLanes = null;
+        } else {
+            final List<ShardLane> lanes = new ArrayList<ShardLane>(paymentConfig.getJanitorThreadNb());
+            for (int i = 0; i < paymentConfig.getJanitorThreadNb(); i++) {
+                lanes.add(new ShardLane(janitorWorkerExecutor));
+            }
+            this.janitorWorkerLanes = lanes;
+        }
+        this.janitorWorkerExecutor = janitorWorkerExecutor;
+    }
+
+    // Runs its tasks one at a time, in submission order, on the shared worker pool (a worker is only held while the lane has tasks)
+    private static final class ShardLane {
+
+        private final ExecutorService workerExecutor;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+
+        private ShardLane(final ExecutorService workerExecutor) {
+            this.workerExecutor = workerExecutor;
+        }
+
+        public void execute(final Runnable task) {
+            tasks.add(task);
+            scheduleIfNeeded();
+        }
+
+        private void scheduleIfNeeded() {
+            if (tasks.isEmpty() || !isScheduled.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                workerExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runTasks();
+                        } finally {
+                            isScheduled.set(false);
+                            // A task may have been added after the last poll, but before the flag was cleared
+                            scheduleIfNeeded();
+                        }
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                // Shutting down: run the tasks in the caller thread, rather than leaving their callers waiting
+                try {
+                    runTasks();
+                } finally {
+                    isScheduled.set(false);
+                }
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
     public interface JanitorIterationCallback {
         public <T> T doIteration();
     }
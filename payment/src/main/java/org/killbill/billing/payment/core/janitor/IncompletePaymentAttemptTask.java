@@ -163,6 +163,11 @@ public class IncompletePaymentAttemptTask extends CompletionTaskBase<PaymentAtte
         }
     }
 
+    @Override
+    protected Long getAccountRecordId(final PaymentAttemptModelDao attempt) {
+        return attempt.getAccountRecordId();
+    }
+
     @Override
     public void processPaymentEvent(final PaymentInternalEvent event, final NotificationQueue janitorQueue) {
         // Nothing
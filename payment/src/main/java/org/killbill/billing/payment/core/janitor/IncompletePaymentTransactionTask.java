@@ -20,7 +20,11 @@ package org.killbill.billing.payment.core.janitor;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -31,6 +35,7 @@ import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.events.PaymentInternalEvent;
+import org.killbill.billing.payment.api.PaymentApiException;
 import org.killbill.billing.payment.api.PluginProperty;
 import org.killbill.billing.payment.api.TransactionStatus;
 import org.killbill.billing.payment.core.PaymentPluginServiceRegistration;
@@ -62,6 +67,7 @@ import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.RateLimiter;
 
 public class IncompletePaymentTransactionTask extends CompletionTaskBase<PaymentTransactionModelDao> {
 
@@ -72,7 +78,12 @@ public class IncompletePaymentTransactionTask extends CompletionTaskBase<Payment
                                                                                                           .add(TransactionStatus.UNKNOWN)
                                                                                                           .build();
 
+    private static final Random RANDOM = new Random();
+
     private final PaymentPluginServiceRegistration paymentPluginServiceRegistration;
+    private final ConcurrentMap<String, RateLimiter> pluginRateLimiters = new ConcurrentHashMap<String, RateLimiter>();
+    // Start of the next free slot for throttled notifications, per plugin (see computeThrottledNotificationDelayMillis)
+    private final ConcurrentMap<String, AtomicLong> pluginNextThrottledSlotsMillis = new ConcurrentHashMap<String, AtomicLong>();
 
     @Inject
     public IncompletePaymentTransactionTask(final InternalCallContextFactory internalCallContextFactory,
@@ -99,7 +110,22 @@ public class IncompletePaymentTransactionTask extends CompletionTaskBase<Payment
         // Nothing
     }
 
+    @Override
+    protected Long getAccountRecordId(final PaymentTransactionModelDao paymentTransaction) {
+        return paymentTransaction.getAccountRecordId();
+    }
+
     public void processNotification(final JanitorNotificationKey notificationKey, final UUID userToken, final Long accountRecordId, final long tenantRecordId) {
+        // Sharded by account across the janitor workers, like the janitor runs
+        runInShard(accountRecordId, new Runnable() {
+            @Override
+            public void run() {
+                processNotificationInShard(notificationKey, userToken, accountRecordId, tenantRecordId);
+            }
+        });
+    }
+
+    private void processNotificationInShard(final JanitorNotificationKey notificationKey, final UUID userToken, final Long accountRecordId, final long tenantRecordId) {
         try {
             tryToProcessNotification(notificationKey, userToken, accountRecordId, tenantRecordId);
         } catch (final LockFailedException e) {
@@ -115,6 +141,20 @@ public class IncompletePaymentTransactionTask extends CompletionTaskBase<Payment
 
     private void tryToProcessNotification(final JanitorNotificationKey notificationKey, final UUID userToken, final Long accountRecordId, final long tenantRecordId) throws LockFailedException {
         final InternalTenantContext internalTenantContext = internalCallContextFactory.createInternalTenantContext(tenantRecordId, accountRecordId);
+
+        // The transaction may already have been fixed (e.g. along with another transaction of the same payment, see below):
+        // check it prior to grabbing the lock and throttling on the plugin
+        final PaymentTransactionModelDao paymentTransaction = paymentDao.getPaymentTransaction(notificationKey.getUuidKey(), internalTenantContext);
+        if (paymentTransaction == null || !TRANSACTION_STATUSES_TO_CONSIDER.contains(paymentTransaction.getTransactionStatus())) {
+            return;
+        }
+        final PaymentModelDao unlockedPayment = paymentDao.getPayment(paymentTransaction.getPaymentId(), internalTenantContext);
+        final String throttledPluginName = getThrottledPluginName(unlockedPayment.getPaymentMethodId(), internalTenantContext);
+        if (throttledPluginName != null && !getPluginRateLimiter(throttledPluginName).tryAcquire()) {
+            rescheduleThrottledNotification(throttledPluginName, notificationKey, userToken, accountRecordId, tenantRecordId);
+            return;
+        }
+
         tryToDoJanitorOperationWithAccountLock(new JanitorIterationCallback() {
             @Override
             public Void doIteration() {
@@ -124,40 +164,135 @@ public class IncompletePaymentTransactionTask extends CompletionTaskBase<Payment
                 final TenantContext tenantContext = internalCallContextFactory.createTenantContext(internalTenantContext);
                 final PaymentModelDao payment = paymentDao.getPayment(rehydratedPaymentTransaction.getPaymentId(), internalTenantContext);
 
-                final PaymentTransactionInfoPlugin undefinedPaymentTransaction = new DefaultNoOpPaymentInfoPlugin(payment.getId(),
-                                                                                                                  rehydratedPaymentTransaction.getId(),
-                                                                                                                  rehydratedPaymentTransaction.getTransactionType(),
-                                                                                                                  rehydratedPaymentTransaction.getAmount(),
-                                                                                                                  rehydratedPaymentTransaction.getCurrency(),
-                                                                                                                  rehydratedPaymentTransaction.getCreatedDate(),
-                                                                                                                  rehydratedPaymentTransaction.getCreatedDate(),
-                                                                                                                  PaymentPluginStatus.UNDEFINED,
-                                                                                                                  null,
-                                                                                                                  null);
-                PaymentTransactionInfoPlugin paymentTransactionInfoPlugin;
+                List<PaymentTransactionInfoPlugin> paymentTransactionInfoPlugins;
                 try {
                     final PaymentPluginApi paymentPluginApi = paymentPluginServiceRegistration.getPaymentPluginApi(payment.getPaymentMethodId(), false, internalTenantContext);
-                    final List<PaymentTransactionInfoPlugin> result = paymentPluginApi.getPaymentInfo(payment.getAccountId(), payment.getId(), ImmutableList.<PluginProperty>of(), tenantContext);
-                    paymentTransactionInfoPlugin = Iterables.tryFind(result, new Predicate<PaymentTransactionInfoPlugin>() {
-                        @Override
-                        public boolean apply(final PaymentTransactionInfoPlugin input) {
-                            return input.getKbTransactionPaymentId().equals(rehydratedPaymentTransaction.getId());
-                        }
-                    }).or(new Supplier<PaymentTransactionInfoPlugin>() {
-                        @Override
-                        public PaymentTransactionInfoPlugin get() {
-                            return undefinedPaymentTransaction;
-                        }
-                    });
+                    paymentTransactionInfoPlugins = paymentPluginApi.getPaymentInfo(payment.getAccountId(), payment.getId(), ImmutableList.<PluginProperty>of(), tenantContext);
                 } catch (final Exception e) {
-                    paymentTransactionInfoPlugin = undefinedPaymentTransaction;
+                    paymentTransactionInfoPlugins = ImmutableList.<PaymentTransactionInfoPlugin>of();
+                }
+                // The plugin returned the state of all the transactions for that payment: fix the other incomplete ones right away instead
+                // of querying the plugin again when their own notification fires (which will then be a no-op). Transactions are
+                // processed in order, so that the payment ends up in the state of the latest one: the payment is reloaded for each of them,
+                // as repairing a transaction updates its state.
+                for (final PaymentTransactionModelDao curPaymentTransaction : paymentDao.getTransactionsForPayment(payment.getId(), internalTenantContext)) {
+                    final PaymentTransactionInfoPlugin curPaymentTransactionInfoPlugin = findPaymentTransactionInfoPlugin(curPaymentTransaction, paymentTransactionInfoPlugins);
+                    if (curPaymentTransaction.getId().equals(rehydratedPaymentTransaction.getId())) {
+                        final PaymentModelDao curPayment = paymentDao.getPayment(payment.getId(), internalTenantContext);
+                        updatePaymentAndTransactionIfNeeded(curPayment, notificationKey.getAttemptNumber(), userToken, curPaymentTransaction, curPaymentTransactionInfoPlugin, internalTenantContext);
+                    } else if (canBeRepairedWithoutNotification(curPaymentTransaction, curPaymentTransactionInfoPlugin)) {
+                        final PaymentModelDao curPayment = paymentDao.getPayment(payment.getId(), internalTenantContext);
+                        updatePaymentAndTransactionInternal(curPayment, null, userToken, curPaymentTransaction, curPaymentTransactionInfoPlugin, internalTenantContext);
+                    }
                 }
-                updatePaymentAndTransactionIfNeeded(payment, notificationKey.getAttemptNumber(), userToken, rehydratedPaymentTransaction, paymentTransactionInfoPlugin, internalTenantContext);
                 return null;
             }
         }, internalTenantContext);
     }
 
+    // Other incomplete transactions are only repaired when the plugin gives us a new status: if not, their own notification takes care of them
+    private boolean canBeRepairedWithoutNotification(final PaymentTransactionModelDao paymentTransaction, final PaymentTransactionInfoPlugin paymentTransactionInfoPlugin) {
+        if (!TRANSACTION_STATUSES_TO_CONSIDER.contains(paymentTransaction.getTransactionStatus())) {
+            return false;
+        }
+        final TransactionStatus transactionStatus = computeNewTransactionStatusFromPaymentTransactionInfoPlugin(paymentTransactionInfoPlugin, paymentTransaction.getTransactionStatus());
+        return transactionStatus != TransactionStatus.UNKNOWN && transactionStatus != paymentTransaction.getTransactionStatus();
+    }
+
+    private PaymentTransactionInfoPlugin findPaymentTransactionInfoPlugin(final PaymentTransactionModelDao paymentTransaction, final List<PaymentTransactionInfoPlugin> paymentTransactionInfoPlugins) {
+        return Iterables.tryFind(paymentTransactionInfoPlugins, new Predicate<PaymentTransactionInfoPlugin>() {
+            @Override
+            public boolean apply(final PaymentTransactionInfoPlugin input) {
+                return paymentTransaction.getId().equals(input.getKbTransactionPaymentId());
+            }
+        }).or(new Supplier<PaymentTransactionInfoPlugin>() {
+            @Override
+            public PaymentTransactionInfoPlugin get() {
+                return new DefaultNoOpPaymentInfoPlugin(paymentTransaction.getPaymentId(),
+                                                        paymentTransaction.getId(),
+                                                        paymentTransaction.getTransactionType(),
+                                                        paymentTransaction.getAmount(),
+                                                        paymentTransaction.getCurrency(),
+                                                        paymentTransaction.getCreatedDate(),
+                                                        paymentTransaction.getCreatedDate(),
+                                                        PaymentPluginStatus.UNDEFINED,
+                                                        null,
+                                                        null);
+            }
+        });
+    }
+
+    //
+    // After a gateway outage, a large number of transactions need to be fixed: org.killbill.payment.janitor.plugin.rate
+    // makes sure we don't overload the gateway (which could cause another outage) while doing so. We don't wait for a permit,
+    // as this would block the notification queue dispatch threads: the notification is rescheduled instead.
+    // Return null if the plugin isn't throttled.
+    //
+    private String getThrottledPluginName(final UUID paymentMethodId, final InternalTenantContext internalTenantContext) {
+        if (paymentConfig.getJanitorPluginRate() <= 0) {
+            return null;
+        }
+
+        try {
+            return paymentPluginServiceRegistration.getPaymentMethodById(paymentMethodId, true, internalTenantContext).getPluginName();
+        } catch (final PaymentApiException e) {
+            // Will be handled when trying to retrieve the plugin
+            return null;
+        }
+    }
+
+    private RateLimiter getPluginRateLimiter(final String pluginName) {
+        RateLimiter rateLimiter = pluginRateLimiters.get(pluginName);
+        if (rateLimiter == null) {
+            final RateLimiter newRateLimiter = RateLimiter.create(paymentConfig.getJanitorPluginRate());
+            rateLimiter = pluginRateLimiters.putIfAbsent(pluginName, newRateLimiter);
+            if (rateLimiter == null) {
+                rateLimiter = newRateLimiter;
+            }
+        }
+        return rateLimiter;
+    }
+
+    // Same attempt number (throttling doesn't count as an attempt)
+    private void rescheduleThrottledNotification(final String pluginName, final JanitorNotificationKey notificationKey, final UUID userToken, final Long accountRecordId, final long tenantRecordId) {
+        final NotificationEvent key = new JanitorNotificationKey(notificationKey.getUuidKey(), IncompletePaymentTransactionTask.class.toString(), notificationKey.getAttemptNumber());
+        final DateTime notificationTime = clock.getUTCNow().plusMillis((int) computeThrottledNotificationDelayMillis(pluginName));
+        try {
+            janitorQueue.recordFutureNotification(notificationTime, key, userToken, accountRecordId, tenantRecordId);
+        } catch (final IOException e) {
+            log.warn("Janitor IncompletePaymentTransactionTask : Failed to reschedule throttled notification for paymentTransactionId = {}: {}", notificationKey.getUuidKey(), e.getMessage());
+        }
+    }
+
+    //
+    // Each throttled notification is given the next free slot of the plugin (one every 1/rate second): the delay is its position in the
+    // backlog of throttled notifications divided by the rate, so that they come back at the pace the plugin can take, whatever the size
+    // of the backlog. The jitter (within the slot) avoids waking up notifications of different plugins at the exact same time.
+    //
+    @VisibleForTesting
+    long computeThrottledNotificationDelayMillis(final String pluginName) {
+        final long slotMillis = Math.max(1, (1000 + paymentConfig.getJanitorPluginRate() - 1) / paymentConfig.getJanitorPluginRate());
+
+        AtomicLong nextSlotMillis = pluginNextThrottledSlotsMillis.get(pluginName);
+        if (nextSlotMillis == null) {
+            final AtomicLong newNextSlotMillis = new AtomicLong(0);
+            nextSlotMillis = pluginNextThrottledSlotsMillis.putIfAbsent(pluginName, newNextSlotMillis);
+            if (nextSlotMillis == null) {
+                nextSlotMillis = newNextSlotMillis;
+            }
+        }
+
+        final long nowMillis = clock.getUTCNow().getMillis();
+        while (true) {
+            final long curNextSlotMillis = nextSlotMillis.get();
+            // The permit was just denied: the first free slot is at least one slot away
+            final long slotStartMillis = Math.max(curNextSlotMillis, nowMillis + slotMillis);
+            if (nextSlotMillis.compareAndSet(curNextSlotMillis, slotStartMillis + slotMillis)) {
+                return slotStartMillis - nowMillis + RANDOM.nextInt((int) Math.min(slotMillis, Integer.MAX_VALUE));
+            }
+        }
+    }
+
     @Override
     public void processPaymentEvent(final PaymentInternalEvent event, final NotificationQueue janitorQueue) {
         if (!TRANSACTION_STATUSES_TO_CONSIDER.contains(event.getStatus())) {
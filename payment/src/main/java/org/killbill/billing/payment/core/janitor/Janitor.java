@@ -103,6 +103,8 @@ public class Janitor {
         incompletePaymentTransactionTask.start();
 
         janitorExecutor = paymentExecutors.getJanitorExecutorService();
+        incompletePaymentAttemptTask.attachJanitorWorkerExecutor(paymentExecutors.getJanitorWorkerExecutorService());
+        incompletePaymentTransactionTask.attachJanitorWorkerExecutor(paymentExecutors.getJanitorWorkerExecutorService());
 
         janitorQueue.startQueue();
 
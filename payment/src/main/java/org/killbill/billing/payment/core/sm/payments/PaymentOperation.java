@@ -33,6 +33,7 @@ import org.killbill.billing.payment.core.sm.OperationCallbackBase;
 import org.killbill.billing.payment.core.sm.PaymentAutomatonDAOHelper;
 import org.killbill.billing.payment.core.sm.PaymentStateContext;
 import org.killbill.billing.payment.dao.PaymentTransactionModelDao;
+import org.killbill.billing.payment.dispatcher.PluginCallRejectedException;
 import org.killbill.billing.payment.dispatcher.PluginDispatcher;
 import org.killbill.billing.payment.dispatcher.PluginDispatcher.PluginDispatcherReturnType;
 import org.killbill.billing.payment.plugin.api.PaymentPluginApi;
@@ -88,6 +89,9 @@ public abstract class PaymentOperation extends OperationCallbackBase<PaymentTran
 
     @Override
     protected OperationException unwrapExceptionFromDispatchedTask(final PaymentApiException e) {
+        if (PluginCallRejectedException.isRejection(e)) {
+            return convertToPluginFailureTransactionStatusAndErroredPaymentState(e);
+        }
         return convertToUnknownTransactionStatusAndErroredPaymentState(e);
     }
 
@@ -98,6 +102,18 @@ public abstract class PaymentOperation extends OperationCallbackBase<PaymentTran
     //   be fixed by Janitor.
     //
     private OperationException convertToUnknownTransactionStatusAndErroredPaymentState(final Exception e) {
+        return convertToErroredPaymentState(e, PaymentPluginStatus.UNDEFINED);
+    }
+
+    //
+    // The call was rejected by the dispatcher (open circuit, saturated plugin) and never reached the plugin: the Payment State is
+    // Errored as well, but the PaymentPluginStatus = CANCELED gives a paymentTransactionStatus = PLUGIN_FAILURE, which the Janitor leaves alone.
+    //
+    private OperationException convertToPluginFailureTransactionStatusAndErroredPaymentState(final Exception e) {
+        return convertToErroredPaymentState(e, PaymentPluginStatus.CANCELED);
+    }
+
+    private OperationException convertToErroredPaymentState(final Exception e, final PaymentPluginStatus paymentPluginStatus) {
 
         final PaymentTransactionInfoPlugin paymentInfoPlugin = new DefaultNoOpPaymentInfoPlugin(paymentStateContext.getPaymentId(),
                                                                                                 paymentStateContext.getTransactionId(),
@@ -106,7 +122,7 @@ public abstract class PaymentOperation extends OperationCallbackBase<PaymentTran
                                                                                                 paymentStateContext.getCurrency(),
                                                                                                 paymentStateContext.getCallContext().getCreatedDate(),
                                                                                                 paymentStateContext.getCallContext().getCreatedDate(),
-                                                                                                PaymentPluginStatus.UNDEFINED,
+                                                                                                paymentPluginStatus,
                                                                                                 null,
                                                                                                 null);
         paymentStateContext.setPaymentTransactionInfoPlugin(paymentInfoPlugin);
@@ -55,6 +55,7 @@ import org.killbill.billing.util.entity.Pagination;
 import org.killbill.billing.util.entity.dao.DefaultPaginationSqlDaoHelper;
 import org.killbill.billing.util.entity.dao.DefaultPaginationSqlDaoHelper.Ordering;
 import org.killbill.billing.util.entity.dao.DefaultPaginationSqlDaoHelper.PaginationIteratorBuilder;
+import org.killbill.billing.util.entity.dao.DefaultPaginationSqlDaoHelper.SeekPaginationIteratorBuilder;
 import org.killbill.billing.util.entity.dao.EntityDaoBase;
 import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionWrapper;
 import org.killbill.billing.util.entity.dao.EntitySqlDaoTransactionalJdbiWrapper;
@@ -232,7 +233,7 @@ public class DefaultPaymentDao extends EntityDaoBase<PaymentModelDao, Payment, P
     @Override
     public Pagination<PaymentModelDao> getPayments(final String pluginName, final Long offset, final Long limit, final InternalTenantContext context) {
         return paginationHelper.getPagination(PaymentSqlDao.class,
-                                              new PaginationIteratorBuilder<PaymentModelDao, Payment, PaymentSqlDao>() {
+                                              new SeekPaginationIteratorBuilder<PaymentModelDao, Payment, PaymentSqlDao>() {
                                                   @Override
                                                   public Long getCount(final PaymentSqlDao paymentSqlDao, final InternalTenantContext context) {
                                                       return paymentSqlDao.getCountByPluginName(pluginName, context);
@@ -243,6 +244,11 @@ public class DefaultPaymentDao extends EntityDaoBase<PaymentModelDao, Payment, P
                                                       final Iterator<PaymentModelDao> result = paymentSqlDao.getByPluginName(pluginName, offset, limit, ordering.toString(), context);
                                                       return result;
                                                   }
+
+                                                  @Override
+                                                  public List<PaymentModelDao> buildAfterRecordId(final PaymentSqlDao paymentSqlDao, final Long lastRecordId, final Long limit, final InternalTenantContext context) {
+                                                      return paymentSqlDao.getByPluginNameAfterRecordId(pluginName, lastRecordId, limit, context);
+                                                  }
                                               },
                                               offset,
                                               limit,
@@ -519,10 +525,36 @@ public class DefaultPaymentDao extends EntityDaoBase<PaymentModelDao, Payment, P
                                               context);
     }
 
+    @Override
+    public Pagination<PaymentMethodModelDao> getPaymentMethods(final Long offset, final Long limit, final InternalTenantContext context) {
+        return paginationHelper.getPagination(PaymentMethodSqlDao.class,
+                                              new SeekPaginationIteratorBuilder<PaymentMethodModelDao, PaymentMethod, PaymentMethodSqlDao>() {
+                                                  @Override
+                                                  public Long getCount(final PaymentMethodSqlDao paymentMethodSqlDao, final InternalTenantContext context) {
+                                                      // Only need to compute it once, because no search filter has been applied (see DefaultPaginationSqlDaoHelper)
+                                                      return null;
+                                                  }
+
+                                                  @Override
+                                                  public Iterator<PaymentMethodModelDao> build(final PaymentMethodSqlDao paymentMethodSqlDao, final Long offset, final Long limit, final Ordering ordering, final InternalTenantContext context) {
+                                                      return paymentMethodSqlDao.get(offset, limit, getNaturalOrderingColumns(), ordering.toString(), context);
+                                                  }
+
+                                                  @Override
+                                                  public List<PaymentMethodModelDao> buildAfterRecordId(final PaymentMethodSqlDao paymentMethodSqlDao, final Long lastRecordId, final Long limit, final InternalTenantContext context) {
+                                                      return paymentMethodSqlDao.getAfterRecordId(lastRecordId, limit, context);
+                                                  }
+                                              },
+                                              offset,
+                                              limit,
+                                              context
+                                             );
+    }
+
     @Override
     public Pagination<PaymentMethodModelDao> getPaymentMethods(final String pluginName, final Long offset, final Long limit, final InternalTenantContext context) {
         return paginationHelper.getPagination(PaymentMethodSqlDao.class,
-                                              new PaginationIteratorBuilder<PaymentMethodModelDao, PaymentMethod, PaymentMethodSqlDao>() {
+                                              new SeekPaginationIteratorBuilder<PaymentMethodModelDao, PaymentMethod, PaymentMethodSqlDao>() {
                                                   @Override
                                                   public Long getCount(final PaymentMethodSqlDao paymentMethodSqlDao, final InternalTenantContext context) {
                                                       return paymentMethodSqlDao.getCountByPluginName(pluginName, context);
@@ -532,6 +564,11 @@ public class DefaultPaymentDao extends EntityDaoBase<PaymentModelDao, Payment, P
                                                   public Iterator<PaymentMethodModelDao> build(final PaymentMethodSqlDao paymentMethodSqlDao, final Long offset, final Long limit, final Ordering ordering, final InternalTenantContext context) {
                                                       return paymentMethodSqlDao.getByPluginName(pluginName, offset, limit, ordering.toString(), context);
                                                   }
+
+                                                  @Override
+                                                  public List<PaymentMethodModelDao> buildAfterRecordId(final PaymentMethodSqlDao paymentMethodSqlDao, final Long lastRecordId, final Long limit, final InternalTenantContext context) {
+                                                      return paymentMethodSqlDao.getByPluginNameAfterRecordId(pluginName, lastRecordId, limit, context);
+                                                  }
                                               },
                                               offset,
                                               limit,
@@ -73,6 +73,12 @@ public interface PaymentMethodSqlDao extends EntitySqlDao<PaymentMethodModelDao,
                                                            @Define("ordering") final String ordering,
                                                            @SmartBindBean final InternalTenantContext context);
 
+    @SqlQuery
+    public List<PaymentMethodModelDao> getByPluginNameAfterRecordId(@Bind("pluginName") final String pluginName,
+                                                                    @Bind("lastRecordId") final Long lastRecordId,
+                                                                    @Bind("rowCount") final Long rowCount,
+                                                                    @SmartBindBean final InternalTenantContext context);
+
     @SqlQuery
     public Long getCountByPluginName(@Bind("pluginName") final String pluginName,
                                      @SmartBindBean final InternalTenantContext context);
@@ -88,6 +88,12 @@ public interface PaymentSqlDao extends EntitySqlDao<PaymentModelDao, Payment> {
                                                      @Define("ordering") final String ordering,
                                                      @SmartBindBean final InternalTenantContext context);
 
+    @SqlQuery
+    public List<PaymentModelDao> getByPluginNameAfterRecordId(@Bind("pluginName") final String pluginName,
+                                                              @Bind("lastRecordId") final Long lastRecordId,
+                                                              @Bind("rowCount") final Long rowCount,
+                                                              @SmartBindBean final InternalTenantContext context);
+
     @SqlQuery
     public Long getCountByPluginName(@Bind("pluginName") final String pluginName,
                                      @SmartBindBean final InternalTenantContext context);
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.payment.dispatcher;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ForwardingFuture.SimpleForwardingFuture;
+
+//
+// Everything the PluginDispatcher needs to call a given plugin: the executor (either dedicated to that plugin or shared),
+// its circuit breaker, the permits bounding its concurrent calls (if any) and the latency/rejection metrics.
+//
+public class PluginBulkhead {
+
+    private final String pluginName;
+    private final ExecutorService executor;
+    private final PluginCircuitBreaker circuitBreaker;
+    private final Semaphore permits;
+    private final Timer latency;
+    private final Meter rejections;
+
+    public PluginBulkhead(final String pluginName, final ExecutorService executor, final PluginCircuitBreaker circuitBreaker, @Nullable final Semaphore permits, final Timer latency, final Meter rejections) {
+        this.pluginName = pluginName;
+        this.executor = executor;
+        this.circuitBreaker = circuitBreaker;
+        this.permits = permits;
+        this.latency = latency;
+        this.rejections = rejections;
+    }
+
+    public String getPluginName() {
+        return pluginName;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public PluginCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public boolean tryAcquire() {
+        if (circuitBreaker.tryAcquire()) {
+            return true;
+        }
+        rejections.mark();
+        return false;
+    }
+
+    public boolean tryAcquirePermit(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return permits == null || permits.tryAcquire(timeout, unit);
+    }
+
+    //
+    // Submit the call to the plugin, once the permit has been acquired. The permit is held until the call completes, even if the
+    // caller timed out in the meantime, and is released right away if the call is rejected or cancelled before it started.
+    //
+    public <T> Future<T> submit(final Callable<T> callable) throws RejectedExecutionException {
+        if (permits == null) {
+            return executor.submit(callable);
+        }
+
+        // Whoever claims the permit first (the call starting, or the call being rejected or cancelled) is in charge of releasing it
+        final AtomicBoolean permitClaimed = new AtomicBoolean(false);
+        final Future<T> future;
+        try {
+            future = executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    if (!permitClaimed.compareAndSet(false, true)) {
+                        throw new CancellationException();
+                    }
+                    try {
+                        return callable.call();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            releasePermit(permitClaimed);
+            throw e;
+        }
+
+        return new SimpleForwardingFuture<T>(future) {
+            @Override
+            public boolean cancel(final boolean mayInterruptIfRunning) {
+                final boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled) {
+                    releasePermit(permitClaimed);
+                }
+                return cancelled;
+            }
+        };
+    }
+
+    // Used when the call couldn't be made at all (no permit available in time, executor saturated): it says nothing about the health of the plugin
+    public void onRejected() {
+        rejections.mark();
+        circuitBreaker.onCallAborted();
+    }
+
+    public void onCallCompleted(final long durationNanos, final boolean failed) {
+        latency.update(durationNanos, TimeUnit.NANOSECONDS);
+        circuitBreaker.onCallCompleted(durationNanos, failed);
+    }
+
+    private void releasePermit(final AtomicBoolean permitClaimed) {
+        if (permitClaimed.compareAndSet(false, true)) {
+            permits.release();
+        }
+    }
+}
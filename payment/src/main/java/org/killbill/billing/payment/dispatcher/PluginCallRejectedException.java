@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.payment.dispatcher;
+
+import org.killbill.billing.ErrorCode;
+import org.killbill.billing.payment.api.PaymentApiException;
+
+//
+// The call was rejected before reaching the plugin (open circuit, no permit available in time, executor saturated):
+// unlike a timeout, we know for sure nothing happened on the plugin side.
+//
+public class PluginCallRejectedException extends Exception {
+
+    public PluginCallRejectedException(final String message) {
+        super(message);
+    }
+
+    public PluginCallRejectedException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+    // Wrapped the same way as the other dispatch failures, see PaymentPluginDispatcher
+    public PaymentApiException toPaymentApiException() {
+        return new PaymentApiException(this, ErrorCode.PAYMENT_PLUGIN_EXCEPTION, getMessage());
+    }
+
+    public static boolean isRejection(final Throwable throwable) {
+        return throwable != null && (throwable instanceof PluginCallRejectedException || throwable.getCause() instanceof PluginCallRejectedException);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.payment.dispatcher;
+
+import com.google.common.annotations.VisibleForTesting;
+
+//
+// Tracks the outcome of the most recent calls to a payment plugin and rejects new calls once the failure rate
+// goes above the threshold. After openDurationNanos, a single trial call is let through: its outcome decides
+// whether the circuit closes again or stays open for another period. Outcomes of calls started before the last state
+// change (e.g. still in flight when the circuit opened) are ignored, so that they cannot decide the outcome of the trial.
+//
+public class PluginCircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureRateThreshold;
+    private final long slowCallNanos;
+    private final long openDurationNanos;
+    // Ring buffer of the last outcomes (true for a failed call)
+    private final boolean[] outcomes;
+
+    private State state;
+    private int nbCalls;
+    private int nbFailures;
+    private int nextIndex;
+    private long openedTimeNanos;
+    // Time of the last state change, if any
+    private boolean transitioned;
+    private long lastTransitionTimeNanos;
+
+    public PluginCircuitBreaker(final int failureRateThreshold, final int windowSize, final long slowCallNanos, final long openDurationNanos) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = slowCallNanos;
+        this.openDurationNanos = openDurationNanos;
+        this.outcomes = new boolean[Math.max(windowSize, 1)];
+        this.state = State.CLOSED;
+    }
+
+    public boolean isEnabled() {
+        return failureRateThreshold > 0;
+    }
+
+    public synchronized boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    public synchronized void onCallCompleted(final long durationNanos, final boolean failed) {
+        onCallCompleted(durationNanos, failed, System.nanoTime());
+    }
+
+    // The call couldn't be made (e.g. no permit available in time): if it was the trial one, let the next call be the trial instead
+    public synchronized void onCallAborted() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    @VisibleForTesting
+    synchronized boolean tryAcquire(final long nowNanos) {
+        if (!isEnabled()) {
+            return true;
+        }
+
+        switch (state) {
+            case OPEN:
+                if (nowNanos - openedTimeNanos < openDurationNanos) {
+                    return false;
+                }
+                // This call is the trial one
+                transition(State.HALF_OPEN, nowNanos);
+                return true;
+            case HALF_OPEN:
+                // Wait for the outcome of the trial call
+                return false;
+            case CLOSED:
+            default:
+                return true;
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void onCallCompleted(final long durationNanos, final boolean failed, final long nowNanos) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        if (transitioned && nowNanos - durationNanos - lastTransitionTimeNanos < 0) {
+            // Stale call, started before the last state change
+            return;
+        }
+
+        final boolean failure = failed || (slowCallNanos > 0 && durationNanos >= slowCallNanos);
+        switch (state) {
+            case HALF_OPEN:
+                if (failure) {
+                    open(nowNanos);
+                } else {
+                    close(nowNanos);
+                }
+                break;
+            case CLOSED:
+                record(failure);
+                if (nbCalls == outcomes.length && nbFailures * 100 >= failureRateThreshold * nbCalls) {
+                    open(nowNanos);
+                }
+                break;
+            case OPEN:
+            default:
+                // Not reachable: no call is let through while the circuit is open
+                break;
+        }
+    }
+
+    private void record(final boolean failure) {
+        if (nbCalls == outcomes.length) {
+            if (outcomes[nextIndex]) {
+                nbFailures--;
+            }
+        } else {
+            nbCalls++;
+        }
+        outcomes[nextIndex] = failure;
+        if (failure) {
+            nbFailures++;
+        }
+        nextIndex = (nextIndex + 1) % outcomes.length;
+    }
+
+    private void open(final long nowNanos) {
+        transition(State.OPEN, nowNanos);
+        openedTimeNanos = nowNanos;
+    }
+
+    private void close(final long nowNanos) {
+        transition(State.CLOSED, nowNanos);
+        nbCalls = 0;
+        nbFailures = 0;
+        nextIndex = 0;
+    }
+
+    private void transition(final State newState, final long nowNanos) {
+        state = newState;
+        transitioned = true;
+        lastTransitionTimeNanos = nowNanos;
+    }
+}
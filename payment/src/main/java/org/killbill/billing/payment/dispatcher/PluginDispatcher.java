@@ -20,14 +20,17 @@ package org.killbill.billing.payment.dispatcher;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import javax.annotation.Nullable;
+
 import org.apache.shiro.util.ThreadContext;
 import org.killbill.billing.payment.core.PaymentExecutors;
 import org.killbill.billing.util.UUIDs;
+import org.killbill.commons.locker.LockFailedException;
 import org.killbill.commons.profiling.Profiling;
 import org.killbill.commons.profiling.ProfilingData;
 import org.killbill.commons.request.Request;
@@ -48,15 +51,25 @@ public class PluginDispatcher<ReturnType> {
     }
 
     // TODO Once we switch fully to automata, should this throw PaymentPluginApiException instead?
-    public ReturnType dispatchWithTimeout(final Callable<PluginDispatcherReturnType<ReturnType>> task) throws TimeoutException, ExecutionException, InterruptedException {
-        return dispatchWithTimeout(task, timeoutSeconds, DEFAULT_PLUGIN_TIMEOUT_UNIT);
+    public ReturnType dispatchWithTimeout(final String pluginName, final Callable<PluginDispatcherReturnType<ReturnType>> task) throws TimeoutException, ExecutionException, InterruptedException {
+        return dispatchWithTimeout(pluginName, task, timeoutSeconds, DEFAULT_PLUGIN_TIMEOUT_UNIT);
     }
 
     @VisibleForTesting
     ReturnType dispatchWithTimeout(final Callable<PluginDispatcherReturnType<ReturnType>> task, final long timeout, final TimeUnit unit)
             throws TimeoutException, ExecutionException, InterruptedException {
+        return dispatchWithTimeout(null, task, timeout, unit);
+    }
+
+    @VisibleForTesting
+    ReturnType dispatchWithTimeout(@Nullable final String pluginName, final Callable<PluginDispatcherReturnType<ReturnType>> task, final long timeout, final TimeUnit unit)
+            throws TimeoutException, ExecutionException, InterruptedException {
 
-        final ExecutorService pluginExecutor = paymentExecutors.getPluginExecutorService();
+        final PluginBulkhead pluginBulkhead = paymentExecutors.getPluginBulkhead(pluginName);
+        if (!pluginBulkhead.tryAcquire()) {
+            // Fail fast, the plugin has been failing (or too slow) recently
+            throw new ExecutionException(new PluginCallRejectedException(String.format("Circuit breaker is open for plugin='%s'", pluginName)).toPaymentApiException());
+        }
 
         // Wrap existing callable to keep the original requestId
         final Callable<PluginDispatcherReturnType<ReturnType>> callableWithRequestData = new CallableWithRequestData(Request.getPerThreadRequestData(),
@@ -66,8 +79,48 @@ public class PluginDispatcher<ReturnType> {
                                                                                                                      MDC.getCopyOfContextMap(),
                                                                                                                      task);
 
-        final Future<PluginDispatcherReturnType<ReturnType>> future = pluginExecutor.submit(callableWithRequestData);
-        final PluginDispatcherReturnType<ReturnType> pluginDispatcherResult = future.get(timeout, unit);
+        final long startTimeNanos = System.nanoTime();
+        final long timeoutNanos = unit.toNanos(timeout);
+
+        // Calls which couldn't be made at all don't count towards the circuit breaker
+        try {
+            if (!pluginBulkhead.tryAcquirePermit(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                pluginBulkhead.onRejected();
+                // The plugin was never called, this isn't a timeout of the call itself
+                throw new ExecutionException(new PluginCallRejectedException(String.format("Too many concurrent calls for plugin='%s'", pluginName)).toPaymentApiException());
+            }
+        } catch (final InterruptedException e) {
+            pluginBulkhead.getCircuitBreaker().onCallAborted();
+            throw e;
+        }
+        final Future<PluginDispatcherReturnType<ReturnType>> future;
+        try {
+            future = pluginBulkhead.submit(callableWithRequestData);
+        } catch (final RejectedExecutionException e) {
+            pluginBulkhead.onRejected();
+            throw new ExecutionException(new PluginCallRejectedException(String.format("Too many pending calls for plugin='%s'", pluginName), e).toPaymentApiException());
+        }
+
+        boolean failed = false;
+        final PluginDispatcherReturnType<ReturnType> pluginDispatcherResult;
+        try {
+            // The time spent waiting for a permit counts against the timeout
+            pluginDispatcherResult = future.get(timeoutNanos - (System.nanoTime() - startTimeNanos), TimeUnit.NANOSECONDS);
+        } catch (final TimeoutException e) {
+            // Don't make the call if it hasn't started yet (the call already in progress isn't interrupted)
+            future.cancel(false);
+            failed = true;
+            throw e;
+        } catch (final InterruptedException e) {
+            future.cancel(false);
+            throw e;
+        } catch (final ExecutionException e) {
+            // Failing to grab the account lock says nothing about the health of the plugin
+            failed = !(e.getCause() instanceof LockFailedException);
+            throw e;
+        } finally {
+            pluginBulkhead.onCallCompleted(System.nanoTime() - startTimeNanos, failed);
+        }
 
         if (pluginDispatcherResult instanceof WithProfilingPluginDispatcherReturnType) {
             // Transfer state from dispatch thread into current one.
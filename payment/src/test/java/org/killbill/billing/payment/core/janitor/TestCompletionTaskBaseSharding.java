@@ -0,0 +1,224 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.payment.core.janitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.killbill.billing.events.PaymentInternalEvent;
+import org.killbill.billing.payment.PaymentTestSuiteNoDB;
+import org.killbill.billing.util.config.definition.PaymentConfig;
+import org.killbill.notificationq.api.NotificationQueue;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
+
+public class TestCompletionTaskBaseSharding extends PaymentTestSuiteNoDB {
+
+    private static final int NB_THREADS = 4;
+    private static final int NB_ACCOUNTS = 10;
+    private static final int NB_ITEMS = 250;
+    private static final int BATCH_SIZE = 32;
+
+    private ExecutorService workerExecutor;
+
+    @BeforeMethod(groups = "fast")
+    public void beforeMethod() throws Exception {
+        super.beforeMethod();
+        workerExecutor = Executors.newFixedThreadPool(NB_THREADS);
+    }
+
+    @AfterMethod(groups = "fast")
+    public void afterMethod() throws Exception {
+        workerExecutor.shutdownNow();
+        super.afterMethod();
+    }
+
+    @Test(groups = "fast")
+    public void testItemsAreShardedByAccountInBoundedBatches() throws Exception {
+        final ShardedCompletionTask task = new ShardedCompletionTask();
+        task.attachJanitorWorkerExecutor(workerExecutor);
+        task.run();
+
+        // All the items have been processed, in order for a given account
+        Assert.assertEquals(task.processedItems.size(), NB_ITEMS);
+        for (final Long accountRecordId : task.processedItems.keySet()) {
+            final List<Long> items = task.processedItems.get(accountRecordId);
+            Assert.assertEquals(items.size(), NB_ITEMS / NB_ACCOUNTS);
+            for (int i = 1; i < items.size(); i++) {
+                Assert.assertTrue(items.get(i - 1) < items.get(i));
+            }
+        }
+
+        // The items were never all read at once
+        Assert.assertTrue(task.maxItemsInMemory.get() > 0);
+        Assert.assertTrue(task.maxItemsInMemory.get() <= BATCH_SIZE);
+    }
+
+    @Test(groups = "fast")
+    public void testStopBetweenBatches() throws Exception {
+        final ShardedCompletionTask task = new ShardedCompletionTask() {
+            @Override
+            public void doIteration(final Long item) {
+                super.doIteration(item);
+                stop();
+            }
+        };
+        task.attachJanitorWorkerExecutor(workerExecutor);
+        task.run();
+
+        // The current batch is interrupted, and the next ones are never started (the iterator is still fully consumed)
+        Assert.assertTrue(task.processedItems.size() <= NB_THREADS);
+        Assert.assertEquals(task.nbReadItems.get(), NB_ITEMS);
+    }
+
+    @Test(groups = "fast")
+    public void testRunInShard() throws Exception {
+        final ShardedCompletionTask task = new ShardedCompletionTask();
+        task.attachJanitorWorkerExecutor(workerExecutor);
+
+        // Items handed over concurrently (e.g. by the notification queue dispatch threads) are run by the workers
+        final Set<Long> accountsInFlight = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final AtomicInteger nbConcurrentItemsForAccount = new AtomicInteger();
+        final AtomicInteger nbItemsRunByCallers = new AtomicInteger();
+        final ExecutorService callerExecutor = Executors.newFixedThreadPool(NB_THREADS * 2);
+        try {
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (long i = 0; i < NB_ITEMS; i++) {
+                final long item = i;
+                futures.add(callerExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        final Long accountRecordId = item % NB_ACCOUNTS;
+                        final Thread callerThread = Thread.currentThread();
+                        task.runInShard(accountRecordId, new Runnable() {
+                            @Override
+                            public void run() {
+                                if (!accountsInFlight.add(accountRecordId)) {
+                                    nbConcurrentItemsForAccount.incrementAndGet();
+                                }
+                                if (Thread.currentThread() == callerThread) {
+                                    nbItemsRunByCallers.incrementAndGet();
+                                }
+                                task.doIteration(item);
+                                accountsInFlight.remove(accountRecordId);
+                            }
+                        });
+                        // The caller only returns once the item has been processed
+                        Assert.assertTrue(task.processedItems.containsEntry(accountRecordId, item));
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            callerExecutor.shutdownNow();
+        }
+
+        Assert.assertEquals(task.processedItems.size(), NB_ITEMS);
+        Assert.assertEquals(nbItemsRunByCallers.get(), 0);
+        // A given account is never processed by two workers at the same time
+        Assert.assertEquals(nbConcurrentItemsForAccount.get(), 0);
+    }
+
+    private class ShardedCompletionTask extends CompletionTaskBase<Long> {
+
+        final ListMultimap<Long, Long> processedItems = Multimaps.synchronizedListMultimap(ArrayListMultimap.<Long, Long>create());
+        final AtomicInteger nbReadItems = new AtomicInteger();
+        final AtomicInteger maxItemsInMemory = new AtomicInteger();
+
+        ShardedCompletionTask() {
+            super(null, createPaymentConfig(), null, null, null, null, null, null);
+        }
+
+        @Override
+        public Iterable<Long> getItemsForIteration() {
+            final List<Long> items = new ArrayList<Long>(NB_ITEMS);
+            for (long i = 0; i < NB_ITEMS; i++) {
+                items.add(i);
+            }
+            return new Iterable<Long>() {
+                @Override
+                public Iterator<Long> iterator() {
+                    final Iterator<Long> delegate = items.iterator();
+                    return new Iterator<Long>() {
+                        @Override
+                        public boolean hasNext() {
+                            return delegate.hasNext();
+                        }
+
+                        @Override
+                        public Long next() {
+                            nbReadItems.incrementAndGet();
+                            return delegate.next();
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+
+        @Override
+        public void doIteration(final Long item) {
+            final int itemsInMemory = nbReadItems.get() - processedItems.size();
+            synchronized (maxItemsInMemory) {
+                maxItemsInMemory.set(Math.max(maxItemsInMemory.get(), itemsInMemory));
+            }
+            processedItems.put(getAccountRecordId(item), item);
+        }
+
+        @Override
+        protected Long getAccountRecordId(final Long item) {
+            return item % NB_ACCOUNTS;
+        }
+
+        @Override
+        public void processPaymentEvent(final PaymentInternalEvent event, final NotificationQueue janitorQueue) {
+        }
+
+        @Override
+        int getShardingBatchSize() {
+            return BATCH_SIZE;
+        }
+    }
+
+    private static PaymentConfig createPaymentConfig() {
+        final PaymentConfig paymentConfig = Mockito.mock(PaymentConfig.class);
+        Mockito.when(paymentConfig.getJanitorThreadNb()).thenReturn(NB_THREADS);
+        return paymentConfig;
+    }
+}
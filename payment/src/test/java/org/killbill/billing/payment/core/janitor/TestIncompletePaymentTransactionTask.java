@@ -17,9 +17,27 @@
 
 package org.killbill.billing.payment.core.janitor;
 
+import java.util.UUID;
+
 import org.joda.time.DateTime;
+import org.killbill.billing.ErrorCode;
+import org.killbill.billing.account.api.AccountApiException;
+import org.killbill.billing.account.api.AccountInternalApi;
+import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.payment.PaymentTestSuiteNoDB;
 import org.killbill.billing.payment.api.TransactionStatus;
+import org.killbill.billing.payment.core.PaymentPluginServiceRegistration;
+import org.killbill.billing.payment.dao.PaymentDao;
+import org.killbill.billing.payment.dao.PaymentMethodModelDao;
+import org.killbill.billing.payment.dao.PaymentModelDao;
+import org.killbill.billing.payment.dao.PaymentTransactionModelDao;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.config.definition.PaymentConfig;
+import org.killbill.notificationq.api.NotificationEvent;
+import org.killbill.notificationq.api.NotificationQueue;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import com.google.inject.Inject;
@@ -60,4 +78,81 @@ public class TestIncompletePaymentTransactionTask extends PaymentTestSuiteNoDB {
         }
         assertNull(incompletePaymentTransactionTask.getNextNotificationTime(TransactionStatus.UNKNOWN, 8, internalCallContext));
     }
+
+    @Test(groups = "fast")
+    public void testPluginRateLimiting() throws Exception {
+        final UUID paymentMethodId = UUID.randomUUID();
+        final PaymentDao mockPaymentDao = Mockito.mock(PaymentDao.class);
+        final UUID firstTransactionId = mockIncompleteTransaction(mockPaymentDao, paymentMethodId);
+        final UUID secondTransactionId = mockIncompleteTransaction(mockPaymentDao, paymentMethodId);
+
+        final PaymentConfig mockPaymentConfig = Mockito.mock(PaymentConfig.class);
+        Mockito.when(mockPaymentConfig.getJanitorPluginRate()).thenReturn(1);
+        final InternalCallContextFactory mockInternalCallContextFactory = Mockito.mock(InternalCallContextFactory.class);
+        Mockito.when(mockInternalCallContextFactory.createInternalTenantContext(Mockito.eq(2L), Mockito.eq(1L))).thenReturn(internalCallContext);
+        final PaymentMethodModelDao paymentMethod = Mockito.mock(PaymentMethodModelDao.class);
+        Mockito.when(paymentMethod.getPluginName()).thenReturn("slow-gateway");
+        final PaymentPluginServiceRegistration mockPaymentPluginServiceRegistration = Mockito.mock(PaymentPluginServiceRegistration.class);
+        Mockito.when(mockPaymentPluginServiceRegistration.getPaymentMethodById(Mockito.eq(paymentMethodId), Mockito.anyBoolean(), Mockito.<InternalTenantContext>any())).thenReturn(paymentMethod);
+        // Don't go any further once the permit is acquired
+        final AccountInternalApi mockAccountInternalApi = Mockito.mock(AccountInternalApi.class);
+        Mockito.when(mockAccountInternalApi.getImmutableAccountDataByRecordId(Mockito.<Long>any(), Mockito.<InternalTenantContext>any())).thenThrow(new AccountApiException(ErrorCode.ACCOUNT_DOES_NOT_EXIST_FOR_ID, UUID.randomUUID()));
+        final NotificationQueue janitorQueue = Mockito.mock(NotificationQueue.class);
+
+        final IncompletePaymentTransactionTask task = new IncompletePaymentTransactionTask(mockInternalCallContextFactory, mockPaymentConfig, mockPaymentDao, clock, paymentSMHelper, null,
+                                                                                           mockAccountInternalApi, mockPaymentPluginServiceRegistration, null);
+        task.attachJanitorQueue(janitorQueue);
+
+        // The first notification gets the permit
+        task.processNotification(new JanitorNotificationKey(firstTransactionId, IncompletePaymentTransactionTask.class.toString(), 1), null, 1L, 2L);
+        Mockito.verify(mockAccountInternalApi, Mockito.times(1)).getImmutableAccountDataByRecordId(Mockito.<Long>any(), Mockito.<InternalTenantContext>any());
+        Mockito.verifyZeroInteractions(janitorQueue);
+
+        // The second one (right after, for the same plugin) doesn't wait for it and is rescheduled instead, without consuming an attempt
+        final DateTime beforeSecondNotification = clock.getUTCNow();
+        task.processNotification(new JanitorNotificationKey(secondTransactionId, IncompletePaymentTransactionTask.class.toString(), 1), null, 1L, 2L);
+        Mockito.verify(mockAccountInternalApi, Mockito.times(1)).getImmutableAccountDataByRecordId(Mockito.<Long>any(), Mockito.<InternalTenantContext>any());
+
+        final ArgumentCaptor<DateTime> notificationTime = ArgumentCaptor.forClass(DateTime.class);
+        final ArgumentCaptor<NotificationEvent> notificationKey = ArgumentCaptor.forClass(NotificationEvent.class);
+        Mockito.verify(janitorQueue).recordFutureNotification(notificationTime.capture(), notificationKey.capture(), Mockito.<UUID>any(), Mockito.eq(1L), Mockito.eq(2L));
+        Assert.assertTrue(notificationTime.getValue().isAfter(beforeSecondNotification));
+        Assert.assertEquals(((JanitorNotificationKey) notificationKey.getValue()).getUuidKey(), secondTransactionId);
+        Assert.assertEquals(((JanitorNotificationKey) notificationKey.getValue()).getAttemptNumber(), (Integer) 1);
+    }
+
+    @Test(groups = "fast")
+    public void testThrottledNotificationDelay() throws Exception {
+        final PaymentConfig mockPaymentConfig = Mockito.mock(PaymentConfig.class);
+        Mockito.when(mockPaymentConfig.getJanitorPluginRate()).thenReturn(4);
+        final IncompletePaymentTransactionTask task = new IncompletePaymentTransactionTask(null, mockPaymentConfig, null, clock, paymentSMHelper, null, null, null, null);
+
+        // One slot of 250ms per throttled notification: the delay grows with the backlog
+        for (int i = 1; i <= 20; i++) {
+            final long delayMillis = task.computeThrottledNotificationDelayMillis("slow-gateway");
+            Assert.assertTrue(delayMillis >= i * 250L && delayMillis < (i + 1) * 250L, "Unexpected delay " + delayMillis + " for notification " + i);
+        }
+        // Backlogs are per plugin
+        Assert.assertTrue(task.computeThrottledNotificationDelayMillis("fast-gateway") < 500L);
+
+        // Slots in the past are not handed out
+        clock.addDeltaFromReality(60000);
+        Assert.assertTrue(task.computeThrottledNotificationDelayMillis("slow-gateway") < 500L);
+    }
+
+    private UUID mockIncompleteTransaction(final PaymentDao mockPaymentDao, final UUID paymentMethodId) {
+        final UUID paymentId = UUID.randomUUID();
+        final PaymentModelDao payment = Mockito.mock(PaymentModelDao.class);
+        Mockito.when(payment.getId()).thenReturn(paymentId);
+        Mockito.when(payment.getPaymentMethodId()).thenReturn(paymentMethodId);
+        Mockito.when(mockPaymentDao.getPayment(Mockito.eq(paymentId), Mockito.<InternalTenantContext>any())).thenReturn(payment);
+
+        final UUID transactionId = UUID.randomUUID();
+        final PaymentTransactionModelDao paymentTransaction = Mockito.mock(PaymentTransactionModelDao.class);
+        Mockito.when(paymentTransaction.getId()).thenReturn(transactionId);
+        Mockito.when(paymentTransaction.getPaymentId()).thenReturn(paymentId);
+        Mockito.when(paymentTransaction.getTransactionStatus()).thenReturn(TransactionStatus.UNKNOWN);
+        Mockito.when(mockPaymentDao.getPaymentTransaction(Mockito.eq(transactionId), Mockito.<InternalTenantContext>any())).thenReturn(paymentTransaction);
+        return transactionId;
+    }
 }
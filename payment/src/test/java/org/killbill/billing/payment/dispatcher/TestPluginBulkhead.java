@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.payment.dispatcher;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.killbill.billing.payment.PaymentTestSuiteNoDB;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class TestPluginBulkhead extends PaymentTestSuiteNoDB {
+
+    private ThreadPoolExecutor executor;
+    private Semaphore permits;
+    private PluginBulkhead pluginBulkhead;
+    private CountDownLatch startedLatch;
+    private CountDownLatch blockingLatch;
+
+    @BeforeMethod(groups = "fast")
+    public void beforeMethod() throws Exception {
+        super.beforeMethod();
+
+        // Single thread, no queue
+        executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new SynchronousQueue<Runnable>());
+        permits = new Semaphore(2);
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        pluginBulkhead = new PluginBulkhead("test",
+                                            executor,
+                                            new PluginCircuitBreaker(0, 1, 0L, 0L),
+                                            permits,
+                                            metricRegistry.timer("latency"),
+                                            metricRegistry.meter("rejections"));
+        startedLatch = new CountDownLatch(1);
+        blockingLatch = new CountDownLatch(1);
+    }
+
+    @AfterMethod(groups = "fast")
+    public void afterMethod() throws Exception {
+        blockingLatch.countDown();
+        executor.shutdownNow();
+        super.afterMethod();
+    }
+
+    @Test(groups = "fast")
+    public void testPermitReleasedWhenCallCompletes() throws Exception {
+        Assert.assertTrue(pluginBulkhead.tryAcquirePermit(1, TimeUnit.SECONDS));
+        Assert.assertEquals(permits.availablePermits(), 1);
+
+        final Future<String> future = pluginBulkhead.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return "done";
+            }
+        });
+        Assert.assertEquals(future.get(), "done");
+        Assert.assertEquals(permits.availablePermits(), 2);
+    }
+
+    @Test(groups = "fast")
+    public void testPermitHeldUntilCallCompletes() throws Exception {
+        Assert.assertTrue(pluginBulkhead.tryAcquirePermit(1, TimeUnit.SECONDS));
+        final Future<Void> future = pluginBulkhead.submit(blockingCall());
+        Assert.assertTrue(startedLatch.await(5, TimeUnit.SECONDS));
+
+        // The caller gave up, but the call is still in progress
+        Assert.assertTrue(future.cancel(false));
+        Assert.assertEquals(permits.availablePermits(), 1);
+
+        blockingLatch.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(permits.availablePermits(), 2);
+    }
+
+    @Test(groups = "fast")
+    public void testPermitReleasedWhenRejected() throws Exception {
+        Assert.assertTrue(pluginBulkhead.tryAcquirePermit(1, TimeUnit.SECONDS));
+        pluginBulkhead.submit(blockingCall());
+        Assert.assertTrue(startedLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(permits.availablePermits(), 1);
+
+        // The only thread is busy
+        Assert.assertTrue(pluginBulkhead.tryAcquirePermit(1, TimeUnit.SECONDS));
+        Assert.assertEquals(permits.availablePermits(), 0);
+        final AtomicBoolean called = new AtomicBoolean(false);
+        try {
+            pluginBulkhead.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    called.set(true);
+                    return null;
+                }
+            });
+            Assert.fail("Call should have been rejected");
+        } catch (final RejectedExecutionException e) {
+            Assert.assertEquals(permits.availablePermits(), 1);
+        }
+        Assert.assertFalse(called.get());
+    }
+
+    @Test(groups = "fast")
+    public void testPermitReleasedWhenCancelledBeforeStarting() throws Exception {
+        // Queue the call behind a blocking one
+        final ThreadPoolExecutor queueingExecutor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>());
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final PluginBulkhead queueingPluginBulkhead = new PluginBulkhead("test",
+                                                                         queueingExecutor,
+                                                                         new PluginCircuitBreaker(0, 1, 0L, 0L),
+                                                                         permits,
+                                                                         metricRegistry.timer("latency"),
+                                                                         metricRegistry.meter("rejections"));
+        try {
+            Assert.assertTrue(queueingPluginBulkhead.tryAcquirePermit(1, TimeUnit.SECONDS));
+            queueingPluginBulkhead.submit(blockingCall());
+
+            Assert.assertTrue(queueingPluginBulkhead.tryAcquirePermit(1, TimeUnit.SECONDS));
+            final AtomicBoolean called = new AtomicBoolean(false);
+            final Future<Void> future = queueingPluginBulkhead.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    called.set(true);
+                    return null;
+                }
+            });
+            Assert.assertEquals(permits.availablePermits(), 0);
+
+            // Timed out while queued: the permit is released right away and the plugin is never called
+            Assert.assertTrue(future.cancel(false));
+            Assert.assertEquals(permits.availablePermits(), 1);
+
+            blockingLatch.countDown();
+            queueingExecutor.shutdown();
+            Assert.assertTrue(queueingExecutor.awaitTermination(5, TimeUnit.SECONDS));
+            Assert.assertFalse(called.get());
+            Assert.assertEquals(permits.availablePermits(), 2);
+        } finally {
+            queueingExecutor.shutdownNow();
+        }
+    }
+
+    private Callable<Void> blockingCall() {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                startedLatch.countDown();
+                blockingLatch.await();
+                return null;
+            }
+        };
+    }
+}
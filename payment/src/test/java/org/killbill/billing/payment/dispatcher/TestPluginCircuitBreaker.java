@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.payment.dispatcher;
+
+import org.killbill.billing.payment.PaymentTestSuiteNoDB;
+import org.killbill.billing.payment.dispatcher.PluginCircuitBreaker.State;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestPluginCircuitBreaker extends PaymentTestSuiteNoDB {
+
+    private static final long OPEN_DURATION_NANOS = 1000L;
+    private static final long SLOW_CALL_NANOS = 100L;
+
+    @Test(groups = "fast")
+    public void testDisabled() {
+        final PluginCircuitBreaker circuitBreaker = new PluginCircuitBreaker(0, 2, SLOW_CALL_NANOS, OPEN_DURATION_NANOS);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(circuitBreaker.tryAcquire(i));
+            circuitBreaker.onCallCompleted(1L, true, i);
+        }
+        Assert.assertEquals(circuitBreaker.getState(), State.CLOSED);
+    }
+
+    @Test(groups = "fast")
+    public void testOpensOnFailureRate() {
+        final PluginCircuitBreaker circuitBreaker = new PluginCircuitBreaker(50, 4, SLOW_CALL_NANOS, OPEN_DURATION_NANOS);
+
+        // Window isn't full yet
+        circuitBreaker.onCallCompleted(1L, true, 0L);
+        circuitBreaker.onCallCompleted(1L, true, 0L);
+        circuitBreaker.onCallCompleted(1L, false, 0L);
+        Assert.assertEquals(circuitBreaker.getState(), State.CLOSED);
+
+        // 2 failures out of 4 calls
+        circuitBreaker.onCallCompleted(1L, false, 10L);
+        Assert.assertEquals(circuitBreaker.getState(), State.OPEN);
+        Assert.assertFalse(circuitBreaker.tryAcquire(10L + OPEN_DURATION_NANOS - 1));
+    }
+
+    @Test(groups = "fast")
+    public void testSlowCallsCountAsFailures() {
+        final PluginCircuitBreaker circuitBreaker = new PluginCircuitBreaker(50, 2, SLOW_CALL_NANOS, OPEN_DURATION_NANOS);
+        circuitBreaker.onCallCompleted(SLOW_CALL_NANOS - 1, false, 0L);
+        circuitBreaker.onCallCompleted(SLOW_CALL_NANOS, false, 0L);
+        Assert.assertEquals(circuitBreaker.getState(), State.OPEN);
+    }
+
+    @Test(groups = "fast")
+    public void testSlidingWindow() {
+        final PluginCircuitBreaker circuitBreaker = new PluginCircuitBreaker(50, 4, SLOW_CALL_NANOS, OPEN_DURATION_NANOS);
+        circuitBreaker.onCallCompleted(1L, true, 0L);
+        for (int i = 0; i < 10; i++) {
+            circuitBreaker.onCallCompleted(1L, false, 0L);
+        }
+        // The first failure is out of the window
+        circuitBreaker.onCallCompleted(1L, true, 0L);
+        Assert.assertEquals(circuitBreaker.getState(), State.CLOSED);
+        circuitBreaker.onCallCompleted(1L, true, 0L);
+        Assert.assertEquals(circuitBreaker.getState(), State.OPEN);
+    }
+
+    @Test(groups = "fast")
+    public void testTrialCall() {
+        final PluginCircuitBreaker circuitBreaker = new PluginCircuitBreaker(100, 1, SLOW_CALL_NANOS, OPEN_DURATION_NANOS);
+        circuitBreaker.onCallCompleted(1L, true, 0L);
+        Assert.assertEquals(circuitBreaker.getState(), State.OPEN);
+
+        // Only one trial call is let through once the open duration has elapsed
+        Assert.assertTrue(circuitBreaker.tryAcquire(OPEN_DURATION_NANOS));
+        Assert.assertEquals(circuitBreaker.getState(), State.HALF_OPEN);
+        Assert.assertFalse(circuitBreaker.tryAcquire(OPEN_DURATION_NANOS));
+
+        // Failed trial: open for another period
+        circuitBreaker.onCallCompleted(1L, true, OPEN_DURATION_NANOS + 1);
+        Assert.assertEquals(circuitBreaker.getState(), State.OPEN);
+        Assert.assertFalse(circuitBreaker.tryAcquire(2 * OPEN_DURATION_NANOS));
+
+        // Successful trial: closed again
+        Assert.assertTrue(circuitBreaker.tryAcquire(2 * OPEN_DURATION_NANOS + 1));
+        circuitBreaker.onCallCompleted(1L, false, 2 * OPEN_DURATION_NANOS + 2);
+        Assert.assertEquals(circuitBreaker.getState(), State.CLOSED);
+        Assert.assertTrue(circuitBreaker.tryAcquire(2 * OPEN_DURATION_NANOS + 2));
+    }
+
+    @Test(groups = "fast")
+    public void testStaleCallsAreIgnored() {
+        final PluginCircuitBreaker circuitBreaker = new PluginCircuitBreaker(100, 1, SLOW_CALL_NANOS, OPEN_DURATION_NANOS);
+        circuitBreaker.onCallCompleted(1L, true, 0L);
+        Assert.assertTrue(circuitBreaker.tryAcquire(OPEN_DURATION_NANOS));
+        Assert.assertEquals(circuitBreaker.getState(), State.HALF_OPEN);
+
+        // Call started before the circuit opened: it doesn't decide the outcome of the trial
+        circuitBreaker.onCallCompleted(OPEN_DURATION_NANOS + 10, false, OPEN_DURATION_NANOS + 5);
+        Assert.assertEquals(circuitBreaker.getState(), State.HALF_OPEN);
+
+        circuitBreaker.onCallCompleted(1L, false, OPEN_DURATION_NANOS + 2);
+        Assert.assertEquals(circuitBreaker.getState(), State.CLOSED);
+
+        // Call started before the circuit closed again: it doesn't reopen it
+        circuitBreaker.onCallCompleted(10L, true, OPEN_DURATION_NANOS + 5);
+        Assert.assertEquals(circuitBreaker.getState(), State.CLOSED);
+        circuitBreaker.onCallCompleted(1L, true, OPEN_DURATION_NANOS + 5);
+        Assert.assertEquals(circuitBreaker.getState(), State.OPEN);
+    }
+
+    @Test(groups = "fast")
+    public void testAbortedTrialCall() {
+        final PluginCircuitBreaker circuitBreaker = new PluginCircuitBreaker(100, 1, SLOW_CALL_NANOS, OPEN_DURATION_NANOS);
+        circuitBreaker.onCallCompleted(1L, true, 0L);
+        Assert.assertTrue(circuitBreaker.tryAcquire(OPEN_DURATION_NANOS));
+        Assert.assertEquals(circuitBreaker.getState(), State.HALF_OPEN);
+
+        // The trial call couldn't be made: the next call becomes the trial one
+        circuitBreaker.onCallAborted();
+        Assert.assertEquals(circuitBreaker.getState(), State.OPEN);
+        Assert.assertTrue(circuitBreaker.tryAcquire(OPEN_DURATION_NANOS + 1));
+        Assert.assertEquals(circuitBreaker.getState(), State.HALF_OPEN);
+
+        // Aborted calls are ignored otherwise
+        circuitBreaker.onCallCompleted(1L, false, OPEN_DURATION_NANOS + 2);
+        circuitBreaker.onCallAborted();
+        Assert.assertEquals(circuitBreaker.getState(), State.CLOSED);
+    }
+}
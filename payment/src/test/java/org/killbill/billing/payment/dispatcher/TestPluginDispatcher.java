@@ -20,21 +20,29 @@ package org.killbill.billing.payment.dispatcher;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.killbill.billing.ErrorCode;
 import org.killbill.billing.payment.PaymentTestSuiteNoDB;
 import org.killbill.billing.payment.api.PaymentApiException;
+import org.killbill.billing.payment.core.PaymentExecutors;
+import org.killbill.billing.payment.dispatcher.PluginCircuitBreaker.State;
 import org.killbill.billing.payment.dispatcher.PluginDispatcher.PluginDispatcherReturnType;
 import org.killbill.billing.util.UUIDs;
 import org.killbill.commons.request.Request;
 import org.killbill.commons.request.RequestData;
+import org.mockito.Mockito;
 import org.slf4j.MDC;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import com.codahale.metrics.MetricRegistry;
+
 public class TestPluginDispatcher extends PaymentTestSuiteNoDB {
 
     private PluginDispatcher<Void> voidPluginDispatcher;
@@ -148,4 +156,43 @@ public class TestPluginDispatcher extends PaymentTestSuiteNoDB {
         Assert.assertEquals(actualRequestId, requestId);
     }
 
+    @Test(groups = "fast")
+    public void testPermitTimeoutIsARejection() throws Exception {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new SynchronousQueue<Runnable>());
+        try {
+            // Circuit breaker opening on the first failure, no permit available
+            final PluginCircuitBreaker circuitBreaker = new PluginCircuitBreaker(100, 1, 0L, TimeUnit.MINUTES.toNanos(1));
+            final Semaphore permits = new Semaphore(0);
+            final MetricRegistry metricRegistry = new MetricRegistry();
+            final PluginBulkhead pluginBulkhead = new PluginBulkhead("test", executor, circuitBreaker, permits, metricRegistry.timer("latency"), metricRegistry.meter("rejections"));
+            final PaymentExecutors mockPaymentExecutors = Mockito.mock(PaymentExecutors.class);
+            Mockito.when(mockPaymentExecutors.getPluginBulkhead("test")).thenReturn(pluginBulkhead);
+            final PluginDispatcher<String> pluginDispatcher = new PluginDispatcher<String>(1, mockPaymentExecutors);
+
+            final Callable<PluginDispatcherReturnType<String>> task = new Callable<PluginDispatcherReturnType<String>>() {
+                @Override
+                public PluginDispatcherReturnType<String> call() throws Exception {
+                    return PluginDispatcher.<String>createPluginDispatcherReturnType("done");
+                }
+            };
+
+            try {
+                pluginDispatcher.dispatchWithTimeout("test", task, 10, TimeUnit.MILLISECONDS);
+                Assert.fail("Failed : should have had a rejection");
+            } catch (final ExecutionException e) {
+                // The plugin was never called: the call is rejected, it doesn't count as a failure of the plugin
+                Assert.assertTrue(PluginCallRejectedException.isRejection(e.getCause()));
+                Assert.assertEquals(circuitBreaker.getState(), State.CLOSED);
+                Assert.assertEquals(metricRegistry.meter("rejections").getCount(), 1L);
+            }
+
+            // Once a permit is available, the call goes through and the permit is given back
+            permits.release();
+            Assert.assertEquals(pluginDispatcher.dispatchWithTimeout("test", task, 1, TimeUnit.SECONDS), "done");
+            Assert.assertEquals(circuitBreaker.getState(), State.CLOSED);
+            Assert.assertEquals(permits.availablePermits(), 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
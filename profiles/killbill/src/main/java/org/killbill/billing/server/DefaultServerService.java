@@ -79,6 +79,7 @@ public class DefaultServerService implements ServerService {
         } catch (final EventBusException e) {
             log.warn("Failed to unregister PushNotificationListener", e);
         }
+        pushNotificationListener.shutdown();
         pushNotificationRetryService.stop();
     }
 }
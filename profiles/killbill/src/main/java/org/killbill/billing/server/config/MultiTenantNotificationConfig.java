@@ -59,6 +59,35 @@ public class MultiTenantNotificationConfig extends MultiTenantConfigBase impleme
         return getPushNotificationsRetries();
     }
 
+    @Override
+    public int getPushNotificationsQueueCapacity() {
+        return staticConfig.getPushNotificationsQueueCapacity();
+    }
+
+    @Override
+    public int getPushNotificationsConcurrency() {
+        return staticConfig.getPushNotificationsConcurrency();
+    }
+
+    @Override
+    public int getPushNotificationsResponseThreads() {
+        return staticConfig.getPushNotificationsResponseThreads();
+    }
+
+    @Override
+    public int getPushNotificationsBatchSize() {
+        return staticConfig.getPushNotificationsBatchSize();
+    }
+
+    @Override
+    public int getPushNotificationsBatchSize(@Param("dummy") final InternalTenantContext tenantContext) {
+        final String result = getStringTenantConfig("getPushNotificationsBatchSize", tenantContext);
+        if (result != null) {
+            return Integer.parseInt(result);
+        }
+        return getPushNotificationsBatchSize();
+    }
+
     @Override
     protected Class<? extends KillbillConfig> getConfigClass() {
         return NotificationConfig.class;
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.server.notifications;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import org.killbill.billing.jaxrs.json.NotificationJson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClient.BoundRequestBuilder;
+import com.ning.http.client.Response;
+
+// Delivery pipeline for a given (tenant, callback url): notifications are spread across lanes by account, each lane
+// having at most one request in flight, so that notifications for a given account are sent in order. This only holds
+// on the first attempt though: a failed (or deferred) notification goes to the retry queue and is delivered later,
+// after the notifications for that account sent in the meantime (lanes aren't held for the duration of the retry delays).
+public class PushNotificationEndpoint {
+
+    private static final Logger log = LoggerFactory.getLogger(PushNotificationEndpoint.class);
+
+    private final UUID tenantId;
+    private final String url;
+    private final int capacity;
+    private final AsyncHttpClient httpClient;
+    private final ExecutorService executor;
+    private final PushNotificationListener pushNotificationListener;
+    private final Lane[] lanes;
+    private final AtomicInteger nbPendingNotifications = new AtomicInteger(0);
+
+    private volatile int batchSize = 1;
+
+    public PushNotificationEndpoint(final UUID tenantId,
+                                    final String url,
+                                    final int capacity,
+                                    final int concurrency,
+                                    final AsyncHttpClient httpClient,
+                                    final ExecutorService executor,
+                                    final PushNotificationListener pushNotificationListener) {
+        this.tenantId = tenantId;
+        this.url = url;
+        this.capacity = capacity;
+        this.httpClient = httpClient;
+        this.executor = executor;
+        this.pushNotificationListener = pushNotificationListener;
+        this.lanes = new Lane[Math.max(1, concurrency)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+        }
+    }
+
+    // Returns false if the queue is full (or the endpoint has been drained): it is then up to the caller to reschedule the notification
+    public boolean offer(final NotificationJson notification, final String body, final int attemptNumber, final int batchSize) {
+        if (nbPendingNotifications.incrementAndGet() > capacity) {
+            nbPendingNotifications.decrementAndGet();
+            return false;
+        }
+
+        this.batchSize = Math.max(1, batchSize);
+        if (!getLane(notification.getAccountId()).offer(new PendingNotification(notification, body, attemptNumber))) {
+            nbPendingNotifications.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    // Used on shutdown: return all notifications not yet sent, as well as the ones whose response hasn't been processed yet
+    // (these may be delivered twice). The endpoint doesn't send anything afterwards.
+    public List<PendingNotification> drain() {
+        final List<PendingNotification> result = new LinkedList<PendingNotification>();
+        for (final Lane lane : lanes) {
+            result.addAll(lane.drain());
+        }
+        return result;
+    }
+
+    public UUID getTenantId() {
+        return tenantId;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    private Lane getLane(@Nullable final String accountId) {
+        if (accountId == null) {
+            return lanes[0];
+        }
+        return lanes[(accountId.hashCode() & Integer.MAX_VALUE) % lanes.length];
+    }
+
+    private void send(final Lane lane, final List<PendingNotification> batch) {
+        final BoundRequestBuilder builder = httpClient.preparePost(url);
+        builder.setBody(buildBody(batch));
+        builder.addHeader(PushNotificationListener.HTTP_HEADER_CONTENT_TYPE, PushNotificationListener.CONTENT_TYPE_JSON);
+
+        try {
+            builder.execute(new AsyncCompletionHandler<Response>() {
+                @Override
+                public Response onCompleted(final Response response) throws Exception {
+                    onResponse(lane, batch, response, null);
+                    return response;
+                }
+
+                @Override
+                public void onThrowable(final Throwable t) {
+                    onResponse(lane, batch, null, t);
+                }
+            });
+        } catch (final Exception e) {
+            onResponse(lane, batch, null, e);
+        }
+    }
+
+    private String buildBody(final List<PendingNotification> batch) {
+        if (batchSize == 1 && batch.size() == 1) {
+            final String body = batch.get(0).getBody();
+            return body == null ? "{}" : body;
+        }
+
+        final StringBuilder body = new StringBuilder("[");
+        for (final PendingNotification pendingNotification : batch) {
+            if (body.length() > 1) {
+                body.append(',');
+            }
+            body.append(pendingNotification.getBody() == null ? "{}" : pendingNotification.getBody());
+        }
+        return body.append(']').toString();
+    }
+
+    // Invoked from the I/O threads of the HTTP client: hand the (potentially blocking) processing over to our executor
+    private void onResponse(final Lane lane, final List<PendingNotification> batch, @Nullable final Response response, @Nullable final Throwable throwable) {
+        try {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // Skip batches already handed over to the retry queue by drain()
+                    if (!lane.release(batch)) {
+                        return;
+                    }
+                    try {
+                        processResponse(batch, response, throwable);
+                    } finally {
+                        lane.sendNext();
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            // Shutting down: the batch has been (or will be) returned by drain()
+            log.debug("Ignoring push notification response url='{}', tenantId='{}': shutting down", url, tenantId);
+        }
+    }
+
+    private void processResponse(final Iterable<PendingNotification> batch, @Nullable final Response response, @Nullable final Throwable throwable) {
+        if (throwable != null && !(throwable instanceof TimeoutException)) {
+            log.warn("Failed to push notification url='{}', tenantId='{}'", url, tenantId, throwable);
+            return;
+        }
+
+        if (response != null && response.getStatusCode() >= 200 && response.getStatusCode() < 300) {
+            return;
+        }
+
+        // The lane moves on: these are retried after the next notifications in the lane
+        for (final PendingNotification pendingNotification : batch) {
+            pushNotificationListener.saveRetryPushNotificationInQueue(tenantId, url, pendingNotification.getNotification(), pendingNotification.getAttemptNumber());
+        }
+    }
+
+    private final class Lane {
+
+        private final LinkedList<PendingNotification> queue = new LinkedList<PendingNotification>();
+
+        // Batch sent but whose response hasn't been processed yet
+        private List<PendingNotification> inFlightBatch = null;
+        private boolean drained = false;
+
+        public boolean offer(final PendingNotification pendingNotification) {
+            final List<PendingNotification> batch;
+            synchronized (this) {
+                if (drained) {
+                    return false;
+                }
+                queue.add(pendingNotification);
+                if (inFlightBatch != null) {
+                    return true;
+                }
+                batch = nextBatch();
+            }
+            send(this, batch);
+            return true;
+        }
+
+        // Returns false if the batch has been drained in the meantime
+        public synchronized boolean release(final List<PendingNotification> batch) {
+            if (inFlightBatch != batch) {
+                return false;
+            }
+            inFlightBatch = null;
+            return true;
+        }
+
+        public void sendNext() {
+            final List<PendingNotification> batch;
+            synchronized (this) {
+                if (drained || inFlightBatch != null || queue.isEmpty()) {
+                    return;
+                }
+                batch = nextBatch();
+            }
+            send(this, batch);
+        }
+
+        public synchronized List<PendingNotification> drain() {
+            drained = true;
+
+            final List<PendingNotification> result = new ArrayList<PendingNotification>(queue.size() + (inFlightBatch == null ? 0 : inFlightBatch.size()));
+            if (inFlightBatch != null) {
+                result.addAll(inFlightBatch);
+                inFlightBatch = null;
+            }
+            result.addAll(queue);
+            nbPendingNotifications.addAndGet(-queue.size());
+            queue.clear();
+            return result;
+        }
+
+        private List<PendingNotification> nextBatch() {
+            final List<PendingNotification> batch = new ArrayList<PendingNotification>(Math.min(batchSize, queue.size()));
+            while (batch.size() < batchSize && !queue.isEmpty()) {
+                batch.add(queue.poll());
+            }
+            nbPendingNotifications.addAndGet(-batch.size());
+            inFlightBatch = batch;
+            return batch;
+        }
+    }
+
+    public static final class PendingNotification {
+
+        private final NotificationJson notification;
+        private final String body;
+        private final int attemptNumber;
+
+        public PendingNotification(final NotificationJson notification, final String body, final int attemptNumber) {
+            this.notification = notification;
+            this.body = body;
+            this.attemptNumber = attemptNumber;
+        }
+
+        public NotificationJson getNotification() {
+            return notification;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public int getAttemptNumber() {
+            return attemptNumber;
+        }
+    }
+}
@@ -19,10 +19,13 @@
 package org.killbill.billing.server.notifications;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 import javax.inject.Inject;
 
@@ -32,6 +35,7 @@ import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.jaxrs.json.NotificationJson;
 import org.killbill.billing.notification.plugin.api.ExtBusEvent;
 import org.killbill.billing.server.DefaultServerService;
+import org.killbill.billing.server.notifications.PushNotificationEndpoint.PendingNotification;
 import org.killbill.billing.tenant.api.TenantApiException;
 import org.killbill.billing.tenant.api.TenantKV.TenantKey;
 import org.killbill.billing.tenant.api.TenantUserApi;
@@ -40,6 +44,7 @@ import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.callcontext.TenantContext;
 import org.killbill.billing.util.config.definition.NotificationConfig;
 import org.killbill.clock.Clock;
+import org.killbill.commons.concurrent.Executors;
 import org.killbill.notificationq.api.NotificationQueue;
 import org.killbill.notificationq.api.NotificationQueueService;
 import org.killbill.notificationq.api.NotificationQueueService.NoSuchNotificationQueue;
@@ -47,12 +52,8 @@ import org.skife.config.TimeSpan;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.ning.http.client.AsyncCompletionHandler;
 import com.ning.http.client.AsyncHttpClient;
-import com.ning.http.client.AsyncHttpClient.BoundRequestBuilder;
 import com.ning.http.client.AsyncHttpClientConfig;
-import com.ning.http.client.ListenableFuture;
-import com.ning.http.client.Response;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -71,6 +72,7 @@ public class PushNotificationListener {
     public static final String CONTENT_TYPE_JSON = "application/json; charset=UTF-8";
 
     private static final int TIMEOUT_NOTIFICATION = 15; // 15 seconds
+    private static final int POOLED_CONNECTION_IDLE_TIMEOUT = 60; // 60 seconds
 
     private final TenantUserApi tenantApi;
     private final CallContextFactory contextFactory;
@@ -80,12 +82,22 @@ public class PushNotificationListener {
     private final InternalCallContextFactory internalCallContextFactory;
     private final Clock clock;
     private final NotificationConfig notificationConfig;
+    private final ExecutorService executor;
+    // Endpoints by tenant and callback url
+    private final ConcurrentMap<UUID, ConcurrentMap<String, PushNotificationEndpoint>> endpoints = new ConcurrentHashMap<UUID, ConcurrentMap<String, PushNotificationEndpoint>>();
+
+    private volatile boolean isStopped = false;
 
     @Inject
     public PushNotificationListener(final ObjectMapper mapper, final TenantUserApi tenantApi, final CallContextFactory contextFactory,
                                     final NotificationQueueService notificationQueueService, final InternalCallContextFactory internalCallContextFactory,
                                     final Clock clock, final NotificationConfig notificationConfig) {
-        this.httpClient = new AsyncHttpClient(new AsyncHttpClientConfig.Builder().setRequestTimeout(TIMEOUT_NOTIFICATION * 1000).build());
+        // Keep connections to the callbacks alive across notifications
+        this.httpClient = new AsyncHttpClient(new AsyncHttpClientConfig.Builder().setRequestTimeout(TIMEOUT_NOTIFICATION * 1000)
+                                                                                 .setAllowPoolingConnections(true)
+                                                                                 .setPooledConnectionIdleTimeout(POOLED_CONNECTION_IDLE_TIMEOUT * 1000)
+                                                                                 .build());
+        this.executor = Executors.newFixedThreadPool(Math.max(1, notificationConfig.getPushNotificationsResponseThreads()), "PushNotificationListener-delivery");
         this.tenantApi = tenantApi;
         this.contextFactory = contextFactory;
         this.mapper = mapper;
@@ -101,6 +113,7 @@ public class PushNotificationListener {
         final TenantContext context = contextFactory.createTenantContext(event.getTenantId());
         try {
             final List<String> callbacks = getCallbacksForTenant(context);
+            removeUnregisteredEndpoints(event.getTenantId(), callbacks);
             if (callbacks.isEmpty()) {
                 // Optimization - see https://github.com/killbill/killbill/issues/297
                 return;
@@ -117,39 +130,68 @@ public class PushNotificationListener {
         final NotificationJson notification = new NotificationJson(event);
         final String body = mapper.writeValueAsString(notification);
         for (final String cur : callbacks) {
-            doPost(tenantId, cur, body, notification, TIMEOUT_NOTIFICATION, 0);
+            enqueue(tenantId, cur, body, notification, 0);
         }
     }
 
-    private boolean doPost(final UUID tenantId, final String url, final String body, final NotificationJson notification,
-                           final int timeoutSec, final int attemptRetryNumber) {
-        final BoundRequestBuilder builder = httpClient.preparePost(url);
-        builder.setBody(body == null ? "{}" : body);
-        builder.addHeader(HTTP_HEADER_CONTENT_TYPE, CONTENT_TYPE_JSON);
+    // Non-blocking: the notification is sent asynchronously, failures being handed over to the retry queue
+    private void enqueue(final UUID tenantId, final String url, final String body, final NotificationJson notification, final int attemptRetryNumber) {
+        if (isStopped) {
+            deferPushNotification(tenantId, url, notification, attemptRetryNumber);
+            return;
+        }
 
-        final Response response;
-        try {
-            final ListenableFuture<Response> futureStatus =
-                    builder.execute(new AsyncCompletionHandler<Response>() {
-                        @Override
-                        public Response onCompleted(final Response response) throws Exception {
-                            return response;
-                        }
-                    });
-            response = futureStatus.get(timeoutSec, TimeUnit.SECONDS);
-        } catch (final TimeoutException toe) {
-            saveRetryPushNotificationInQueue(tenantId, url, notification, attemptRetryNumber);
-            return false;
-        } catch (final Exception e) {
-            log.warn("Failed to push notification url='{}', tenantId='{}'", url, tenantId, e);
-            return false;
+        final TenantContext tenantContext = contextFactory.createTenantContext(tenantId);
+        final int batchSize = notificationConfig.getPushNotificationsBatchSize(internalCallContextFactory.createInternalTenantContextWithoutAccountRecordId(tenantContext));
+        if (!getEndpoint(tenantId, url).offer(notification, body, attemptRetryNumber, batchSize)) {
+            log.warn("Push notification queue full for url='{}', tenantId='{}'", url, tenantId);
+            deferPushNotification(tenantId, url, notification, attemptRetryNumber);
+        }
+    }
+
+    private PushNotificationEndpoint getEndpoint(final UUID tenantId, final String url) {
+        ConcurrentMap<String, PushNotificationEndpoint> tenantEndpoints = endpoints.get(tenantId);
+        if (tenantEndpoints == null) {
+            final ConcurrentMap<String, PushNotificationEndpoint> newTenantEndpoints = new ConcurrentHashMap<String, PushNotificationEndpoint>();
+            tenantEndpoints = endpoints.putIfAbsent(tenantId, newTenantEndpoints);
+            if (tenantEndpoints == null) {
+                tenantEndpoints = newTenantEndpoints;
+            }
+        }
+
+        PushNotificationEndpoint endpoint = tenantEndpoints.get(url);
+        if (endpoint == null) {
+            final PushNotificationEndpoint newEndpoint = new PushNotificationEndpoint(tenantId,
+                                                                                      url,
+                                                                                      notificationConfig.getPushNotificationsQueueCapacity(),
+                                                                                      notificationConfig.getPushNotificationsConcurrency(),
+                                                                                      httpClient,
+                                                                                      executor,
+                                                                                      this);
+            endpoint = tenantEndpoints.putIfAbsent(url, newEndpoint);
+            if (endpoint == null) {
+                endpoint = newEndpoint;
+            }
         }
+        return endpoint;
+    }
 
-        if (response.getStatusCode() >= 200 && response.getStatusCode() < 300) {
-            return true;
-        } else {
-            saveRetryPushNotificationInQueue(tenantId, url, notification, attemptRetryNumber);
-            return false;
+    // Callbacks removed from the tenant configuration: stop delivering to them. Notifications not sent yet are dropped,
+    // and a concurrent offer to a removed endpoint is rescheduled (the endpoint is then recreated by the retry, and removed on the next event).
+    private void removeUnregisteredEndpoints(final UUID tenantId, final Collection<String> callbacks) {
+        final ConcurrentMap<String, PushNotificationEndpoint> tenantEndpoints = endpoints.get(tenantId);
+        if (tenantEndpoints == null) {
+            return;
+        }
+
+        for (final PushNotificationEndpoint endpoint : tenantEndpoints.values()) {
+            if (callbacks.contains(endpoint.getUrl()) || !tenantEndpoints.remove(endpoint.getUrl(), endpoint)) {
+                continue;
+            }
+            final List<PendingNotification> pendingNotifications = endpoint.drain();
+            if (!pendingNotifications.isEmpty()) {
+                log.warn("Dropping {} push notification(s) for unregistered url='{}', tenantId='{}'", pendingNotifications.size(), endpoint.getUrl(), tenantId);
+            }
         }
     }
 
@@ -160,24 +202,63 @@ public class PushNotificationListener {
                                                                    key.getObjectType() != null ? key.getObjectType().toString() : null,
                                                                    key.getObjectId() != null ? key.getObjectId().toString() : null);
         final String body = mapper.writeValueAsString(notification);
-        doPost(key.getTenantId(), key.getUrl(), body, notification, TIMEOUT_NOTIFICATION, key.getAttemptNumber());
+        enqueue(key.getTenantId(), key.getUrl(), body, notification, key.getAttemptNumber());
     }
 
-    private void saveRetryPushNotificationInQueue(final UUID tenantId, final String url, final NotificationJson notificationJson, final int attemptRetryNumber) {
-        final PushNotificationKey key = new PushNotificationKey(tenantId,
-                                                                notificationJson.getAccountId() != null ? UUID.fromString(notificationJson.getAccountId()) : null,
-                                                                notificationJson.getEventType(),
-                                                                notificationJson.getObjectType(),
-                                                                notificationJson.getObjectId() != null ? UUID.fromString(notificationJson.getObjectId()) : null,
-                                                                attemptRetryNumber + 1, url);
+    public void shutdown() {
+        isStopped = true;
+
+        // Notifications not sent yet (or whose response hasn't been processed yet) are handed over to the retry queue
+        for (final ConcurrentMap<String, PushNotificationEndpoint> tenantEndpoints : endpoints.values()) {
+            for (final PushNotificationEndpoint endpoint : tenantEndpoints.values()) {
+                for (final PendingNotification pendingNotification : endpoint.drain()) {
+                    deferPushNotification(endpoint.getTenantId(), endpoint.getUrl(), pendingNotification.getNotification(), pendingNotification.getAttemptNumber());
+                }
+            }
+        }
 
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(TIMEOUT_NOTIFICATION, TimeUnit.SECONDS)) {
+                log.warn("Timed out waiting for push notifications to complete");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        httpClient.close();
+    }
+
+    // The notification failed to be delivered: schedule the next attempt
+    void saveRetryPushNotificationInQueue(final UUID tenantId, final String url, final NotificationJson notificationJson, final int attemptRetryNumber) {
         final TenantContext tenantContext = contextFactory.createTenantContext(tenantId);
-        final DateTime nextNotificationTime = getNextNotificationTime(key.getAttemptNumber(), internalCallContextFactory.createInternalTenantContextWithoutAccountRecordId(tenantContext));
+        final DateTime nextNotificationTime = getNextNotificationTime(attemptRetryNumber + 1, internalCallContextFactory.createInternalTenantContextWithoutAccountRecordId(tenantContext));
+        if (nextNotificationTime == null) {
+            log.warn("Max attempt number reached for push notification url='{}', tenantId='{}'", url, tenantId);
+            return;
+        }
+        recordPushNotification(tenantId, url, notificationJson, attemptRetryNumber + 1, nextNotificationTime, tenantContext);
+    }
 
+    // The notification couldn't be sent (queue full or shutting down): reschedule it without consuming an attempt
+    void deferPushNotification(final UUID tenantId, final String url, final NotificationJson notificationJson, final int attemptRetryNumber) {
+        final TenantContext tenantContext = contextFactory.createTenantContext(tenantId);
+        final DateTime nextNotificationTime = getNextNotificationTime(1, internalCallContextFactory.createInternalTenantContextWithoutAccountRecordId(tenantContext));
         if (nextNotificationTime == null) {
-            log.warn("Max attempt number reached for push notification url='{}', tenantId='{}'", key.getUrl(), key.getTenantId());
+            log.warn("Dropping push notification url='{}', tenantId='{}': no retry configured", url, tenantId);
             return;
         }
+        recordPushNotification(tenantId, url, notificationJson, attemptRetryNumber, nextNotificationTime, tenantContext);
+    }
+
+    private void recordPushNotification(final UUID tenantId, final String url, final NotificationJson notificationJson, final int attemptNumber,
+                                        final DateTime nextNotificationTime, final TenantContext tenantContext) {
+        final PushNotificationKey key = new PushNotificationKey(tenantId,
+                                                                notificationJson.getAccountId() != null ? UUID.fromString(notificationJson.getAccountId()) : null,
+                                                                notificationJson.getEventType(),
+                                                                notificationJson.getObjectType(),
+                                                                notificationJson.getObjectId() != null ? UUID.fromString(notificationJson.getObjectId()) : null,
+                                                                attemptNumber, url);
+
         log.debug("Push notification is scheduled to send at {} for url='{}', tenantId='{}'", nextNotificationTime, key.getUrl(), key.getTenantId());
 
         final Long accountRecordId = internalCallContextFactory.getRecordIdFromObject(key.getAccountId(), ObjectType.ACCOUNT, tenantContext);
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.server.notifications;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.jaxrs.json.NotificationJson;
+import org.killbill.billing.server.log.ServerTestSuiteNoDB;
+import org.killbill.billing.server.notifications.PushNotificationEndpoint.PendingNotification;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClient.BoundRequestBuilder;
+import com.ning.http.client.Response;
+
+public class TestPushNotificationEndpoint extends ServerTestSuiteNoDB {
+
+    private static final String URL = "http://127.0.0.1:8080/callmeback";
+
+    private final UUID tenantId = UUID.randomUUID();
+
+    private List<String> bodies;
+    private List<AsyncCompletionHandler<Response>> handlers;
+    private AsyncHttpClient httpClient;
+    private SameThreadExecutorService executor;
+    private PushNotificationListener listener;
+
+    @BeforeMethod(groups = "fast")
+    public void beforeMethod() throws Exception {
+        bodies = new ArrayList<String>();
+        handlers = new ArrayList<AsyncCompletionHandler<Response>>();
+
+        final BoundRequestBuilder builder = Mockito.mock(BoundRequestBuilder.class);
+        Mockito.when(builder.setBody(Mockito.anyString())).thenAnswer(new Answer<BoundRequestBuilder>() {
+            @Override
+            public BoundRequestBuilder answer(final InvocationOnMock invocation) throws Throwable {
+                bodies.add((String) invocation.getArguments()[0]);
+                return builder;
+            }
+        });
+        Mockito.when(builder.addHeader(Mockito.anyString(), Mockito.anyString())).thenReturn(builder);
+        Mockito.when(builder.execute(Mockito.<AsyncCompletionHandler<Response>>any())).thenAnswer(new Answer<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                handlers.add((AsyncCompletionHandler<Response>) invocation.getArguments()[0]);
+                return null;
+            }
+        });
+
+        httpClient = Mockito.mock(AsyncHttpClient.class);
+        Mockito.when(httpClient.preparePost(URL)).thenReturn(builder);
+
+        executor = new SameThreadExecutorService();
+        listener = Mockito.mock(PushNotificationListener.class);
+    }
+
+    @Test(groups = "fast")
+    public void testPerAccountOrdering() throws Exception {
+        final PushNotificationEndpoint endpoint = createEndpoint(10, 4);
+        final String accountId = UUID.randomUUID().toString();
+
+        Assert.assertTrue(endpoint.offer(createNotification(accountId), "{\"n\":1}", 0, 1));
+        Assert.assertTrue(endpoint.offer(createNotification(accountId), "{\"n\":2}", 0, 1));
+        Assert.assertTrue(endpoint.offer(createNotification(accountId), "{\"n\":3}", 0, 1));
+
+        // Only one request in flight for a given account
+        Assert.assertEquals(bodies, ImmutableList.<String>of("{\"n\":1}"));
+
+        respond(0, 200);
+        Assert.assertEquals(bodies, ImmutableList.<String>of("{\"n\":1}", "{\"n\":2}"));
+
+        respond(1, 200);
+        Assert.assertEquals(bodies, ImmutableList.<String>of("{\"n\":1}", "{\"n\":2}", "{\"n\":3}"));
+
+        respond(2, 200);
+        Assert.assertEquals(bodies.size(), 3);
+        Mockito.verifyZeroInteractions(listener);
+    }
+
+    @Test(groups = "fast")
+    public void testFailedDeliveryIsRetried() throws Exception {
+        final PushNotificationEndpoint endpoint = createEndpoint(10, 1);
+        final NotificationJson notification = createNotification(UUID.randomUUID().toString());
+
+        Assert.assertTrue(endpoint.offer(notification, "{\"n\":1}", 2, 1));
+        respond(0, 500);
+
+        Mockito.verify(listener).saveRetryPushNotificationInQueue(tenantId, URL, notification, 2);
+        Mockito.verifyNoMoreInteractions(listener);
+    }
+
+    @Test(groups = "fast")
+    public void testBatchBodies() throws Exception {
+        final PushNotificationEndpoint endpoint = createEndpoint(10, 1);
+
+        Assert.assertTrue(endpoint.offer(createNotification(UUID.randomUUID().toString()), "{\"n\":1}", 0, 2));
+        Assert.assertTrue(endpoint.offer(createNotification(UUID.randomUUID().toString()), "{\"n\":2}", 0, 2));
+        Assert.assertTrue(endpoint.offer(createNotification(UUID.randomUUID().toString()), "{\"n\":3}", 0, 2));
+        Assert.assertTrue(endpoint.offer(createNotification(UUID.randomUUID().toString()), "{\"n\":4}", 0, 2));
+
+        // When batching is enabled, the payload is always a JSON array
+        Assert.assertEquals(bodies, ImmutableList.<String>of("[{\"n\":1}]"));
+
+        respond(0, 200);
+        Assert.assertEquals(bodies, ImmutableList.<String>of("[{\"n\":1}]", "[{\"n\":2},{\"n\":3}]"));
+
+        respond(1, 200);
+        Assert.assertEquals(bodies, ImmutableList.<String>of("[{\"n\":1}]", "[{\"n\":2},{\"n\":3}]", "[{\"n\":4}]"));
+    }
+
+    @Test(groups = "fast")
+    public void testCapacity() throws Exception {
+        final PushNotificationEndpoint endpoint = createEndpoint(2, 1);
+
+        // The first notification is sent right away and doesn't count towards the capacity
+        Assert.assertTrue(endpoint.offer(createNotification(UUID.randomUUID().toString()), "{\"n\":1}", 0, 1));
+        Assert.assertTrue(endpoint.offer(createNotification(UUID.randomUUID().toString()), "{\"n\":2}", 0, 1));
+        Assert.assertTrue(endpoint.offer(createNotification(UUID.randomUUID().toString()), "{\"n\":3}", 0, 1));
+        Assert.assertFalse(endpoint.offer(createNotification(UUID.randomUUID().toString()), "{\"n\":4}", 0, 1));
+
+        // Room is made as notifications get sent
+        respond(0, 200);
+        Assert.assertTrue(endpoint.offer(createNotification(UUID.randomUUID().toString()), "{\"n\":5}", 0, 1));
+        Assert.assertFalse(endpoint.offer(createNotification(UUID.randomUUID().toString()), "{\"n\":6}", 0, 1));
+    }
+
+    @Test(groups = "fast")
+    public void testDrain() throws Exception {
+        final PushNotificationEndpoint endpoint = createEndpoint(10, 1);
+        final NotificationJson notification1 = createNotification(UUID.randomUUID().toString());
+        final NotificationJson notification2 = createNotification(UUID.randomUUID().toString());
+
+        Assert.assertTrue(endpoint.offer(notification1, "{\"n\":1}", 0, 1));
+        Assert.assertTrue(endpoint.offer(notification2, "{\"n\":2}", 3, 1));
+        Assert.assertEquals(bodies.size(), 1);
+
+        // Both the in-flight and the queued notifications are returned
+        final List<PendingNotification> drained = endpoint.drain();
+        Assert.assertEquals(drained.size(), 2);
+        Assert.assertEquals(drained.get(0).getNotification(), notification1);
+        Assert.assertEquals(drained.get(0).getAttemptNumber(), 0);
+        Assert.assertEquals(drained.get(1).getNotification(), notification2);
+        Assert.assertEquals(drained.get(1).getAttemptNumber(), 3);
+
+        // Late responses are ignored, nothing else is sent
+        executor.shutdown();
+        respond(0, 500);
+        Assert.assertEquals(bodies.size(), 1);
+        Mockito.verifyZeroInteractions(listener);
+
+        Assert.assertFalse(endpoint.offer(createNotification(UUID.randomUUID().toString()), "{\"n\":3}", 0, 1));
+        Assert.assertEquals(bodies.size(), 1);
+        Assert.assertTrue(endpoint.drain().isEmpty());
+    }
+
+    @Test(groups = "fast")
+    public void testResponseAfterDrainWithRunningExecutor() throws Exception {
+        final PushNotificationEndpoint endpoint = createEndpoint(10, 1);
+
+        Assert.assertTrue(endpoint.offer(createNotification(UUID.randomUUID().toString()), "{\"n\":1}", 0, 1));
+        Assert.assertEquals(endpoint.drain().size(), 1);
+
+        // The batch has been handed over already: the failure must not be retried a second time
+        respond(0, 500);
+        Mockito.verifyZeroInteractions(listener);
+    }
+
+    private PushNotificationEndpoint createEndpoint(final int capacity, final int concurrency) {
+        return new PushNotificationEndpoint(tenantId, URL, capacity, concurrency, httpClient, executor, listener);
+    }
+
+    private NotificationJson createNotification(final String accountId) {
+        return new NotificationJson("INVOICE_CREATION", accountId, "INVOICE", UUID.randomUUID().toString());
+    }
+
+    private void respond(final int requestIndex, final int statusCode) throws Exception {
+        final Response response = Mockito.mock(Response.class);
+        Mockito.when(response.getStatusCode()).thenReturn(statusCode);
+        handlers.get(requestIndex).onCompleted(response);
+    }
+
+    // Process the responses synchronously
+    private static final class SameThreadExecutorService extends AbstractExecutorService {
+
+        private volatile boolean isShutdown = false;
+
+        @Override
+        public void execute(final Runnable command) {
+            if (isShutdown) {
+                throw new RejectedExecutionException();
+            }
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+            isShutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            isShutdown = true;
+            return ImmutableList.<Runnable>of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return isShutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return isShutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+            return true;
+        }
+    }
+}
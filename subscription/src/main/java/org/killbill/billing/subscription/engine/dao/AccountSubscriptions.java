@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.subscription.engine.dao;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.killbill.billing.catalog.api.Catalog;
+import org.killbill.billing.subscription.api.SubscriptionBase;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+// Rebuilt subscription graph of an account, as cached in the account-subscriptions cache
+public class AccountSubscriptions {
+
+    // State of the subscription tables for the account when the graph was loaded
+    private final Stamp stamp;
+    // Catalog the transitions were rebuilt against
+    private final Catalog catalog;
+    private final Map<UUID, List<SubscriptionBase>> subscriptions;
+
+    public AccountSubscriptions(final Stamp stamp, final Catalog catalog, final Map<UUID, List<SubscriptionBase>> subscriptions) {
+        this.stamp = stamp;
+        this.catalog = catalog;
+
+        final ImmutableMap.Builder<UUID, List<SubscriptionBase>> builder = ImmutableMap.<UUID, List<SubscriptionBase>>builder();
+        for (final Map.Entry<UUID, List<SubscriptionBase>> entry : subscriptions.entrySet()) {
+            builder.put(entry.getKey(), ImmutableList.<SubscriptionBase>copyOf(entry.getValue()));
+        }
+        this.subscriptions = builder.build();
+    }
+
+    public boolean isUpToDate(final Stamp currentStamp, final Catalog currentCatalog) {
+        return stamp.equals(currentStamp) && catalog == currentCatalog;
+    }
+
+    public Map<UUID, List<SubscriptionBase>> getSubscriptions() {
+        return subscriptions;
+    }
+
+    //
+    // The aggregate stamp of the subscription tables of the account (see SubscriptionEventSqlDao#getAccountSubscriptionsStamp), along with
+    // the local generation of the account, bumped on in-place updates which may not show in the aggregates (same updated_date).
+    //
+    public static class Stamp {
+
+        private final String tablesStamp;
+        private final long generation;
+
+        public Stamp(final String tablesStamp, final long generation) {
+            this.tablesStamp = tablesStamp;
+            this.generation = generation;
+        }
+
+        public long getNbEvents() {
+            final String eventsStamp = tablesStamp.substring(tablesStamp.lastIndexOf('|') + 1);
+            final int separatorIndex = eventsStamp.indexOf(':');
+            return Long.valueOf(separatorIndex == -1 ? eventsStamp : eventsStamp.substring(0, separatorIndex));
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            final Stamp that = (Stamp) o;
+            return generation == that.generation && tablesStamp.equals(that.tablesStamp);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = tablesStamp.hashCode();
+            result = 31 * result + (int) (generation ^ (generation >>> 32));
+            return result;
+        }
+    }
+}
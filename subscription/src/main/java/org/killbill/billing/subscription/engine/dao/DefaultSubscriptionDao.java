@@ -29,6 +29,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -36,6 +37,7 @@ import javax.inject.Inject;
 import com.google.common.base.Preconditions;
 import org.joda.time.DateTime;
 import org.killbill.billing.ErrorCode;
+import org.killbill.billing.ObjectType;
 import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.catalog.api.Catalog;
@@ -79,8 +81,13 @@ import org.killbill.billing.subscription.events.user.ApiEventChange;
 import org.killbill.billing.subscription.events.user.ApiEventCreate;
 import org.killbill.billing.subscription.events.user.ApiEventType;
 import org.killbill.billing.subscription.exceptions.SubscriptionBaseError;
+import org.killbill.billing.util.cache.AccountSubscriptionsCacheLoader;
+import org.killbill.billing.util.cache.Cachable.CacheType;
+import org.killbill.billing.util.cache.CacheController;
 import org.killbill.billing.util.cache.CacheControllerDispatcher;
+import org.killbill.billing.util.cache.CacheLoaderArgument;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.config.definition.SubscriptionConfig;
 import org.killbill.billing.util.dao.NonEntityDao;
 import org.killbill.billing.util.entity.Entity;
 import org.killbill.billing.util.entity.Pagination;
@@ -107,7 +114,6 @@ import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Collections2;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 
@@ -115,22 +121,31 @@ public class DefaultSubscriptionDao extends EntityDaoBase<SubscriptionBundleMode
 
     private static final Logger log = LoggerFactory.getLogger(DefaultSubscriptionDao.class);
 
+    private static final int ACCOUNT_SUBSCRIPTIONS_GENERATION_STRIPES = 1024;
+
     private final Clock clock;
     private final NotificationQueueService notificationQueueService;
     private final AddonUtils addonUtils;
     private final PersistentBus eventBus;
     private final CatalogService catalogService;
+    private final CacheController<Long, Object> accountSubscriptionsCacheController;
+    private final SubscriptionConfig subscriptionConfig;
+    // Local generations of the accounts (striped by account record id), see getSubscriptionsForAccount
+    private final AtomicLongArray accountSubscriptionsGenerations = new AtomicLongArray(ACCOUNT_SUBSCRIPTIONS_GENERATION_STRIPES);
 
     @Inject
     public DefaultSubscriptionDao(final IDBI dbi, final Clock clock, final AddonUtils addonUtils,
                                   final NotificationQueueService notificationQueueService, final PersistentBus eventBus, final CatalogService catalogService,
-                                  final CacheControllerDispatcher cacheControllerDispatcher, final NonEntityDao nonEntityDao, final InternalCallContextFactory internalCallContextFactory) {
+                                  final CacheControllerDispatcher cacheControllerDispatcher, final NonEntityDao nonEntityDao, final InternalCallContextFactory internalCallContextFactory,
+                                  final SubscriptionConfig subscriptionConfig) {
         super(new EntitySqlDaoTransactionalJdbiWrapper(dbi, clock, cacheControllerDispatcher, nonEntityDao, internalCallContextFactory), BundleSqlDao.class);
         this.clock = clock;
         this.notificationQueueService = notificationQueueService;
         this.addonUtils = addonUtils;
         this.eventBus = eventBus;
         this.catalogService = catalogService;
+        this.accountSubscriptionsCacheController = cacheControllerDispatcher.getCacheController(CacheType.ACCOUNT_SUBSCRIPTIONS);
+        this.subscriptionConfig = subscriptionConfig;
     }
 
     @Override
@@ -337,63 +352,109 @@ public class DefaultSubscriptionDao extends EntityDaoBase<SubscriptionBundleMode
         });
     }
 
+    //
+    // The rebuilt graph is cached per account. Rather than invalidating the entry in each write path (which would not cover
+    // the other nodes), it is tagged with a cheap aggregate stamp of the subscription tables of the account (counts, max record_id,
+    // max updated_date and active events, see SubscriptionEventSqlDao#getAccountSubscriptionsStamp): any write (local or not) makes
+    // the entry stale and the next call reloads it. In-place updates within the same second wouldn't change the stamp though, so
+    // the local ones also bump a generation of the account once committed. Both are read before the rows are loaded (on a miss
+    // only), so a concurrent write can only make the entry look older than it is. Pathological accounts are not cached.
+    //
     @Override
     public Map<UUID, List<SubscriptionBase>> getSubscriptionsForAccount(final InternalTenantContext context) throws CatalogApiException {
-        final Map<UUID, List<SubscriptionBase>> subscriptionsFromAccountId = getSubscriptionsFromAccountId(context);
-
-        final List<SubscriptionBaseEvent> eventsForAccount = getEventsForAccountId(context);
-
-        final Map<UUID, List<SubscriptionBase>> result = new HashMap<UUID, List<SubscriptionBase>>();
-        for (final UUID bundleId : subscriptionsFromAccountId.keySet()) {
+        if (context.getAccountRecordId() == null) {
+            return buildSubscriptionsForAccount(context);
+        }
 
-            final List<SubscriptionBase> subscriptionsForBundle = subscriptionsFromAccountId.get(bundleId);
-            final Multimap<UUID, SubscriptionBaseEvent> eventsForSubscriptions = ArrayListMultimap.create();
+        final long generation = accountSubscriptionsGenerations.get(getAccountSubscriptionsGenerationIndex(context.getAccountRecordId()));
+        final String tablesStamp = transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<String>() {
+            @Override
+            public String inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                return entitySqlDaoWrapperFactory.become(SubscriptionEventSqlDao.class).getAccountSubscriptionsStamp(context);
+            }
+        });
+        final AccountSubscriptions.Stamp stamp = new AccountSubscriptions.Stamp(tablesStamp, generation);
+        if (stamp.getNbEvents() > subscriptionConfig.getAccountSubscriptionsCacheMaxEvents()) {
+            return buildSubscriptionsForAccount(context);
+        }
 
-            for (final SubscriptionBase cur : subscriptionsForBundle) {
-                final Collection<SubscriptionBaseEvent> events = Collections2.filter(eventsForAccount, new Predicate<SubscriptionBaseEvent>() {
-                    @Override
-                    public boolean apply(final SubscriptionBaseEvent input) {
-                        return input.getSubscriptionId().equals(cur.getId());
+        final Catalog catalog = catalogService.getFullCatalog(true, true, context);
+        final CacheLoaderArgument cacheLoaderArgument = createAccountSubscriptionsCacheLoaderArgument(stamp, catalog, context);
 
-                    }
-                });
-                eventsForSubscriptions.putAll(cur.getId(), ImmutableList.copyOf(events));
-            }
+        AccountSubscriptions accountSubscriptions = (AccountSubscriptions) accountSubscriptionsCacheController.get(context.getAccountRecordId(), cacheLoaderArgument);
+        if (!accountSubscriptions.isUpToDate(stamp, catalog)) {
+            accountSubscriptionsCacheController.remove(context.getAccountRecordId());
+            accountSubscriptions = (AccountSubscriptions) accountSubscriptionsCacheController.get(context.getAccountRecordId(), cacheLoaderArgument);
+        }
+        return accountSubscriptions.getSubscriptions();
+    }
 
-            result.put(bundleId, buildBundleSubscriptions(subscriptionsForBundle, eventsForSubscriptions, null, context));
+    // To be called once the in-place update of a bundle or subscription of the account has been committed
+    private void bumpAccountSubscriptionsGeneration(final InternalCallContext context) {
+        if (context.getAccountRecordId() != null) {
+            accountSubscriptionsGenerations.incrementAndGet(getAccountSubscriptionsGenerationIndex(context.getAccountRecordId()));
         }
-        return result;
     }
 
-    private Map<UUID, List<SubscriptionBase>> getSubscriptionsFromAccountId(final InternalTenantContext context) {
-        final List<SubscriptionBase> allSubscriptions = transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<List<SubscriptionBase>>() {
+    private static int getAccountSubscriptionsGenerationIndex(final Long accountRecordId) {
+        return (int) (accountRecordId % ACCOUNT_SUBSCRIPTIONS_GENERATION_STRIPES);
+    }
+
+    private CacheLoaderArgument createAccountSubscriptionsCacheLoaderArgument(final AccountSubscriptions.Stamp stamp, final Catalog catalog, final InternalTenantContext context) {
+        final AccountSubscriptionsCacheLoader.LoaderCallback loaderCallback = new AccountSubscriptionsCacheLoader.LoaderCallback() {
             @Override
-            public List<SubscriptionBase> inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+            public Object loadAccountSubscriptions(final InternalTenantContext context) throws CatalogApiException {
+                return new AccountSubscriptions(stamp, catalog, buildSubscriptionsForAccount(context));
+            }
+        };
+        final Object[] args = new Object[1];
+        args[0] = loaderCallback;
+        final ObjectType irrelevant = null;
+        return new CacheLoaderArgument(irrelevant, args, context);
+    }
 
+    private Map<UUID, List<SubscriptionBase>> buildSubscriptionsForAccount(final InternalTenantContext context) throws CatalogApiException {
+        final Map<UUID, List<SubscriptionBase>> subscriptionsFromAccountId = transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Map<UUID, List<SubscriptionBase>>>() {
+            @Override
+            public Map<UUID, List<SubscriptionBase>> inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
                 final List<SubscriptionBundleModelDao> bundleModels = entitySqlDaoWrapperFactory.become(BundleSqlDao.class).getByAccountRecordId(context);
-
                 final List<SubscriptionModelDao> subscriptionModels = entitySqlDaoWrapperFactory.become(SubscriptionSqlDao.class).getByAccountRecordId(context);
-                return new ArrayList<SubscriptionBase>(Collections2.transform(subscriptionModels, new Function<SubscriptionModelDao, SubscriptionBase>() {
-                    @Override
-                    public SubscriptionBase apply(final SubscriptionModelDao input) {
-                        final SubscriptionBundleModelDao bundleModel = Iterables.find(bundleModels, new Predicate<SubscriptionBundleModelDao>() {
-                            @Override
-                            public boolean apply(final SubscriptionBundleModelDao bundleInput) {
-                                return bundleInput.getId().equals(input.getBundleId());
-                            }
-                        });
-                        return SubscriptionModelDao.toSubscription(input, bundleModel.getExternalKey());
-                    }
-                }));
+                return getSubscriptionsFromAccountId(bundleModels, subscriptionModels);
             }
         });
 
+        final List<SubscriptionBaseEvent> eventsForAccount = getEventsForAccountId(context);
+
+        // Group the events by subscription in a single pass (the ordering of the events for a given subscription is preserved),
+        // to avoid scanning all the events of the account for each subscription
+        final Multimap<UUID, SubscriptionBaseEvent> eventsForSubscriptions = ArrayListMultimap.create();
+        for (final SubscriptionBaseEvent cur : eventsForAccount) {
+            eventsForSubscriptions.put(cur.getSubscriptionId(), cur);
+        }
+
+        final Map<UUID, List<SubscriptionBase>> result = new HashMap<UUID, List<SubscriptionBase>>();
+        for (final UUID bundleId : subscriptionsFromAccountId.keySet()) {
+            final List<SubscriptionBase> subscriptionsForBundle = subscriptionsFromAccountId.get(bundleId);
+            result.put(bundleId, buildBundleSubscriptions(subscriptionsForBundle, eventsForSubscriptions, null, context));
+        }
+        return result;
+    }
+
+    private Map<UUID, List<SubscriptionBase>> getSubscriptionsFromAccountId(final List<SubscriptionBundleModelDao> bundleModels, final List<SubscriptionModelDao> subscriptionModels) {
+        final Map<UUID, String> bundleExternalKeys = new HashMap<UUID, String>(bundleModels.size());
+        for (final SubscriptionBundleModelDao bundleModel : bundleModels) {
+            bundleExternalKeys.put(bundleModel.getId(), bundleModel.getExternalKey());
+        }
+
         final Map<UUID, List<SubscriptionBase>> result = new HashMap<UUID, List<SubscriptionBase>>();
-        for (final SubscriptionBase subscriptionBase : allSubscriptions) {
-            if (result.get(subscriptionBase.getBundleId()) == null) {
-                result.put(subscriptionBase.getBundleId(), new LinkedList<SubscriptionBase>());
+        for (final SubscriptionModelDao subscriptionModel : subscriptionModels) {
+            final SubscriptionBase subscriptionBase = SubscriptionModelDao.toSubscription(subscriptionModel, bundleExternalKeys.get(subscriptionModel.getBundleId()));
+            List<SubscriptionBase> subscriptionsForBundle = result.get(subscriptionBase.getBundleId());
+            if (subscriptionsForBundle == null) {
+                subscriptionsForBundle = new ArrayList<SubscriptionBase>();
+                result.put(subscriptionBase.getBundleId(), subscriptionsForBundle);
             }
-            result.get(subscriptionBase.getBundleId()).add(subscriptionBase);
+            subscriptionsForBundle.add(subscriptionBase);
         }
         return result;
     }
@@ -416,6 +477,7 @@ public class DefaultSubscriptionDao extends EntityDaoBase<SubscriptionBundleMode
                 return null;
             }
         });
+        bumpAccountSubscriptionsGeneration(context);
     }
 
     @Override
@@ -1005,6 +1067,7 @@ public class DefaultSubscriptionDao extends EntityDaoBase<SubscriptionBundleMode
                 return null;
             }
         });
+        bumpAccountSubscriptionsGeneration(context);
     }
 
     @Override
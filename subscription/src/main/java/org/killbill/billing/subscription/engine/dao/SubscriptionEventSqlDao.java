@@ -56,4 +56,7 @@ public interface SubscriptionEventSqlDao extends EntitySqlDao<SubscriptionEventM
 
     @SqlQuery
     public List<SubscriptionEventModelDao> getFutureActiveEventsForAccount(@Bind("now") Date now, @SmartBindBean final InternalTenantContext context);
+
+    @SqlQuery
+    public String getAccountSubscriptionsStamp(@SmartBindBean final InternalTenantContext context);
 }
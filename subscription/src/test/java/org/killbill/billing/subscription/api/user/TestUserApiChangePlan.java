@@ -20,6 +20,7 @@ package org.killbill.billing.subscription.api.user;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.inject.Inject;
@@ -30,6 +31,7 @@ import org.joda.time.LocalDate;
 import org.killbill.billing.ErrorCode;
 import org.killbill.billing.api.TestApiListener.NextEvent;
 import org.killbill.billing.catalog.api.BillingPeriod;
+import org.killbill.billing.catalog.api.CatalogApiException;
 import org.killbill.billing.catalog.api.Duration;
 import org.killbill.billing.catalog.api.PhaseType;
 import org.killbill.billing.catalog.api.Plan;
@@ -174,6 +176,42 @@ public class TestUserApiChangePlan extends SubscriptionTestSuiteWithEmbeddedDB {
         assertListenerStatus();
     }
 
+    @Test(groups = "slow")
+    public void testAccountSubscriptionsCache() throws SubscriptionBaseApiException, CatalogApiException {
+        final DefaultSubscriptionBase subscription = testUtil.createSubscription(bundle, "Shotgun", BillingPeriod.MONTHLY, PriceListSet.DEFAULT_PRICELIST_NAME);
+
+        final Map<UUID, List<SubscriptionBase>> subscriptionsForAccount = dao.getSubscriptionsForAccount(internalCallContext);
+        assertEquals(subscriptionsForAccount.get(bundle.getId()).size(), 1);
+        assertEquals(subscriptionsForAccount.get(bundle.getId()).get(0).getCurrentPlan().getProduct().getName(), "Shotgun");
+        // Nothing changed, the cached graph is re-used
+        Assert.assertSame(dao.getSubscriptionsForAccount(internalCallContext), subscriptionsForAccount);
+
+        clock.addDays(3);
+
+        testListener.pushExpectedEvent(NextEvent.CHANGE);
+        subscription.changePlan(new PlanSpecifier("Assault-Rifle", BillingPeriod.MONTHLY, PriceListSet.DEFAULT_PRICELIST_NAME), null, callContext);
+        assertListenerStatus();
+
+        // New events were inserted, the graph is reloaded
+        final Map<UUID, List<SubscriptionBase>> subscriptionsForAccountAfterChange = dao.getSubscriptionsForAccount(internalCallContext);
+        Assert.assertNotSame(subscriptionsForAccountAfterChange, subscriptionsForAccount);
+        assertEquals(subscriptionsForAccountAfterChange.get(bundle.getId()).get(0).getCurrentPlan().getProduct().getName(), "Assault-Rifle");
+        Assert.assertSame(dao.getSubscriptionsForAccount(internalCallContext), subscriptionsForAccountAfterChange);
+
+        // The subscription row is updated in place (no new event), the graph is reloaded as well
+        final DateTime newChargedThroughDate = clock.getUTCNow().plusMonths(1);
+        subscriptionInternalApi.setChargedThroughDate(subscription.getId(), newChargedThroughDate, internalCallContext);
+        final Map<UUID, List<SubscriptionBase>> subscriptionsForAccountAfterCTD = dao.getSubscriptionsForAccount(internalCallContext);
+        Assert.assertNotSame(subscriptionsForAccountAfterCTD, subscriptionsForAccountAfterChange);
+        assertEquals(subscriptionsForAccountAfterCTD.get(bundle.getId()).get(0).getChargedThroughDate().compareTo(newChargedThroughDate), 0);
+
+        // Same for the bundle row
+        subscriptionInternalApi.updateExternalKey(bundle.getId(), "new-" + bundle.getExternalKey(), internalCallContext);
+        final Map<UUID, List<SubscriptionBase>> subscriptionsForAccountAfterRename = dao.getSubscriptionsForAccount(internalCallContext);
+        Assert.assertNotSame(subscriptionsForAccountAfterRename, subscriptionsForAccountAfterCTD);
+        assertEquals(((DefaultSubscriptionBase) subscriptionsForAccountAfterRename.get(bundle.getId()).get(0)).getBundleExternalKey(), "new-" + bundle.getExternalKey());
+    }
+
     @Test(groups = "slow")
     public void testChangePlanBundleAlignIMM() throws SubscriptionBaseApiException {
         tChangePlanBundleAlignIMM("Shotgun", BillingPeriod.MONTHLY, PriceListSet.DEFAULT_PRICELIST_NAME, "Assault-Rifle", BillingPeriod.MONTHLY, PriceListSet.DEFAULT_PRICELIST_NAME);
@@ -32,6 +32,7 @@ import org.killbill.billing.tenant.api.DefaultTenant;
 import org.killbill.billing.tenant.api.Tenant;
 import org.killbill.billing.tenant.api.TenantApiException;
 import org.killbill.billing.tenant.api.TenantData;
+import org.killbill.billing.tenant.api.TenantInternalApi;
 import org.killbill.billing.tenant.api.TenantKV.TenantKey;
 import org.killbill.billing.tenant.api.TenantUserApi;
 import org.killbill.billing.tenant.dao.TenantDao;
@@ -45,6 +46,7 @@ import org.killbill.billing.util.callcontext.CallContext;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.callcontext.TenantContext;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
@@ -130,6 +132,7 @@ public class DefaultTenantUserApi implements TenantUserApi {
 
     @Override
     public void addTenantKeyValue(final String key, final String value, final CallContext context) throws TenantApiException {
+        checkNotReservedKey(key);
         // Invalidate tenantKVCache after we store (to avoid race conditions). Multi-node invalidation will follow the TenantBroadcast pattern
         final InternalCallContext internalContext = internalCallContextFactory.createInternalCallContextWithoutAccountRecordId(context);
         final String tenantKey = getCacheKeyName(key, internalContext);
@@ -139,6 +142,7 @@ public class DefaultTenantUserApi implements TenantUserApi {
 
     @Override
     public void updateTenantKeyValue(final String key, final String value, final CallContext context) throws TenantApiException {
+        checkNotReservedKey(key);
         // Invalidate tenantKVCache after we store (to avoid race conditions). Multi-node invalidation will follow the TenantBroadcast pattern
         final InternalCallContext internalContext = internalCallContextFactory.createInternalCallContextWithoutAccountRecordId(context);
         final String tenantKey = getCacheKeyName(key, internalContext);
@@ -188,6 +192,11 @@ public class DefaultTenantUserApi implements TenantUserApi {
         return tenantKey.toString();
     }
 
+    // The catalog snapshot is only written by the system, and must not be overwritten through the user APIs
+    private void checkNotReservedKey(final String key) {
+        Preconditions.checkArgument(!TenantInternalApi.CATALOG_SNAPSHOT_KEY.equals(key), "Tenant key %s is reserved", key);
+    }
+
     private boolean isSingleValueKey(final String key) {
         return Iterables.tryFind(ImmutableList.copyOf(TenantKey.values()), new Predicate<TenantKey>() {
             @Override
@@ -26,6 +26,7 @@ import org.killbill.billing.tenant.api.DefaultTenant;
 import org.killbill.billing.tenant.api.Tenant;
 import org.killbill.billing.tenant.api.TenantApiException;
 import org.killbill.billing.tenant.api.TenantData;
+import org.killbill.billing.tenant.api.TenantInternalApi;
 import org.killbill.billing.tenant.api.TenantKV.TenantKey;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -71,6 +72,21 @@ public class TestDefaultTenantUserApi extends TenantTestSuiteWithEmbeddedDb {
         Assert.assertEquals(value.size(), 0);
     }
 
+    @Test(groups = "slow")
+    public void testReservedUserKey() throws Exception {
+        try {
+            tenantUserApi.addTenantKeyValue(TenantInternalApi.CATALOG_SNAPSHOT_KEY, "TheValue", callContext);
+            Assert.fail("The catalog snapshot key is reserved");
+        } catch (final IllegalArgumentException expected) {
+        }
+        try {
+            tenantUserApi.updateTenantKeyValue(TenantInternalApi.CATALOG_SNAPSHOT_KEY, "TheValue", callContext);
+            Assert.fail("The catalog snapshot key is reserved");
+        } catch (final IllegalArgumentException expected) {
+        }
+        Assert.assertEquals(tenantUserApi.getTenantValuesForKey(TenantInternalApi.CATALOG_SNAPSHOT_KEY, callContext).size(), 0);
+    }
+
     @Test(groups = "slow", description = "https://github.com/killbill/killbill/issues/297")
     public void testVerifyCacheOnAbsentValues() throws Exception {
         final String tenantKey = TenantKey.PLUGIN_CONFIG_.toString() + "MyPluginName";
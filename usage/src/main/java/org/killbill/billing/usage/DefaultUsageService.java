@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.usage;
+
+import javax.inject.Inject;
+
+import org.killbill.billing.platform.api.LifecycleHandlerType;
+import org.killbill.billing.platform.api.LifecycleHandlerType.LifecycleLevel;
+import org.killbill.billing.usage.dao.UsageBatchWriter;
+
+public class DefaultUsageService implements UsageService {
+
+    public static final String USAGE_SERVICE_NAME = "usage-service";
+
+    private final UsageBatchWriter usageBatchWriter;
+
+    @Inject
+    public DefaultUsageService(final UsageBatchWriter usageBatchWriter) {
+        this.usageBatchWriter = usageBatchWriter;
+    }
+
+    @Override
+    public String getName() {
+        return USAGE_SERVICE_NAME;
+    }
+
+    @LifecycleHandlerType(LifecycleLevel.START_SERVICE)
+    public void start() {
+        usageBatchWriter.start();
+    }
+
+    @LifecycleHandlerType(LifecycleLevel.STOP_SERVICE)
+    public void stop() {
+        usageBatchWriter.stop();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.usage.api.user;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.inject.Inject;
+
+import org.killbill.billing.ErrorCode;
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.usage.BulkUsageUserApi;
+import org.killbill.billing.usage.api.SubscriptionUsageRecord;
+import org.killbill.billing.usage.api.UsageApiException;
+import org.killbill.billing.usage.dao.RolledUpUsageDao;
+import org.killbill.billing.usage.dao.RolledUpUsageModelDao;
+import org.killbill.billing.usage.dao.UsageBatchWriter;
+import org.killbill.billing.util.callcontext.CallContext;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.dao.SqlExceptionHelper;
+
+import com.google.common.base.Function;
+import com.google.common.base.Strings;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.SetMultimap;
+
+public class DefaultBulkUsageUserApi implements BulkUsageUserApi {
+
+    private static final Function<SubscriptionUsageRecord, UUID> SUBSCRIPTION_ID_FUNCTION = new Function<SubscriptionUsageRecord, UUID>() {
+        @Override
+        public UUID apply(final SubscriptionUsageRecord input) {
+            return input.getSubscriptionId();
+        }
+    };
+
+    private final RolledUpUsageDao rolledUpUsageDao;
+    private final UsageBatchWriter usageBatchWriter;
+    private final InternalCallContextFactory internalCallContextFactory;
+
+    @Inject
+    public DefaultBulkUsageUserApi(final RolledUpUsageDao rolledUpUsageDao,
+                                   final UsageBatchWriter usageBatchWriter,
+                                   final InternalCallContextFactory internalCallContextFactory) {
+        this.rolledUpUsageDao = rolledUpUsageDao;
+        this.usageBatchWriter = usageBatchWriter;
+        this.internalCallContextFactory = internalCallContextFactory;
+    }
+
+    @Override
+    public void recordRolledUpUsage(final List<SubscriptionUsageRecord> records, final CallContext callContext) throws UsageApiException {
+        if (records.isEmpty()) {
+            return;
+        }
+
+        final Map<UUID, InternalCallContext> internalCallContexts = internalCallContextFactory.createInternalCallContexts(Iterables.transform(records, SUBSCRIPTION_ID_FUNCTION),
+                                                                                                                            ObjectType.SUBSCRIPTION,
+                                                                                                                            callContext);
+
+        // All contexts share the same tenant
+        final InternalTenantContext tenantContext = internalCallContexts.values().iterator().next();
+        checkTrackingIds(records, tenantContext);
+
+        // Contexts are shared by the subscriptions of a given account
+        final Map<InternalCallContext, List<RolledUpUsageModelDao>> usagesByContext = new IdentityHashMap<InternalCallContext, List<RolledUpUsageModelDao>>();
+        for (final SubscriptionUsageRecord record : records) {
+            final InternalCallContext internalCallContext = internalCallContexts.get(record.getSubscriptionId());
+            List<RolledUpUsageModelDao> usages = usagesByContext.get(internalCallContext);
+            if (usages == null) {
+                usages = new ArrayList<RolledUpUsageModelDao>();
+                usagesByContext.put(internalCallContext, usages);
+            }
+            usages.addAll(DefaultUsageUserApi.toRolledUpUsageModelDaos(record));
+        }
+        try {
+            usageBatchWriter.write(usagesByContext);
+        } catch (final RuntimeException e) {
+            if (!SqlExceptionHelper.isDuplicateKey(e)) {
+                throw e;
+            }
+            // A concurrent submission recorded one of these tracking ids after the check above: nothing was recorded
+            checkTrackingIds(records, tenantContext);
+            throw e;
+        }
+    }
+
+    // Check all tracking ids with a single query, before recording anything (the unique index on the tracking ids still guards against concurrent submissions)
+    private void checkTrackingIds(final List<SubscriptionUsageRecord> records, final InternalTenantContext context) throws UsageApiException {
+        final SetMultimap<UUID, String> trackingIdsBySubscriptionId = HashMultimap.<UUID, String>create();
+        final Set<String> trackingIds = new HashSet<String>();
+        for (final SubscriptionUsageRecord record : records) {
+            if (Strings.isNullOrEmpty(record.getTrackingId())) {
+                continue;
+            }
+            if (!trackingIdsBySubscriptionId.put(record.getSubscriptionId(), record.getTrackingId())) {
+                throw new UsageApiException(ErrorCode.USAGE_RECORD_TRACKING_ID_ALREADY_EXISTS, record.getTrackingId());
+            }
+            trackingIds.add(record.getTrackingId());
+        }
+        if (trackingIds.isEmpty()) {
+            return;
+        }
+
+        final SetMultimap<UUID, String> existingTrackingIds = rolledUpUsageDao.getExistingTrackingIds(trackingIds, context);
+        for (final Entry<UUID, String> entry : trackingIdsBySubscriptionId.entries()) {
+            if (existingTrackingIds.containsEntry(entry.getKey(), entry.getValue())) {
+                throw new UsageApiException(ErrorCode.USAGE_RECORD_TRACKING_ID_ALREADY_EXISTS, entry.getValue());
+            }
+        }
+    }
+}
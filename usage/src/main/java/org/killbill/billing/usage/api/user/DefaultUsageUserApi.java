@@ -17,9 +17,11 @@
 package org.killbill.billing.usage.api.user;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.UUID;
 
 import javax.inject.Inject;
@@ -41,6 +43,7 @@ import org.killbill.billing.usage.dao.RolledUpUsageModelDao;
 import org.killbill.billing.util.callcontext.CallContext;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.callcontext.TenantContext;
+import org.killbill.billing.util.dao.SqlExceptionHelper;
 
 import com.google.common.base.Strings;
 
@@ -65,13 +68,25 @@ public class DefaultUsageUserApi implements UsageUserApi {
             throw new UsageApiException(ErrorCode.USAGE_RECORD_TRACKING_ID_ALREADY_EXISTS, record.getTrackingId());
         }
 
+        try {
+            rolledUpUsageDao.record(toRolledUpUsageModelDaos(record), internalCallContext);
+        } catch (final RuntimeException e) {
+            // The tracking id was recorded concurrently, after the check above
+            if (SqlExceptionHelper.isDuplicateKey(e) && recordsWithTrackingIdExist(record, internalCallContext)) {
+                throw new UsageApiException(ErrorCode.USAGE_RECORD_TRACKING_ID_ALREADY_EXISTS, record.getTrackingId());
+            }
+            throw e;
+        }
+    }
+
+    static List<RolledUpUsageModelDao> toRolledUpUsageModelDaos(final SubscriptionUsageRecord record) {
         final List<RolledUpUsageModelDao> usages = new ArrayList<RolledUpUsageModelDao>();
         for (final UnitUsageRecord unitUsageRecord : record.getUnitUsageRecord()) {
             for (final UsageRecord usageRecord : unitUsageRecord.getDailyAmount()) {
                 usages.add(new RolledUpUsageModelDao(record.getSubscriptionId(), unitUsageRecord.getUnitType(), usageRecord.getDate(), usageRecord.getAmount(), record.getTrackingId()));
             }
         }
-        rolledUpUsageDao.record(usages, internalCallContext);
+        return usages;
     }
 
     @Override
@@ -84,6 +99,12 @@ public class DefaultUsageUserApi implements UsageUserApi {
     @Override
     public List<RolledUpUsage> getAllUsageForSubscription(final UUID subscriptionId, final List<LocalDate> transitionTimes, final TenantContext tenantContext) {
         final InternalTenantContext internalCallContext = internalCallContextFactory.createInternalTenantContext(subscriptionId, ObjectType.SUBSCRIPTION, tenantContext);
+        if (transitionTimes.size() < 2) {
+            return new ArrayList<RolledUpUsage>();
+        } else if (isSorted(transitionTimes)) {
+            return getAllUsageForSubscriptionInSinglePass(subscriptionId, transitionTimes, internalCallContext);
+        }
+
         List<RolledUpUsage> result = new ArrayList<RolledUpUsage>();
         LocalDate prevDate = null;
         for (LocalDate curDate : transitionTimes) {
@@ -97,20 +118,62 @@ public class DefaultUsageUserApi implements UsageUserApi {
         return result;
     }
 
+    // Contiguous intervals: fetch the whole span at once (rows are ordered by record date) and bucket the rows in a single pass
+    private List<RolledUpUsage> getAllUsageForSubscriptionInSinglePass(final UUID subscriptionId, final List<LocalDate> transitionTimes, final InternalTenantContext internalCallContext) {
+        final List<RolledUpUsageModelDao> usageForSubscription = rolledUpUsageDao.getAllUsageForSubscription(subscriptionId, transitionTimes.get(0), transitionTimes.get(transitionTimes.size() - 1), internalCallContext);
+        final Iterator<RolledUpUsageModelDao> usageIterator = usageForSubscription.iterator();
+        RolledUpUsageModelDao curUsage = usageIterator.hasNext() ? usageIterator.next() : null;
+
+        final List<RolledUpUsage> result = new ArrayList<RolledUpUsage>(transitionTimes.size() - 1);
+        for (int i = 1; i < transitionTimes.size(); i++) {
+            final LocalDate prevDate = transitionTimes.get(i - 1);
+            final LocalDate curDate = transitionTimes.get(i);
+
+            final Map<String, long[]> amountsByUnitType = new LinkedHashMap<String, long[]>();
+            while (curUsage != null && curUsage.getRecordDate().compareTo(curDate) < 0) {
+                addAmount(amountsByUnitType, curUsage);
+                curUsage = usageIterator.hasNext() ? usageIterator.next() : null;
+            }
+            result.add(new DefaultRolledUpUsage(subscriptionId, prevDate, curDate, toRolledUpUnits(amountsByUnitType)));
+        }
+        return result;
+    }
+
     private List<RolledUpUnit> getRolledUpUnits(final List<RolledUpUsageModelDao> usageForSubscription) {
-        final Map<String, Long> tmp = new HashMap<String, Long>();
-        for (RolledUpUsageModelDao cur : usageForSubscription) {
-            Long currentAmount = tmp.get(cur.getUnitType());
-            Long updatedAmount = (currentAmount != null) ? currentAmount + cur.getAmount() : cur.getAmount();
-            tmp.put(cur.getUnitType(), updatedAmount);
+        final Map<String, long[]> amountsByUnitType = new LinkedHashMap<String, long[]>();
+        for (final RolledUpUsageModelDao cur : usageForSubscription) {
+            addAmount(amountsByUnitType, cur);
         }
-        final List<RolledUpUnit> result = new ArrayList<RolledUpUnit>(tmp.size());
-        for (final String unitType : tmp.keySet()) {
-            result.add(new DefaultRolledUpUnit(unitType, tmp.get(unitType)));
+        return toRolledUpUnits(amountsByUnitType);
+    }
+
+    // Mutable accumulators, to avoid re-boxing the amount for each row
+    private static void addAmount(final Map<String, long[]> amountsByUnitType, final RolledUpUsageModelDao usage) {
+        long[] amount = amountsByUnitType.get(usage.getUnitType());
+        if (amount == null) {
+            amount = new long[1];
+            amountsByUnitType.put(usage.getUnitType(), amount);
+        }
+        amount[0] += usage.getAmount();
+    }
+
+    private static List<RolledUpUnit> toRolledUpUnits(final Map<String, long[]> amountsByUnitType) {
+        final List<RolledUpUnit> result = new ArrayList<RolledUpUnit>(amountsByUnitType.size());
+        for (final Entry<String, long[]> entry : amountsByUnitType.entrySet()) {
+            result.add(new DefaultRolledUpUnit(entry.getKey(), entry.getValue()[0]));
         }
         return result;
     }
 
+    private static boolean isSorted(final List<LocalDate> transitionTimes) {
+        for (int i = 1; i < transitionTimes.size(); i++) {
+            if (transitionTimes.get(i).compareTo(transitionTimes.get(i - 1)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private boolean recordsWithTrackingIdExist(SubscriptionUsageRecord record, InternalCallContext context){
         return rolledUpUsageDao.recordsWithTrackingIdExist(record.getSubscriptionId(), record.getTrackingId(), context);
     }
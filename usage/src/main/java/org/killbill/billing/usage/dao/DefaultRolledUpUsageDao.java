@@ -16,7 +16,12 @@
 
 package org.killbill.billing.usage.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.UUID;
 
 import javax.inject.Inject;
@@ -24,20 +29,74 @@ import javax.inject.Inject;
 import org.joda.time.LocalDate;
 import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.util.dao.SqlExceptionHelper;
+import org.killbill.commons.jdbi.mapper.LowerToCamelBeanMapperFactory;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
 import org.skife.jdbi.v2.IDBI;
+import org.skife.jdbi.v2.Transaction;
+import org.skife.jdbi.v2.TransactionStatus;
+import org.skife.jdbi.v2.exceptions.DBIException;
 
+import com.google.common.base.Strings;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.SetMultimap;
+
+/**
+ * Raw usage records are kept (they carry the tracking ids), but reads are served from rolled_up_usage_daily,
+ * which holds one row per subscription, unit type and day and is maintained in the same transaction as the raw inserts.
+ * Tracking ids are also inserted in rolled_up_usage_tracking_ids in that transaction, whose unique index rejects a tracking id
+ * already recorded for the subscription, even by a concurrent writer.
+ */
 public class DefaultRolledUpUsageDao implements RolledUpUsageDao {
 
+    private static final int MAX_IN_CLAUSE_SIZE = 1000;
+    private static final String CREATE_DAILY_USAGES_SAVEPOINT = "create_daily_usages";
+
+    private final IDBI dbi;
     private final RolledUpUsageSqlDao rolledUpUsageSqlDao;
+    private final DailyRolledUpUsageSqlDao dailyRolledUpUsageSqlDao;
 
     @Inject
     public DefaultRolledUpUsageDao(final IDBI dbi) {
+        this.dbi = dbi;
         this.rolledUpUsageSqlDao = dbi.onDemand(RolledUpUsageSqlDao.class);
+        ((DBI) dbi).registerMapper(new LowerToCamelBeanMapperFactory(DailyRolledUpUsageModelDao.class));
+        this.dailyRolledUpUsageSqlDao = dbi.onDemand(DailyRolledUpUsageSqlDao.class);
+    }
+
+    @Override
+    public void record(final Iterable<RolledUpUsageModelDao> usages, final InternalCallContext context) {
+        record(ImmutableMap.<InternalCallContext, Iterable<RolledUpUsageModelDao>>of(context, usages));
     }
 
     @Override
-    public void record(final Iterable<RolledUpUsageModelDao> usages, final InternalCallContext context){
-        rolledUpUsageSqlDao.create(usages, context);
+    public void record(final Map<InternalCallContext, ? extends Iterable<RolledUpUsageModelDao>> usagesByContext) {
+        final Handle handle = dbi.open();
+        try {
+            handle.attach(DailyRolledUpUsageSqlDao.class).inTransaction(new Transaction<Void, DailyRolledUpUsageSqlDao>() {
+                @Override
+                public Void inTransaction(final DailyRolledUpUsageSqlDao transactionalSqlDao, final TransactionStatus status) throws Exception {
+                    final RolledUpUsageSqlDao rolledUpUsageSqlDao = handle.attach(RolledUpUsageSqlDao.class);
+                    for (final Entry<InternalCallContext, ? extends Iterable<RolledUpUsageModelDao>> entry : usagesByContext.entrySet()) {
+                        // Fails on a duplicate key if one of the tracking ids was already recorded, which rolls back the whole transaction
+                        final List<RolledUpUsageModelDao> trackingIds = toTrackingIds(entry.getValue());
+                        if (!trackingIds.isEmpty()) {
+                            rolledUpUsageSqlDao.createTrackingIds(trackingIds, entry.getKey());
+                        }
+                        rolledUpUsageSqlDao.create(entry.getValue(), entry.getKey());
+                        recordDailyUsages(handle, transactionalSqlDao, toDailyUsages(entry.getValue()), entry.getKey());
+                    }
+                    return null;
+                }
+            });
+        } finally {
+            handle.close();
+        }
     }
 
     @Override
@@ -45,18 +104,117 @@ public class DefaultRolledUpUsageDao implements RolledUpUsageDao {
         return rolledUpUsageSqlDao.recordsWithTrackingIdExist(subscriptionId, trackingId, context) != null ;
     }
 
+    @Override
+    public SetMultimap<UUID, String> getExistingTrackingIds(final Collection<String> trackingIds, final InternalTenantContext context) {
+        final SetMultimap<UUID, String> result = HashMultimap.<UUID, String>create();
+        for (final List<String> trackingIdsChunk : Iterables.partition(ImmutableSet.<String>copyOf(trackingIds), MAX_IN_CLAUSE_SIZE)) {
+            for (final RolledUpUsageModelDao usage : rolledUpUsageSqlDao.getSubscriptionIdsAndTrackingIds(trackingIdsChunk, context)) {
+                result.put(usage.getSubscriptionId(), usage.getTrackingId());
+            }
+        }
+        return result;
+    }
+
     @Override
     public List<RolledUpUsageModelDao> getUsageForSubscription(final UUID subscriptionId, final LocalDate startDate, final LocalDate endDate, final String unitType, final InternalTenantContext context) {
-        return rolledUpUsageSqlDao.getUsageForSubscription(subscriptionId, startDate.toDate(), endDate.toDate(), unitType, context);
+        return fromDailyUsages(dailyRolledUpUsageSqlDao.getUsageForSubscription(subscriptionId, startDate.toDate(), endDate.toDate(), unitType, context));
     }
 
     @Override
     public List<RolledUpUsageModelDao> getAllUsageForSubscription(final UUID subscriptionId, final LocalDate startDate, final LocalDate endDate, final InternalTenantContext context) {
-        return rolledUpUsageSqlDao.getAllUsageForSubscription(subscriptionId, startDate.toDate(), endDate.toDate(), context);
+        return fromDailyUsages(dailyRolledUpUsageSqlDao.getAllUsageForSubscription(subscriptionId, startDate.toDate(), endDate.toDate(), context));
     }
 
     @Override
     public List<RolledUpUsageModelDao> getRawUsageForAccount(final LocalDate startDate, final LocalDate endDate, final InternalTenantContext context) {
-        return rolledUpUsageSqlDao.getRawUsageForAccount(startDate.toDate(), endDate.toDate(), context);
+        return fromDailyUsages(dailyRolledUpUsageSqlDao.getUsageForAccount(startDate.toDate(), endDate.toDate(), context));
+    }
+
+    private void recordDailyUsages(final Handle handle, final DailyRolledUpUsageSqlDao dailyRolledUpUsageSqlDao, final List<DailyRolledUpUsageModelDao> dailyUsages, final InternalCallContext context) {
+        final List<DailyRolledUpUsageModelDao> newDailyUsages = addAmounts(dailyRolledUpUsageSqlDao, dailyUsages, context);
+        if (newDailyUsages.isEmpty() || createDailyUsages(handle, dailyRolledUpUsageSqlDao, newDailyUsages, context)) {
+            return;
+        }
+
+        // A concurrent writer inserted some of these days in the meantime: insert the rows one by one, adding the amounts to the existing ones
+        for (final DailyRolledUpUsageModelDao newDailyUsage : newDailyUsages) {
+            final List<DailyRolledUpUsageModelDao> singleDailyUsage = ImmutableList.<DailyRolledUpUsageModelDao>of(newDailyUsage);
+            if (!createDailyUsages(handle, dailyRolledUpUsageSqlDao, singleDailyUsage, context) &&
+                !addAmounts(dailyRolledUpUsageSqlDao, singleDailyUsage, context).isEmpty()) {
+                throw new IllegalStateException(String.format("Unable to record daily usage for subscriptionId='%s', unitType='%s', recordDate='%s'",
+                                                              newDailyUsage.getSubscriptionId(), newDailyUsage.getUnitType(), newDailyUsage.getRecordDate()));
+            }
+        }
+    }
+
+    // Returns the usages for days without any row yet
+    private List<DailyRolledUpUsageModelDao> addAmounts(final DailyRolledUpUsageSqlDao dailyRolledUpUsageSqlDao, final List<DailyRolledUpUsageModelDao> dailyUsages, final InternalCallContext context) {
+        final int[] updated = dailyRolledUpUsageSqlDao.addAmounts(dailyUsages, context);
+        final List<DailyRolledUpUsageModelDao> newDailyUsages = new ArrayList<DailyRolledUpUsageModelDao>();
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] == 0) {
+                newDailyUsages.add(dailyUsages.get(i));
+            }
+        }
+        return newDailyUsages;
+    }
+
+    // Returns false on a duplicate key: the insert is rolled back to a savepoint, so that the transaction can go on (required by PostgreSQL)
+    private boolean createDailyUsages(final Handle handle, final DailyRolledUpUsageSqlDao dailyRolledUpUsageSqlDao, final List<DailyRolledUpUsageModelDao> newDailyUsages, final InternalCallContext context) {
+        handle.checkpoint(CREATE_DAILY_USAGES_SAVEPOINT);
+        try {
+            dailyRolledUpUsageSqlDao.create(newDailyUsages, context);
+        } catch (final DBIException e) {
+            if (!SqlExceptionHelper.isDuplicateKey(e)) {
+                throw e;
+            }
+            handle.rollback(CREATE_DAILY_USAGES_SAVEPOINT);
+            return false;
+        }
+        handle.release(CREATE_DAILY_USAGES_SAVEPOINT);
+        return true;
+    }
+
+    // One row per subscription and tracking id: contexts are never shared across submissions, so a given pair can only be repeated within a submission
+    private List<RolledUpUsageModelDao> toTrackingIds(final Iterable<RolledUpUsageModelDao> usages) {
+        final Map<String, RolledUpUsageModelDao> trackingIds = new LinkedHashMap<String, RolledUpUsageModelDao>();
+        for (final RolledUpUsageModelDao usage : usages) {
+            if (Strings.isNullOrEmpty(usage.getTrackingId())) {
+                continue;
+            }
+            final String key = usage.getSubscriptionId() + "|" + usage.getTrackingId();
+            if (!trackingIds.containsKey(key)) {
+                trackingIds.put(key, usage);
+            }
+        }
+        return new ArrayList<RolledUpUsageModelDao>(trackingIds.values());
+    }
+
+    private List<DailyRolledUpUsageModelDao> toDailyUsages(final Iterable<RolledUpUsageModelDao> usages) {
+        final Map<String, DailyRolledUpUsageModelDao> dailyUsages = new LinkedHashMap<String, DailyRolledUpUsageModelDao>();
+        for (final RolledUpUsageModelDao usage : usages) {
+            final String key = usage.getSubscriptionId() + "|" + usage.getUnitType() + "|" + usage.getRecordDate();
+            final DailyRolledUpUsageModelDao dailyUsage = dailyUsages.get(key);
+            if (dailyUsage == null) {
+                dailyUsages.put(key, new DailyRolledUpUsageModelDao(usage.getSubscriptionId(), usage.getUnitType(), usage.getRecordDate(), usage.getAmount()));
+            } else {
+                dailyUsage.setAmount(dailyUsage.getAmount() + usage.getAmount());
+            }
+        }
+        return new ArrayList<DailyRolledUpUsageModelDao>(dailyUsages.values());
+    }
+
+    private List<RolledUpUsageModelDao> fromDailyUsages(final List<DailyRolledUpUsageModelDao> dailyUsages) {
+        final List<RolledUpUsageModelDao> result = new ArrayList<RolledUpUsageModelDao>(dailyUsages.size());
+        for (final DailyRolledUpUsageModelDao dailyUsage : dailyUsages) {
+            // No id nor tracking id: a daily row can aggregate several records
+            final RolledUpUsageModelDao usage = new RolledUpUsageModelDao();
+            usage.setSubscriptionId(dailyUsage.getSubscriptionId());
+            usage.setUnitType(dailyUsage.getUnitType());
+            usage.setRecordDate(dailyUsage.getRecordDate());
+            usage.setAmount(dailyUsage.getAmount());
+            result.add(usage);
+        }
+        return result;
     }
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.usage.dao;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.util.config.definition.UsageConfig;
+import org.killbill.commons.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces bulk usage submitted by concurrent callers (see DefaultBulkUsageUserApi) into fewer, larger transactions.
+ * <p/>
+ * Pending usage is written as soon as {@link UsageConfig#getUsageWriterFlushSize()} records are queued, or after
+ * {@link UsageConfig#getUsageWriterMaxLatency()}. Callers are blocked until their usage has been written, and while the (bounded) queue is full.
+ * When the writer isn't started, usage is written synchronously.
+ */
+@Singleton
+public class UsageBatchWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(UsageBatchWriter.class);
+
+    private static final int TERMINATION_TIMEOUT_SEC = 5;
+    private static final long POLL_TIMEOUT_MSEC = 1000;
+
+    private final RolledUpUsageDao rolledUpUsageDao;
+    private final UsageConfig usageConfig;
+
+    // Guards isStarted against submissions being queued concurrently
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private BlockingQueue<PendingUsage> queue;
+    private ExecutorService executor;
+    private volatile boolean isStarted = false;
+
+    @Inject
+    public UsageBatchWriter(final RolledUpUsageDao rolledUpUsageDao, final UsageConfig usageConfig) {
+        this.rolledUpUsageDao = rolledUpUsageDao;
+        this.usageConfig = usageConfig;
+    }
+
+    public void start() {
+        lock.writeLock().lock();
+        try {
+            if (isStarted) {
+                return;
+            }
+            queue = new ArrayBlockingQueue<PendingUsage>(usageConfig.getUsageWriterQueueCapacity());
+            executor = Executors.newSingleThreadExecutor("UsageBatchWriter");
+            isStarted = true;
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    runWriterLoop();
+                }
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void stop() {
+        lock.writeLock().lock();
+        try {
+            if (!isStarted) {
+                return;
+            }
+            // No new submission can be queued from now on: the writer thread drains the queue before exiting
+            isStarted = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(TERMINATION_TIMEOUT_SEC, TimeUnit.SECONDS)) {
+                logger.warn("UsageBatchWriter failed to complete termination within {} sec", TERMINATION_TIMEOUT_SEC);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("UsageBatchWriter stop sequence got interrupted");
+        }
+    }
+
+    public void write(final Map<InternalCallContext, ? extends List<RolledUpUsageModelDao>> usagesByContext) {
+        final PendingUsage pendingUsage = new PendingUsage(usagesByContext);
+        try {
+            if (!enqueue(pendingUsage)) {
+                rolledUpUsageDao.record(usagesByContext);
+                return;
+            }
+            pendingUsage.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for usage to be recorded (it may still be recorded)", e);
+        }
+
+        if (pendingUsage.failure != null) {
+            throw pendingUsage.failure;
+        }
+    }
+
+    private boolean enqueue(final PendingUsage pendingUsage) throws InterruptedException {
+        lock.readLock().lockInterruptibly();
+        try {
+            if (!isStarted) {
+                return false;
+            }
+            // Backpressure: block while the writer is behind
+            queue.put(pendingUsage);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void runWriterLoop() {
+        final long maxLatencyNanos = usageConfig.getUsageWriterMaxLatency().getMillis() * 1000000L;
+        final int flushSize = usageConfig.getUsageWriterFlushSize();
+
+        while (isStarted || !queue.isEmpty()) {
+            try {
+                final PendingUsage first = queue.poll(POLL_TIMEOUT_MSEC, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                final List<PendingUsage> batch = new ArrayList<PendingUsage>();
+                batch.add(first);
+                int nbRecords = first.nbRecords;
+                final long deadline = System.nanoTime() + maxLatencyNanos;
+                while (nbRecords < flushSize) {
+                    final long remainingNanos = deadline - System.nanoTime();
+                    final PendingUsage next = remainingNanos > 0 ? queue.poll(remainingNanos, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    nbRecords += next.nbRecords;
+                }
+
+                flush(batch);
+            } catch (final InterruptedException e) {
+                logger.warn("UsageBatchWriter got interrupted, {} pending usage submissions won't be recorded", queue.size());
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final RuntimeException e) {
+                logger.warn("Unexpected exception in UsageBatchWriter", e);
+            }
+        }
+    }
+
+    private void flush(final List<PendingUsage> batch) {
+        try {
+            if (batch.size() > 1) {
+                // Usage sharing the same context (i.e. the same account in a given submission) is written as one batch
+                final Map<InternalCallContext, List<RolledUpUsageModelDao>> usagesByContext = new IdentityHashMap<InternalCallContext, List<RolledUpUsageModelDao>>();
+                for (final PendingUsage pendingUsage : batch) {
+                    for (final Map.Entry<InternalCallContext, ? extends List<RolledUpUsageModelDao>> entry : pendingUsage.usagesByContext.entrySet()) {
+                        List<RolledUpUsageModelDao> usages = usagesByContext.get(entry.getKey());
+                        if (usages == null) {
+                            usages = new ArrayList<RolledUpUsageModelDao>();
+                            usagesByContext.put(entry.getKey(), usages);
+                        }
+                        usages.addAll(entry.getValue());
+                    }
+                }
+
+                try {
+                    rolledUpUsageDao.record(usagesByContext);
+                    for (final PendingUsage pendingUsage : batch) {
+                        pendingUsage.done(null);
+                    }
+                    return;
+                } catch (final RuntimeException e) {
+                    // e.g. a tracking id already recorded (rejected by the unique index on rolled_up_usage_tracking_ids) rolls back the whole
+                    // coalesced transaction: retry each submission on its own, so that only the offending one fails
+                    logger.debug("Unable to record coalesced usage, recording each submission separately", e);
+                }
+            }
+
+            for (final PendingUsage pendingUsage : batch) {
+                try {
+                    rolledUpUsageDao.record(pendingUsage.usagesByContext);
+                    pendingUsage.done(null);
+                } catch (final RuntimeException e) {
+                    pendingUsage.done(e);
+                }
+            }
+        } finally {
+            // Never leave a caller hanging
+            for (final PendingUsage pendingUsage : batch) {
+                pendingUsage.done(new IllegalStateException("Usage couldn't be recorded"));
+            }
+        }
+    }
+
+    private static final class PendingUsage {
+
+        private final Map<InternalCallContext, ? extends List<RolledUpUsageModelDao>> usagesByContext;
+        private final int nbRecords;
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        private volatile RuntimeException failure;
+
+        private PendingUsage(final Map<InternalCallContext, ? extends List<RolledUpUsageModelDao>> usagesByContext) {
+            this.usagesByContext = usagesByContext;
+            int nbRecords = 0;
+            for (final List<RolledUpUsageModelDao> usages : usagesByContext.values()) {
+                nbRecords += usages.size();
+            }
+            this.nbRecords = nbRecords;
+        }
+
+        // No-op if already done
+        private synchronized void done(final RuntimeException failure) {
+            if (latch.getCount() == 0) {
+                return;
+            }
+            this.failure = failure;
+            latch.countDown();
+        }
+
+        private void await() throws InterruptedException {
+            latch.await();
+        }
+    }
+}
@@ -19,13 +19,20 @@
 package org.killbill.billing.usage.glue;
 
 import org.killbill.billing.platform.api.KillbillConfigSource;
+import org.killbill.billing.usage.BulkUsageUserApi;
+import org.killbill.billing.usage.DefaultUsageService;
 import org.killbill.billing.usage.InternalUserApi;
+import org.killbill.billing.usage.UsageService;
 import org.killbill.billing.usage.api.UsageUserApi;
 import org.killbill.billing.usage.api.svcs.DefaultInternalUserApi;
+import org.killbill.billing.usage.api.user.DefaultBulkUsageUserApi;
 import org.killbill.billing.usage.api.user.DefaultUsageUserApi;
 import org.killbill.billing.usage.dao.DefaultRolledUpUsageDao;
 import org.killbill.billing.usage.dao.RolledUpUsageDao;
+import org.killbill.billing.usage.dao.UsageBatchWriter;
+import org.killbill.billing.util.config.definition.UsageConfig;
 import org.killbill.billing.util.glue.KillBillModule;
+import org.skife.config.ConfigurationObjectFactory;
 
 public class UsageModule extends KillBillModule {
 
@@ -33,14 +40,29 @@ public class UsageModule extends KillBillModule {
         super(configSource);
     }
 
+    protected void installConfig() {
+        final ConfigurationObjectFactory factory = new ConfigurationObjectFactory(skifeConfigSource);
+        final UsageConfig usageConfig = factory.build(UsageConfig.class);
+        bind(UsageConfig.class).toInstance(usageConfig);
+    }
+
     protected void installRolledUpUsageDao() {
         bind(RolledUpUsageDao.class).to(DefaultRolledUpUsageDao.class).asEagerSingleton();
+        bind(UsageBatchWriter.class).asEagerSingleton();
+    }
+
+    protected void installUsageService() {
+        bind(UsageService.class).to(DefaultUsageService.class).asEagerSingleton();
     }
 
     protected void installUsageUserApi() {
         bind(UsageUserApi.class).to(DefaultUsageUserApi.class).asEagerSingleton();
     }
 
+    protected void installBulkUsageUserApi() {
+        bind(BulkUsageUserApi.class).to(DefaultBulkUsageUserApi.class).asEagerSingleton();
+    }
+
     protected void installInternalUserApi() {
         bind(InternalUserApi.class).to(DefaultInternalUserApi.class).asEagerSingleton();
     }
@@ -48,8 +70,11 @@ public class UsageModule extends KillBillModule {
 
     @Override
     protected void configure() {
+        installConfig();
         installRolledUpUsageDao();
+        installUsageService();
         installUsageUserApi();
+        installBulkUsageUserApi();
         installInternalUserApi();
     }
 }
@@ -0,0 +1,16 @@
+CREATE TABLE rolled_up_usage_tracking_ids (
+    record_id serial unique,
+    subscription_id varchar(36) NOT NULL,
+    tracking_id varchar(128) NOT NULL,
+    created_date datetime NOT NULL,
+    account_record_id bigint /*! unsigned */ not null,
+    tenant_record_id bigint /*! unsigned */ not null default 0,
+    PRIMARY KEY(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
+CREATE UNIQUE INDEX rolled_up_usage_tracking_ids_tracking_id ON rolled_up_usage_tracking_ids(tracking_id, subscription_id, tenant_record_id);
+CREATE INDEX rolled_up_usage_tracking_ids_tenant_account_record_id ON rolled_up_usage_tracking_ids(tenant_record_id, account_record_id);
+insert into rolled_up_usage_tracking_ids (subscription_id, tracking_id, created_date, account_record_id, tenant_record_id)
+select subscription_id, tracking_id, min(created_date), min(account_record_id), tenant_record_id
+from rolled_up_usage
+where tracking_id != ''
+group by subscription_id, tracking_id, tenant_record_id;
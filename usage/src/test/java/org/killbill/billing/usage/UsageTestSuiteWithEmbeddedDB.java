@@ -22,6 +22,7 @@ import javax.inject.Inject;
 
 import org.killbill.billing.GuicyKillbillTestSuiteWithEmbeddedDB;
 import org.killbill.billing.usage.dao.RolledUpUsageDao;
+import org.killbill.billing.usage.dao.UsageBatchWriter;
 import org.killbill.billing.usage.glue.TestUsageModuleWithEmbeddedDB;
 import org.testng.annotations.BeforeClass;
 
@@ -32,6 +33,8 @@ public class UsageTestSuiteWithEmbeddedDB extends GuicyKillbillTestSuiteWithEmbe
 
     @Inject
     protected RolledUpUsageDao rolledUpUsageDao;
+    @Inject
+    protected UsageBatchWriter usageBatchWriter;
 
     @BeforeClass(groups = "slow")
     protected void beforeClass() throws Exception {
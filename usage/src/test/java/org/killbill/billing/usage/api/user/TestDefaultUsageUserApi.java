@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.usage.api.user;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.joda.time.LocalDate;
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.usage.UsageTestSuiteNoDB;
+import org.killbill.billing.usage.api.RolledUpUnit;
+import org.killbill.billing.usage.api.RolledUpUsage;
+import org.killbill.billing.usage.dao.RolledUpUsageDao;
+import org.killbill.billing.usage.dao.RolledUpUsageModelDao;
+import org.killbill.billing.util.UUIDs;
+import org.killbill.billing.util.callcontext.InternalCallContextFactory;
+import org.killbill.billing.util.callcontext.TenantContext;
+import org.mockito.Mockito;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import static org.testng.Assert.assertEquals;
+
+public class TestDefaultUsageUserApi extends UsageTestSuiteNoDB {
+
+    @Test(groups = "fast")
+    public void testGetAllUsageForSubscriptionInSinglePass() {
+        final UUID subscriptionId = UUIDs.randomUUID();
+        final LocalDate t0 = new LocalDate(2013, 1, 1);
+        final LocalDate t1 = new LocalDate(2013, 2, 1);
+        final LocalDate t2 = new LocalDate(2013, 3, 1);
+        final LocalDate t3 = new LocalDate(2013, 4, 1);
+
+        final RolledUpUsageDao rolledUpUsageDao = Mockito.mock(RolledUpUsageDao.class);
+        Mockito.when(rolledUpUsageDao.getAllUsageForSubscription(Mockito.eq(subscriptionId), Mockito.eq(t0), Mockito.eq(t3), Mockito.<InternalTenantContext>any()))
+               .thenReturn(ImmutableList.<RolledUpUsageModelDao>of(new RolledUpUsageModelDao(subscriptionId, "foo", t0, 1L, null),
+                                                                   new RolledUpUsageModelDao(subscriptionId, "bar", t0.plusDays(3), 2L, null),
+                                                                   new RolledUpUsageModelDao(subscriptionId, "foo", t1.minusDays(1), 4L, null),
+                                                                   // Nothing between t1 and t2
+                                                                   new RolledUpUsageModelDao(subscriptionId, "foo", t2, 8L, null),
+                                                                   new RolledUpUsageModelDao(subscriptionId, "foo", t3.minusDays(1), 16L, null)));
+
+        final List<RolledUpUsage> result = createUsageUserApi(rolledUpUsageDao).getAllUsageForSubscription(subscriptionId, ImmutableList.<LocalDate>of(t0, t1, t2, t3), callContext);
+
+        // Single query for the whole span
+        Mockito.verify(rolledUpUsageDao, Mockito.times(1)).getAllUsageForSubscription(Mockito.<UUID>any(), Mockito.<LocalDate>any(), Mockito.<LocalDate>any(), Mockito.<InternalTenantContext>any());
+
+        assertEquals(result.size(), 3);
+        assertEquals(result.get(0).getStart(), t0);
+        assertEquals(result.get(0).getEnd(), t1);
+        assertEquals(toMap(result.get(0).getRolledUpUnits()).size(), 2);
+        assertEquals(toMap(result.get(0).getRolledUpUnits()).get("foo"), (Long) 5L);
+        assertEquals(toMap(result.get(0).getRolledUpUnits()).get("bar"), (Long) 2L);
+        assertEquals(result.get(1).getStart(), t1);
+        assertEquals(result.get(1).getEnd(), t2);
+        assertEquals(result.get(1).getRolledUpUnits().size(), 0);
+        assertEquals(result.get(2).getStart(), t2);
+        assertEquals(result.get(2).getEnd(), t3);
+        assertEquals(toMap(result.get(2).getRolledUpUnits()).size(), 1);
+        assertEquals(toMap(result.get(2).getRolledUpUnits()).get("foo"), (Long) 24L);
+    }
+
+    @Test(groups = "fast")
+    public void testGetAllUsageForSubscriptionWithUnsortedTransitions() {
+        final UUID subscriptionId = UUIDs.randomUUID();
+        final LocalDate t0 = new LocalDate(2013, 1, 1);
+        final LocalDate t1 = new LocalDate(2013, 2, 1);
+
+        final RolledUpUsageDao rolledUpUsageDao = Mockito.mock(RolledUpUsageDao.class);
+        Mockito.when(rolledUpUsageDao.getAllUsageForSubscription(Mockito.eq(subscriptionId), Mockito.<LocalDate>any(), Mockito.<LocalDate>any(), Mockito.<InternalTenantContext>any()))
+               .thenReturn(ImmutableList.<RolledUpUsageModelDao>of(new RolledUpUsageModelDao(subscriptionId, "foo", t0, 1L, null)));
+
+        final List<RolledUpUsage> result = createUsageUserApi(rolledUpUsageDao).getAllUsageForSubscription(subscriptionId, ImmutableList.<LocalDate>of(t1, t0, t1), callContext);
+
+        // One query per interval
+        Mockito.verify(rolledUpUsageDao, Mockito.times(2)).getAllUsageForSubscription(Mockito.<UUID>any(), Mockito.<LocalDate>any(), Mockito.<LocalDate>any(), Mockito.<InternalTenantContext>any());
+        assertEquals(result.size(), 2);
+        assertEquals(toMap(result.get(0).getRolledUpUnits()).get("foo"), (Long) 1L);
+        assertEquals(toMap(result.get(1).getRolledUpUnits()).get("foo"), (Long) 1L);
+    }
+
+    private DefaultUsageUserApi createUsageUserApi(final RolledUpUsageDao rolledUpUsageDao) {
+        final InternalCallContextFactory internalCallContextFactory = Mockito.mock(InternalCallContextFactory.class);
+        Mockito.when(internalCallContextFactory.createInternalTenantContext(Mockito.<UUID>any(), Mockito.<ObjectType>any(), Mockito.<TenantContext>any())).thenReturn(internalCallContext);
+        return new DefaultUsageUserApi(rolledUpUsageDao, internalCallContextFactory);
+    }
+
+    private Map<String, Long> toMap(final List<RolledUpUnit> rolledUpUnits) {
+        final Map<String, Long> result = new HashMap<String, Long>();
+        for (final RolledUpUnit rolledUpUnit : rolledUpUnits) {
+            result.put(rolledUpUnit.getUnitType(), rolledUpUnit.getAmount());
+        }
+        return result;
+    }
+}
@@ -18,16 +18,32 @@
 package org.killbill.billing.usage.dao;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.joda.time.LocalDate;
+import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.usage.UsageTestSuiteWithEmbeddedDB;
 import org.killbill.billing.util.UUIDs;
+import org.skife.jdbi.v2.exceptions.DBIException;
 import org.skife.jdbi.v2.exceptions.UnableToExecuteStatementException;
 import org.testng.annotations.Test;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 public class TestDefaultRolledUpUsageDao extends UsageTestSuiteWithEmbeddedDB {
@@ -170,4 +186,182 @@ public class TestDefaultRolledUpUsageDao extends UsageTestSuiteWithEmbeddedDB {
         assertEquals(rolledUpUsageDao.recordsWithTrackingIdExist(subscriptionId, trackingId, internalCallContext),
                      Boolean.TRUE);
     }
-}
\ No newline at end of file
+
+    @Test(groups = "slow")
+    public void testDailyRollup() {
+        final UUID subscriptionId = UUIDs.randomUUID();
+        final String unitType1 = "foo";
+        final String unitType2 = "bar";
+        final LocalDate startDate = new LocalDate(2013, 1, 1);
+        final LocalDate endDate = new LocalDate(2013, 2, 1);
+
+        final List<RolledUpUsageModelDao> usages1 = new ArrayList<RolledUpUsageModelDao>();
+        usages1.add(new RolledUpUsageModelDao(subscriptionId, unitType1, startDate, 10L, "tracking1"));
+        usages1.add(new RolledUpUsageModelDao(subscriptionId, unitType1, startDate, 5L, "tracking1"));
+        usages1.add(new RolledUpUsageModelDao(subscriptionId, unitType2, startDate, 3L, "tracking1"));
+        rolledUpUsageDao.record(usages1, internalCallContext);
+
+        final List<RolledUpUsageModelDao> usages2 = new ArrayList<RolledUpUsageModelDao>();
+        usages2.add(new RolledUpUsageModelDao(subscriptionId, unitType1, startDate, 7L, "tracking2"));
+        usages2.add(new RolledUpUsageModelDao(subscriptionId, unitType1, startDate.plusDays(1), 1L, "tracking2"));
+        rolledUpUsageDao.record(usages2, internalCallContext);
+
+        final List<RolledUpUsageModelDao> result = rolledUpUsageDao.getUsageForSubscription(subscriptionId, startDate, endDate, unitType1, internalCallContext);
+        assertEquals(result.size(), 2);
+        assertEquals(result.get(0).getRecordDate().compareTo(startDate), 0);
+        assertEquals(result.get(0).getAmount(), (Long) 22L);
+        assertEquals(result.get(1).getRecordDate().compareTo(startDate.plusDays(1)), 0);
+        assertEquals(result.get(1).getAmount(), (Long) 1L);
+
+        final List<RolledUpUsageModelDao> allResult = rolledUpUsageDao.getAllUsageForSubscription(subscriptionId, startDate, endDate, internalCallContext);
+        assertEquals(allResult.size(), 3);
+
+        final List<RolledUpUsageModelDao> accountResult = rolledUpUsageDao.getRawUsageForAccount(startDate, endDate, internalCallContext);
+        assertEquals(accountResult.size(), 3);
+        long total = 0;
+        for (final RolledUpUsageModelDao usage : accountResult) {
+            assertEquals(usage.getSubscriptionId(), subscriptionId);
+            total += usage.getAmount();
+        }
+        assertEquals(total, 26L);
+
+        // The raw records (and their tracking ids) are still available
+        assertEquals(rolledUpUsageDao.recordsWithTrackingIdExist(subscriptionId, "tracking2", internalCallContext), Boolean.TRUE);
+        assertEquals(rolledUpUsageDao.recordsWithTrackingIdExist(subscriptionId, "tracking3", internalCallContext), Boolean.FALSE);
+    }
+
+    @Test(groups = "slow")
+    public void testDailyRollupRolledBackOnFailure() {
+        final UUID subscriptionId = UUIDs.randomUUID();
+        final String unitType = "foo";
+        final LocalDate startDate = new LocalDate(2013, 1, 1);
+        final LocalDate endDate = new LocalDate(2013, 2, 1);
+
+        final List<RolledUpUsageModelDao> usages = new ArrayList<RolledUpUsageModelDao>();
+        usages.add(new RolledUpUsageModelDao(subscriptionId, unitType, startDate, 10L, UUIDs.randomUUID().toString()));
+        rolledUpUsageDao.record(usages, internalCallContext);
+
+        try {
+            rolledUpUsageDao.record(usages, internalCallContext);
+            fail("duplicate records accepted");
+        } catch (final UnableToExecuteStatementException e) {
+            final List<RolledUpUsageModelDao> result = rolledUpUsageDao.getUsageForSubscription(subscriptionId, startDate, endDate, unitType, internalCallContext);
+            assertEquals(result.size(), 1);
+            assertEquals(result.get(0).getAmount(), (Long) 10L);
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testDailyRollupWithConcurrentWriters() throws Exception {
+        final UUID subscriptionId = UUIDs.randomUUID();
+        final String unitType = "foo";
+        final LocalDate startDate = new LocalDate(2013, 1, 1);
+        final int nbDays = 5;
+        final int nbWriters = 8;
+
+        // All writers record the same (new) days at the same time
+        final CyclicBarrier barrier = new CyclicBarrier(nbWriters);
+        final ExecutorService executor = Executors.newFixedThreadPool(nbWriters);
+        try {
+            final List<Future<Void>> writes = new ArrayList<Future<Void>>();
+            for (int i = 0; i < nbWriters; i++) {
+                writes.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        final List<RolledUpUsageModelDao> usages = new ArrayList<RolledUpUsageModelDao>();
+                        final String trackingId = UUIDs.randomUUID().toString();
+                        for (int j = 0; j < nbDays; j++) {
+                            usages.add(new RolledUpUsageModelDao(subscriptionId, unitType, startDate.plusDays(j), 3L, trackingId));
+                        }
+                        barrier.await();
+                        rolledUpUsageDao.record(usages, internalCallContext);
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> write : writes) {
+                // Rethrows any failure
+                write.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final List<RolledUpUsageModelDao> result = rolledUpUsageDao.getUsageForSubscription(subscriptionId, startDate, startDate.plusDays(nbDays), unitType, internalCallContext);
+        assertEquals(result.size(), nbDays);
+        for (int j = 0; j < nbDays; j++) {
+            assertEquals(result.get(j).getRecordDate().compareTo(startDate.plusDays(j)), 0);
+            assertEquals(result.get(j).getAmount(), (Long) (3L * nbWriters));
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testConcurrentWritersWithSameTrackingId() throws Exception {
+        final UUID subscriptionId = UUIDs.randomUUID();
+        final String unitType = "foo";
+        final LocalDate startDate = new LocalDate(2013, 1, 1);
+        final String trackingId = UUIDs.randomUUID().toString();
+        final int nbWriters = 8;
+
+        // All writers pass any check made before writing, only the tracking ids unique index can reject them
+        final CyclicBarrier barrier = new CyclicBarrier(nbWriters);
+        final ExecutorService executor = Executors.newFixedThreadPool(nbWriters);
+        int nbRejectedWrites = 0;
+        try {
+            final List<Future<Void>> writes = new ArrayList<Future<Void>>();
+            for (int i = 0; i < nbWriters; i++) {
+                writes.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        final List<RolledUpUsageModelDao> usages = ImmutableList.<RolledUpUsageModelDao>of(new RolledUpUsageModelDao(subscriptionId, unitType, startDate, 3L, trackingId),
+                                                                                                          new RolledUpUsageModelDao(subscriptionId, unitType, startDate.plusDays(1), 2L, trackingId));
+                        barrier.await();
+                        rolledUpUsageDao.record(usages, internalCallContext);
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> write : writes) {
+                try {
+                    write.get(30, TimeUnit.SECONDS);
+                } catch (final ExecutionException e) {
+                    // Duplicate key, or a lock conflict on the unique index, depending on the database
+                    assertTrue(e.getCause() instanceof DBIException);
+                    nbRejectedWrites++;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(nbRejectedWrites, nbWriters - 1);
+
+        // Only the accepted write is rolled up
+        final List<RolledUpUsageModelDao> result = rolledUpUsageDao.getUsageForSubscription(subscriptionId, startDate, startDate.plusDays(2), unitType, internalCallContext);
+        assertEquals(result.size(), 2);
+        assertEquals(result.get(0).getAmount(), (Long) 3L);
+        assertEquals(result.get(1).getAmount(), (Long) 2L);
+        assertEquals(rolledUpUsageDao.getExistingTrackingIds(ImmutableList.<String>of(trackingId), internalCallContext).get(subscriptionId), ImmutableSet.<String>of(trackingId));
+    }
+
+    @Test(groups = "slow")
+    public void testGetExistingTrackingIds() {
+        final UUID subscriptionId1 = UUIDs.randomUUID();
+        final UUID subscriptionId2 = UUIDs.randomUUID();
+        final LocalDate recordDate = new LocalDate(2013, 1, 1);
+
+        final InternalCallContext otherAccountContext = new InternalCallContext(internalCallContext, internalCallContext.getAccountRecordId() + 1, null, null, clock.getUTCNow());
+        final Map<InternalCallContext, List<RolledUpUsageModelDao>> usagesByContext = new LinkedHashMap<InternalCallContext, List<RolledUpUsageModelDao>>();
+        usagesByContext.put(internalCallContext, ImmutableList.<RolledUpUsageModelDao>of(new RolledUpUsageModelDao(subscriptionId1, "foo", recordDate, 1L, "tracking1"),
+                                                                                        new RolledUpUsageModelDao(subscriptionId1, "foo", recordDate, 2L, "tracking2")));
+        usagesByContext.put(otherAccountContext, ImmutableList.<RolledUpUsageModelDao>of(new RolledUpUsageModelDao(subscriptionId2, "foo", recordDate, 4L, "tracking1")));
+        rolledUpUsageDao.record(usagesByContext);
+
+        final SetMultimap<UUID, String> existingTrackingIds = rolledUpUsageDao.getExistingTrackingIds(ImmutableList.<String>of("tracking1", "tracking2", "tracking3"), internalCallContext);
+        assertEquals(existingTrackingIds.size(), 3);
+        assertEquals(existingTrackingIds.get(subscriptionId1), ImmutableSet.<String>of("tracking1", "tracking2"));
+        assertEquals(existingTrackingIds.get(subscriptionId2), ImmutableSet.<String>of("tracking1"));
+
+        assertEquals(rolledUpUsageDao.getRawUsageForAccount(recordDate, recordDate.plusDays(1), internalCallContext).get(0).getAmount(), (Long) 3L);
+        assertEquals(rolledUpUsageDao.getRawUsageForAccount(recordDate, recordDate.plusDays(1), otherAccountContext).get(0).getAmount(), (Long) 4L);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.usage.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.joda.time.LocalDate;
+import org.killbill.billing.callcontext.InternalCallContext;
+import org.killbill.billing.usage.UsageTestSuiteWithEmbeddedDB;
+import org.killbill.billing.util.UUIDs;
+import org.skife.jdbi.v2.exceptions.UnableToExecuteStatementException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+public class TestUsageBatchWriter extends UsageTestSuiteWithEmbeddedDB {
+
+    @BeforeMethod(groups = "slow")
+    public void beforeMethod() throws Exception {
+        super.beforeMethod();
+        usageBatchWriter.start();
+    }
+
+    @AfterMethod(groups = "slow")
+    public void afterMethod() throws Exception {
+        usageBatchWriter.stop();
+    }
+
+    @Test(groups = "slow")
+    public void testConcurrentWrites() throws Exception {
+        final UUID subscriptionId = UUIDs.randomUUID();
+        final LocalDate recordDate = new LocalDate(2013, 1, 1);
+        final int nbThreads = 8;
+        final int nbWritesPerThread = 25;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < nbThreads; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < nbWritesPerThread; j++) {
+                            write(new RolledUpUsageModelDao(subscriptionId, "foo", recordDate, 1L, UUIDs.randomUUID().toString()));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final List<RolledUpUsageModelDao> result = rolledUpUsageDao.getUsageForSubscription(subscriptionId, recordDate, recordDate.plusDays(1), "foo", internalCallContext);
+        assertEquals(result.size(), 1);
+        assertEquals(result.get(0).getAmount(), (Long) (long) (nbThreads * nbWritesPerThread));
+    }
+
+    @Test(groups = "slow")
+    public void testFailureIsIsolated() throws Exception {
+        final UUID subscriptionId = UUIDs.randomUUID();
+        final LocalDate recordDate = new LocalDate(2013, 1, 1);
+
+        final RolledUpUsageModelDao duplicate = new RolledUpUsageModelDao(subscriptionId, "foo", recordDate, 10L, UUIDs.randomUUID().toString());
+        write(duplicate);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<Void> duplicateFuture = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    write(duplicate);
+                    return null;
+                }
+            });
+            final Future<Void> validFuture = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    write(new RolledUpUsageModelDao(subscriptionId, "foo", recordDate, 5L, UUIDs.randomUUID().toString()));
+                    return null;
+                }
+            });
+
+            validFuture.get();
+            try {
+                duplicateFuture.get();
+                fail("duplicate records accepted");
+            } catch (final ExecutionException e) {
+                assertEquals(e.getCause().getClass(), UnableToExecuteStatementException.class);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final List<RolledUpUsageModelDao> result = rolledUpUsageDao.getUsageForSubscription(subscriptionId, recordDate, recordDate.plusDays(1), "foo", internalCallContext);
+        assertEquals(result.size(), 1);
+        assertEquals(result.get(0).getAmount(), (Long) 15L);
+    }
+
+    private void write(final RolledUpUsageModelDao usage) {
+        usageBatchWriter.write(ImmutableMap.<InternalCallContext, List<RolledUpUsageModelDao>>of(internalCallContext, ImmutableList.<RolledUpUsageModelDao>of(usage)));
+    }
+}
@@ -19,7 +19,10 @@
 package org.killbill.billing.usage.glue;
 
 import org.killbill.billing.GuicyKillbillTestNoDBModule;
+import org.killbill.billing.mock.glue.MockAccountModule;
+import org.killbill.billing.mock.glue.MockNonEntityDaoModule;
 import org.killbill.billing.platform.api.KillbillConfigSource;
+import org.killbill.billing.util.glue.CacheModule;
 
 public class TestUsageModuleNoDB extends TestUsageModule {
 
@@ -32,5 +35,8 @@ public class TestUsageModuleNoDB extends TestUsageModule {
         super.configure();
 
         install(new GuicyKillbillTestNoDBModule(configSource));
+        install(new MockNonEntityDaoModule(configSource));
+        install(new MockAccountModule(configSource));
+        install(new CacheModule(configSource));
     }
 }
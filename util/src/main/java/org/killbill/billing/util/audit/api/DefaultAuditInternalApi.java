@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.util.audit.api;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.inject.Inject;
+
+import org.killbill.billing.audit.AuditInternalApi;
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.util.api.AuditLevel;
+import org.killbill.billing.util.audit.AccountAuditLogs;
+import org.killbill.billing.util.audit.DefaultAccountAuditLogs;
+import org.killbill.billing.util.audit.dao.AuditDao;
+
+public class DefaultAuditInternalApi implements AuditInternalApi {
+
+    private final AuditDao auditDao;
+
+    @Inject
+    public DefaultAuditInternalApi(final AuditDao auditDao) {
+        this.auditDao = auditDao;
+    }
+
+    @Override
+    public Map<UUID, AccountAuditLogs> getAccountsAuditLogs(final Collection<UUID> accountIds, final AuditLevel auditLevel, final InternalTenantContext context) {
+        final Map<UUID, AccountAuditLogs> accountsAuditLogs = new LinkedHashMap<UUID, AccountAuditLogs>();
+
+        // Optimization - bail early
+        if (AuditLevel.NONE.equals(auditLevel)) {
+            for (final UUID accountId : accountIds) {
+                accountsAuditLogs.put(accountId, new DefaultAccountAuditLogs(accountId));
+            }
+            return accountsAuditLogs;
+        }
+
+        accountsAuditLogs.putAll(auditDao.getAuditLogsForAccounts(accountIds, auditLevel, context));
+        return accountsAuditLogs;
+    }
+}
@@ -16,7 +16,9 @@
 
 package org.killbill.billing.util.audit.dao;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.killbill.billing.callcontext.InternalTenantContext;
@@ -34,5 +36,8 @@ public interface AuditDao {
     // Make sure to consume all or call close() when done to release the connection
     public DefaultAccountAuditLogsForObjectType getAuditLogsForAccountRecordId(TableName tableName, AuditLevel auditLevel, InternalTenantContext context);
 
+    // Audit logs are fully loaded in memory: meant for bounded sets of accounts (e.g. a page of accounts)
+    public Map<UUID, DefaultAccountAuditLogs> getAuditLogsForAccounts(Collection<UUID> accountIds, AuditLevel auditLevel, InternalTenantContext context);
+
     public List<AuditLog> getAuditLogsForId(TableName tableName, UUID objectId, AuditLevel auditLevel, InternalTenantContext context);
 }
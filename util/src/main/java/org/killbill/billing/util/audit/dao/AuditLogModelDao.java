@@ -104,6 +104,10 @@ public class AuditLogModelDao implements EntityModelDao<AuditLog>, Externalizabl
         return accountRecordId;
     }
 
+    public void setAccountRecordId(final Long accountRecordId) {
+        this.accountRecordId = accountRecordId;
+    }
+
     @Override
     public Long getTenantRecordId() {
         return tenantRecordId;
@@ -18,8 +18,10 @@
 
 package org.killbill.billing.util.audit.dao;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -34,6 +36,8 @@ import org.killbill.billing.util.audit.ChangeType;
 import org.killbill.billing.util.audit.DefaultAccountAuditLogs;
 import org.killbill.billing.util.audit.DefaultAccountAuditLogsForObjectType;
 import org.killbill.billing.util.audit.DefaultAuditLog;
+import org.killbill.billing.util.cache.Cachable.CacheType;
+import org.killbill.billing.util.cache.CacheController;
 import org.killbill.billing.util.cache.CacheControllerDispatcher;
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.dao.NonEntityDao;
@@ -48,18 +52,24 @@ import org.killbill.clock.Clock;
 import org.skife.jdbi.v2.IDBI;
 
 import com.google.common.base.Function;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
 
 public class DefaultAuditDao implements AuditDao {
 
     private final NonEntitySqlDao nonEntitySqlDao;
+    private final NonEntityDao nonEntityDao;
+    private final CacheController<String, Long> recordIdCacheController;
     private final EntitySqlDaoTransactionalJdbiWrapper transactionalSqlDao;
 
     @Inject
     public DefaultAuditDao(final IDBI dbi, final Clock clock, final CacheControllerDispatcher cacheControllerDispatcher, final NonEntityDao nonEntityDao, final InternalCallContextFactory internalCallContextFactory) {
         this.nonEntitySqlDao = dbi.onDemand(NonEntitySqlDao.class);
+        this.nonEntityDao = nonEntityDao;
+        this.recordIdCacheController = cacheControllerDispatcher.getCacheController(CacheType.RECORD_ID);
         this.transactionalSqlDao = new EntitySqlDaoTransactionalJdbiWrapper(dbi, clock, cacheControllerDispatcher, nonEntityDao, internalCallContextFactory);
     }
 
@@ -72,11 +82,45 @@ public class DefaultAuditDao implements AuditDao {
         // Since we want to stream the results out, we don't want to auto-commit when this method returns.
         final EntitySqlDao auditSqlDao = transactionalSqlDao.onDemandForStreamingResults(EntitySqlDao.class);
         final Iterator<AuditLogModelDao> auditLogsForAccountRecordId = auditSqlDao.getAuditLogsForAccountRecordId(context);
-        final Iterator<AuditLog> allAuditLogs = buildAuditLogsFromModelDao(auditLogsForAccountRecordId, context);
+        final Iterator<AuditLog> allAuditLogs = buildAuditLogsFromModelDao(auditLogsForAccountRecordId, ImmutableList.<Long>of(context.getAccountRecordId()), context);
 
         return new DefaultAccountAuditLogs(accountId, auditLevel, allAuditLogs);
     }
 
+    @Override
+    public Map<UUID, DefaultAccountAuditLogs> getAuditLogsForAccounts(final Collection<UUID> accountIds, final AuditLevel auditLevel, final InternalTenantContext context) {
+        final Map<UUID, Long> accountRecordIds = nonEntityDao.retrieveRecordIdsFromObjects(accountIds, ObjectType.ACCOUNT, recordIdCacheController);
+        final Map<UUID, DefaultAccountAuditLogs> auditLogsPerAccountId = new LinkedHashMap<UUID, DefaultAccountAuditLogs>();
+        if (accountRecordIds.isEmpty()) {
+            for (final UUID accountId : accountIds) {
+                auditLogsPerAccountId.put(accountId, new DefaultAccountAuditLogs(accountId, auditLevel, ImmutableList.<AuditLog>of().iterator()));
+            }
+            return auditLogsPerAccountId;
+        }
+
+        final List<AuditLogModelDao> auditLogModelDaos = transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<List<AuditLogModelDao>>() {
+            @Override
+            public List<AuditLogModelDao> inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                return entitySqlDaoWrapperFactory.become(EntitySqlDao.class).getAuditLogsForAccountRecordIds(accountRecordIds.values(), context);
+            }
+        });
+
+        // The record id / id mappings are retrieved once for all accounts. Both iterators yield entries in the same order
+        final Iterator<AuditLog> allAuditLogs = buildAuditLogsFromModelDao(auditLogModelDaos.iterator(), accountRecordIds.values(), context);
+        final Multimap<Long, AuditLog> auditLogsPerAccountRecordId = ArrayListMultimap.<Long, AuditLog>create();
+        for (final AuditLogModelDao auditLogModelDao : auditLogModelDaos) {
+            auditLogsPerAccountRecordId.put(auditLogModelDao.getAccountRecordId(), allAuditLogs.next());
+        }
+
+        // Every requested account gets an entry, empty if it has no audit logs (or doesn't exist)
+        for (final UUID accountId : accountIds) {
+            final Long accountRecordId = accountRecordIds.get(accountId);
+            final Collection<AuditLog> accountAuditLogs = accountRecordId == null ? ImmutableList.<AuditLog>of() : auditLogsPerAccountRecordId.get(accountRecordId);
+            auditLogsPerAccountId.put(accountId, new DefaultAccountAuditLogs(accountId, auditLevel, accountAuditLogs.iterator()));
+        }
+        return auditLogsPerAccountId;
+    }
+
     @Override
     public DefaultAccountAuditLogsForObjectType getAuditLogsForAccountRecordId(final TableName tableName, final AuditLevel auditLevel, final InternalTenantContext context) {
         final String actualTableName;
@@ -91,12 +135,12 @@ public class DefaultAuditDao implements AuditDao {
         // Since we want to stream the results out, we don't want to auto-commit when this method returns.
         final EntitySqlDao auditSqlDao = transactionalSqlDao.onDemandForStreamingResults(EntitySqlDao.class);
         final Iterator<AuditLogModelDao> auditLogsForTableNameAndAccountRecordId = auditSqlDao.getAuditLogsForTableNameAndAccountRecordId(actualTableName, context);
-        final Iterator<AuditLog> allAuditLogs = buildAuditLogsFromModelDao(auditLogsForTableNameAndAccountRecordId, context);
+        final Iterator<AuditLog> allAuditLogs = buildAuditLogsFromModelDao(auditLogsForTableNameAndAccountRecordId, ImmutableList.<Long>of(context.getAccountRecordId()), context);
 
         return new DefaultAccountAuditLogsForObjectType(auditLevel, allAuditLogs);
     }
 
-    private Iterator<AuditLog> buildAuditLogsFromModelDao(final Iterator<AuditLogModelDao> auditLogsForAccountRecordId, final InternalTenantContext tenantContext) {
+    private Iterator<AuditLog> buildAuditLogsFromModelDao(final Iterator<AuditLogModelDao> auditLogsForAccountRecordId, final Collection<Long> accountRecordIds, final InternalTenantContext tenantContext) {
         final Map<TableName, Map<Long, UUID>> recordIdIdsCache = new HashMap<TableName, Map<Long, UUID>>();
         final Map<TableName, Map<Long, UUID>> historyRecordIdIdsCache = new HashMap<TableName, Map<Long, UUID>>();
         return Iterators.<AuditLogModelDao, AuditLog>transform(auditLogsForAccountRecordId,
@@ -117,6 +161,7 @@ public class DefaultAuditDao implements AuditDao {
                                                                                if (TableName.ACCOUNT.equals(originalTableNameForHistoryTableName)) {
                                                                                    final Iterable<RecordIdIdMappings> mappings = nonEntitySqlDao.getHistoryRecordIdIdMappingsForAccountsTable(originalTableNameForHistoryTableName.getTableName(),
                                                                                                                                                                                               input.getTableName().getTableName(),
+                                                                                                                                                                                              accountRecordIds,
                                                                                                                                                                                               tenantContext);
                                                                                    historyRecordIdIdsCache.put(originalTableNameForHistoryTableName, RecordIdIdMappings.toMap(mappings));
                                                                                } else if (TableName.TAG_DEFINITIONS.equals(originalTableNameForHistoryTableName)) {
@@ -127,6 +172,7 @@ public class DefaultAuditDao implements AuditDao {
                                                                                } else {
                                                                                    final Iterable<RecordIdIdMappings> mappings = nonEntitySqlDao.getHistoryRecordIdIdMappings(originalTableNameForHistoryTableName.getTableName(),
                                                                                                                                                                               input.getTableName().getTableName(),
+                                                                                                                                                                              accountRecordIds,
                                                                                                                                                                               tenantContext);
                                                                                    historyRecordIdIdsCache.put(originalTableNameForHistoryTableName, RecordIdIdMappings.toMap(mappings));
 
@@ -139,6 +185,7 @@ public class DefaultAuditDao implements AuditDao {
 
                                                                            if (recordIdIdsCache.get(input.getTableName()) == null) {
                                                                                final Iterable<RecordIdIdMappings> mappings = nonEntitySqlDao.getRecordIdIdMappings(input.getTableName().getTableName(),
+                                                                                                                                                                   accountRecordIds,
                                                                                                                                                                    tenantContext);
                                                                                recordIdIdsCache.put(input.getTableName(), RecordIdIdMappings.toMap(mappings));
                                                                            }
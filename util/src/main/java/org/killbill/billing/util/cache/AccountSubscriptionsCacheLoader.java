@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.util.cache;
+
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.catalog.api.CatalogApiException;
+import org.killbill.billing.util.cache.Cachable.CacheType;
+
+public class AccountSubscriptionsCacheLoader extends BaseCacheLoader<Long, Object> {
+
+    @Override
+    public CacheType getCacheType() {
+        return CacheType.ACCOUNT_SUBSCRIPTIONS;
+    }
+
+    @Override
+    public Object compute(final Long key, final CacheLoaderArgument cacheLoaderArgument) {
+        if (cacheLoaderArgument.getArgs() == null ||
+            cacheLoaderArgument.getArgs().length != 1 ||
+            !(cacheLoaderArgument.getArgs()[0] instanceof LoaderCallback)) {
+            throw new IllegalArgumentException("Missing LoaderCallback from the arguments ");
+        }
+
+        final LoaderCallback callback = (LoaderCallback) cacheLoaderArgument.getArgs()[0];
+        final InternalTenantContext internalTenantContext = cacheLoaderArgument.getInternalTenantContext();
+        try {
+            return callback.loadAccountSubscriptions(internalTenantContext);
+        } catch (final CatalogApiException e) {
+            throw new IllegalStateException(String.format("Failed to load subscriptions for accountRecordId='%s'", key), e);
+        }
+    }
+
+    public interface LoaderCallback {
+
+        Object loadAccountSubscriptions(final InternalTenantContext context) throws CatalogApiException;
+    }
+}
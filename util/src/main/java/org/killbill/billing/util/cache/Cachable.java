@@ -50,6 +50,10 @@ public @interface Cachable {
     String OVERRIDDEN_PLAN_CACHE_NAME = "overridden-plan";
     String ACCOUNT_IMMUTABLE_CACHE_NAME = "account-immutable";
     String ACCOUNT_BCD_CACHE_NAME = "account-bcd";
+    String ACCOUNT_SUBSCRIPTIONS_CACHE_NAME = "account-subscriptions";
+    String ACCOUNT_BLOCKING_STATES_CACHE_NAME = "account-blocking-states";
+    String INVOICE_TEMPLATE_CACHE_NAME = "invoice-template";
+    String CURRENCY_CONVERSION_CACHE_NAME = "currency-conversion";
 
     CacheType value();
 
@@ -99,7 +103,19 @@ public @interface Cachable {
         ACCOUNT_IMMUTABLE(ACCOUNT_IMMUTABLE_CACHE_NAME, Long.class, ImmutableAccountData.class, false),
 
         /* Account BCD config cache */
-        ACCOUNT_BCD(ACCOUNT_BCD_CACHE_NAME, UUID.class, Integer.class, false);
+        ACCOUNT_BCD(ACCOUNT_BCD_CACHE_NAME, UUID.class, Integer.class, false),
+
+        /* Account subscription graph cache (accountRecordId -> AccountSubscriptions) */
+        ACCOUNT_SUBSCRIPTIONS(ACCOUNT_SUBSCRIPTIONS_CACHE_NAME, Long.class, Object.class, false),
+
+        /* Account blocking states snapshot cache (accountRecordId -> AccountBlockingStates) */
+        ACCOUNT_BLOCKING_STATES(ACCOUNT_BLOCKING_STATES_CACHE_NAME, Long.class, Object.class, false),
+
+        /* Compiled invoice templates and translation bundles cache ('tenantKey::tenantRecordId' -> InvoiceTemplateCache entry) */
+        INVOICE_TEMPLATE(INVOICE_TEMPLATE_CACHE_NAME, String.class, Object.class, false),
+
+        /* Currency conversion rates cache ('baseCurrency' or 'baseCurrency::conversionDate' -> DefaultCurrencyConversion) */
+        CURRENCY_CONVERSION(CURRENCY_CONVERSION_CACHE_NAME, String.class, Object.class, false);
 
         private final String cacheName;
         private final Class keyType;
@@ -17,6 +17,8 @@
 package org.killbill.billing.util.cache;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.killbill.billing.util.cache.Cachable.CacheType;
 
@@ -30,12 +32,18 @@ public interface CacheController<K, V> {
 
     V get(K key, CacheLoaderArgument objectType);
 
+    // Multi-get, which doesn't load missing entries: keys not in the cache are absent from the returned map
+    Map<K, V> getAll(Set<K> keys);
+
     boolean remove(K key);
 
     void remove(Function<K, Boolean> keyMatcher);
 
     void putIfAbsent(final K key, V value);
 
+    // Only replaces an existing entry: return false if the key isn't in the cache
+    boolean replace(final K key, V value);
+
     int size();
 
     void removeAll();
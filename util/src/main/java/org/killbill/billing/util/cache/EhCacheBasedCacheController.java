@@ -18,8 +18,10 @@
 
 package org.killbill.billing.util.cache;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.cache.Cache;
@@ -82,11 +84,31 @@ public class EhCacheBasedCacheController<K, V> implements CacheController<K, V>
         }
     }
 
+    @Override
+    public Map<K, V> getAll(final Set<K> keys) {
+        final Map<K, V> result = new HashMap<K, V>();
+        if (keys.isEmpty()) {
+            return result;
+        }
+
+        for (final Map.Entry<K, V> entry : cache.getAll(keys).entrySet()) {
+            if (entry.getValue() != null && !entry.getValue().equals(BaseCacheLoader.EMPTY_VALUE_PLACEHOLDER)) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
     @Override
     public void putIfAbsent(final K key, final V value) {
         cache.putIfAbsent(key, value);
     }
 
+    @Override
+    public boolean replace(final K key, final V value) {
+        return cache.replace(key, value);
+    }
+
     @Override
     public boolean remove(final K key) {
         if (isKeyInCache(key)) {
@@ -18,6 +18,10 @@
 
 package org.killbill.billing.util.callcontext;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.annotation.Nullable;
@@ -42,6 +46,7 @@ import org.slf4j.MDC;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 
 // Internal contexts almost always expect accountRecordId and tenantRecordId to be populated
 public class InternalCallContextFactory {
@@ -200,6 +205,47 @@ public class InternalCallContextFactory {
                                          context);
     }
 
+    /**
+     * Create internal call callcontexts for several objects at once
+     * <p/>
+     * The tenant is resolved once, and a single internal call callcontext is created per account (objects belonging to the same account share it)
+     *
+     * @param objectIds  the ids of the rows in the table pointed by object type where to look for account_record_id
+     * @param objectType the object type pointed by these objectIds
+     * @param context    original call callcontext
+     * @return internal call callcontexts, by object id
+     */
+    public Map<UUID, InternalCallContext> createInternalCallContexts(final Iterable<UUID> objectIds, final ObjectType objectType, final CallContext context) {
+        final Long tenantRecordId = getTenantRecordIdSafe(context);
+
+        // PERF: resolve the tenant and account record ids of all objects in bulk
+        final Set<UUID> uniqueObjectIds = ImmutableSet.<UUID>copyOf(objectIds);
+        final Map<UUID, Long> tenantRecordIdsByObjectId = nonEntityDao.retrieveTenantRecordIdsFromObjects(uniqueObjectIds, objectType, tenantRecordIdCacheController);
+        for (final UUID objectId : uniqueObjectIds) {
+            final Long objectTenantRecordId = tenantRecordIdsByObjectId.get(objectId);
+            if (objectTenantRecordId == null) {
+                throw new ObjectDoesNotExist(String.format("Object id=%s type=%s doesn't exist!", objectId, objectType));
+            } else if (!objectTenantRecordId.equals(tenantRecordId)) {
+                throw new IllegalStateException(String.format("Object id=%s type=%s doesn't belong to tenant recordId=%s", objectId, objectType, tenantRecordId));
+            }
+        }
+        final Map<UUID, Long> accountRecordIdsByObjectId = nonEntityDao.retrieveAccountRecordIdsFromObjects(uniqueObjectIds, objectType, accountRecordIdCacheController);
+
+        final Map<Long, InternalCallContext> contextsByAccountRecordId = new HashMap<Long, InternalCallContext>();
+        final Map<UUID, InternalCallContext> contextsByObjectId = new LinkedHashMap<UUID, InternalCallContext>();
+        for (final UUID objectId : uniqueObjectIds) {
+            final Long accountRecordId = accountRecordIdsByObjectId.get(objectId);
+            InternalCallContext internalCallContext = contextsByAccountRecordId.get(accountRecordId);
+            if (internalCallContext == null) {
+                internalCallContext = createInternalCallContext(tenantRecordId, accountRecordId, context.getUserName(), context.getCallOrigin(),
+                                                                context.getUserType(), context.getUserToken(), context.getReasonCode(), context.getComments());
+                contextsByAccountRecordId.put(accountRecordId, internalCallContext);
+            }
+            contextsByObjectId.put(objectId, internalCallContext);
+        }
+        return contextsByObjectId;
+    }
+
     // Used by the payment retry service
     public InternalCallContext createInternalCallContext(final UUID objectId, final ObjectType objectType, final String userName,
                                                          final CallOrigin callOrigin, final UserType userType, @Nullable final UUID userToken, final Long tenantRecordId) {
@@ -19,7 +19,9 @@ package org.killbill.billing.util.config.definition;
 
 import org.skife.config.Config;
 import org.skife.config.Default;
+import org.skife.config.DefaultNull;
 import org.skife.config.Description;
+import org.skife.config.TimeSpan;
 
 public interface CatalogConfig extends KillbillConfig {
 
@@ -27,4 +29,19 @@ public interface CatalogConfig extends KillbillConfig {
     @Default("SpyCarBasic.xml")
     @Description("Default Catalog location, either in the classpath or in the filesystem. For multi-tenancy, one should use APIs to load per-tenant catalog")
     String getCatalogURI();
+
+    @Config("org.killbill.catalog.cache.snapshot.enabled")
+    @Default("false")
+    @Description("Whether per-tenant catalogs should be stored as a binary snapshot next to their xml versions and loaded from it when still valid")
+    boolean isCatalogSnapshotEnabled();
+
+    @Config("org.killbill.catalog.cache.snapshot.secret")
+    @DefaultNull
+    @Description("Secret used to sign the catalog snapshots, identical on all nodes (snapshots are disabled if not set)")
+    String getCatalogSnapshotSecret();
+
+    @Config("org.killbill.catalog.plugin.cache.ttl")
+    @Default("0s")
+    @Description("How long a catalog returned by a catalog plugin is reused before asking the plugin again (0 disables the caching)")
+    TimeSpan getPluginCatalogCacheTtl();
 }
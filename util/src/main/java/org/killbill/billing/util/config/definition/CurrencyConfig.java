@@ -20,6 +20,7 @@ package org.killbill.billing.util.config.definition;
 import org.skife.config.Config;
 import org.skife.config.Default;
 import org.skife.config.Description;
+import org.skife.config.TimeSpan;
 
 public interface CurrencyConfig extends KillbillConfig {
 
@@ -27,4 +28,14 @@ public interface CurrencyConfig extends KillbillConfig {
     @Default("killbill-currency-plugin")
     @Description("Default currency provider to use")
     public String getDefaultCurrencyProvider();
+
+    @Config("org.killbill.currency.prefetch.rate")
+    @Default("0s")
+    @Description("Rate at which the current conversion rates are pre-fetched from the provider (should be less than the currency-conversion cache TTL, 0s to disable)")
+    public TimeSpan getCurrentRatesPrefetchRate();
+
+    @Config("org.killbill.currency.historical.rates.perDay")
+    @Default("false")
+    @Description("Whether historical rates are cached per (UTC) day instead of per conversion date: the first conversion date of a day then decides the rates for the whole day (only enable for providers publishing daily rates)")
+    public boolean isHistoricalRatesCachedPerDay();
 }
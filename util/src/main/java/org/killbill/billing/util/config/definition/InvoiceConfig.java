@@ -81,6 +81,26 @@ public interface InvoiceConfig extends KillbillConfig {
     @Description("Maximum number of times the system will retry to grab global lock (with a 100ms wait each time)")
     int getMaxGlobalLockRetries();
 
+    @Config("org.killbill.invoice.incrementalItemTreeEnabled")
+    @Default("false")
+    @Description("Whether to skip, for each subscription, the items already reconciled by a previous invoice run when building the item tree")
+    boolean isIncrementalItemTreeEnabled();
+
+    @Config("org.killbill.invoice.parallelItemGenerationEnabled")
+    @Default("false")
+    @Description("Whether to compute the invoice items of the different subscriptions in parallel")
+    boolean isParallelItemGenerationEnabled();
+
+    @Config("org.killbill.invoice.parallelItemGenerationEnabled")
+    @Default("false")
+    @Description("Whether to compute the invoice items of the different subscriptions in parallel")
+    boolean isParallelItemGenerationEnabled(@Param("dummy") final InternalTenantContext tenantContext);
+
+    @Config("org.killbill.invoice.parallelItemGenerationThreads")
+    @Default("8")
+    @Description("Number of threads shared by all invoice runs to compute the invoice items in parallel")
+    int getParallelItemGenerationThreads();
+
     @Config("org.killbill.invoice.emailNotificationsEnabled")
     @Default("false")
     @Description("Whether to send email notifications on invoice creation (for configured accounts)")
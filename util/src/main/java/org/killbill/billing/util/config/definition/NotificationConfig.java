@@ -38,4 +38,29 @@ public interface NotificationConfig extends KillbillConfig {
     @Description("Delay before which unresolved push notifications should be retried")
     List<TimeSpan> getPushNotificationsRetries(@Param("dummy") final InternalTenantContext tenantContext);
 
+    @Config("org.killbill.billing.server.notifications.queueCapacity")
+    @Default("1000")
+    @Description("Maximum number of push notifications queued in memory per callback, beyond which they are handed over to the retry queue")
+    int getPushNotificationsQueueCapacity();
+
+    @Config("org.killbill.billing.server.notifications.concurrency")
+    @Default("4")
+    @Description("Maximum number of concurrent requests per callback (notifications for a given account are sent in order, but a failed notification is retried after the ones that followed it)")
+    int getPushNotificationsConcurrency();
+
+    @Config("org.killbill.billing.server.notifications.responseThreads")
+    @Default("4")
+    @Description("Number of threads processing the push notification responses (shared by all callbacks)")
+    int getPushNotificationsResponseThreads();
+
+    @Config("org.killbill.billing.server.notifications.batchSize")
+    @Default("1")
+    @Description("Maximum number of push notifications sent in a single request (when greater than 1, the payload is a JSON array)")
+    int getPushNotificationsBatchSize();
+
+    @Config("org.killbill.billing.server.notifications.batchSize")
+    @Default("1")
+    @Description("Maximum number of push notifications sent in a single request (when greater than 1, the payload is a JSON array)")
+    int getPushNotificationsBatchSize(@Param("dummy") final InternalTenantContext tenantContext);
+
 }
\ No newline at end of file
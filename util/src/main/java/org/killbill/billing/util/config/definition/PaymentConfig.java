@@ -104,6 +104,16 @@ public interface PaymentConfig extends KillbillConfig {
     @Description("Rate at which janitor tasks are scheduled")
     TimeSpan getJanitorRunningRate();
 
+    @Config("org.killbill.payment.janitor.threads.nb")
+    @Default("1")
+    @Description("Number of threads used by the janitor to complete incomplete payment attempts and transactions (the work is sharded by account)")
+    int getJanitorThreadNb();
+
+    @Config("org.killbill.payment.janitor.plugin.rate")
+    @Default("0")
+    @Description("Maximum number of payment status queries per second sent by the janitor to each payment plugin (0 for no limit)")
+    int getJanitorPluginRate();
+
     @Config("org.killbill.payment.janitor.attempts.delay")
     @Default("12h")
     @Description("Delay before which unresolved attempt should be retried")
@@ -125,6 +135,51 @@ public interface PaymentConfig extends KillbillConfig {
     @Description("Number of threads for plugin executor dispatcher")
     int getPaymentPluginThreadNb();
 
+    @Config("org.killbill.payment.plugin.threads.onDemand")
+    @Default("false")
+    @Description("Whether plugin calls should run on threads created on demand instead of the fixed plugin executor dispatcher (use org.killbill.payment.plugin.concurrency.limit to bound the calls per plugin)")
+    boolean isPaymentPluginThreadsOnDemand();
+
+    @Config("org.killbill.payment.plugin.threads.onDemand.max")
+    @Default("1000")
+    @Description("Maximum number of threads created on demand for plugin calls, calls beyond it are rejected")
+    int getPaymentPluginThreadsOnDemandMax();
+
+    @Config("org.killbill.payment.plugin.concurrency.limit")
+    @Default("0")
+    @Description("Maximum number of concurrent calls per payment plugin, calls beyond it wait up to the plugin timeout (0 for no limit)")
+    int getPaymentPluginConcurrencyLimit();
+
+    @Config("org.killbill.payment.plugin.bulkhead.threads.nb")
+    @Default("0")
+    @Description("Number of threads dedicated to each payment plugin (0 to have all plugins share the plugin executor dispatcher)")
+    int getPaymentPluginBulkheadThreadNb();
+
+    @Config("org.killbill.payment.plugin.bulkhead.queue.size")
+    @Default("1000")
+    @Description("Maximum number of calls waiting for the threads dedicated to a payment plugin, additional calls are rejected")
+    int getPaymentPluginBulkheadQueueSize();
+
+    @Config("org.killbill.payment.plugin.circuitBreaker.failureRate")
+    @Default("0")
+    @Description("Percentage of failed calls (errors, timeouts, slow calls) in the window above which calls to a payment plugin are rejected (0 to disable the circuit breaker)")
+    int getPaymentPluginCircuitBreakerFailureRate();
+
+    @Config("org.killbill.payment.plugin.circuitBreaker.window")
+    @Default("50")
+    @Description("Number of most recent calls to a payment plugin used to compute its failure rate")
+    int getPaymentPluginCircuitBreakerWindow();
+
+    @Config("org.killbill.payment.plugin.circuitBreaker.slowCall")
+    @Default("0s")
+    @Description("Duration above which a payment plugin call counts as failed for the circuit breaker (0 to only consider errors and timeouts)")
+    TimeSpan getPaymentPluginCircuitBreakerSlowCall();
+
+    @Config("org.killbill.payment.plugin.circuitBreaker.openDuration")
+    @Default("30s")
+    @Description("How long calls to a payment plugin are rejected once its circuit breaker opened, before letting a trial call through")
+    TimeSpan getPaymentPluginCircuitBreakerOpenDuration();
+
     @Config("org.killbill.payment.globalLock.retries")
     @Default("50")
     @Description("Maximum number of times the system will retry to grab global lock (with a 100ms wait each time)")
@@ -17,5 +17,14 @@
 
 package org.killbill.billing.util.config.definition;
 
+import org.skife.config.Config;
+import org.skife.config.Default;
+import org.skife.config.Description;
+
 public interface SubscriptionConfig extends KillbillConfig {
+
+    @Config("org.killbill.subscription.cache.maxEventsPerAccount")
+    @Default("100000")
+    @Description("Maximum number of subscription events of an account for its subscriptions to be kept in the account-subscriptions cache (only meant to keep pathological accounts out of the cache: the freshness check is a single aggregate query, whatever the size of the account)")
+    int getAccountSubscriptionsCacheMaxEvents();
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.util.config.definition;
+
+import org.skife.config.Config;
+import org.skife.config.Default;
+import org.skife.config.Description;
+import org.skife.config.TimeSpan;
+
+public interface UsageConfig extends KillbillConfig {
+
+    @Config("org.killbill.usage.writer.flushSize")
+    @Default("1000")
+    @Description("Number of usage records after which the pending usage is written to the database")
+    public int getUsageWriterFlushSize();
+
+    @Config("org.killbill.usage.writer.maxLatency")
+    @Default("100ms")
+    @Description("Maximum time usage records can wait before being written to the database")
+    public TimeSpan getUsageWriterMaxLatency();
+
+    @Config("org.killbill.usage.writer.queueCapacity")
+    @Default("10000")
+    @Description("Maximum number of pending usage submissions: callers are blocked when the queue is full")
+    public int getUsageWriterQueueCapacity();
+}
@@ -42,10 +42,14 @@ public class AuditLogModelDaoMapper extends MapperBase implements ResultSetMappe
         final String reasonCode = r.getString("reason_code");
         final String comments = r.getString("comments");
         final UUID userToken = getUUID(r, "user_token");
+        final long accountRecordIdOrZero = r.getLong("account_record_id");
+        final Long accountRecordId = r.wasNull() ? null : accountRecordIdOrZero;
 
         final EntityAudit entityAudit = new EntityAudit(id, TableName.valueOf(tableName), targetRecordId, ChangeType.valueOf(changeType), createdDate);
         // TODO - we have the tenant_record_id but not the tenant id here
         final CallContext callContext = new DefaultCallContext(null, createdBy, createdDate, reasonCode, comments, userToken);
-        return new AuditLogModelDao(entityAudit, callContext);
+        final AuditLogModelDao auditLogModelDao = new AuditLogModelDao(entityAudit, callContext);
+        auditLogModelDao.setAccountRecordId(accountRecordId);
+        return auditLogModelDao;
     }
 }
@@ -18,6 +18,12 @@
 
 package org.killbill.billing.util.dao;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.annotation.Nullable;
@@ -35,10 +41,16 @@ import org.skife.jdbi.v2.Handle;
 import org.skife.jdbi.v2.IDBI;
 import org.skife.jdbi.v2.sqlobject.SqlObjectBuilder;
 
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 
 public class DefaultNonEntityDao implements NonEntityDao {
 
+    private static final int MAX_IN_CLAUSE_SIZE = 1000;
+
     private final NonEntitySqlDao nonEntitySqlDao;
     private final WithCaching<String, Long> withCachingObjectId;
     private final WithCaching<String, UUID> withCachingRecordId;
@@ -156,6 +168,83 @@ public class DefaultNonEntityDao implements NonEntityDao {
         }, String.valueOf(recordId), objectType, tableName, cache);
     }
 
+    @Override
+    public Map<UUID, Long> retrieveRecordIdsFromObjects(final Collection<UUID> objectIds, final ObjectType objectType, @Nullable final CacheController<String, Long> cache) {
+        final TableName tableName = TableName.fromObjectType(objectType);
+        Preconditions.checkNotNull(tableName, "%s is not a valid ObjectType", objectType);
+
+        return withBulkCaching(new BulkOperationRetrieval<UUID, Long>() {
+            @Override
+            public Map<UUID, Long> doRetrieve(final List<UUID> objectIds) {
+                return toIdRecordIdMap(nonEntitySqlDao.getRecordIdIdMappingsFromObjects(toStrings(objectIds), tableName.getTableName()));
+            }
+        }, objectIds, objectType, tableName, cache);
+    }
+
+    @Override
+    public Map<UUID, Long> retrieveAccountRecordIdsFromObjects(final Collection<UUID> objectIds, final ObjectType objectType, @Nullable final CacheController<String, Long> cache) {
+        final TableName tableName = TableName.fromObjectType(objectType);
+        Preconditions.checkNotNull(tableName, "%s is not a valid ObjectType", objectType);
+
+        switch (tableName) {
+            case TENANT:
+            case TAG_DEFINITIONS:
+            case TAG_DEFINITION_HISTORY:
+                return ImmutableMap.<UUID, Long>of();
+            default:
+                break;
+        }
+
+        return withBulkCaching(new BulkOperationRetrieval<UUID, Long>() {
+            @Override
+            public Map<UUID, Long> doRetrieve(final List<UUID> objectIds) {
+                if (tableName == TableName.ACCOUNT) {
+                    return toIdRecordIdMap(nonEntitySqlDao.getRecordIdIdMappingsFromObjects(toStrings(objectIds), tableName.getTableName()));
+                } else {
+                    return toIdRecordIdMap(nonEntitySqlDao.getAccountRecordIdIdMappingsFromObjectsOtherThanAccount(toStrings(objectIds), tableName.getTableName()));
+                }
+            }
+        }, objectIds, objectType, tableName, cache);
+    }
+
+    @Override
+    public Map<UUID, Long> retrieveTenantRecordIdsFromObjects(final Collection<UUID> objectIds, final ObjectType objectType, @Nullable final CacheController<String, Long> cache) {
+        final TableName tableName = TableName.fromObjectType(objectType);
+        Preconditions.checkNotNull(tableName, "%s is not a valid ObjectType", objectType);
+
+        return withBulkCaching(new BulkOperationRetrieval<UUID, Long>() {
+            @Override
+            public Map<UUID, Long> doRetrieve(final List<UUID> objectIds) {
+                if (tableName == TableName.TENANT) {
+                    return toIdRecordIdMap(nonEntitySqlDao.getRecordIdIdMappingsFromObjects(toStrings(objectIds), tableName.getTableName()));
+                } else {
+                    return toIdRecordIdMap(nonEntitySqlDao.getTenantRecordIdIdMappingsFromObjectsOtherThanTenant(toStrings(objectIds), tableName.getTableName()));
+                }
+            }
+        }, objectIds, objectType, tableName, cache);
+    }
+
+    @Override
+    public Map<Long, UUID> retrieveIdsFromObjects(final Collection<Long> recordIds, final ObjectType objectType, @Nullable final CacheController<String, UUID> cache) {
+        final TableName tableName = TableName.fromObjectType(objectType);
+        Preconditions.checkNotNull(tableName, "%s is not a valid ObjectType", objectType);
+
+        final Collection<Long> filteredRecordIds;
+        if (objectType == ObjectType.TENANT && recordIds.contains(InternalCallContextFactory.INTERNAL_TENANT_RECORD_ID)) {
+            filteredRecordIds = new LinkedHashSet<Long>(recordIds);
+            filteredRecordIds.remove(InternalCallContextFactory.INTERNAL_TENANT_RECORD_ID);
+        } else {
+            filteredRecordIds = recordIds;
+        }
+
+        return withBulkCaching(new BulkOperationRetrieval<Long, UUID>() {
+            @Override
+            public Map<Long, UUID> doRetrieve(final List<Long> recordIds) {
+                return RecordIdIdMappings.toMap(nonEntitySqlDao.getRecordIdIdMappingsFromRecordIds(recordIds, tableName.getTableName()));
+            }
+        }, filteredRecordIds, objectType, tableName, cache);
+    }
+
     @Override
     public Long retrieveLastHistoryRecordIdFromTransaction(@Nullable final Long targetRecordId, final TableName tableName, final NonEntitySqlDao transactional) {
         // There is no caching here because the value returned changes as we add more history records, and so we would need some cache invalidation
@@ -172,6 +261,79 @@ public class DefaultNonEntityDao implements NonEntityDao {
         public TypeOut doRetrieve(final ObjectType objectType);
     }
 
+    private interface BulkOperationRetrieval<TypeIn, TypeOut> {
+
+        public Map<TypeIn, TypeOut> doRetrieve(final List<TypeIn> objectOrRecordIds);
+    }
+
+    private <TypeIn, TypeOut> Map<TypeIn, TypeOut> withBulkCaching(final BulkOperationRetrieval<TypeIn, TypeOut> op, final Collection<TypeIn> objectOrRecordIds, final ObjectType objectType,
+                                                                  final TableName tableName, @Nullable final CacheController<String, TypeOut> cache) {
+        final Map<TypeIn, TypeOut> result = new HashMap<TypeIn, TypeOut>();
+
+        final Set<TypeIn> misses = new LinkedHashSet<TypeIn>();
+        for (final TypeIn objectOrRecordId : objectOrRecordIds) {
+            if (objectOrRecordId != null) {
+                misses.add(objectOrRecordId);
+            }
+        }
+        if (misses.isEmpty()) {
+            return result;
+        }
+
+        if (cache != null) {
+            final Map<String, TypeIn> objectOrRecordIdsByKey = new HashMap<String, TypeIn>();
+            for (final TypeIn objectOrRecordId : misses) {
+                objectOrRecordIdsByKey.put(getCacheKey(objectOrRecordId, tableName, cache), objectOrRecordId);
+            }
+            for (final Map.Entry<String, TypeOut> entry : cache.getAll(objectOrRecordIdsByKey.keySet()).entrySet()) {
+                final TypeIn objectOrRecordId = objectOrRecordIdsByKey.get(entry.getKey());
+                result.put(objectOrRecordId, entry.getValue());
+                misses.remove(objectOrRecordId);
+            }
+        }
+
+        final Profiling<Map<TypeIn, TypeOut>, RuntimeException> prof = new Profiling<Map<TypeIn, TypeOut>, RuntimeException>();
+        for (final List<TypeIn> missesChunk : Iterables.partition(misses, MAX_IN_CLAUSE_SIZE)) {
+            final Map<TypeIn, TypeOut> retrieved = prof.executeWithProfiling(ProfilingFeatureType.DAO_DETAILS, "NonEntityDao (type = " + objectType + ") bulk cache miss", new WithProfilingCallback<Map<TypeIn, TypeOut>, RuntimeException>() {
+                @Override
+                public Map<TypeIn, TypeOut> execute() throws RuntimeException {
+                    return op.doRetrieve(missesChunk);
+                }
+            });
+            for (final Map.Entry<TypeIn, TypeOut> entry : retrieved.entrySet()) {
+                result.put(entry.getKey(), entry.getValue());
+                if (cache != null) {
+                    cache.putIfAbsent(getCacheKey(entry.getKey(), tableName, cache), entry.getValue());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static String getCacheKey(final Object objectOrRecordId, final TableName tableName, final CacheController<String, ?> cache) {
+        return cache.getCacheType().isKeyPrefixedWithTableName() ?
+               tableName + CacheControllerDispatcher.CACHE_KEY_SEPARATOR + objectOrRecordId.toString() :
+               objectOrRecordId.toString();
+    }
+
+    private static Map<UUID, Long> toIdRecordIdMap(final Iterable<RecordIdIdMappings> mappings) {
+        final Map<UUID, Long> result = new HashMap<UUID, Long>();
+        for (final RecordIdIdMappings mapping : mappings) {
+            result.put(mapping.getId(), mapping.getRecordId());
+        }
+        return result;
+    }
+
+    private static List<String> toStrings(final List<UUID> objectIds) {
+        return ImmutableList.<String>copyOf(Iterables.<UUID, String>transform(objectIds, new Function<UUID, String>() {
+            @Override
+            public String apply(final UUID input) {
+                return input.toString();
+            }
+        }));
+    }
+
     // 'cache' will be null for the CacheLoader classes -- or if cache is not configured.
     private class WithCaching<TypeIn, TypeOut> {
 
@@ -18,6 +18,8 @@
 
 package org.killbill.billing.util.dao;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 
 import org.killbill.billing.callcontext.InternalTenantContext;
@@ -28,6 +30,7 @@ import org.skife.jdbi.v2.sqlobject.SqlQuery;
 import org.skife.jdbi.v2.sqlobject.customizers.Define;
 import org.skife.jdbi.v2.sqlobject.mixins.CloseMe;
 import org.skife.jdbi.v2.sqlobject.mixins.Transactional;
+import org.skife.jdbi.v2.unstable.BindIn;
 
 @KillBillSqlDaoStringTemplate
 public interface NonEntitySqlDao extends Transactional<NonEntitySqlDao>, CloseMe {
@@ -38,6 +41,12 @@ public interface NonEntitySqlDao extends Transactional<NonEntitySqlDao>, CloseMe
     @SqlQuery
     public UUID getIdFromObject(@Bind("recordId") Long recordId, @Define("tableName") final String tableName);
 
+    @SqlQuery
+    public List<RecordIdIdMappings> getRecordIdIdMappingsFromObjects(@BindIn("ids") final Collection<String> ids, @Define("tableName") final String tableName);
+
+    @SqlQuery
+    public List<RecordIdIdMappings> getRecordIdIdMappingsFromRecordIds(@BindIn("recordIds") final Collection<Long> recordIds, @Define("tableName") final String tableName);
+
     @SqlQuery
     public Long getAccountRecordIdFromAccount(@Bind("id") String id);
 
@@ -47,12 +56,20 @@ public interface NonEntitySqlDao extends Transactional<NonEntitySqlDao>, CloseMe
     @SqlQuery
     public Long getAccountRecordIdFromObjectOtherThanAccount(@Bind("id") String id, @Define("tableName") final String tableName);
 
+    // The mappings returned contain the account_record_id (and not the record_id) of the objects
+    @SqlQuery
+    public List<RecordIdIdMappings> getAccountRecordIdIdMappingsFromObjectsOtherThanAccount(@BindIn("ids") final Collection<String> ids, @Define("tableName") final String tableName);
+
     @SqlQuery
     public Long getTenantRecordIdFromTenant(@Bind("id") String id);
 
     @SqlQuery
     public Long getTenantRecordIdFromObjectOtherThanTenant(@Bind("id") String id, @Define("tableName") final String tableName);
 
+    // The mappings returned contain the tenant_record_id (and not the record_id) of the objects
+    @SqlQuery
+    public List<RecordIdIdMappings> getTenantRecordIdIdMappingsFromObjectsOtherThanTenant(@BindIn("ids") final Collection<String> ids, @Define("tableName") final String tableName);
+
     @SqlQuery
     public Long getLastHistoryRecordId(@Bind("targetRecordId") Long targetRecordId, @Define("tableName") final String tableName);
 
@@ -62,11 +79,13 @@ public interface NonEntitySqlDao extends Transactional<NonEntitySqlDao>, CloseMe
     @SqlQuery
     public Iterable<RecordIdIdMappings> getHistoryRecordIdIdMappings(@Define("tableName") String tableName,
                                                                      @Define("historyTableName") String historyTableName,
+                                                                     @BindIn("accountRecordIds") final Collection<Long> accountRecordIds,
                                                                      @SmartBindBean final InternalTenantContext context);
 
     @SqlQuery
     public Iterable<RecordIdIdMappings> getHistoryRecordIdIdMappingsForAccountsTable(@Define("tableName") String tableName,
                                                                                      @Define("historyTableName") String historyTableName,
+                                                                                     @BindIn("accountRecordIds") final Collection<Long> accountRecordIds,
                                                                                      @SmartBindBean final InternalTenantContext context);
 
     @SqlQuery
@@ -76,5 +95,6 @@ public interface NonEntitySqlDao extends Transactional<NonEntitySqlDao>, CloseMe
 
     @SqlQuery
     public Iterable<RecordIdIdMappings> getRecordIdIdMappings(@Define("tableName") String tableName,
+                                                              @BindIn("accountRecordIds") final Collection<Long> accountRecordIds,
                                                               @SmartBindBean final InternalTenantContext context);
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.util.dao;
+
+import java.sql.SQLException;
+
+public class SqlExceptionHelper {
+
+    // Standard SQLState for unique constraint violations (PostgreSQL, H2)
+    private static final String UNIQUE_VIOLATION_SQL_STATE = "23505";
+    // MySQL and MariaDB report the generic integrity constraint violation class instead
+    private static final String INTEGRITY_CONSTRAINT_VIOLATION_SQL_STATE = "23000";
+    private static final int MYSQL_DUPLICATE_ENTRY_ERROR_CODE = 1062;
+
+    private SqlExceptionHelper() {}
+
+    /**
+     * @param t exception thrown by JDBI or the JDBC driver
+     * @return true if the root cause is a duplicate key on a unique index
+     */
+    public static boolean isDuplicateKey(final Throwable t) {
+        Throwable cur = t;
+        while (cur != null) {
+            if (cur instanceof SQLException) {
+                final SQLException sqlException = (SQLException) cur;
+                if (UNIQUE_VIOLATION_SQL_STATE.equals(sqlException.getSQLState()) ||
+                    (INTEGRITY_CONSTRAINT_VIOLATION_SQL_STATE.equals(sqlException.getSQLState()) && sqlException.getErrorCode() == MYSQL_DUPLICATE_ENTRY_ERROR_CODE)) {
+                    return true;
+                }
+                // Batch failures (e.g. BatchUpdateException) may only carry the actual error as the next exception
+                final SQLException nextException = sqlException.getNextException();
+                if (nextException != null && nextException != sqlException && isDuplicateKey(nextException)) {
+                    return true;
+                }
+            }
+            cur = cur.getCause() == cur ? null : cur.getCause();
+        }
+        return false;
+    }
+}
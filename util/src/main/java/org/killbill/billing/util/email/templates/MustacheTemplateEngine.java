@@ -16,6 +16,7 @@
 
 package org.killbill.billing.util.email.templates;
 
+import java.io.Writer;
 import java.util.Map;
 
 import com.samskivert.mustache.Mustache;
@@ -25,7 +26,22 @@ public class MustacheTemplateEngine implements TemplateEngine {
 
     @Override
     public String executeTemplateText(final String templateText, final Map<String, Object> data) {
+        return compileTemplateText(templateText).execute(data);
+    }
+
+    @Override
+    public CompiledTemplate compileTemplateText(final String templateText) {
         final Template template = Mustache.compiler().nullValue("").compile(templateText);
-        return template.execute(data);
+        return new CompiledTemplate() {
+            @Override
+            public String execute(final Map<String, Object> data) {
+                return template.execute(data);
+            }
+
+            @Override
+            public void execute(final Map<String, Object> data, final Writer writer) {
+                template.execute(data, writer);
+            }
+        };
     }
 }
@@ -22,4 +22,7 @@ public interface TemplateEngine {
 
     public String executeTemplateText(final String templateText, final Map<String, Object> data);
 
+    // Compiled templates can be cached and executed multiple times
+    public CompiledTemplate compileTemplateText(final String templateText);
+
 }
@@ -22,6 +22,8 @@ import java.util.List;
 
 import javax.annotation.Nullable;
 
+import org.killbill.billing.util.entity.dao.DefaultPaginationSqlDaoHelper;
+
 import com.google.common.collect.ImmutableList;
 
 // Assumes the original offset starts at zero.
@@ -32,6 +34,8 @@ public class DefaultPagination<T> implements Pagination<T> {
     private final Long totalNbRecords;
     private final Long maxNbRecords;
     private final Iterator<T> delegateIterator;
+    // Only used for keyset pagination (see DefaultPaginationSqlDaoHelper)
+    private final Long nextSeekOffset;
 
     // Builders when the streaming API can't be used (should only be used for tests)
     // Notes: elements should be the entire records set (regardless of filtering) otherwise maxNbRecords won't be accurate
@@ -55,7 +59,12 @@ public class DefaultPagination<T> implements Pagination<T> {
 
     // Constructor for DAO -> API bridge
     public DefaultPagination(final Pagination original, final Long limit, final Iterator<T> delegate) {
-        this(original.getCurrentOffset(), limit, original.getTotalNbRecords(), original.getMaxNbRecords(), delegate);
+        this(original.getCurrentOffset(), limit, original.getTotalNbRecords(), original.getMaxNbRecords(), original.getNextOffset(), delegate);
+    }
+
+    // Constructor for keyset pagination calls
+    public DefaultPagination(final Long currentOffset, final Long limit, @Nullable final Long nextSeekOffset, final Iterator<T> results) {
+        this(currentOffset, limit, null, null, nextSeekOffset, results);
     }
 
     // Constructor for DAO getAll calls
@@ -66,12 +75,19 @@ public class DefaultPagination<T> implements Pagination<T> {
     public DefaultPagination(final Long currentOffset, final Long limit,
                              @Nullable final Long totalNbRecords, @Nullable final Long maxNbRecords,
                              final Iterator<T> delegateIterator) {
+        this(currentOffset, limit, totalNbRecords, maxNbRecords, null, delegateIterator);
+    }
+
+    private DefaultPagination(final Long currentOffset, final Long limit,
+                              @Nullable final Long totalNbRecords, @Nullable final Long maxNbRecords,
+                              @Nullable final Long nextSeekOffset, final Iterator<T> delegateIterator) {
         this.currentOffset = currentOffset;
         // See DefaultPaginationSqlDaoHelper
         this.limit = Math.abs(limit);
         this.totalNbRecords = totalNbRecords;
         this.maxNbRecords = maxNbRecords;
         this.delegateIterator = delegateIterator;
+        this.nextSeekOffset = nextSeekOffset;
     }
 
     @Override
@@ -86,6 +102,11 @@ public class DefaultPagination<T> implements Pagination<T> {
 
     @Override
     public Long getNextOffset() {
+        if (DefaultPaginationSqlDaoHelper.isSeekOffset(currentOffset)) {
+            // Opaque cursor, null once the last page has been returned
+            return nextSeekOffset;
+        }
+
         final long candidate = currentOffset + limit;
         if (totalNbRecords != null && candidate >= totalNbRecords) {
             // No more results
@@ -19,6 +19,7 @@
 package org.killbill.billing.util.entity.dao;
 
 import java.util.Iterator;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -27,6 +28,9 @@ import org.killbill.billing.util.entity.DefaultPagination;
 import org.killbill.billing.util.entity.Entity;
 import org.killbill.billing.util.entity.Pagination;
 
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
 public class DefaultPaginationSqlDaoHelper {
 
     // Number large enough so that small installations have access to an accurate count
@@ -34,6 +38,17 @@ public class DefaultPaginationSqlDaoHelper {
     // TODO Should this be configurable per tenant?
     private static final Long SIMPLE_PAGINATION_THRESHOLD = 20000L;
 
+    // Keyset (seek) pagination: negative offsets are opaque cursors on record_id, returned by Pagination#getNextOffset.
+    // Start from FIRST_SEEK_OFFSET to page through the whole table without the cost of OFFSET growing with each page.
+    public static final Long FIRST_SEEK_OFFSET = -1L;
+
+    // Cursors are the last record_id of the page followed by check bits, scrambled: they can't be forged from a record_id,
+    // and a mistyped or tampered cursor is rejected instead of silently returning another page (this isn't a security boundary)
+    private static final int SEEK_CHECK_BITS = 16;
+    private static final long SEEK_CHECK_MASK = (1L << SEEK_CHECK_BITS) - 1;
+    private static final long SEEK_SCRAMBLE_MASK = 0x2B7E151628AED2A6L;
+    private static final HashFunction SEEK_CHECK_HASH = Hashing.murmur3_32(0x6A09E667);
+
     private final EntitySqlDaoTransactionalJdbiWrapper transactionalSqlDao;
 
     public DefaultPaginationSqlDaoHelper(final EntitySqlDaoTransactionalJdbiWrapper transactionalSqlDao) {
@@ -45,6 +60,14 @@ public class DefaultPaginationSqlDaoHelper {
                                                                                                                      final Long offset,
                                                                                                                      final Long limitMaybeNegative,
                                                                                                                      @Nullable final InternalTenantContext context) {
+        if (isSeekOffset(offset)) {
+            // Validated before hitting the database, so that bad requests aren't reported as transaction failures
+            if (!(paginationIteratorBuilder instanceof SeekPaginationIteratorBuilder)) {
+                throw new IllegalArgumentException("Keyset pagination isn't supported for this query, use a positive offset instead");
+            }
+            return getSeekPagination(sqlDaoClazz, (SeekPaginationIteratorBuilder<M, E, S>) paginationIteratorBuilder, toLastRecordId(offset), offset, limitMaybeNegative, context);
+        }
+
         // Use a negative limit as a hint to go backwards. It's a bit awkward -- using a negative offset instead would be more intuitive,
         // but it is non-deterministic for the first page unfortunately (limit 0 offset 50: ASC or DESC?)
         final Ordering ordering = limitMaybeNegative >= 0 ? Ordering.ASC : Ordering.DESC;
@@ -82,6 +105,57 @@ public class DefaultPaginationSqlDaoHelper {
         return new DefaultPagination<M>(offset, limit, totalNbRecords, maxNbRecords, results);
     }
 
+    private <E extends Entity, M extends EntityModelDao<E>, S extends EntitySqlDao<M, E>> Pagination<M> getSeekPagination(final Class<? extends EntitySqlDao<M, E>> sqlDaoClazz,
+                                                                                                                        final SeekPaginationIteratorBuilder<M, E, S> paginationIteratorBuilder,
+                                                                                                                        final Long lastRecordId,
+                                                                                                                        final Long offset,
+                                                                                                                        final Long limitMaybeNegative,
+                                                                                                                        final InternalTenantContext context) {
+        // Pages are always returned in record_id order (the limit sign is ignored)
+        final Long limit = Math.abs(limitMaybeNegative);
+
+        // The page is bounded by the limit: no need to stream the results, and the cursor for the next page needs to be known upfront
+        final List<M> results = transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<List<M>>() {
+            @Override
+            public List<M> inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                final EntitySqlDao<M, E> sqlDao = entitySqlDaoWrapperFactory.become(sqlDaoClazz);
+                return paginationIteratorBuilder.buildAfterRecordId((S) sqlDao, lastRecordId, limit, context);
+            }
+        });
+
+        final Long nextOffset = results.isEmpty() || results.size() < limit ? null : toSeekOffset(results.get(results.size() - 1).getRecordId());
+
+        // Counts are not computed in that mode (see SIMPLE_PAGINATION_THRESHOLD above)
+        return new DefaultPagination<M>(offset, limit, nextOffset, results.iterator());
+    }
+
+    public static boolean isSeekOffset(@Nullable final Long offset) {
+        return offset != null && offset < 0;
+    }
+
+    private static Long toLastRecordId(final Long seekOffset) {
+        if (FIRST_SEEK_OFFSET.equals(seekOffset)) {
+            return 0L;
+        }
+
+        final long scrambledCursor = FIRST_SEEK_OFFSET - 1 - seekOffset;
+        final long cursor = scrambledCursor ^ SEEK_SCRAMBLE_MASK;
+        final long lastRecordId = cursor >>> SEEK_CHECK_BITS;
+        if (scrambledCursor < 0 || cursor < 0 || (cursor & SEEK_CHECK_MASK) != getSeekCheckBits(lastRecordId)) {
+            throw new IllegalArgumentException(String.format("Invalid pagination offset %s, use a positive offset or the next offset of a previous page", seekOffset));
+        }
+        return lastRecordId;
+    }
+
+    private static Long toSeekOffset(final Long lastRecordId) {
+        final long cursor = (lastRecordId << SEEK_CHECK_BITS) | getSeekCheckBits(lastRecordId);
+        return FIRST_SEEK_OFFSET - 1 - (cursor ^ SEEK_SCRAMBLE_MASK);
+    }
+
+    private static long getSeekCheckBits(final long lastRecordId) {
+        return SEEK_CHECK_HASH.hashLong(lastRecordId).asInt() & SEEK_CHECK_MASK;
+    }
+
     public abstract static class PaginationIteratorBuilder<M extends EntityModelDao<E>, E extends Entity, S extends EntitySqlDao<M, E>> {
 
         // Determine the totalNbRecords:
@@ -92,6 +166,13 @@ public class DefaultPaginationSqlDaoHelper {
         public abstract Iterator<M> build(final S sqlDao, final Long offset, final Long limit, final Ordering ordering, final InternalTenantContext context);
     }
 
+    // Queries supporting keyset pagination (searches don't)
+    public abstract static class SeekPaginationIteratorBuilder<M extends EntityModelDao<E>, E extends Entity, S extends EntitySqlDao<M, E>> extends PaginationIteratorBuilder<M, E, S> {
+
+        // Return the (at most) limit records following lastRecordId, in record_id order
+        public abstract List<M> buildAfterRecordId(final S sqlDao, final Long lastRecordId, final Long limit, final InternalTenantContext context);
+    }
+
     public enum Ordering {
         ASC,
         DESC
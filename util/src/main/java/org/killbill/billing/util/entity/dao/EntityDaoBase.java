@@ -19,6 +19,7 @@
 package org.killbill.billing.util.entity.dao;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.UUID;
 
 import org.killbill.billing.BillingExceptionBase;
@@ -30,7 +31,7 @@ import org.killbill.billing.util.entity.DefaultPagination;
 import org.killbill.billing.util.entity.Entity;
 import org.killbill.billing.util.entity.Pagination;
 import org.killbill.billing.util.entity.dao.DefaultPaginationSqlDaoHelper.Ordering;
-import org.killbill.billing.util.entity.dao.DefaultPaginationSqlDaoHelper.PaginationIteratorBuilder;
+import org.killbill.billing.util.entity.dao.DefaultPaginationSqlDaoHelper.SeekPaginationIteratorBuilder;
 
 public abstract class EntityDaoBase<M extends EntityModelDao<E>, E extends Entity, U extends BillingExceptionBase> implements EntityDao<M, E, U> {
 
@@ -143,7 +144,7 @@ public abstract class EntityDaoBase<M extends EntityModelDao<E>, E extends Entit
     @Override
     public Pagination<M> get(final Long offset, final Long limit, final InternalTenantContext context) {
         return paginationHelper.getPagination(realSqlDao,
-                                              new PaginationIteratorBuilder<M, E, EntitySqlDao<M, E>>() {
+                                              new SeekPaginationIteratorBuilder<M, E, EntitySqlDao<M, E>>() {
                                                   @Override
                                                   public Long getCount(final EntitySqlDao<M, E> sqlDao, final InternalTenantContext context) {
                                                       // Only need to compute it once, because no search filter has been applied (see DefaultPaginationSqlDaoHelper)
@@ -154,6 +155,11 @@ public abstract class EntityDaoBase<M extends EntityModelDao<E>, E extends Entit
                                                   public Iterator<M> build(final EntitySqlDao<M, E> sqlDao, final Long offset, final Long limit, final Ordering ordering, final InternalTenantContext context) {
                                                       return sqlDao.get(offset, limit, getNaturalOrderingColumns(), ordering.toString(), context);
                                                   }
+
+                                                  @Override
+                                                  public List<M> buildAfterRecordId(final EntitySqlDao<M, E> sqlDao, final Long lastRecordId, final Long limit, final InternalTenantContext context) {
+                                                      return sqlDao.getAfterRecordId(lastRecordId, limit, context);
+                                                  }
                                               },
                                               offset,
                                               limit,
@@ -18,6 +18,7 @@
 
 package org.killbill.billing.util.entity.dao;
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 
@@ -35,11 +36,13 @@ import org.killbill.commons.jdbi.statement.SmartFetchSize;
 import org.killbill.commons.jdbi.template.KillBillSqlDaoStringTemplate;
 import org.skife.jdbi.v2.sqlobject.Bind;
 import org.killbill.commons.jdbi.binder.SmartBindBean;
+import org.skife.jdbi.v2.sqlobject.SqlBatch;
 import org.skife.jdbi.v2.sqlobject.SqlQuery;
 import org.skife.jdbi.v2.sqlobject.SqlUpdate;
 import org.skife.jdbi.v2.sqlobject.customizers.Define;
 import org.skife.jdbi.v2.sqlobject.mixins.CloseMe;
 import org.skife.jdbi.v2.sqlobject.mixins.Transactional;
+import org.skife.jdbi.v2.unstable.BindIn;
 
 @KillBillSqlDaoStringTemplate
 public interface EntitySqlDao<M extends EntityModelDao<E>, E extends Entity> extends AuditSqlDao, HistorySqlDao<M, E>, Transactional<EntitySqlDao<M, E>>, CloseMe {
@@ -49,10 +52,19 @@ public interface EntitySqlDao<M extends EntityModelDao<E>, E extends Entity> ext
     public Object create(@SmartBindBean final M entity,
                          @SmartBindBean final InternalCallContext context) throws EntityPersistenceException;
 
+    @SqlBatch
+    @Audited(ChangeType.INSERT)
+    public void create(@SmartBindBean final Iterable<M> entities,
+                       @SmartBindBean final InternalCallContext context) throws EntityPersistenceException;
+
     @SqlQuery
     public M getById(@Bind("id") final String id,
                      @SmartBindBean final InternalTenantContext context);
 
+    @SqlQuery
+    public List<M> getByIds(@BindIn("ids") final Collection<String> ids,
+                            @SmartBindBean final InternalTenantContext context);
+
     @SqlQuery
     public M getByRecordId(@Bind("recordId") final Long recordId,
                            @SmartBindBean final InternalTenantContext context);
@@ -63,6 +75,10 @@ public interface EntitySqlDao<M extends EntityModelDao<E>, E extends Entity> ext
     @SqlQuery
     public List<M> getByAccountRecordIdIncludedDeleted(@SmartBindBean final InternalTenantContext context);
 
+    @SqlQuery
+    public List<M> getByAccountRecordIds(@BindIn("accountRecordIds") final Collection<Long> accountRecordIds,
+                                         @SmartBindBean final InternalTenantContext context);
+
     @SqlQuery
     @Cachable(CacheType.RECORD_ID)
     public Long getRecordId(@CachableKey(1) @Bind("id") final String id,
@@ -94,6 +110,11 @@ public interface EntitySqlDao<M extends EntityModelDao<E>, E extends Entity> ext
                            @Define("ordering") final String ordering,
                            @SmartBindBean final InternalTenantContext context);
 
+    @SqlQuery
+    public List<M> getAfterRecordId(@Bind("lastRecordId") final Long lastRecordId,
+                                    @Bind("rowCount") final Long rowCount,
+                                    @SmartBindBean final InternalTenantContext context);
+
     @SqlQuery
     public Long getCount(@SmartBindBean final InternalTenantContext context);
 
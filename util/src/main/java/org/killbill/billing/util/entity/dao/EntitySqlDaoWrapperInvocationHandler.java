@@ -25,10 +25,13 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -36,6 +39,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nullable;
 
+import org.joda.time.DateTime;
 import org.killbill.billing.ObjectType;
 import org.killbill.billing.callcontext.InternalCallContext;
 import org.killbill.billing.callcontext.InternalTenantContext;
@@ -50,6 +54,7 @@ import org.killbill.billing.util.callcontext.InternalCallContextFactory;
 import org.killbill.billing.util.dao.EntityAudit;
 import org.killbill.billing.util.dao.EntityHistoryModelDao;
 import org.killbill.billing.util.dao.NonEntityDao;
+import org.killbill.billing.util.dao.RecordIdIdMappings;
 import org.killbill.billing.util.dao.TableName;
 import org.killbill.billing.util.entity.Entity;
 import org.killbill.clock.Clock;
@@ -83,6 +88,9 @@ import com.google.common.collect.Iterables;
  */
 public class EntitySqlDaoWrapperInvocationHandler<S extends EntitySqlDao<M, E>, M extends EntityModelDao<E>, E extends Entity> implements InvocationHandler {
 
+    // Maximum number of elements in IN clauses when re-hydrating entities for batch calls
+    private static final int MAX_IN_CLAUSE_SIZE = 1000;
+
     private final Logger logger = LoggerFactory.getLogger(EntitySqlDaoWrapperInvocationHandler.class);
 
     private final Map<String, Annotation[][]> parameterAnnotationsByMethod = new ConcurrentHashMap<String, Annotation[][]>();
@@ -322,9 +330,7 @@ public class EntitySqlDaoWrapperInvocationHandler<S extends EntitySqlDao<M, E>,
         final Map<String, M> deletedEntities = new HashMap<String, M>();
         // Unfortunately, we cannot just look at DELETE as "markAsInactive" operations are often treated as UPDATE
         if (changeType == ChangeType.UPDATE || changeType == ChangeType.DELETE) {
-            for (final String entityId : entityIds) {
-                deletedEntities.put(entityId, sqlDao.getById(entityId, context));
-            }
+            deletedEntities.putAll(getByIds(entityIds, context));
         }
 
         // Real jdbc call
@@ -336,8 +342,11 @@ public class EntitySqlDaoWrapperInvocationHandler<S extends EntitySqlDao<M, E>,
         });
 
         M m = null;
-        for (final String entityId : entityIds) {
-            m = updateHistoryAndAudit(entityId, deletedEntities.get(entityId), changeType, context);
+        if (entityIds.size() > 1) {
+            // PERF: batch calls (e.g. @SqlBatch create) re-hydrate all entities at once and insert history and audit rows in JDBC batches
+            updateHistoryAndAuditInBatch(entityIds, deletedEntities, changeType, context);
+        } else if (entityIds.size() == 1) {
+            m = updateHistoryAndAudit(entityIds.get(0), deletedEntities.get(entityIds.get(0)), changeType, context);
         }
 
         // PERF: override the return value with the reHydrated entity to avoid an extra 'get' in the transaction,
@@ -354,6 +363,18 @@ public class EntitySqlDaoWrapperInvocationHandler<S extends EntitySqlDao<M, E>,
         populateCaches(cacheControllerDispatcher, model);
     }
 
+    // The re-hydrated entities carry all the ids: register them so that the (bulk) NonEntityDao lookups which usually follow
+    // a write (e.g. InternalCallContextFactory#createInternalCallContexts) are cache hits instead of IN (...) queries.
+    // Since the re-hydrated entity is returned instead of issuing a getById, this is also the only place where they would be cached.
+    private void populateCachesOnAuditedInvocation(final Iterable<M> reHydratedEntities, final ChangeType changeType) {
+        if (cacheControllerDispatcher == null || changeType == ChangeType.DELETE) {
+            return;
+        }
+        for (final M reHydratedEntity : reHydratedEntities) {
+            populateCaches(cacheControllerDispatcher, reHydratedEntity);
+        }
+    }
+
     public static void populateCaches(final CacheControllerDispatcher cacheControllerDispatcher, final EntityModelDao model) {
         final CacheController<String, Long> cacheRecordId = cacheControllerDispatcher.getCacheController(CacheType.RECORD_ID);
         cacheRecordId.putIfAbsent(getKey(model.getId().toString(), CacheType.RECORD_ID, model.getTableName()), model.getRecordId());
@@ -403,6 +424,7 @@ public class EntitySqlDaoWrapperInvocationHandler<S extends EntitySqlDao<M, E>,
 
                 // Make sure to re-hydrate the object (especially needed for create calls)
                 insertAudits(tableName, reHydratedEntity, entityRecordId, historyRecordId, changeType, context);
+                populateCachesOnAuditedInvocation(ImmutableList.<M>of(reHydratedEntity), changeType);
                 return reHydratedEntity;
             }
         });
@@ -410,6 +432,51 @@ public class EntitySqlDaoWrapperInvocationHandler<S extends EntitySqlDao<M, E>,
         return (M) reHydratedEntity;
     }
 
+    private void updateHistoryAndAuditInBatch(final List<String> entityIds, final Map<String, M> deletedEntities, final ChangeType changeType, final InternalCallContext context) throws Throwable {
+        prof.executeWithProfiling(ProfilingFeatureType.DAO_DETAILS, getProfilingId("history/audit (batch)", null), new WithProfilingCallback<Object, Throwable>() {
+            @Override
+            public Void execute() throws Throwable {
+                final Map<String, M> reHydratedEntitiesById = changeType == ChangeType.DELETE ? deletedEntities : getByIds(entityIds, context);
+
+                // Keep the ordering of the arguments, so that history and audit rows are inserted in the same order as in the non-batch case
+                final List<M> reHydratedEntities = new ArrayList<M>(entityIds.size());
+                for (final String entityId : entityIds) {
+                    // See note above regarding "markAsInactive" operations
+                    final M reHydratedEntity = MoreObjects.firstNonNull(reHydratedEntitiesById.get(entityId), deletedEntities.get(entityId));
+                    Preconditions.checkNotNull(reHydratedEntity, "reHydratedEntity cannot be null");
+                    reHydratedEntities.add(reHydratedEntity);
+                }
+
+                final TableName tableName = reHydratedEntities.get(0).getTableName();
+
+                // Note: audit entries point to the history record id
+                final List<Long> historyRecordIds;
+                if (tableName.getHistoryTableName() != null) {
+                    historyRecordIds = insertHistories(reHydratedEntities, changeType, context);
+                } else {
+                    historyRecordIds = new ArrayList<Long>(reHydratedEntities.size());
+                    for (final M reHydratedEntity : reHydratedEntities) {
+                        historyRecordIds.add(reHydratedEntity.getRecordId());
+                    }
+                }
+
+                insertAudits(tableName, reHydratedEntities, historyRecordIds, changeType, context);
+                populateCachesOnAuditedInvocation(reHydratedEntities, changeType);
+                return null;
+            }
+        });
+    }
+
+    private Map<String, M> getByIds(final Collection<String> entityIds, final InternalTenantContext context) {
+        final Map<String, M> entitiesById = new HashMap<String, M>();
+        for (final List<String> entityIdsChunk : Iterables.partition(entityIds, MAX_IN_CLAUSE_SIZE)) {
+            for (final M entity : sqlDao.getByIds(entityIdsChunk, context)) {
+                entitiesById.put(entity.getId().toString(), entity);
+            }
+        }
+        return entitiesById;
+    }
+
     private List<String> retrieveEntityIdsFromArguments(final Method method, final Object[] args) {
         final Annotation[][] parameterAnnotations = getAnnotations(method);
 
@@ -501,6 +568,10 @@ public class EntitySqlDaoWrapperInvocationHandler<S extends EntitySqlDao<M, E>,
         }
         sqlDao.insertAuditFromTransaction(audit, context);
 
+        invalidateAuditLogCache(tableName, entityRecordId);
+    }
+
+    private void invalidateAuditLogCache(final TableName tableName, final Long entityRecordId) {
         // We need to invalidate the caches. There is a small window of doom here where caches will be stale.
         // TODO Knowledge on how the key is constructed is also in AuditSqlDao
         if (tableName.getHistoryTableName() != null) {
@@ -518,6 +589,58 @@ public class EntitySqlDaoWrapperInvocationHandler<S extends EntitySqlDao<M, E>,
         }
     }
 
+    private List<Long> insertHistories(final List<M> entityModelDaos, final ChangeType changeType, final InternalCallContext context) {
+        final DateTime now = clock.getUTCNow();
+        final List<EntityHistoryModelDao<M, E>> histories = new ArrayList<EntityHistoryModelDao<M, E>>(entityModelDaos.size());
+        for (final M entityModelDao : entityModelDaos) {
+            histories.add(new EntityHistoryModelDao<M, E>(entityModelDao, entityModelDao.getRecordId(), changeType, now));
+        }
+        sqlDao.addHistoriesFromTransaction(histories, context);
+
+        // Retrieve the generated history record ids: the lookup goes through the (indexed) target record ids, which returns
+        // the whole history of these entities, hence the filtering on the ids of the rows we've just inserted
+        final Map<UUID, Long> historyRecordIdsByHistoryId = new HashMap<UUID, Long>();
+        for (final List<EntityHistoryModelDao<M, E>> historiesChunk : Iterables.partition(histories, MAX_IN_CLAUSE_SIZE)) {
+            final Collection<Long> targetRecordIds = new HashSet<Long>(historiesChunk.size());
+            for (final EntityHistoryModelDao<M, E> history : historiesChunk) {
+                targetRecordIds.add(history.getTargetRecordId());
+            }
+            for (final RecordIdIdMappings mapping : sqlDao.getHistoryRecordIdIdMappingsForTargetRecordIds(targetRecordIds, context)) {
+                historyRecordIdsByHistoryId.put(mapping.getId(), mapping.getRecordId());
+            }
+        }
+
+        final List<Long> historyRecordIds = new ArrayList<Long>(histories.size());
+        for (final EntityHistoryModelDao<M, E> history : histories) {
+            final Long historyRecordId = historyRecordIdsByHistoryId.get(history.getId());
+            Preconditions.checkNotNull(historyRecordId, "historyRecordId cannot be null for history %s", history.getId());
+            historyRecordIds.add(historyRecordId);
+        }
+        return historyRecordIds;
+    }
+
+    private void insertAudits(final TableName tableName, final List<M> entityModelDaos, final List<Long> historyRecordIds, final ChangeType changeType, final InternalCallContext context) {
+        if (TableName.ACCOUNT.equals(tableName) && ChangeType.INSERT.equals(changeType)) {
+            // Each audit entry needs its own context (see insertAudits above)
+            for (int i = 0; i < entityModelDaos.size(); i++) {
+                insertAudits(tableName, entityModelDaos.get(i), entityModelDaos.get(i).getRecordId(), historyRecordIds.get(i), changeType, context);
+            }
+            return;
+        }
+
+        final TableName destinationTableName = MoreObjects.firstNonNull(tableName.getHistoryTableName(), tableName);
+        final DateTime now = clock.getUTCNow();
+        final Collection<EntityAudit> audits = new LinkedList<EntityAudit>();
+        for (final Long historyRecordId : historyRecordIds) {
+            audits.add(new EntityAudit(destinationTableName, historyRecordId, changeType, now));
+        }
+        sqlDao.insertAuditsFromTransaction(audits, context);
+
+        for (final M entityModelDao : entityModelDaos) {
+            invalidateAuditLogCache(tableName, entityModelDao.getRecordId());
+        }
+    }
+
     private String buildCacheKey(final Map<Integer, Object> keyPieces) {
         final StringBuilder cacheKey = new StringBuilder();
         for (int i = 0; i < keyPieces.size(); i++) {
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.util.export.dao;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.killbill.billing.util.api.ColumnInfo;
+import org.killbill.billing.util.api.DatabaseExportOutputStream;
+import org.killbill.billing.util.export.dao.BinaryExportOutputStream.Compression;
+import org.killbill.billing.util.validation.DefaultColumnInfo;
+
+import com.google.common.base.Charsets;
+import com.ning.compress.lzf.LZFInputStream;
+
+import static org.killbill.billing.util.export.dao.BinaryExportOutputStream.END_MARKER;
+import static org.killbill.billing.util.export.dao.BinaryExportOutputStream.MAGIC;
+import static org.killbill.billing.util.export.dao.BinaryExportOutputStream.ROW_MARKER;
+import static org.killbill.billing.util.export.dao.BinaryExportOutputStream.TABLE_MARKER;
+import static org.killbill.billing.util.export.dao.BinaryExportOutputStream.TYPE_BOOLEAN;
+import static org.killbill.billing.util.export.dao.BinaryExportOutputStream.TYPE_BYTES;
+import static org.killbill.billing.util.export.dao.BinaryExportOutputStream.TYPE_DATE;
+import static org.killbill.billing.util.export.dao.BinaryExportOutputStream.TYPE_DECIMAL;
+import static org.killbill.billing.util.export.dao.BinaryExportOutputStream.TYPE_DOUBLE;
+import static org.killbill.billing.util.export.dao.BinaryExportOutputStream.TYPE_LONG;
+import static org.killbill.billing.util.export.dao.BinaryExportOutputStream.TYPE_NULL;
+import static org.killbill.billing.util.export.dao.BinaryExportOutputStream.TYPE_STRING;
+import static org.killbill.billing.util.export.dao.BinaryExportOutputStream.TYPE_TIMESTAMP;
+import static org.killbill.billing.util.export.dao.BinaryExportOutputStream.VERSION;
+
+/**
+ * Reads a stream generated by {@link BinaryExportOutputStream} and replays it (table by table, row by row) into a {@link DatabaseExportOutputStream}.
+ */
+public class BinaryExportInputStream implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataInputStream in;
+
+    public BinaryExportInputStream(final ReadableByteChannel channel, final Compression compression) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(decompress(Channels.newInputStream(channel), compression), BUFFER_SIZE));
+    }
+
+    public void readInto(final DatabaseExportOutputStream out) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a binary export stream");
+        }
+        final byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported binary export version %s", version));
+        }
+
+        List<String> currentColumnNames = null;
+        while (true) {
+            final byte marker = in.readByte();
+            if (marker == END_MARKER) {
+                return;
+            } else if (marker == TABLE_MARKER) {
+                final String tableName = readString();
+                final int nbColumns = in.readUnsignedShort();
+                final List<ColumnInfo> columns = new ArrayList<ColumnInfo>(nbColumns);
+                currentColumnNames = new ArrayList<String>(nbColumns);
+                for (int i = 0; i < nbColumns; i++) {
+                    final String columnName = readString();
+                    currentColumnNames.add(columnName);
+                    columns.add(new DefaultColumnInfo(tableName, columnName, null, null, true, null, null));
+                }
+                out.newTable(tableName, columns);
+            } else if (marker == ROW_MARKER && currentColumnNames != null) {
+                final Map<String, Object> row = new HashMap<String, Object>(currentColumnNames.size());
+                for (final String columnName : currentColumnNames) {
+                    row.put(columnName, readValue());
+                }
+                out.write(row);
+            } else {
+                throw new IOException(String.format("Unexpected marker %s", marker));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private Object readValue() throws IOException {
+        final byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_STRING:
+                return readString();
+            case TYPE_BYTES:
+                final byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return bytes;
+            case TYPE_DECIMAL:
+                return new BigDecimal(readString());
+            case TYPE_TIMESTAMP:
+                return new Timestamp(in.readLong());
+            case TYPE_DATE:
+                return java.sql.Date.valueOf(readString());
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            default:
+                throw new IOException(String.format("Unexpected value type %s", type));
+        }
+    }
+
+    private String readString() throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    private static InputStream decompress(final InputStream inputStream, final Compression compression) throws IOException {
+        switch (compression) {
+            case GZIP:
+                return new GZIPInputStream(inputStream, BUFFER_SIZE);
+            case LZF:
+                return new LZFInputStream(inputStream);
+            case NONE:
+            default:
+                return inputStream;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.util.export.dao;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.sql.Clob;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.killbill.billing.util.api.ColumnInfo;
+import org.killbill.billing.util.api.DatabaseExportOutputStream;
+
+import com.google.common.base.Charsets;
+import com.ning.compress.lzf.LZFOutputStream;
+
+/**
+ * Length-prefixed binary export format.
+ * <p/>
+ * The stream starts with a magic number and a version, followed for each table by a table marker, the table name and the column names,
+ * then by one row marker per row. Each value is prefixed by its type, so that rows can be decoded without the schema of the source database.
+ * <p/>
+ * Rows are exported as-is, including their record ids: {@link DatabaseImportDao} remaps them when importing the stream.
+ */
+public class BinaryExportOutputStream implements DatabaseExportOutputStream, Closeable {
+
+    public enum Compression {
+        NONE,
+        GZIP,
+        LZF
+    }
+
+    static final int MAGIC = 0x4B424558; // KBEX
+    static final byte VERSION = 1;
+
+    static final byte END_MARKER = 0;
+    static final byte TABLE_MARKER = 1;
+    static final byte ROW_MARKER = 2;
+
+    static final byte TYPE_NULL = 0;
+    static final byte TYPE_LONG = 1;
+    static final byte TYPE_STRING = 2;
+    static final byte TYPE_BYTES = 3;
+    static final byte TYPE_DECIMAL = 4;
+    static final byte TYPE_TIMESTAMP = 5;
+    static final byte TYPE_DATE = 6;
+    static final byte TYPE_BOOLEAN = 7;
+    static final byte TYPE_DOUBLE = 8;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataOutputStream out;
+
+    private List<ColumnInfo> currentColumns;
+    private boolean isClosed = false;
+
+    public BinaryExportOutputStream(final WritableByteChannel channel, final Compression compression) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(compress(Channels.newOutputStream(channel), compression), BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    @Override
+    public void newTable(final String tableName, final List<ColumnInfo> columnsForTable) {
+        currentColumns = columnsForTable;
+        try {
+            out.writeByte(TABLE_MARKER);
+            writeString(tableName);
+            out.writeShort(columnsForTable.size());
+            for (final ColumnInfo columnInfo : columnsForTable) {
+                writeString(columnInfo.getColumnName());
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void write(final Map<String, Object> row) throws IOException {
+        out.writeByte(ROW_MARKER);
+        for (final ColumnInfo columnInfo : currentColumns) {
+            writeValue(row.get(columnInfo.getColumnName()));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+
+        out.writeByte(END_MARKER);
+        // Will finish the compressed stream, if any
+        out.close();
+    }
+
+    private void writeValue(final Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            // e.g. numeric columns, or bigint unsigned on MySQL
+            out.writeByte(TYPE_DECIMAL);
+            writeString(value.toString());
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TYPE_TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte(TYPE_DATE);
+            writeString(value.toString());
+        } else if (value instanceof byte[]) {
+            out.writeByte(TYPE_BYTES);
+            out.writeInt(((byte[]) value).length);
+            out.write((byte[]) value);
+        } else if (value instanceof Clob) {
+            out.writeByte(TYPE_STRING);
+            writeString(toString((Clob) value));
+        } else {
+            out.writeByte(TYPE_STRING);
+            writeString(value.toString());
+        }
+    }
+
+    // DataOutputStream#writeUTF is limited to 64KB
+    private void writeString(final String value) throws IOException {
+        final byte[] bytes = value.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String toString(final Clob clob) throws IOException {
+        try {
+            return clob.getSubString(1, (int) clob.length());
+        } catch (final SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static OutputStream compress(final OutputStream outputStream, final Compression compression) throws IOException {
+        switch (compression) {
+            case GZIP:
+                return new GZIPOutputStream(outputStream, BUFFER_SIZE);
+            case LZF:
+                return new LZFOutputStream(outputStream);
+            case NONE:
+            default:
+                return outputStream;
+        }
+    }
+}
@@ -16,10 +16,18 @@
 
 package org.killbill.billing.util.export.dao;
 
+import java.io.IOException;
 import java.sql.Blob;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -27,25 +35,58 @@ import javax.inject.Singleton;
 import org.killbill.billing.callcontext.InternalTenantContext;
 import org.killbill.billing.util.api.ColumnInfo;
 import org.killbill.billing.util.api.DatabaseExportOutputStream;
+import org.killbill.billing.util.config.definition.ExportConfig;
 import org.killbill.billing.util.dao.TableName;
 import org.killbill.billing.util.validation.DefaultColumnInfo;
 import org.killbill.billing.util.validation.dao.DatabaseSchemaDao;
+import org.killbill.commons.concurrent.LoggingExecutor;
 import org.skife.jdbi.v2.Handle;
 import org.skife.jdbi.v2.IDBI;
 import org.skife.jdbi.v2.ResultIterator;
-import org.skife.jdbi.v2.tweak.HandleCallback;
+
+import com.google.common.collect.ImmutableMap;
 
 @Singleton
 public class DatabaseExportDao {
 
+    static final String AUDIT_LOG_TABLE_NAME = "audit_log";
+    // History table name -> name of the table its target_record_id points to
+    static final Map<String, String> TARGET_TABLE_NAMES_BY_HISTORY_TABLE_NAME;
+
+    static {
+        final Map<String, String> targetTableNamesByHistoryTableName = new HashMap<String, String>();
+        for (final TableName tableName : TableName.values()) {
+            if (tableName.hasHistoryTable()) {
+                targetTableNamesByHistoryTableName.put(tableName.getHistoryTableName().getTableName(), tableName.getTableName());
+            }
+        }
+        TARGET_TABLE_NAMES_BY_HISTORY_TABLE_NAME = ImmutableMap.<String, String>copyOf(targetTableNamesByHistoryTableName);
+    }
+
+    private static final long EXPORT_THREADS_KEEP_ALIVE_SEC = 60;
+    private static final int FETCH_SIZE = 1000;
+    private static final int MAX_PENDING_ROWS_PER_TABLE = 1000;
+    private static final long FAILURE_CHECK_INTERVAL_MS = 1000;
+
+    private static final Object END_OF_TABLE = new Object();
+
     private final DatabaseSchemaDao databaseSchemaDao;
     private final IDBI dbi;
+    private final ExportConfig exportConfig;
+    // Shared by all exports (idle threads are released, so it doesn't need to be shut down). Its threads never wait for the
+    // caller to write the rows: a fetch which gets ahead of the writer is suspended (see fetchDataForAccountAndTable), so that
+    // slow or stalled clients can't starve the other exports
+    private final ThreadPoolExecutor executor;
 
     @Inject
     public DatabaseExportDao(final DatabaseSchemaDao databaseSchemaDao,
-                             final IDBI dbi) {
+                             final IDBI dbi,
+                             final ExportConfig exportConfig) {
         this.databaseSchemaDao = databaseSchemaDao;
         this.dbi = dbi;
+        this.exportConfig = exportConfig;
+        this.executor = new LoggingExecutor(exportConfig.getExportThreadsNb(), exportConfig.getExportThreadsNb(), "DatabaseExport", EXPORT_THREADS_KEEP_ALIVE_SEC, TimeUnit.SECONDS);
+        this.executor.allowCoreThreadTimeOut(true);
     }
 
     private enum TableType {
@@ -87,24 +128,69 @@ public class DatabaseExportDao {
             return;
         }
 
-        final List<ColumnInfo> columnsForTable = new ArrayList<ColumnInfo>();
+        final List<TableExport> tableExports = new ArrayList<TableExport>();
+        List<ColumnInfo> columnsForTable = new ArrayList<ColumnInfo>();
         // The list of columns is ordered by table name first
         String lastSeenTableName = columns.get(0).getTableName();
         for (final ColumnInfo column : columns) {
             if (!column.getTableName().equals(lastSeenTableName)) {
-                exportDataForAccountAndTable(out, columnsForTable, context);
+                addTableExport(tableExports, columnsForTable);
                 lastSeenTableName = column.getTableName();
-                columnsForTable.clear();
+                columnsForTable = new ArrayList<ColumnInfo>();
             }
             columnsForTable.add(column);
         }
-        exportDataForAccountAndTable(out, columnsForTable, context);
-    }
+        addTableExport(tableExports, columnsForTable);
+
+        if (tableExports.isEmpty()) {
+            return;
+        }
+
+        // Rows referencing other rows by record id are written after them, so that the export can be imported in a single pass (see DatabaseImportDao)
+        Collections.sort(tableExports, new Comparator<TableExport>() {
+            @Override
+            public int compare(final TableExport o1, final TableExport o2) {
+                return Integer.compare(getImportRank(o1.getTableName()), getImportRank(o2.getTableName()));
+            }
+        });
 
+        // Tables are fetched in parallel (each on its own connection), but written sequentially in that order: at most
+        // getExportMaxConcurrentTables() tables are fetched ahead, the next fetch starts once a table has been written
+        final int maxConcurrentTables = Math.max(exportConfig.getExportMaxConcurrentTables(), 1);
+        int nbStartedFetches = 0;
+        try {
+            for (; nbStartedFetches < Math.min(maxConcurrentTables, tableExports.size()); nbStartedFetches++) {
+                submitFetch(tableExports.get(nbStartedFetches), context);
+            }
 
-    private void exportDataForAccountAndTable(final DatabaseExportOutputStream out, final List<ColumnInfo> columnsForTable, final InternalTenantContext context) {
+            for (final TableExport tableExport : tableExports) {
+                writeDataForTable(out, tableExport, context);
+                if (nbStartedFetches < tableExports.size()) {
+                    submitFetch(tableExports.get(nbStartedFetches), context);
+                    nbStartedFetches++;
+                }
+            }
+        } finally {
+            // Release the connections of the tables which won't be written (e.g. if the output stream failed)
+            for (int i = 0; i < nbStartedFetches; i++) {
+                tableExports.get(i).abort();
+            }
+        }
+    }
 
+    private static int getImportRank(final String tableName) {
+        if (TableName.ACCOUNT.getTableName().equals(tableName)) {
+            return 0;
+        } else if (TARGET_TABLE_NAMES_BY_HISTORY_TABLE_NAME.containsKey(tableName)) {
+            return 2;
+        } else if (AUDIT_LOG_TABLE_NAME.equals(tableName)) {
+            return 3;
+        } else {
+            return 1;
+        }
+    }
 
+    private void addTableExport(final List<TableExport> tableExports, final List<ColumnInfo> columnsForTable) {
         TableType tableType = TableType.OTHER;
         final String tableName = columnsForTable.get(0).getTableName();
 
@@ -148,37 +234,251 @@ public class DatabaseExportDao {
                     .append(tableType.getTenantRecordIdColumnName())
                     .append("  = :tenantRecordId");
 
-        // Notify the stream that we're about to write data for a different table
-        out.newTable(tableName, columnsForTable);
+        tableExports.add(new TableExport(tableName, columnsForTable, queryBuilder.toString()));
+    }
 
-        dbi.withHandle(new HandleCallback<Void>() {
+    private void submitFetch(final TableExport tableExport, final InternalTenantContext context) {
+        tableExport.setRunning();
+        executor.submit(new Runnable() {
             @Override
-            public Void withHandle(final Handle handle) throws Exception {
-                final ResultIterator<Map<String, Object>> iterator = handle.createQuery(queryBuilder.toString())
-                                                                           .bind("accountRecordId", context.getAccountRecordId())
-                                                                           .bind("tenantRecordId", context.getTenantRecordId())
-                                                                           .iterator();
-                try {
-                    while (iterator.hasNext()) {
-                        final Map<String, Object> row = iterator.next();
-
-                        for (final String k : row.keySet()) {
-                            final Object value = row.get(k);
-                            // For h2, transform a JdbcBlob into a byte[]
-                            // See also LowerToCamelBeanMapper
-                            if (value instanceof Blob) {
-                                final Blob blob = (Blob) value;
-                                row.put(k, blob.getBytes(0, (int) blob.length()));
-                            }
-                        }
-
-                        out.write(row);
+            public void run() {
+                fetchDataForAccountAndTable(tableExport, context);
+            }
+        });
+    }
+
+    //
+    // Fetch the rows until the end of the table, or until the queue is full: the fetch is then suspended (the connection and the result set
+    // stay open) and the pool thread released, the writer resumes the fetch once it has caught up (see writeDataForTable).
+    //
+    private void fetchDataForAccountAndTable(final TableExport tableExport, final InternalTenantContext context) {
+        try {
+            if (tableExport.isAborted()) {
+                tableExport.finish();
+                return;
+            }
+
+            if (!tableExport.isStarted()) {
+                final Handle handle = dbi.open();
+                tableExport.start(handle, handle.createQuery(tableExport.getQuery())
+                                                .bind("accountRecordId", context.getAccountRecordId())
+                                                .bind("tenantRecordId", context.getTenantRecordId())
+                                                .setFetchSize(FETCH_SIZE)
+                                                .iterator());
+            }
+
+            while (!tableExport.isAborted()) {
+                Object next = tableExport.takePendingRow();
+                if (next == null) {
+                    final ResultIterator<Map<String, Object>> iterator = tableExport.getIterator();
+                    if (iterator.hasNext()) {
+                        next = toExportedRow(iterator.next());
+                    } else {
+                        // Give the connection back right away, the writer may still need some time to write the remaining rows
+                        tableExport.close();
+                        next = END_OF_TABLE;
+                    }
+                }
+
+                if (tableExport.getRows().offer(next)) {
+                    if (next == END_OF_TABLE) {
+                        tableExport.finish();
+                        return;
                     }
-                } finally {
-                    iterator.close();
+                } else if (tableExport.suspend(next)) {
+                    return;
                 }
-                return null;
             }
-        });
+            tableExport.finish();
+        } catch (final Throwable e) {
+            tableExport.finish();
+            if (tableExport.isAborted()) {
+                return;
+            }
+
+            // Never block here: the writer checks the failure before each row instead
+            tableExport.setFailure(e);
+            tableExport.getRows().offer(END_OF_TABLE);
+        }
+    }
+
+    private Map<String, Object> toExportedRow(final Map<String, Object> row) throws Exception {
+        for (final String k : row.keySet()) {
+            final Object value = row.get(k);
+            // For h2, transform a JdbcBlob into a byte[]
+            // See also LowerToCamelBeanMapper
+            if (value instanceof Blob) {
+                final Blob blob = (Blob) value;
+                row.put(k, blob.getBytes(0, (int) blob.length()));
+            }
+        }
+        return row;
+    }
+
+    private void writeDataForTable(final DatabaseExportOutputStream out, final TableExport tableExport, final InternalTenantContext context) {
+        // Notify the stream that we're about to write data for a different table
+        out.newTable(tableExport.getTableName(), tableExport.getColumns());
+
+        try {
+            while (true) {
+                final Object next = tableExport.getRows().poll(FAILURE_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+                final Throwable failure = tableExport.getFailure();
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                } else if (failure instanceof Error) {
+                    throw (Error) failure;
+                } else if (failure != null) {
+                    throw new RuntimeException(failure);
+                }
+
+                // Checked even if nothing was polled: the fetch may have been suspended after the queue was drained
+                if (tableExport.resumeIfCaughtUp()) {
+                    submitFetch(tableExport, context);
+                }
+
+                if (next == null) {
+                    continue;
+                } else if (next == END_OF_TABLE) {
+                    return;
+                }
+
+                out.write((Map<String, Object>) next);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final class TableExport {
+
+        private final String tableName;
+        private final List<ColumnInfo> columns;
+        private final String query;
+        // Rows fetched but not written yet, followed by END_OF_TABLE
+        private final BlockingQueue<Object> rows;
+        // Error which aborted the fetch, if any
+        private volatile Throwable failure;
+
+        // State of the fetch, only used by one thread at a time (the pool thread fetching the rows, or the writer when no fetch is running)
+        private Handle handle;
+        private ResultIterator<Map<String, Object>> iterator;
+        private boolean started;
+        // Row which didn't fit in the queue when the fetch was suspended
+        private Object pendingRow;
+        // Whether a fetch is submitted or running
+        private boolean running;
+        private boolean suspended;
+        private boolean aborted;
+
+        private TableExport(final String tableName, final List<ColumnInfo> columns, final String query) {
+            this.tableName = tableName;
+            this.columns = columns;
+            this.query = query;
+            this.rows = new ArrayBlockingQueue<Object>(MAX_PENDING_ROWS_PER_TABLE);
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public List<ColumnInfo> getColumns() {
+            return columns;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public BlockingQueue<Object> getRows() {
+            return rows;
+        }
+
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        public void setFailure(final Throwable failure) {
+            this.failure = failure;
+        }
+
+        public synchronized boolean isStarted() {
+            return started;
+        }
+
+        public synchronized void start(final Handle handle, final ResultIterator<Map<String, Object>> iterator) {
+            this.handle = handle;
+            this.iterator = iterator;
+            this.started = true;
+        }
+
+        public synchronized ResultIterator<Map<String, Object>> getIterator() {
+            return iterator;
+        }
+
+        public synchronized void setRunning() {
+            running = true;
+        }
+
+        public synchronized boolean isAborted() {
+            return aborted;
+        }
+
+        public synchronized Object takePendingRow() {
+            final Object row = pendingRow;
+            pendingRow = null;
+            return row;
+        }
+
+        // Returns false if the row should be offered again (the writer drained the queue in the meantime)
+        public synchronized boolean suspend(final Object row) {
+            pendingRow = row;
+            if (aborted) {
+                finish();
+                return true;
+            } else if (rows.remainingCapacity() > 0) {
+                return false;
+            }
+            suspended = true;
+            running = false;
+            return true;
+        }
+
+        // Called by the writer: resume the fetch once half of the queue is free
+        public synchronized boolean resumeIfCaughtUp() {
+            if (!suspended || aborted || rows.remainingCapacity() < MAX_PENDING_ROWS_PER_TABLE / 2) {
+                return false;
+            }
+            suspended = false;
+            return true;
+        }
+
+        // Last call of a fetch which won't be resumed
+        public synchronized void finish() {
+            close();
+            running = false;
+        }
+
+        public synchronized void abort() {
+            aborted = true;
+            // Otherwise, the running (or submitted) fetch releases the connection itself
+            if (!running) {
+                close();
+            }
+        }
+
+        public synchronized void close() {
+            if (iterator != null) {
+                iterator.close();
+                iterator = null;
+            }
+            if (handle != null) {
+                handle.close();
+                handle = null;
+            }
+        }
     }
 }
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2010-2012 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.killbill.billing.util.export.dao;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.killbill.billing.callcontext.InternalTenantContext;
+import org.killbill.billing.util.api.ColumnInfo;
+import org.killbill.billing.util.api.DatabaseExportOutputStream;
+import org.killbill.billing.util.dao.TableName;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.IDBI;
+import org.skife.jdbi.v2.PreparedBatch;
+import org.skife.jdbi.v2.TransactionCallback;
+import org.skife.jdbi.v2.TransactionStatus;
+import org.skife.jdbi.v2.util.LongMapper;
+
+/**
+ * Bulk import of the data exported by {@link DatabaseExportDao} in the binary format (e.g. to move an account to another cluster).
+ * <p/>
+ * The source record ids would collide with the rows of a populated database: rows are inserted with new record ids instead, and the columns
+ * referencing record ids are remapped accordingly:
+ * <ul>
+ * <li>account_record_id (search_key1 for the bus and notification tables) to the record id of the imported account</li>
+ * <li>target_record_id to the record id of the imported row (entity row for history tables, row of the table_name table for audit logs)</li>
+ * <li>tenant_record_id (search_key2 for the bus and notification tables) to the tenant of the context</li>
+ * </ul>
+ * This relies on the export order (the account first, then the other tables, the history tables and the audit logs, see DatabaseExportDao).
+ * The whole import runs in one transaction: a row referencing a row which isn't part of the import aborts it.
+ */
+@Singleton
+public class DatabaseImportDao {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final IDBI dbi;
+
+    @Inject
+    public DatabaseImportDao(final IDBI dbi) {
+        this.dbi = dbi;
+    }
+
+    public void importData(final BinaryExportInputStream in, final InternalTenantContext context) {
+        dbi.inTransaction(new TransactionCallback<Void>() {
+            @Override
+            public Void inTransaction(final Handle handle, final TransactionStatus status) throws Exception {
+                final BatchImportOutputStream out = new BatchImportOutputStream(handle, context.getTenantRecordId());
+                in.readInto(out);
+                out.flush();
+                return null;
+            }
+        });
+    }
+
+    private static final class BatchImportOutputStream implements DatabaseExportOutputStream {
+
+        private static final String RECORD_ID = "record_id";
+        private static final String TARGET_RECORD_ID = "target_record_id";
+
+        private final Handle handle;
+        private final Long tenantRecordId;
+        // Table name -> source record id -> new record id
+        private final Map<String, Map<Long, Long>> recordIdMappings = new HashMap<String, Map<Long, Long>>();
+
+        private String currentTableName;
+        private String currentInsertQuery;
+        private String currentTenantRecordIdColumnName;
+        private String currentAccountRecordIdColumnName;
+        private boolean currentTableHasTargetRecordId;
+        // Set if other rows may reference the rows of the current table: they are then inserted one by one, to retrieve their new record id
+        private Map<Long, Long> currentRecordIdMapping;
+        private PreparedBatch currentBatch;
+
+        private BatchImportOutputStream(final Handle handle, final Long tenantRecordId) {
+            this.handle = handle;
+            this.tenantRecordId = tenantRecordId;
+        }
+
+        @Override
+        public void newTable(final String tableName, final List<ColumnInfo> columnsForTable) {
+            flush();
+
+            final List<String> columnNames = new ArrayList<String>(columnsForTable.size());
+            for (final ColumnInfo columnInfo : columnsForTable) {
+                columnNames.add(columnInfo.getColumnName());
+            }
+
+            // See DatabaseExportDao.TableType
+            final boolean isNotificationTable = columnNames.contains("search_key1");
+            currentTableName = tableName;
+            if (columnNames.contains("tenant_record_id")) {
+                currentTenantRecordIdColumnName = "tenant_record_id";
+            } else if (isNotificationTable) {
+                currentTenantRecordIdColumnName = "search_key2";
+            } else {
+                currentTenantRecordIdColumnName = null;
+            }
+            if (columnNames.contains("account_record_id")) {
+                currentAccountRecordIdColumnName = "account_record_id";
+            } else if (isNotificationTable) {
+                currentAccountRecordIdColumnName = "search_key1";
+            } else {
+                currentAccountRecordIdColumnName = null;
+            }
+
+            currentTableHasTargetRecordId = columnNames.contains(TARGET_RECORD_ID);
+            if (currentTableHasTargetRecordId &&
+                !DatabaseExportDao.AUDIT_LOG_TABLE_NAME.equals(tableName) &&
+                !DatabaseExportDao.TARGET_TABLE_NAMES_BY_HISTORY_TABLE_NAME.containsKey(tableName)) {
+                throw new IllegalStateException(String.format("Unable to remap the %s column of table %s", TARGET_RECORD_ID, tableName));
+            }
+
+            // Nothing references the bus and notification entries, nor the audit logs
+            if (columnNames.contains(RECORD_ID) && !isNotificationTable && !DatabaseExportDao.AUDIT_LOG_TABLE_NAME.equals(tableName)) {
+                currentRecordIdMapping = new HashMap<Long, Long>();
+                recordIdMappings.put(tableName, currentRecordIdMapping);
+            } else {
+                currentRecordIdMapping = null;
+            }
+
+            // The record id is generated by the database
+            final StringBuilder queryBuilder = new StringBuilder("insert into ").append(tableName).append(" (");
+            final StringBuilder valuesBuilder = new StringBuilder(") values (");
+            boolean firstColumn = true;
+            for (final String columnName : columnNames) {
+                if (RECORD_ID.equals(columnName)) {
+                    continue;
+                }
+                if (!firstColumn) {
+                    queryBuilder.append(", ");
+                    valuesBuilder.append(", ");
+                } else {
+                    firstColumn = false;
+                }
+                queryBuilder.append(columnName);
+                valuesBuilder.append(":").append(columnName);
+            }
+            currentInsertQuery = queryBuilder.append(valuesBuilder).append(")").toString();
+            currentBatch = currentRecordIdMapping == null ? handle.prepareBatch(currentInsertQuery) : null;
+        }
+
+        @Override
+        public void write(final Map<String, Object> row) {
+            final Object sourceRecordId = row.remove(RECORD_ID);
+
+            if (currentTenantRecordIdColumnName != null) {
+                row.put(currentTenantRecordIdColumnName, tenantRecordId);
+            }
+            if (currentAccountRecordIdColumnName != null && row.get(currentAccountRecordIdColumnName) != null) {
+                row.put(currentAccountRecordIdColumnName, getNewRecordId(TableName.ACCOUNT.getTableName(), row.get(currentAccountRecordIdColumnName)));
+            }
+            if (currentTableHasTargetRecordId) {
+                final String targetTableName;
+                if (DatabaseExportDao.AUDIT_LOG_TABLE_NAME.equals(currentTableName)) {
+                    targetTableName = TableName.valueOf((String) row.get("table_name")).getTableName();
+                } else {
+                    targetTableName = DatabaseExportDao.TARGET_TABLE_NAMES_BY_HISTORY_TABLE_NAME.get(currentTableName);
+                }
+                row.put(TARGET_RECORD_ID, getNewRecordId(targetTableName, row.get(TARGET_RECORD_ID)));
+            }
+
+            if (currentRecordIdMapping != null) {
+                final Long newRecordId = handle.createStatement(currentInsertQuery)
+                                               .bindFromMap(row)
+                                               .executeAndReturnGeneratedKeys(LongMapper.FIRST)
+                                               .first();
+                currentRecordIdMapping.put(((Number) sourceRecordId).longValue(), newRecordId);
+            } else {
+                currentBatch.add(row);
+                if (currentBatch.size() >= BATCH_SIZE) {
+                    currentBatch.execute();
+                }
+            }
+        }
+
+        public void flush() {
+            if (currentBatch != null && currentBatch.size() > 0) {
+                currentBatch.execute();
+            }
+        }
+
+        private Long getNewRecordId(final String tableName, final Object sourceRecordId) {
+            final Map<Long, Long> recordIdMapping = recordIdMappings.get(tableName);
+            final Long newRecordId = recordIdMapping == null || sourceRecordId == null ? null : recordIdMapping.get(((Number) sourceRecordId).longValue());
+            if (newRecordId == null) {
+                throw new IllegalStateException(String.format("Row record_id=%s of table %s isn't part of the import", sourceRecordId, tableName));
+            }
+            return newRecordId;
+        }
+    }
+}
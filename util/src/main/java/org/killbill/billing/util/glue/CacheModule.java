@@ -22,13 +22,17 @@ import javax.cache.CacheManager;
 
 import org.killbill.billing.platform.api.KillbillConfigSource;
 import org.killbill.billing.util.cache.AccountBCDCacheLoader;
+import org.killbill.billing.util.cache.AccountBlockingStatesCacheLoader;
 import org.killbill.billing.util.cache.AccountRecordIdCacheLoader;
+import org.killbill.billing.util.cache.AccountSubscriptionsCacheLoader;
 import org.killbill.billing.util.cache.AuditLogCacheLoader;
 import org.killbill.billing.util.cache.AuditLogViaHistoryCacheLoader;
 import org.killbill.billing.util.cache.BaseCacheLoader;
 import org.killbill.billing.util.cache.CacheControllerDispatcher;
 import org.killbill.billing.util.cache.CacheControllerDispatcherProvider;
+import org.killbill.billing.util.cache.CurrencyConversionCacheLoader;
 import org.killbill.billing.util.cache.ImmutableAccountCacheLoader;
+import org.killbill.billing.util.cache.InvoiceTemplateCacheLoader;
 import org.killbill.billing.util.cache.ObjectIdCacheLoader;
 import org.killbill.billing.util.cache.OverriddenPlanCacheLoader;
 import org.killbill.billing.util.cache.RecordIdCacheLoader;
@@ -64,6 +68,10 @@ public class CacheModule extends KillBillModule {
         final Multibinder<BaseCacheLoader> resultSetMapperSetBinder = Multibinder.newSetBinder(binder(), BaseCacheLoader.class);
         resultSetMapperSetBinder.addBinding().to(ImmutableAccountCacheLoader.class).asEagerSingleton();
         resultSetMapperSetBinder.addBinding().to(AccountBCDCacheLoader.class).asEagerSingleton();
+        resultSetMapperSetBinder.addBinding().to(AccountSubscriptionsCacheLoader.class).asEagerSingleton();
+        resultSetMapperSetBinder.addBinding().to(AccountBlockingStatesCacheLoader.class).asEagerSingleton();
+        resultSetMapperSetBinder.addBinding().to(InvoiceTemplateCacheLoader.class).asEagerSingleton();
+        resultSetMapperSetBinder.addBinding().to(CurrencyConversionCacheLoader.class).asEagerSingleton();
         resultSetMapperSetBinder.addBinding().to(RecordIdCacheLoader.class).asEagerSingleton();
         resultSetMapperSetBinder.addBinding().to(AccountRecordIdCacheLoader.class).asEagerSingleton();
         resultSetMapperSetBinder.addBinding().to(TenantRecordIdCacheLoader.class).asEagerSingleton();
@@ -16,7 +16,12 @@
 
 package org.killbill.billing.util.tag;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.inject.Inject;
@@ -70,6 +75,28 @@ public class DefaultTagInternalApi implements TagInternalApi {
         return toTagList(tagDao.getTagsForAccountType(objectType, includedDeleted, internalTenantContext));
     }
 
+    @Override
+    public Map<Long, List<Tag>> getTagsForAccountsType(final Collection<Long> accountRecordIds, final ObjectType objectType, final InternalTenantContext internalTenantContext) {
+        final Map<Long, List<TagModelDao>> tagsPerAccountRecordId = new HashMap<Long, List<TagModelDao>>();
+        for (final TagModelDao tag : tagDao.getTagsForAccountsType(accountRecordIds, objectType, internalTenantContext)) {
+            if (tagsPerAccountRecordId.get(tag.getAccountRecordId()) == null) {
+                tagsPerAccountRecordId.put(tag.getAccountRecordId(), new LinkedList<TagModelDao>());
+            }
+            tagsPerAccountRecordId.get(tag.getAccountRecordId()).add(tag);
+        }
+
+        final Map<Long, List<Tag>> result = new HashMap<Long, List<Tag>>();
+        for (final Long accountRecordId : tagsPerAccountRecordId.keySet()) {
+            result.put(accountRecordId, toTagList(tagsPerAccountRecordId.get(accountRecordId)));
+        }
+        return result;
+    }
+
+    @Override
+    public Set<Long> getAccountRecordIdsWithTag(final Collection<Long> accountRecordIds, final ObjectType objectType, final UUID tagDefinitionId, final InternalTenantContext internalTenantContext) {
+        return tagDao.getAccountRecordIdsWithTag(accountRecordIds, objectType, tagDefinitionId, internalTenantContext);
+    }
+
     @Override
     public void addTag(final UUID objectId, final ObjectType objectType, final UUID tagDefinitionId, final InternalCallContext context)
             throws TagApiException {
@@ -18,8 +18,10 @@
 
 package org.killbill.billing.util.tag.dao;
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import org.killbill.billing.util.callcontext.InternalCallContextFactory;
@@ -54,6 +56,7 @@ import org.killbill.billing.util.tag.api.user.TagEventBuilder;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.inject.Inject;
 
@@ -98,6 +101,20 @@ public class DefaultTagDao extends EntityDaoBase<TagModelDao, Tag, TagApiExcepti
         }));
     }
 
+    @Override
+    public Set<Long> getAccountRecordIdsWithTag(final Collection<Long> accountRecordIds, final ObjectType objectType, final UUID tagDefinitionId, final InternalTenantContext internalTenantContext) {
+        if (accountRecordIds.isEmpty()) {
+            return ImmutableSet.<Long>of();
+        }
+
+        return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Set<Long>>() {
+            @Override
+            public Set<Long> inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                return ImmutableSet.<Long>copyOf(entitySqlDaoWrapperFactory.become(TagSqlDao.class).getAccountRecordIdsWithTag(accountRecordIds, objectType, tagDefinitionId, internalTenantContext));
+            }
+        });
+    }
+
     @Override
     public List<TagModelDao> getTagsForAccount(final boolean includedDeleted, final InternalTenantContext internalTenantContext) {
         return transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<List<TagModelDao>>() {
@@ -113,6 +130,26 @@ public class DefaultTagDao extends EntityDaoBase<TagModelDao, Tag, TagApiExcepti
         });
     }
 
+    @Override
+    public List<TagModelDao> getTagsForAccountsType(final Collection<Long> accountRecordIds, final ObjectType objectType, final InternalTenantContext internalTenantContext) {
+        if (accountRecordIds.isEmpty()) {
+            return ImmutableList.<TagModelDao>of();
+        }
+
+        final List<TagModelDao> allTags = transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<List<TagModelDao>>() {
+            @Override
+            public List<TagModelDao> inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                return entitySqlDaoWrapperFactory.become(TagSqlDao.class).getByAccountRecordIds(accountRecordIds, internalTenantContext);
+            }
+        });
+        return ImmutableList.<TagModelDao>copyOf(Collections2.filter(allTags, new Predicate<TagModelDao>() {
+            @Override
+            public boolean apply(final TagModelDao input) {
+                return input.getObjectType() == objectType;
+            }
+        }));
+    }
+
     @Override
     protected void postBusEventFromTransaction(final TagModelDao tag, final TagModelDao savedTag, final ChangeType changeType,
                                                final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory, final InternalCallContext context)
@@ -16,7 +16,9 @@
 
 package org.killbill.billing.util.tag.dao;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import org.killbill.billing.ObjectType;
@@ -38,4 +40,8 @@ public interface TagDao extends EntityDao<TagModelDao, Tag, TagApiException> {
     List<TagModelDao> getTagsForAccountType(ObjectType objectType, boolean includedDeleted, InternalTenantContext internalTenantContext);
 
     List<TagModelDao> getTagsForAccount(boolean includedDeleted, InternalTenantContext internalTenantContext);
+
+    List<TagModelDao> getTagsForAccountsType(Collection<Long> accountRecordIds, ObjectType objectType, InternalTenantContext internalTenantContext);
+
+    Set<Long> getAccountRecordIdsWithTag(Collection<Long> accountRecordIds, ObjectType objectType, UUID tagDefinitionId, InternalTenantContext internalTenantContext);
 }
@@ -16,6 +16,7 @@
 
 package org.killbill.billing.util.tag.dao;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
@@ -23,6 +24,7 @@ import org.skife.jdbi.v2.sqlobject.Bind;
 import org.killbill.commons.jdbi.binder.SmartBindBean;
 import org.skife.jdbi.v2.sqlobject.SqlQuery;
 import org.skife.jdbi.v2.sqlobject.SqlUpdate;
+import org.skife.jdbi.v2.unstable.BindIn;
 
 import org.killbill.billing.ObjectType;
 import org.killbill.billing.callcontext.InternalCallContext;
@@ -50,4 +52,10 @@ public interface TagSqlDao extends EntitySqlDao<TagModelDao, Tag> {
     List<TagModelDao> getTagsForObjectIncludedDeleted(@Bind("objectId") UUID objectId,
                                                       @Bind("objectType") ObjectType objectType,
                                                       @SmartBindBean InternalTenantContext internalTenantContext);
+
+    @SqlQuery
+    List<Long> getAccountRecordIdsWithTag(@BindIn("accountRecordIds") Collection<Long> accountRecordIds,
+                                          @Bind("objectType") ObjectType objectType,
+                                          @Bind("tagDefinitionId") UUID tagDefinitionId,
+                                          @SmartBindBean InternalTenantContext internalTenantContext);
 }
@@ -32,6 +32,7 @@ import org.killbill.billing.util.customfield.api.DefaultCustomFieldUserApi;
 import org.killbill.billing.util.customfield.dao.CustomFieldDao;
 import org.killbill.billing.util.dao.NonEntityDao;
 import org.killbill.billing.util.export.dao.DatabaseExportDao;
+import org.killbill.billing.util.export.dao.DatabaseImportDao;
 import org.killbill.billing.util.glue.TestUtilModuleWithEmbeddedDB;
 import org.killbill.billing.util.nodes.dao.NodeInfoDao;
 import org.killbill.billing.util.tag.api.DefaultTagUserApi;
@@ -77,6 +78,8 @@ public abstract class UtilTestSuiteWithEmbeddedDB extends GuicyKillbillTestSuite
     @Inject
     protected DatabaseExportDao dao;
     @Inject
+    protected DatabaseImportDao importDao;
+    @Inject
     protected NotificationQueueService queueService;
     @Inject
     protected TagDefinitionDao tagDefinitionDao;
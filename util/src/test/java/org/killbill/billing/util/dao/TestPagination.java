@@ -23,6 +23,8 @@ import org.testng.annotations.Test;
 
 import org.killbill.billing.api.TestApiListener.NextEvent;
 import org.killbill.billing.util.UtilTestSuiteWithEmbeddedDB;
+import org.killbill.billing.util.entity.Pagination;
+import org.killbill.billing.util.entity.dao.DefaultPaginationSqlDaoHelper;
 import org.killbill.billing.util.tag.dao.TagDefinitionModelDao;
 import org.killbill.billing.util.tag.dao.TagDefinitionSqlDao;
 
@@ -74,4 +76,56 @@ public class TestPagination extends UtilTestSuiteWithEmbeddedDB {
             }
         }
     }
+
+    @Test(groups = "slow", description = "Test Pagination: keyset pagination")
+    public void testTagDefinitionsSeekPagination() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            eventsListener.pushExpectedEvent(NextEvent.TAG_DEFINITION);
+            tagDefinitionDao.create("name-" + i, "description-" + i, internalCallContext);
+            assertListenerStatus();
+        }
+
+        // Full pages until the last one
+        Long offset = DefaultPaginationSqlDaoHelper.FIRST_SEEK_OFFSET;
+        int nbPages = 0;
+        int nbRecords = 0;
+        while (offset != null) {
+            final Pagination<TagDefinitionModelDao> page = tagDefinitionDao.get(offset, 3L, internalCallContext);
+            Assert.assertEquals(page.getCurrentOffset(), offset);
+            // Not computed in that mode
+            Assert.assertNull(page.getTotalNbRecords());
+            Assert.assertNull(page.getMaxNbRecords());
+
+            final List<TagDefinitionModelDao> tagDefinitions = ImmutableList.<TagDefinitionModelDao>copyOf(page);
+            for (final TagDefinitionModelDao tagDefinition : tagDefinitions) {
+                Assert.assertEquals(tagDefinition.getName(), "name-" + nbRecords);
+                nbRecords++;
+            }
+            nbPages++;
+            offset = page.getNextOffset();
+        }
+        Assert.assertEquals(nbPages, 4);
+        Assert.assertEquals(nbRecords, 10);
+
+        // Last page is full: an empty page is returned afterwards
+        final Pagination<TagDefinitionModelDao> firstPage = tagDefinitionDao.get(DefaultPaginationSqlDaoHelper.FIRST_SEEK_OFFSET, 5L, internalCallContext);
+        Assert.assertEquals(ImmutableList.<TagDefinitionModelDao>copyOf(firstPage).size(), 5);
+        final Pagination<TagDefinitionModelDao> secondPage = tagDefinitionDao.get(firstPage.getNextOffset(), 5L, internalCallContext);
+        Assert.assertEquals(ImmutableList.<TagDefinitionModelDao>copyOf(secondPage).size(), 5);
+        Assert.assertNotNull(secondPage.getNextOffset());
+        final Pagination<TagDefinitionModelDao> thirdPage = tagDefinitionDao.get(secondPage.getNextOffset(), 5L, internalCallContext);
+        Assert.assertEquals(ImmutableList.<TagDefinitionModelDao>copyOf(thirdPage).size(), 0);
+        Assert.assertNull(thirdPage.getNextOffset());
+
+        // Cursors are opaque: forged or tampered ones are rejected
+        final Long lastRecordId = ImmutableList.<TagDefinitionModelDao>copyOf(tagDefinitionDao.get(DefaultPaginationSqlDaoHelper.FIRST_SEEK_OFFSET, 5L, internalCallContext)).get(4).getRecordId();
+        Assert.assertNotEquals(firstPage.getNextOffset(), DefaultPaginationSqlDaoHelper.FIRST_SEEK_OFFSET - lastRecordId);
+        for (final Long invalidOffset : ImmutableList.<Long>of(DefaultPaginationSqlDaoHelper.FIRST_SEEK_OFFSET - lastRecordId, firstPage.getNextOffset() - 1, Long.MIN_VALUE)) {
+            try {
+                tagDefinitionDao.get(invalidOffset, 5L, internalCallContext);
+                Assert.fail("Invalid offset " + invalidOffset);
+            } catch (final IllegalArgumentException ignored) {
+            }
+        }
+    }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014-2017 Groupon, Inc
+ * Copyright 2014-2017 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.util.entity.dao;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.util.UtilTestSuiteWithEmbeddedDB;
+import org.killbill.billing.util.api.AuditLevel;
+import org.killbill.billing.util.audit.AuditLog;
+import org.killbill.billing.util.audit.ChangeType;
+import org.killbill.billing.util.cache.Cachable.CacheType;
+import org.killbill.billing.util.cache.CacheController;
+import org.killbill.billing.util.customfield.dao.CustomFieldModelDao;
+import org.killbill.billing.util.customfield.dao.CustomFieldSqlDao;
+import org.killbill.billing.util.dao.TableName;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.TimingCollector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestEntitySqlDaoWrapperInvocationHandler extends UtilTestSuiteWithEmbeddedDB {
+
+    private static final Logger logger = LoggerFactory.getLogger(TestEntitySqlDaoWrapperInvocationHandler.class);
+
+    private EntitySqlDaoTransactionalJdbiWrapper transactionalSqlDao;
+
+    @BeforeMethod(groups = "slow")
+    public void setUp() throws Exception {
+        transactionalSqlDao = new EntitySqlDaoTransactionalJdbiWrapper(dbi, clock, controlCacheDispatcher, nonEntityDao, internalCallContextFactory);
+    }
+
+    @Test(groups = "slow")
+    public void testBatchCreateHistoryAndAudits() throws Exception {
+        final List<CustomFieldModelDao> customFields = createCustomFields(20, true);
+
+        for (final CustomFieldModelDao customField : customFields) {
+            final List<AuditLog> auditLogs = auditDao.getAuditLogsForId(TableName.CUSTOM_FIELD, customField.getId(), AuditLevel.FULL, internalCallContext);
+            Assert.assertEquals(auditLogs.size(), 1);
+            Assert.assertEquals(auditLogs.get(0).getChangeType(), ChangeType.INSERT);
+            Assert.assertEquals(auditLogs.get(0).getUserToken(), internalCallContext.getUserToken().toString());
+            Assert.assertEquals(auditLogs.get(0).getComment(), internalCallContext.getComments());
+            Assert.assertEquals(auditLogs.get(0).getReasonCode(), internalCallContext.getReasonCode());
+            Assert.assertEquals(auditLogs.get(0).getUserName(), internalCallContext.getCreatedBy());
+        }
+
+        final Handle handle = dbi.open();
+        try {
+            final List<Map<String, Object>> history = handle.select("select h.target_record_id, h.field_name, h.change_type from custom_field_history h join custom_fields t on t.record_id = h.target_record_id order by h.record_id asc");
+            Assert.assertEquals(history.size(), customFields.size());
+            for (int i = 0; i < customFields.size(); i++) {
+                // History rows are inserted in the same order as the batch
+                Assert.assertEquals(history.get(i).get("field_name"), customFields.get(i).getFieldName());
+                Assert.assertEquals(history.get(i).get("change_type"), ChangeType.INSERT.toString());
+            }
+        } finally {
+            handle.close();
+        }
+    }
+
+    @Test(groups = "slow", description = "Compare the number of round trips to the database between single and batch creates")
+    public void testRoundTripsPerBatch() throws Exception {
+        final int singleSmall = countRoundTrips(10, false);
+        final int singleLarge = countRoundTrips(100, false);
+        final int batchSmall = countRoundTrips(10, true);
+        final int batchLarge = countRoundTrips(100, true);
+
+        logger.info("Round trips for 10 entities: single={}, batch={}", singleSmall, batchSmall);
+        logger.info("Round trips for 100 entities: single={}, batch={}", singleLarge, batchLarge);
+
+        // Single creates scale linearly (create, getById, addHistoryFromTransaction and insertAuditFromTransaction per entity)...
+        Assert.assertEquals(singleLarge, 10 * singleSmall);
+        // ...while the batch path is constant
+        Assert.assertEquals(batchLarge, batchSmall);
+        Assert.assertTrue(batchSmall < singleSmall);
+    }
+
+    @Test(groups = "slow", description = "The ids of the entities written in batch are cached, so that the bulk NonEntityDao lookups don't hit the database")
+    public void testBatchCreatePopulatesIdCaches() throws Exception {
+        final List<CustomFieldModelDao> customFields = createCustomFields(20, true);
+        final List<UUID> customFieldIds = new LinkedList<UUID>();
+        for (final CustomFieldModelDao customField : customFields) {
+            customFieldIds.add(customField.getId());
+        }
+
+        final CacheController<String, Long> recordIdCacheController = controlCacheDispatcher.getCacheController(CacheType.RECORD_ID);
+        final CacheController<String, Long> accountRecordIdCacheController = controlCacheDispatcher.getCacheController(CacheType.ACCOUNT_RECORD_ID);
+        final Map<UUID, Long> recordIds = new HashMap<UUID, Long>();
+        final Map<UUID, Long> accountRecordIds = new HashMap<UUID, Long>();
+        final int roundTrips = countRoundTrips(new Runnable() {
+            @Override
+            public void run() {
+                recordIds.putAll(nonEntityDao.retrieveRecordIdsFromObjects(customFieldIds, ObjectType.CUSTOM_FIELD, recordIdCacheController));
+                accountRecordIds.putAll(nonEntityDao.retrieveAccountRecordIdsFromObjects(customFieldIds, ObjectType.CUSTOM_FIELD, accountRecordIdCacheController));
+            }
+        });
+        Assert.assertEquals(roundTrips, 0);
+
+        // Same as in the database
+        Assert.assertEquals(recordIds, nonEntityDao.retrieveRecordIdsFromObjects(customFieldIds, ObjectType.CUSTOM_FIELD, null));
+        Assert.assertEquals(accountRecordIds, nonEntityDao.retrieveAccountRecordIdsFromObjects(customFieldIds, ObjectType.CUSTOM_FIELD, null));
+    }
+
+    private int countRoundTrips(final int nbEntities, final boolean batch) throws Exception {
+        return countRoundTrips(new Runnable() {
+            @Override
+            public void run() {
+                createCustomFields(nbEntities, batch);
+            }
+        });
+    }
+
+    private int countRoundTrips(final Runnable runnable) throws Exception {
+        final DBI rawDBI = (DBI) dbi;
+        final TimingCollector originalTimingCollector = rawDBI.getTimingCollector();
+        final AtomicInteger roundTrips = new AtomicInteger();
+        // Ignore queries from other threads (e.g. bus and notification queue polling)
+        final Thread testThread = Thread.currentThread();
+        rawDBI.setTimingCollector(new TimingCollector() {
+            @Override
+            public void collect(final long elapsedTime, final StatementContext ctx) {
+                if (Thread.currentThread() == testThread) {
+                    roundTrips.incrementAndGet();
+                }
+                originalTimingCollector.collect(elapsedTime, ctx);
+            }
+        });
+        try {
+            runnable.run();
+        } finally {
+            rawDBI.setTimingCollector(originalTimingCollector);
+        }
+        return roundTrips.get();
+    }
+
+    private List<CustomFieldModelDao> createCustomFields(final int nbEntities, final boolean batch) {
+        final UUID objectId = UUID.randomUUID();
+        final List<CustomFieldModelDao> customFields = new LinkedList<CustomFieldModelDao>();
+        for (int i = 0; i < nbEntities; i++) {
+            customFields.add(new CustomFieldModelDao(clock.getUTCNow(), "field-" + i, "value-" + i, objectId, ObjectType.ACCOUNT));
+        }
+
+        transactionalSqlDao.execute(new EntitySqlDaoTransactionWrapper<Void>() {
+            @Override
+            public Void inTransaction(final EntitySqlDaoWrapperFactory entitySqlDaoWrapperFactory) throws Exception {
+                final CustomFieldSqlDao customFieldSqlDao = entitySqlDaoWrapperFactory.become(CustomFieldSqlDao.class);
+                if (batch) {
+                    customFieldSqlDao.create(customFields, internalCallContext);
+                } else {
+                    for (final CustomFieldModelDao customField : customFields) {
+                        customFieldSqlDao.create(customField, internalCallContext);
+                    }
+                }
+                return null;
+            }
+        });
+        return customFields;
+    }
+}
@@ -18,8 +18,13 @@
 
 package org.killbill.billing.util.export.dao;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.skife.jdbi.v2.Handle;
@@ -30,6 +35,7 @@ import org.testng.annotations.Test;
 
 import org.killbill.billing.util.UtilTestSuiteWithEmbeddedDB;
 import org.killbill.billing.util.api.DatabaseExportOutputStream;
+import org.killbill.billing.util.export.dao.BinaryExportOutputStream.Compression;
 import org.killbill.billing.util.validation.dao.DatabaseSchemaDao;
 
 import com.ning.compress.lzf.LZFEncoder;
@@ -96,6 +102,144 @@ public class TestDatabaseExportDao extends UtilTestSuiteWithEmbeddedDB {
 
     }
 
+    @Test(groups = "slow")
+    public void testBinaryExport() throws Exception {
+        final String tableName = "test_database_export_dao_c";
+        dbi.withHandle(new HandleCallback<Void>() {
+            @Override
+            public Void withHandle(final Handle handle) throws Exception {
+                handle.execute("drop table if exists " + tableName);
+                handle.execute("create table " + tableName + "(record_id serial unique," +
+                               "string_column varchar(255)," +
+                               "decimal_column numeric(15,9)," +
+                               "datetime_column datetime," +
+                               "date_column date," +
+                               "bool_column bool," +
+                               "blob_column mediumblob," +
+                               "account_record_id bigint /*! unsigned */ not null," +
+                               "tenant_record_id bigint /*! unsigned */ not null default 0," +
+                               "primary key(record_id));");
+                for (int i = 0; i < 10; i++) {
+                    handle.execute("insert into " + tableName + " (string_column, decimal_column, datetime_column, date_column, bool_column, blob_column, account_record_id, tenant_record_id) values (?, ?, ?, ?, ?, ?, ?, ?)",
+                                   "été-" + i, new BigDecimal("12.5").add(new BigDecimal(i)), new Date(382910622000L + i * 1000L), new java.sql.Date(12421982000L), i % 2 == 0, new byte[]{'c', 'a', 'f', (byte) i},
+                                   internalCallContext.getAccountRecordId(), internalCallContext.getTenantRecordId());
+                }
+                // Null values
+                handle.execute("insert into " + tableName + " (account_record_id, tenant_record_id) values (?, ?)",
+                               internalCallContext.getAccountRecordId(), internalCallContext.getTenantRecordId());
+                return null;
+            }
+        });
+
+        try {
+            final String dump = getDump();
+            Assert.assertTrue(dump.startsWith("-- " + tableName));
+
+            for (final Compression compression : Compression.values()) {
+                final ByteArrayOutputStream binaryDump = new ByteArrayOutputStream();
+                final BinaryExportOutputStream out = new BinaryExportOutputStream(Channels.newChannel(binaryDump), compression);
+                dao.exportDataForAccount(out, internalCallContext);
+                out.close();
+
+                final DatabaseExportOutputStream decodedDump = new CSVExportOutputStream(new ByteArrayOutputStream());
+                final BinaryExportInputStream in = new BinaryExportInputStream(Channels.newChannel(new ByteArrayInputStream(binaryDump.toByteArray())), compression);
+                in.readInto(decodedDump);
+                in.close();
+
+                Assert.assertEquals(decodedDump.toString(), dump);
+            }
+        } finally {
+            // Other tests expect an empty database
+            dbi.withHandle(new HandleCallback<Void>() {
+                @Override
+                public Void withHandle(final Handle handle) throws Exception {
+                    handle.execute("drop table if exists " + tableName);
+                    return null;
+                }
+            });
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testBinaryImportIntoPopulatedDatabase() throws Exception {
+        final String tableName = "test_database_export_dao_d";
+        final String accountId = UUID.randomUUID().toString();
+        final Long sourceAccountRecordId = internalCallContext.getAccountRecordId();
+        dbi.withHandle(new HandleCallback<Void>() {
+            @Override
+            public Void withHandle(final Handle handle) throws Exception {
+                handle.execute("drop table if exists " + tableName);
+                handle.execute("create table " + tableName + "(record_id serial unique," +
+                               "string_column varchar(255)," +
+                               "account_record_id bigint /*! unsigned */ not null," +
+                               "tenant_record_id bigint /*! unsigned */ not null default 0," +
+                               "primary key(record_id));");
+                handle.execute("insert into accounts (record_id, id, email, name, first_name_length, is_notified_for_invoices, created_date, created_by, updated_date, updated_by, tenant_record_id) " +
+                               "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                               sourceAccountRecordId, accountId, "a@b", "name", 4, false, new Date(12421982000L), "test", new Date(12421982000L), "test", internalCallContext.getTenantRecordId());
+                handle.execute("insert into audit_log (id, target_record_id, table_name, change_type, created_date, created_by, account_record_id, tenant_record_id) values (?, ?, ?, ?, ?, ?, ?, ?)",
+                               UUID.randomUUID().toString(), sourceAccountRecordId, "ACCOUNT", "INSERT", new Date(12421982000L), "test", sourceAccountRecordId, internalCallContext.getTenantRecordId());
+                for (int i = 0; i < 3; i++) {
+                    handle.execute("insert into " + tableName + " (string_column, account_record_id, tenant_record_id) values (?, ?, ?)",
+                                   "row-" + i, sourceAccountRecordId, internalCallContext.getTenantRecordId());
+                }
+                return null;
+            }
+        });
+
+        try {
+            final ByteArrayOutputStream binaryDump = new ByteArrayOutputStream();
+            final BinaryExportOutputStream out = new BinaryExportOutputStream(Channels.newChannel(binaryDump), Compression.GZIP);
+            dao.exportDataForAccount(out, internalCallContext);
+            out.close();
+
+            // Only the account is removed: the record ids of the exported rows are still used in the target database
+            dbi.withHandle(new HandleCallback<Void>() {
+                @Override
+                public Void withHandle(final Handle handle) throws Exception {
+                    handle.execute("delete from audit_log");
+                    handle.execute("delete from accounts");
+                    return null;
+                }
+            });
+
+            final BinaryExportInputStream in = new BinaryExportInputStream(Channels.newChannel(new ByteArrayInputStream(binaryDump.toByteArray())), Compression.GZIP);
+            importDao.importData(in, internalCallContext);
+            in.close();
+
+            dbi.withHandle(new HandleCallback<Void>() {
+                @Override
+                public Void withHandle(final Handle handle) throws Exception {
+                    final Long newAccountRecordId = ((Number) handle.createQuery("select record_id from accounts where id = :id").bind("id", accountId).first().get("record_id")).longValue();
+                    // The rows are imported with new record ids, pointing to the new account
+                    final List<Map<String, Object>> rows = handle.createQuery("select record_id, string_column from " + tableName + " where account_record_id = :accountRecordId order by record_id")
+                                                                 .bind("accountRecordId", newAccountRecordId)
+                                                                 .list();
+                    Assert.assertEquals(rows.size(), 3);
+                    for (int i = 0; i < 3; i++) {
+                        Assert.assertEquals(rows.get(i).get("string_column"), "row-" + i);
+                        Assert.assertTrue(((Number) rows.get(i).get("record_id")).longValue() > 3);
+                    }
+
+                    final Map<String, Object> auditLog = handle.createQuery("select target_record_id from audit_log where account_record_id = :accountRecordId")
+                                                               .bind("accountRecordId", newAccountRecordId)
+                                                               .first();
+                    Assert.assertEquals(((Number) auditLog.get("target_record_id")).longValue(), (long) newAccountRecordId);
+                    return null;
+                }
+            });
+        } finally {
+            // Other tests expect an empty database
+            dbi.withHandle(new HandleCallback<Void>() {
+                @Override
+                public Void withHandle(final Handle handle) throws Exception {
+                    handle.execute("drop table if exists " + tableName);
+                    return null;
+                }
+            });
+        }
+    }
+
     private String getDump() {
         final DatabaseExportOutputStream out = new CSVExportOutputStream(new ByteArrayOutputStream());
         dao.exportDataForAccount(out, internalCallContext);
@@ -17,10 +17,12 @@
 package org.killbill.billing.util.tag.dao;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import org.killbill.billing.ObjectType;
@@ -34,6 +36,7 @@ import org.killbill.billing.util.tag.Tag;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 
 public class MockTagDao extends MockEntityDaoBase<TagModelDao, Tag, TagApiException> implements TagDao {
 
@@ -88,7 +91,16 @@ public class MockTagDao extends MockEntityDaoBase<TagModelDao, Tag, TagApiExcept
 
     @Override
     public List<TagModelDao> getTagsForAccountType(final ObjectType objectType, final boolean includedDeleted, final InternalTenantContext internalTenantContext) {
-        throw new UnsupportedOperationException();
+        final List<TagModelDao> result = new ArrayList<TagModelDao>();
+        for (final List<TagModelDao> tags : tagStore.values()) {
+            result.addAll(Collections2.filter(tags, new Predicate<TagModelDao>() {
+                @Override
+                public boolean apply(final TagModelDao input) {
+                    return objectType.equals(input.getObjectType());
+                }
+            }));
+        }
+        return result;
     }
 
     @Override
@@ -96,6 +108,22 @@ public class MockTagDao extends MockEntityDaoBase<TagModelDao, Tag, TagApiExcept
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public List<TagModelDao> getTagsForAccountsType(final Collection<Long> accountRecordIds, final ObjectType objectType, final InternalTenantContext internalTenantContext) {
+        return getTagsForAccountType(objectType, false, internalTenantContext);
+    }
+
+    @Override
+    public Set<Long> getAccountRecordIdsWithTag(final Collection<Long> accountRecordIds, final ObjectType objectType, final UUID tagDefinitionId, final InternalTenantContext internalTenantContext) {
+        final ImmutableSet.Builder<Long> result = ImmutableSet.builder();
+        for (final TagModelDao tag : getTagsForAccountType(objectType, false, internalTenantContext)) {
+            if (tag.getTagDefinitionId().equals(tagDefinitionId) && accountRecordIds.contains(tag.getAccountRecordId())) {
+                result.add(tag.getAccountRecordId());
+            }
+        }
+        return result.build();
+    }
+
     public void clear() {
         tagStore.clear();
     }